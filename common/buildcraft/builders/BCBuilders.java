@@ -12,6 +12,7 @@ import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppedEvent;
 import net.minecraftforge.fml.common.network.NetworkRegistry;
 import net.minecraftforge.fml.relauncher.Side;
 
@@ -23,6 +24,7 @@ import buildcraft.lib.registry.TagManager.TagEntry;
 
 import buildcraft.builders.snapshot.GlobalSavedDataSnapshots;
 import buildcraft.builders.snapshot.RulesLoader;
+import buildcraft.builders.snapshot.ServerSnapshotTransfers;
 import buildcraft.core.BCCore;
 
 //@formatter:off
@@ -75,6 +77,13 @@ public class BCBuilders {
         GlobalSavedDataSnapshots.reInit(Side.SERVER);
     }
 
+    @Mod.EventHandler
+    public static void onServerStopped(FMLServerStoppedEvent event) {
+        // Snapshots are saved in the background, so make sure they are all written before the game can exit
+        GlobalSavedDataSnapshots.waitForPendingIo();
+        ServerSnapshotTransfers.INSTANCE.clear();
+    }
+
     static {
         startBatch();
         // Items
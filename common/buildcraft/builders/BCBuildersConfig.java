@@ -9,10 +9,22 @@ package buildcraft.builders;
 import net.minecraftforge.common.config.Property;
 
 import buildcraft.lib.config.EnumRestartRequirement;
+import buildcraft.lib.misc.ConfigUtil;
 
 import buildcraft.core.BCCoreConfig;
 
 public class BCBuildersConfig {
+    public enum QuarryMiningOrder {
+        /** Every layer is mined in rows, all going in the same direction. */
+        ROWS,
+        /** Every layer is mined in rows that alternate direction, so the drill never has to go back across the area
+         * at the end of a row. */
+        SERPENTINE;
+
+        public static final QuarryMiningOrder DEFAULT = ROWS;
+        public static final QuarryMiningOrder[] VALUES = values();
+    }
+
     /** Blueprints that save larger than this are stored externally, smaller ones are stored directly in the item. */
     public static int bptStoreExternalThreshold = 20_000;
 
@@ -23,9 +35,24 @@ public class BCBuildersConfig {
      * drill. */
     public static boolean quarryFrameMoveBoth;
 
+    /** The order that quarries mine each layer in. */
+    public static QuarryMiningOrder quarryMiningOrder = QuarryMiningOrder.DEFAULT;
+
+    /** The maximum number of tasks (breaking a block, moving the drill, etc) that a quarry can finish in a single
+     * tick. Anything above 1 enables the "high throughput" mode, where quarries with more than half of their battery
+     * full will carry on to the next task in the same tick. */
+    public static int quarryMaxTasksPerTick = 1;
+
+    /** The maximum amount of memory (in megabytes) that loaded snapshots can take up before the least recently used
+     * ones are dropped from the cache. */
+    public static int snapshotCacheSizeMb = 64;
+
     private static Property propBptStoreExternalThreshold;
     private static Property propQuarryFrameMinHeight;
     private static Property propQuarryFrameMoveBoth;
+    private static Property propQuarryMiningOrder;
+    private static Property propQuarryMaxTasksPerTick;
+    private static Property propSnapshotCacheSizeMb;
 
     public static void preInit() {
         EnumRestartRequirement none = EnumRestartRequirement.NONE;
@@ -43,6 +70,22 @@ public class BCBuildersConfig {
         propQuarryFrameMoveBoth.setComment("If true then the quarry frame will move with both of its axis rather than just one.");
         none.setTo(propQuarryFrameMoveBoth);
 
+        propQuarryMiningOrder = BCCoreConfig.config.get("general", "quarryMiningOrder", "rows");
+        propQuarryMiningOrder.setComment("The order that quarries mine each layer in. \"serpentine\" alternates the direction of each row, which means that the drill has to travel less.");
+        ConfigUtil.setEnumProperty(propQuarryMiningOrder, QuarryMiningOrder.VALUES);
+        none.setTo(propQuarryMiningOrder);
+
+        propQuarryMaxTasksPerTick = BCCoreConfig.config.get("experimental", "quarryMaxTasksPerTick", 1);
+        propQuarryMaxTasksPerTick.setComment("The maximum number of blocks (or drill moves) that a quarry can do in a single tick. Values above 1 let quarries with lots of spare power mine faster.");
+        propQuarryMaxTasksPerTick.setMinValue(1);
+        propQuarryMaxTasksPerTick.setMaxValue(64);
+        none.setTo(propQuarryMaxTasksPerTick);
+
+        propSnapshotCacheSizeMb = BCCoreConfig.config.get("general", "snapshotCacheSizeMb", 64);
+        propSnapshotCacheSizeMb.setComment("The (approximate) amount of memory, in megabytes, that loaded blueprints and templates can take up before the least recently used ones are unloaded.");
+        propSnapshotCacheSizeMb.setMinValue(1);
+        EnumRestartRequirement.WORLD.setTo(propSnapshotCacheSizeMb);
+
         reloadConfig(EnumRestartRequirement.GAME);
         BCCoreConfig.addReloadListener(BCBuildersConfig::reloadConfig);
     }
@@ -51,5 +94,10 @@ public class BCBuildersConfig {
         bptStoreExternalThreshold = propBptStoreExternalThreshold.getInt();
         quarryFrameMinHeight = propQuarryFrameMinHeight.getInt();
         quarryFrameMoveBoth = propQuarryFrameMoveBoth.getBoolean();
+        quarryMiningOrder = ConfigUtil.parseEnumForConfig(propQuarryMiningOrder, QuarryMiningOrder.DEFAULT);
+        quarryMaxTasksPerTick = Math.max(1, propQuarryMaxTasksPerTick.getInt());
+        if (EnumRestartRequirement.WORLD.hasBeenRestarted(restarted)) {
+            snapshotCacheSizeMb = Math.max(1, propSnapshotCacheSizeMb.getInt());
+        }
     }
 }
@@ -24,6 +24,7 @@ import net.minecraftforge.client.event.RenderTooltipEvent;
 import net.minecraftforge.event.world.GetCollisionBoxesEvent;
 import net.minecraftforge.fml.client.config.GuiUtils;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
@@ -35,6 +36,7 @@ import buildcraft.builders.client.ClientArchitectTables;
 import buildcraft.builders.item.ItemSchematicSingle;
 import buildcraft.builders.snapshot.Blueprint;
 import buildcraft.builders.snapshot.ClientSnapshots;
+import buildcraft.builders.snapshot.ServerSnapshotTransfers;
 import buildcraft.builders.snapshot.Snapshot;
 import buildcraft.builders.snapshot.Snapshot.Header;
 import buildcraft.builders.tile.TileQuarry;
@@ -92,6 +94,11 @@ public enum BCBuildersEventDist {
         }
     }
 
+    @SubscribeEvent
+    public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        ServerSnapshotTransfers.INSTANCE.onPlayerLoggedOut(event.player);
+    }
+
     @SubscribeEvent
     @SideOnly(Side.CLIENT)
     public void onRenderTooltipPostText(RenderTooltipEvent.PostText event) {
@@ -38,6 +38,8 @@ import buildcraft.builders.gui.GuiElectronicLibrary;
 import buildcraft.builders.gui.GuiFiller;
 import buildcraft.builders.gui.GuiFillerPlanner;
 import buildcraft.builders.gui.GuiReplacer;
+import buildcraft.builders.snapshot.MessageSnapshotAck;
+import buildcraft.builders.snapshot.MessageSnapshotChunk;
 import buildcraft.builders.snapshot.MessageSnapshotRequest;
 import buildcraft.builders.snapshot.MessageSnapshotResponse;
 import buildcraft.builders.tile.TileArchitectTable;
@@ -102,6 +104,8 @@ public abstract class BCBuildersProxy implements IGuiHandler {
     public void fmlPreInit() {
         MessageManager.registerMessageClass(BCModules.BUILDERS, MessageSnapshotRequest.class, MessageSnapshotRequest.HANDLER, Side.SERVER);
         MessageManager.registerMessageClass(BCModules.BUILDERS, MessageSnapshotResponse.class, Side.CLIENT);
+        MessageManager.registerMessageClass(BCModules.BUILDERS, MessageSnapshotChunk.class, Side.CLIENT);
+        MessageManager.registerMessageClass(BCModules.BUILDERS, MessageSnapshotAck.class, MessageSnapshotAck.HANDLER, Side.SERVER);
     }
 
     public void fmlInit() {
@@ -167,6 +171,7 @@ public abstract class BCBuildersProxy implements IGuiHandler {
             RenderQuarry.init();
 
             MessageManager.setHandler(MessageSnapshotResponse.class, MessageSnapshotResponse.HANDLER, Side.CLIENT);
+            MessageManager.setHandler(MessageSnapshotChunk.class, MessageSnapshotChunk.HANDLER, Side.CLIENT);
         }
 
         @Override
@@ -49,12 +49,10 @@ public class GuiElectronicLibrary extends GuiBC8<ContainerElectronicLibrary> {
     }
 
     private void onDelButtonClick(IButtonClickEventTrigger button, int buttonKey) {
-        if (container.tile.selected != null) {
-            Snapshot snapshot = getSnapshots().getSnapshot(container.tile.selected);
-            if (snapshot != null) {
-                container.sendSelectedToServer(null);
-                getSnapshots().removeSnapshot(snapshot.key);
-            }
+        Snapshot.Key selected = container.tile.selected;
+        if (getSnapshots().hasSnapshot(selected)) {
+            container.sendSelectedToServer(null);
+            getSnapshots().removeSnapshot(selected);
         }
     }
 
@@ -73,7 +71,7 @@ public class GuiElectronicLibrary extends GuiBC8<ContainerElectronicLibrary> {
             String text = header == null ? key.toString() : header.name;
             drawString(fontRenderer, text, rect.x, rect.y, colour);
         });
-        delButton.enabled = getSnapshots().getSnapshot(container.tile.selected) != null;
+        delButton.enabled = getSnapshots().hasSnapshot(container.tile.selected);
     }
 
     private GlobalSavedDataSnapshots getSnapshots() {
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.builders.quarry;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import net.minecraftforge.fluids.Fluid;
+
+import buildcraft.api.core.IBox;
+
+import buildcraft.lib.misc.BlockUtil;
+
+import buildcraft.builders.BCBuildersConfig.QuarryMiningOrder;
+
+/** Keeps track of the next block that a quarry should mine in every column of its mining box, so that the quarry
+ * doesn't have to probe every (mostly air) position in the box to find the next one.
+ * <p>
+ * Every column holds the y value of its "surface": the highest block that the drill can't move through. Columns are
+ * bucketed by their surface, so the next target is always in the highest non-empty layer. Whole chunk sections that
+ * are empty are skipped when scanning down a column, and the block states are read directly from the section storage.
+ * <p>
+ * The owner must call {@link #onBlockChanged(BlockPos)} whenever a block in the mining box changes. As a fallback for
+ * changes that don't notify listeners every target is checked against the world before it is returned. */
+public class QuarryMiningPlanner {
+    private static final int NO_SURFACE = Integer.MIN_VALUE;
+
+    private final World world;
+    private final int minX, minY, minZ;
+    private final int maxX, maxY, maxZ;
+    private final int sizeX;
+    private final QuarryMiningOrder order;
+
+    /** The y value of the surface of every column, or {@link #NO_SURFACE} if it has been mined all the way down. */
+    private final int[] surfaces;
+    /** Every layer (indexed by y - minY) holds the columns that have their surface at that layer. */
+    private final BitSet[] layers;
+    /** The highest layer that might contain a column. Only ever moves down, unless a block is placed above it. */
+    private int topLayer = -1;
+    private boolean built = false;
+
+    private final BlockPos.MutableBlockPos mutablePos = new BlockPos.MutableBlockPos();
+
+    public QuarryMiningPlanner(World world, IBox miningBox, QuarryMiningOrder order) {
+        this.world = world;
+        this.order = order;
+        BlockPos min = miningBox.min();
+        BlockPos max = miningBox.max();
+        minX = min.getX();
+        minY = min.getY();
+        minZ = min.getZ();
+        maxX = max.getX();
+        maxY = max.getY();
+        maxZ = max.getZ();
+        sizeX = maxX - minX + 1;
+        surfaces = new int[sizeX * (maxZ - minZ + 1)];
+        layers = new BitSet[maxY - minY + 1];
+    }
+
+    public static boolean canMine(World world, BlockPos pos) {
+        if (world.getBlockState(pos).getBlockHardness(world, pos) < 0) {
+            return false;
+        }
+        Fluid fluid = BlockUtil.getFluidWithFlowing(world, pos);
+        return fluid == null || fluid.getViscosity() <= 1000;
+    }
+
+    public static boolean canMoveThrough(World world, BlockPos pos) {
+        if (world.isAirBlock(pos)) {
+            return true;
+        }
+        Fluid fluid = BlockUtil.getFluidWithFlowing(world, pos);
+        return fluid != null && fluid.getViscosity() <= 1000;
+    }
+
+    /** Columns are indexed from the max corner, with x changing fastest. This matches the order that the quarry used
+     * to iterate through its mining box in. */
+    private int getColumn(int x, int z) {
+        return (maxZ - z) * sizeX + (maxX - x);
+    }
+
+    private int getX(int column) {
+        return maxX - column % sizeX;
+    }
+
+    private int getZ(int column) {
+        return maxZ - column / sizeX;
+    }
+
+    private void build() {
+        Arrays.fill(surfaces, NO_SURFACE);
+        Arrays.fill(layers, null);
+        topLayer = -1;
+        for (int column = 0; column < surfaces.length; column++) {
+            scanColumn(column, maxY);
+        }
+        built = true;
+    }
+
+    /** Finds the surface of the given column, starting at (and including) the given y value. */
+    private void scanColumn(int column, int fromY) {
+        int x = getX(column);
+        int z = getZ(column);
+        Chunk chunk = world.getChunkFromBlockCoords(mutablePos.setPos(x, fromY, z));
+        ExtendedBlockStorage[] sections = chunk.getBlockStorageArray();
+        int y = fromY;
+        while (y >= minY) {
+            int index = y >> 4;
+            ExtendedBlockStorage section = index >= 0 && index < sections.length ? sections[index] : null;
+            if (section == Chunk.NULL_BLOCK_STORAGE || section.isEmpty()) {
+                // Only air in this section
+                y = (y & ~15) - 1;
+                continue;
+            }
+            IBlockState state = section.get(x & 15, y & 15, z & 15);
+            mutablePos.setPos(x, y, z);
+            if (!state.getBlock().isAir(state, world, mutablePos) && !canMoveThrough(world, mutablePos)) {
+                setSurface(column, y, !canMine(world, mutablePos));
+                return;
+            }
+            y--;
+        }
+        setSurface(column, NO_SURFACE, false);
+    }
+
+    /** @param isBlocked True if the surface can't be mined (for example bedrock), so the column is finished. */
+    private void setSurface(int column, int y, boolean isBlocked) {
+        int oldY = surfaces[column];
+        if (oldY != NO_SURFACE && layers[oldY - minY] != null) {
+            layers[oldY - minY].clear(column);
+        }
+        surfaces[column] = y;
+        if (y != NO_SURFACE && !isBlocked) {
+            int layer = y - minY;
+            if (layers[layer] == null) {
+                layers[layer] = new BitSet(surfaces.length);
+            }
+            layers[layer].set(column);
+            if (layer > topLayer) {
+                topLayer = layer;
+            }
+        }
+    }
+
+    /** Updates the column that contains the given position. This only looks at the world if the change could have
+     * affected the column's surface. */
+    public void onBlockChanged(BlockPos pos) {
+        if (!built) {
+            return;
+        }
+        int x = pos.getX();
+        int y = pos.getY();
+        int z = pos.getZ();
+        if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+            return;
+        }
+        int column = getColumn(x, z);
+        int surface = surfaces[column];
+        if (y > surface) {
+            if (!canMoveThrough(world, pos)) {
+                setSurface(column, y, !canMine(world, pos));
+            }
+        } else if (y == surface) {
+            if (canMoveThrough(world, pos)) {
+                scanColumn(column, y - 1);
+            } else {
+                setSurface(column, y, !canMine(world, pos));
+            }
+        }
+        // Otherwise the change was underneath the surface, so the drill can't get to it yet anyway
+    }
+
+    /** @return The next position that the quarry should mine, or null if there is nothing left to mine. */
+    @Nullable
+    public BlockPos getNextTarget() {
+        if (!built) {
+            build();
+        }
+        while (topLayer >= 0) {
+            BitSet layer = layers[topLayer];
+            int column = layer == null ? -1 : pickColumn(layer);
+            if (column < 0) {
+                topLayer--;
+                continue;
+            }
+            BlockPos target = new BlockPos(getX(column), topLayer + minY, getZ(column));
+            if (!canMoveThrough(world, target) && canMine(world, target)) {
+                return target;
+            }
+            // Out of date: something changed without telling us
+            scanColumn(column, maxY);
+        }
+        return null;
+    }
+
+    private int pickColumn(BitSet layer) {
+        int first = layer.nextSetBit(0);
+        if (first < 0 || order != QuarryMiningOrder.SERPENTINE) {
+            return first;
+        }
+        int row = first / sizeX;
+        if ((row & 1) == 0) {
+            return first;
+        }
+        // Odd rows go backwards, so the drill doesn't have to go back to the start of every row
+        return layer.previousSetBit(row * sizeX + sizeX - 1);
+    }
+
+    /** @return The number of columns that still have something to mine in them. */
+    public int getRemainingColumns() {
+        int count = 0;
+        for (BitSet layer : layers) {
+            if (layer != null) {
+                count += layer.cardinality();
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,15 @@
+/* Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+@FieldsAreNonNullByDefault
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+package buildcraft.builders.quarry;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import buildcraft.api.FieldsAreNonNullByDefault;
+
+import mcp.MethodsReturnNonnullByDefault;
@@ -11,6 +11,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableList;
@@ -18,13 +19,11 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.nbt.NBTTagInt;
-import net.minecraft.nbt.NBTTagList;
 import net.minecraft.util.Rotation;
 import net.minecraft.util.math.BlockPos;
 
-import net.minecraftforge.common.util.Constants;
 import net.minecraftforge.fluids.FluidStack;
 
 import buildcraft.api.core.InvalidInputDataException;
@@ -38,6 +37,8 @@ public class Blueprint extends Snapshot {
     public final List<ISchematicBlock> palette = new ArrayList<>();
     public int[] data;
     public final List<ISchematicEntity> entities = new ArrayList<>();
+    /** The "data" tag while reading, until everything that it depends on has been read. */
+    private NBTBase dataTag;
 
     @Override
     public Blueprint copy() {
@@ -52,73 +53,72 @@ public class Blueprint extends Snapshot {
         return blueprint;
     }
 
+    @Override
+    public long getApproximateSize() {
+        // Schematics hold a block state, and often some tile or entity NBT
+        long size = super.getApproximateSize() + (palette.size() + entities.size()) * 512L;
+        return size + (data == null ? 0 : data.length * 4L);
+    }
+
     public void replace(ISchematicBlock from, ISchematicBlock to) {
         Collections.replaceAll(palette, from, to);
         // TODO: reallocate IDs
     }
 
     @Override
-    public NBTTagCompound serializeNBT() {
-        NBTTagCompound nbt = super.serializeNBT();
-        nbt.setTag("palette", NBTUtilBC.writeCompoundList(palette.stream().map(SchematicBlockManager::writeToNBT)));
-        NBTTagList list = new NBTTagList();
-        for (int z = 0; z < size.getZ(); z++) {
-            for (int y = 0; y < size.getY(); y++) {
-                for (int x = 0; x < size.getX(); x++) {
-                    list.appendTag(new NBTTagInt(data[posToIndex(x, y, z)]));
-                }
+    protected void writeEntries(BiConsumer<String, NBTBase> to) {
+        super.writeEntries(to);
+        to.accept("palette", NBTUtilBC.writeCompoundList(palette.stream().map(SchematicBlockManager::writeToNBT)));
+        int airIndex = -1;
+        for (int i = 0; i < palette.size(); i++) {
+            if (palette.get(i) instanceof SchematicBlockAir) {
+                airIndex = i;
+                break;
             }
         }
-        nbt.setTag("data", list);
-        nbt.setTag("entities", NBTUtilBC.writeCompoundList(entities.stream().map(SchematicEntityManager::writeToNBT)));
-        return nbt;
+        to.accept("data", BlueprintDataFormat.write(data, palette.size(), airIndex));
+        to.accept("entities", NBTUtilBC.writeCompoundList(entities.stream().map(SchematicEntityManager::writeToNBT)));
     }
 
     @Override
-    public void deserializeNBT(NBTTagCompound nbt) throws InvalidInputDataException {
-        super.deserializeNBT(nbt);
-        palette.clear();
-        for (NBTTagCompound schematicBlockTag :
-            NBTUtilBC.readCompoundList(nbt.getTag("palette")).collect(Collectors.toList())) {
-            // TODO: Allow reading blueprints partially - invalid elements should be replaced with air
-            // (Although this needs to add a "pass-through" ISchematicBlock that will store the
-            // invalid NBTTagCompound and show up in the tooltip as an error, so that we can migrate
-            // schematics through mod additions/deletions)
-            palette.add(SchematicBlockManager.readFromNBT(schematicBlockTag));
-        }
-        data = new int[Snapshot.getDataSize(size)];
-        NBTTagList serializedDataList = nbt.hasKey("data", Constants.NBT.TAG_LIST)
-            ? nbt.getTagList("data", Constants.NBT.TAG_INT)
-            : null;
-        int[] serializedDataIntArray = nbt.hasKey("data", Constants.NBT.TAG_INT_ARRAY)
-            ? nbt.getIntArray("data")
-            : null;
-        if (serializedDataIntArray == null && serializedDataList == null) {
-            throw new InvalidInputDataException("Can't read a blueprint with no data!");
-        }
-        int serializedDataLength = serializedDataList == null
-            ? serializedDataIntArray.length
-            : serializedDataList.tagCount();
-        if (serializedDataLength != getDataSize()) {
-            throw new InvalidInputDataException(
-                "Serialized data has length of " + serializedDataLength +
-                    ", but we expected " +
-                    getDataSize() + " (" + size.toString() + ")"
-            );
-        }
-        for (int z = 0; z < size.getZ(); z++) {
-            for (int y = 0; y < size.getY(); y++) {
-                for (int x = 0; x < size.getX(); x++) {
-                    data[posToIndex(x, y, z)] = serializedDataList == null
-                        ? serializedDataIntArray[posToIndex(x, y, z)]
-                        : serializedDataList.getIntAt(posToIndex(x, y, z));
+    protected void readEntry(String name, NBTBase tag) throws InvalidInputDataException {
+        switch (name) {
+            case "palette":
+                palette.clear();
+                for (NBTTagCompound schematicBlockTag :
+                    NBTUtilBC.readCompoundList(tag).collect(Collectors.toList())) {
+                    // TODO: Allow reading blueprints partially - invalid elements should be replaced with air
+                    // (Although this needs to add a "pass-through" ISchematicBlock that will store the
+                    // invalid NBTTagCompound and show up in the tooltip as an error, so that we can migrate
+                    // schematics through mod additions/deletions)
+                    palette.add(SchematicBlockManager.readFromNBT(schematicBlockTag));
                 }
-            }
+                break;
+            case "data":
+                // Decoding needs the size and the palette, which might not have been read yet
+                dataTag = tag;
+                break;
+            case "entities":
+                entities.clear();
+                for (NBTTagCompound schematicEntityTag :
+                    NBTUtilBC.readCompoundList(tag).collect(Collectors.toList())) {
+                    entities.add(SchematicEntityManager.readFromNBT(schematicEntityTag));
+                }
+                break;
+            default:
+                super.readEntry(name, tag);
+                break;
         }
-        for (NBTTagCompound schematicEntityTag :
-            NBTUtilBC.readCompoundList(nbt.getTag("entities")).collect(Collectors.toList())) {
-            entities.add(SchematicEntityManager.readFromNBT(schematicEntityTag));
+    }
+
+    @Override
+    protected void finishReading() throws InvalidInputDataException {
+        super.finishReading();
+        if (dataTag == null) {
+            throw new InvalidInputDataException("Can't read a blueprint with no data!");
         }
+        data = BlueprintDataFormat.read(dataTag, getDataSize(), palette.size());
+        dataTag = null;
     }
 
     @Override
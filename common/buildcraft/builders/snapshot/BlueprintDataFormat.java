@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.builders.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+
+import net.minecraftforge.common.util.Constants;
+
+import buildcraft.api.core.InvalidInputDataException;
+
+/** Reads and writes the "data" tag of a {@link Blueprint}: one palette index per block, in the same order as
+ * {@link Snapshot#posToIndex(int, int, int)}.
+ * <p>
+ * Older blueprints stored this as a list of int tags (or an int array), which is 4 bytes per block in the best case.
+ * The current format is a compound that holds:
+ * <ul>
+ * <li>"version": {@link #VERSION}.</li>
+ * <li>"bits": the number of bits per palette index - just enough for the size of the palette (and 0 if the palette
+ * only has one entry).</li>
+ * <li>"count": the number of packed indexes.</li>
+ * <li>"packed": the indexes, packed tightly into bytes (least significant bit first).</li>
+ * <li>"air" and "runs" (optional): if present then every index in "packed" that equals "air" stands for a run of air
+ * blocks, and the lengths of those runs are stored (in order) as var-ints in "runs". This is only used when it makes
+ * the data smaller, which is nearly always the case as most blueprints are mostly air.</li>
+ * </ul>
+ * Byte arrays are split into a list of chunks of at most {@link #CHUNK_SIZE} bytes, as the BuildCraft NBT format can
+ * only store arrays with up to 65535 elements. */
+public final class BlueprintDataFormat {
+    public static final int VERSION = 1;
+    private static final int CHUNK_SIZE = 1 << 15;
+
+    private BlueprintDataFormat() {}
+
+    /** @param data The palette indexes to write.
+     * @param paletteSize The size of the palette. Every value in data must be less than this.
+     * @param airIndex The palette index of air, or -1 if air shouldn't be run-length encoded. */
+    public static NBTTagCompound write(int[] data, int paletteSize, int airIndex) {
+        int bits = getBitsFor(paletteSize);
+
+        int[] tokens = null;
+        int tokenCount = 0;
+        byte[] runs = null;
+        if (airIndex >= 0 && airIndex < paletteSize) {
+            tokens = new int[data.length];
+            ByteArrayOutputStream runStream = new ByteArrayOutputStream();
+            for (int i = 0; i < data.length;) {
+                int value = data[i];
+                tokens[tokenCount++] = value;
+                if (value == airIndex) {
+                    int start = i;
+                    while (i < data.length && data[i] == airIndex) {
+                        i++;
+                    }
+                    writeVarInt(runStream, i - start);
+                } else {
+                    i++;
+                }
+            }
+            runs = runStream.toByteArray();
+            long plainBits = (long) data.length * bits;
+            long rleBits = (long) tokenCount * bits + runs.length * 8L;
+            if (rleBits >= plainBits) {
+                tokens = null;
+                runs = null;
+            }
+        }
+
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setInteger("version", VERSION);
+        nbt.setByte("bits", (byte) bits);
+        if (tokens == null) {
+            nbt.setInteger("count", data.length);
+            nbt.setTag("packed", writeChunks(pack(data, data.length, bits)));
+        } else {
+            nbt.setInteger("count", tokenCount);
+            nbt.setTag("packed", writeChunks(pack(tokens, tokenCount, bits)));
+            nbt.setInteger("air", airIndex);
+            nbt.setTag("runs", writeChunks(runs));
+        }
+        return nbt;
+    }
+
+    /** Reads block data that was written by {@link #write(int[], int, int)}, or by an older version of BuildCraft.
+     *
+     * @param tag The "data" tag of the blueprint.
+     * @param length The number of blocks in the blueprint.
+     * @param paletteSize The size of the palette, which (for the current format) every index is checked against. */
+    public static int[] read(NBTBase tag, int length, int paletteSize) throws InvalidInputDataException {
+        if (tag instanceof NBTTagList) {
+            NBTTagList list = (NBTTagList) tag;
+            if (list.tagCount() > 0 && list.getTagType() != Constants.NBT.TAG_INT) {
+                throw new InvalidInputDataException("Can't read a blueprint with a list of " + list.getTagType());
+            }
+            checkLength(list.tagCount(), length);
+            int[] data = new int[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = ((NBTTagInt) list.get(i)).getInt();
+            }
+            return data;
+        } else if (tag instanceof NBTTagIntArray) {
+            int[] array = ((NBTTagIntArray) tag).getIntArray();
+            checkLength(array.length, length);
+            return array.clone();
+        } else if (tag instanceof NBTTagCompound) {
+            return readPacked((NBTTagCompound) tag, length, paletteSize);
+        } else {
+            throw new InvalidInputDataException("Can't read a blueprint with no data!");
+        }
+    }
+
+    private static int[] readPacked(NBTTagCompound nbt, int length, int paletteSize)
+        throws InvalidInputDataException {
+        int version = nbt.getInteger("version");
+        if (version != VERSION) {
+            throw new InvalidInputDataException("Unknown blueprint data version " + version);
+        }
+        int bits = nbt.getByte("bits");
+        if (bits < 0 || bits > 31 || bits < getBitsFor(paletteSize)) {
+            throw new InvalidInputDataException("Invalid bits per block " + bits + " for a palette of " + paletteSize);
+        }
+        int count = nbt.getInteger("count");
+        if (count < 0 || count > length) {
+            throw new InvalidInputDataException("Invalid count " + count + " for " + length + " blocks");
+        }
+        int[] tokens = unpack(readChunks(nbt, "packed"), bits, count);
+        for (int value : tokens) {
+            if (value >= paletteSize) {
+                throw new InvalidInputDataException(
+                    "Palette index " + value + " is out of bounds (" + paletteSize + ")"
+                );
+            }
+        }
+        if (!nbt.hasKey("runs")) {
+            checkLength(count, length);
+            return tokens;
+        }
+
+        int airIndex = nbt.getInteger("air");
+        byte[] runs = readChunks(nbt, "runs");
+        int[] data = new int[length];
+        int[] runPos = { 0 };
+        int pos = 0;
+        for (int value : tokens) {
+            if (value == airIndex) {
+                int run = readVarInt(runs, runPos);
+                if (run <= 0 || run > length - pos) {
+                    throw new InvalidInputDataException("Invalid air run of " + run + " at " + pos);
+                }
+                Arrays.fill(data, pos, pos + run, airIndex);
+                pos += run;
+            } else {
+                if (pos >= length) {
+                    throw new InvalidInputDataException("Serialized data has more than " + length + " blocks");
+                }
+                data[pos++] = value;
+            }
+        }
+        checkLength(pos, length);
+        return data;
+    }
+
+    private static void checkLength(int serializedLength, int length) throws InvalidInputDataException {
+        if (serializedLength != length) {
+            throw new InvalidInputDataException(
+                "Serialized data has length of " + serializedLength + ", but we expected " + length
+            );
+        }
+    }
+
+    /** @return The number of bits needed to store every index of a palette with the given size. */
+    public static int getBitsFor(int paletteSize) {
+        return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+    }
+
+    static byte[] pack(int[] values, int count, int bits) {
+        byte[] packed = new byte[(int) (((long) count * bits + 7) / 8)];
+        if (bits == 0) {
+            return packed;
+        }
+        long mask = (1L << bits) - 1;
+        long buffer = 0;
+        int bufferBits = 0;
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            buffer |= (values[i] & mask) << bufferBits;
+            bufferBits += bits;
+            while (bufferBits >= 8) {
+                packed[pos++] = (byte) buffer;
+                buffer >>>= 8;
+                bufferBits -= 8;
+            }
+        }
+        if (bufferBits > 0) {
+            packed[pos] = (byte) buffer;
+        }
+        return packed;
+    }
+
+    static int[] unpack(byte[] packed, int bits, int count) throws InvalidInputDataException {
+        int[] values = new int[count];
+        if (bits == 0) {
+            return values;
+        }
+        if (packed.length < ((long) count * bits + 7) / 8) {
+            throw new InvalidInputDataException(
+                "Expected " + count + " values, but only got " + packed.length + " bytes"
+            );
+        }
+        long mask = (1L << bits) - 1;
+        long buffer = 0;
+        int bufferBits = 0;
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            while (bufferBits < bits) {
+                buffer |= (packed[pos++] & 0xFFL) << bufferBits;
+                bufferBits += 8;
+            }
+            values[i] = (int) (buffer & mask);
+            buffer >>>= bits;
+            bufferBits -= bits;
+        }
+        return values;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream to, int value) {
+        while ((value & ~0x7F) != 0) {
+            to.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        to.write(value);
+    }
+
+    private static int readVarInt(byte[] from, int[] pos) throws InvalidInputDataException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos[0] >= from.length) {
+                throw new InvalidInputDataException("Not enough air runs!");
+            }
+            byte b = from[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidInputDataException("Air run was too long!");
+    }
+
+    static NBTTagList writeChunks(byte[] bytes) {
+        NBTTagList list = new NBTTagList();
+        for (int start = 0; start < bytes.length; start += CHUNK_SIZE) {
+            int end = Math.min(bytes.length, start + CHUNK_SIZE);
+            list.appendTag(new NBTTagByteArray(Arrays.copyOfRange(bytes, start, end)));
+        }
+        return list;
+    }
+
+    private static byte[] readChunks(NBTTagCompound nbt, String key) throws InvalidInputDataException {
+        if (!nbt.hasKey(key, Constants.NBT.TAG_LIST)) {
+            throw new InvalidInputDataException("Missing " + key);
+        }
+        return readChunks(nbt.getTagList(key, Constants.NBT.TAG_BYTE_ARRAY));
+    }
+
+    static byte[] readChunks(NBTTagList list) throws InvalidInputDataException {
+        if (list.tagCount() > 0 && list.getTagType() != Constants.NBT.TAG_BYTE_ARRAY) {
+            throw new InvalidInputDataException("Can't read a list of " + list.getTagType() + " as bytes");
+        }
+        int total = 0;
+        for (int i = 0; i < list.tagCount(); i++) {
+            total += ((NBTTagByteArray) list.get(i)).getByteArray().length;
+        }
+        byte[] bytes = new byte[total];
+        int pos = 0;
+        for (int i = 0; i < list.tagCount(); i++) {
+            byte[] chunk = ((NBTTagByteArray) list.get(i)).getByteArray();
+            System.arraycopy(chunk, 0, bytes, pos, chunk.length);
+            pos += chunk.length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.builders.snapshot;
+
+import java.util.Arrays;
+
+/** The orders that a {@link SnapshotBuilder} breaks, places and checks the blocks of its box in. Every order is an array
+ * of snapshot indexes.
+ * <p>
+ * These are computed from plain index arithmetic (without creating a {@link net.minecraft.util.math.BlockPos} per
+ * block) so that they can be made quickly, and off the server thread:
+ * <ul>
+ * <li>Breaking goes layer by layer, starting with the layer furthest (vertically) from the builder. Within a layer the
+ * columns closest to the centre of the box go first.</li>
+ * <li>Placing goes layer by layer, starting with the layer closest to the builder. Within a layer the columns furthest
+ * from the builder go first.</li>
+ * <li>Checking starts in the centre of the box and moves outwards.</li>
+ * </ul>
+ * As every layer uses the same column order, only the columns (and not the whole box) need to be sorted for breaking
+ * and placing. All of the sorting is done with a counting sort on squared distances, which is stable: ties are broken
+ * by x, then y, then z. */
+final class BuildOrder {
+    final int[] breakOrder;
+    final int[] placeOrder;
+    final int[] checkOrder;
+
+    private BuildOrder(int[] breakOrder, int[] placeOrder, int[] checkOrder) {
+        this.breakOrder = breakOrder;
+        this.placeOrder = placeOrder;
+        this.checkOrder = checkOrder;
+    }
+
+    /** @param min The (world) minimum of the box.
+     * @param size The size of the box on each world axis.
+     * @param center The (world) centre of the box.
+     * @param builder The (world) position of the builder.
+     * @param baseIndex The snapshot index of the minimum of the box.
+     * @param strides The change in snapshot index for a step of 1 along each world axis. (As the box is always the
+     *            snapshot rotated around the Y axis, the index is an affine function of the world position). */
+    static BuildOrder compute(int[] min, int[] size, int[] center, int[] builder, int baseIndex, int[] strides) {
+        int sizeX = size[0];
+        int sizeY = size[1];
+        int sizeZ = size[2];
+        int columns = sizeX * sizeZ;
+
+        // Columns, in x then z order
+        int[] breakKeys = new int[columns];
+        int[] placeKeys = new int[columns];
+        for (int x = 0; x < sizeX; x++) {
+            for (int z = 0; z < sizeZ; z++) {
+                int column = x * sizeZ + z;
+                int cx = min[0] + x - center[0];
+                int cz = min[2] + z - center[2];
+                breakKeys[column] = cx * cx + cz * cz;
+                int bx = min[0] + x - builder[0];
+                int bz = min[2] + z - builder[2];
+                placeKeys[column] = -(bx * bx + bz * bz);
+            }
+        }
+        int[] breakColumns = sortByKey(breakKeys);
+        int[] placeColumns = sortByKey(placeKeys);
+
+        // Layers, in y order
+        int[] breakLayerKeys = new int[sizeY];
+        int[] placeLayerKeys = new int[sizeY];
+        for (int y = 0; y < sizeY; y++) {
+            int dy = Math.abs(min[1] + y - builder[1]);
+            breakLayerKeys[y] = -dy;
+            placeLayerKeys[y] = dy;
+        }
+        int[] breakLayers = sortByKey(breakLayerKeys);
+        int[] placeLayers = sortByKey(placeLayerKeys);
+
+        int[] breakOrder = new int[columns * sizeY];
+        int[] placeOrder = new int[columns * sizeY];
+        int pos = 0;
+        for (int layer = 0; layer < sizeY; layer++) {
+            int breakY = breakLayers[layer];
+            int placeY = placeLayers[layer];
+            for (int c = 0; c < columns; c++) {
+                breakOrder[pos] = toIndex(breakY, breakColumns[c], sizeZ, baseIndex, strides);
+                placeOrder[pos] = toIndex(placeY, placeColumns[c], sizeZ, baseIndex, strides);
+                pos++;
+            }
+        }
+
+        // Every block, in x then y then z order
+        int[] checkKeys = new int[columns * sizeY];
+        pos = 0;
+        for (int x = 0; x < sizeX; x++) {
+            int cx = min[0] + x - center[0];
+            for (int y = 0; y < sizeY; y++) {
+                int cy = min[1] + y - center[1];
+                for (int z = 0; z < sizeZ; z++) {
+                    int cz = min[2] + z - center[2];
+                    checkKeys[pos++] = cx * cx + cy * cy + cz * cz;
+                }
+            }
+        }
+        int[] checkOrder = sortByKey(checkKeys);
+        for (int i = 0; i < checkOrder.length; i++) {
+            int block = checkOrder[i];
+            int x = block / (sizeY * sizeZ);
+            int y = (block / sizeZ) % sizeY;
+            int z = block % sizeZ;
+            checkOrder[i] = baseIndex + x * strides[0] + y * strides[1] + z * strides[2];
+        }
+
+        return new BuildOrder(breakOrder, placeOrder, checkOrder);
+    }
+
+    private static int toIndex(int y, int column, int sizeZ, int baseIndex, int[] strides) {
+        int x = column / sizeZ;
+        int z = column % sizeZ;
+        return baseIndex + x * strides[0] + y * strides[1] + z * strides[2];
+    }
+
+    /** @return The positions of the given keys, in ascending order of key. Equal keys stay in their original order. */
+    static int[] sortByKey(int[] keys) {
+        int[] sorted = new int[keys.length];
+        if (keys.length == 0) {
+            return sorted;
+        }
+        int minKey = Integer.MAX_VALUE;
+        int maxKey = Integer.MIN_VALUE;
+        for (int key : keys) {
+            minKey = Math.min(minKey, key);
+            maxKey = Math.max(maxKey, key);
+        }
+        long range = (long) maxKey - minKey + 1;
+        if (range > keys.length * 4L + 1024) {
+            // Too sparse for a counting sort
+            long[] packed = new long[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                packed[i] = ((long) keys[i] << 32) | i;
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < keys.length; i++) {
+                sorted[i] = (int) packed[i];
+            }
+            return sorted;
+        }
+        int[] starts = new int[(int) range + 1];
+        for (int key : keys) {
+            starts[key - minKey + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        for (int i = 0; i < keys.length; i++) {
+            sorted[starts[keys[i] - minKey]++] = i;
+        }
+        return sorted;
+    }
+}
@@ -6,10 +6,16 @@
 
 package buildcraft.builders.snapshot;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
 
 import com.google.common.base.Predicates;
 
@@ -17,6 +23,7 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.util.glu.GLU;
 
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.FontRenderer;
 import net.minecraft.client.gui.ScaledResolution;
 import net.minecraft.client.renderer.BufferBuilder;
 import net.minecraft.client.renderer.GlStateManager;
@@ -36,23 +43,139 @@ import buildcraft.lib.net.MessageManager;
 public enum ClientSnapshots {
     INSTANCE;
 
+    /** If a download hasn't made any progress for this long then the snapshot is requested again. Any data that was
+     * already received is kept, so the new transfer carries on from where the old one stopped. */
+    private static final long TIMEOUT = 10_000;
+
     private final List<Snapshot> snapshots = new ArrayList<>();
-    private final List<Snapshot.Key> pending = new ArrayList<>();
+    private final Map<Snapshot.Key, Download> downloads = new HashMap<>();
+    private final Map<Integer, Download> downloadsById = new HashMap<>();
     private final Map<Snapshot.Key, FakeWorld> worlds = new HashMap<>();
     private final Map<Snapshot.Key, BufferBuilder> buffers = new HashMap<>();
 
     public Snapshot getSnapshot(Snapshot.Key key) {
         Snapshot found = snapshots.stream().filter(snapshot -> snapshot.key.equals(key)).findFirst().orElse(null);
-        if (found == null && !pending.contains(key)) {
-            pending.add(key);
-            MessageManager.sendToServer(new MessageSnapshotRequest(key));
+        if (found != null) {
+            return found;
+        }
+        long now = System.currentTimeMillis();
+        Download download = downloads.get(key);
+        if (download == null) {
+            download = new Download(key);
+            downloads.put(key, download);
+        } else if (download.decoding != null) {
+            if (!download.decoding.isDone()) {
+                return null;
+            }
+            found = download.decoding.getNow(null);
+            if (found != null) {
+                downloads.remove(key);
+                downloadsById.remove(download.id);
+                snapshots.add(found);
+                return found;
+            }
+            // Either it was corrupt or it failed to load, so try again from the start (but not straight away)
+            download.reset();
+            download.lastActive = now;
+            return null;
+        } else if (now - download.lastActive < TIMEOUT) {
+            return null;
         }
-        return found;
+        download.lastActive = now;
+        MessageManager.sendToServer(new MessageSnapshotRequest(key));
+        return null;
     }
 
-    public void onSnapshotReceived(Snapshot snapshot) {
-        pending.remove(snapshot.key);
-        snapshots.add(snapshot);
+    /** @return How much of the given snapshot has been downloaded, from 0 to 1, or -1 if it isn't being downloaded. */
+    public double getDownloadProgress(Snapshot.Key key) {
+        Download download = downloads.get(key);
+        if (download == null) {
+            return -1;
+        }
+        if (download.data == null || download.data.length == 0) {
+            return 0;
+        }
+        return download.received / (double) download.data.length;
+    }
+
+    void onTransferStarted(int id, Snapshot.Key key, int length, int crc) {
+        Download download = downloads.get(key);
+        if (download == null || download.decoding != null) {
+            // We didn't ask for this (or we already have all of it)
+            return;
+        }
+        downloadsById.remove(download.id);
+        if (download.data == null || download.data.length != length || download.crc != crc) {
+            download.data = new byte[length];
+            download.crc = crc;
+            download.received = 0;
+        }
+        download.id = id;
+        download.lastActive = System.currentTimeMillis();
+        downloadsById.put(id, download);
+        MessageManager.sendToServer(new MessageSnapshotAck(id, download.received));
+        if (download.received == length) {
+            onDownloadFinished(download);
+        }
+    }
+
+    void onChunkReceived(int id, int offset, byte[] chunk) {
+        Download download = downloadsById.get(id);
+        if (download == null || download.decoding != null || offset != download.received
+            || chunk.length > download.data.length - offset) {
+            return;
+        }
+        System.arraycopy(chunk, 0, download.data, offset, chunk.length);
+        download.received += chunk.length;
+        download.lastActive = System.currentTimeMillis();
+        MessageManager.sendToServer(new MessageSnapshotAck(id, download.received));
+        if (download.received == download.data.length) {
+            onDownloadFinished(download);
+        }
+    }
+
+    private void onDownloadFinished(Download download) {
+        downloadsById.remove(download.id);
+        byte[] data = download.data;
+        int expectedCrc = download.crc;
+        // Decompressing and deserializing a large snapshot is slow, so it doesn't happen on the main thread
+        download.decoding = CompletableFuture.supplyAsync(() -> {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if ((int) crc.getValue() != expectedCrc) {
+                new IOException("The snapshot " + download.key + " was corrupted while downloading").printStackTrace();
+                return null;
+            }
+            try {
+                return Snapshot.read(new ByteArrayInputStream(data));
+            } catch (IOException | RuntimeException e) {
+                new IOException("Failed to read the snapshot " + download.key, e).printStackTrace();
+                return null;
+            }
+        }, GlobalSavedDataSnapshots.getIoExecutor());
+    }
+
+    private static final class Download {
+        final Snapshot.Key key;
+        /** The ID of the current transfer from the server. */
+        int id = -1;
+        @Nullable
+        byte[] data;
+        int crc;
+        int received;
+        long lastActive;
+        @Nullable
+        CompletableFuture<Snapshot> decoding;
+
+        Download(Snapshot.Key key) {
+            this.key = key;
+        }
+
+        void reset() {
+            data = null;
+            received = 0;
+            decoding = null;
+        }
     }
 
     @SideOnly(Side.CLIENT)
@@ -62,6 +185,17 @@ public enum ClientSnapshots {
         }
         Snapshot snapshot = getSnapshot(header.key);
         if (snapshot == null) {
+            double progress = getDownloadProgress(header.key);
+            if (progress >= 0) {
+                FontRenderer fontRenderer = Minecraft.getMinecraft().fontRenderer;
+                String text = (int) (progress * 100) + "%";
+                fontRenderer.drawString(
+                    text,
+                    offsetX + (sizeX - fontRenderer.getStringWidth(text)) / 2,
+                    offsetY + (sizeY - fontRenderer.FONT_HEIGHT) / 2,
+                    0xFF_FF_FF_FF
+                );
+            }
             return;
         }
         renderSnapshot(snapshot, offsetX, offsetY, sizeX, sizeY);
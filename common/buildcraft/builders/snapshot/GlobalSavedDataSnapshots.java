@@ -15,38 +15,56 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.ImmutableList;
-
-import org.apache.commons.lang3.tuple.Pair;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import net.minecraft.world.World;
 
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.relauncher.Side;
 
-import buildcraft.lib.misc.data.SingleCache;
-import buildcraft.lib.nbt.NbtSquisher;
+import buildcraft.builders.BCBuildersConfig;
 
+/** Stores every snapshot on disk, in a directory that is shared between every world.
+ * <p>
+ * All of the file access (and the compression that goes with it) happens on a single background thread, so requesting
+ * an uncached snapshot never stalls the calling thread. Callers that tick should use
+ * {@link #requestSnapshot(Snapshot.Key)} and check the future on later ticks, rather than
+ * {@link #getSnapshot(Snapshot.Key)} (which waits for it). Loaded snapshots are kept in a cache that is limited by
+ * their approximate size in memory (see {@link BCBuildersConfig#snapshotCacheSizeMb}) rather than by their count. */
 public class GlobalSavedDataSnapshots {
     private static final String SNAPSHOT_FILE_EXTENSION = ".bcnbt";
     private static final Map<Side, GlobalSavedDataSnapshots> INSTANCES = new EnumMap<>(Side.class);
-    private final LoadingCache<Snapshot.Key, Optional<Snapshot>> snapshotsCache = CacheBuilder.newBuilder()
-        .expireAfterAccess(10, TimeUnit.MINUTES)
-        .build(CacheLoader.from(key -> Optional.ofNullable(readSnapshot(key)).map(Pair::getLeft)));
-    private final SingleCache<List<Snapshot.Key>> listCache = new SingleCache<>(
-        this::readList,
-        1,
-        TimeUnit.SECONDS
+    /** Using a single thread means that every load, save and delete happens in the order that it was requested in. */
+    private static final ExecutorService IO_EXECUTOR = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("BuildCraft Snapshot IO").setDaemon(true).build()
     );
+
+    private final Cache<Snapshot.Key, Snapshot> snapshotsCache = CacheBuilder.newBuilder()
+        .maximumWeight(Math.max(1, BCBuildersConfig.snapshotCacheSizeMb) * 1024L * 1024L)
+        .weigher((Snapshot.Key key, Snapshot snapshot) ->
+            (int) Math.min(snapshot.getApproximateSize(), Integer.MAX_VALUE)
+        )
+        .expireAfterAccess(10, TimeUnit.MINUTES)
+        .build();
+    /** Loads that haven't finished yet, so that requesting the same snapshot twice only reads it once. */
+    private final Map<Snapshot.Key, CompletableFuture<Snapshot>> loading = new ConcurrentHashMap<>();
     private final File snapshotsFile;
+    private final SnapshotIndex index;
+    /** True if {@link SnapshotIndex#rescan()} has been queued, but hasn't started yet. */
+    private final AtomicBoolean rescanQueued = new AtomicBoolean();
 
     private GlobalSavedDataSnapshots(Side side) {
         snapshotsFile = new File(
@@ -60,9 +78,13 @@ public class GlobalSavedDataSnapshots {
         } else if (!snapshotsFile.isDirectory()) {
             throw new IllegalStateException("The snapshots directory was not a directory: " + snapshotsFile);
         }
+        index = new SnapshotIndex(snapshotsFile, SNAPSHOT_FILE_EXTENSION);
+        index.load();
     }
 
     public static void reInit(Side side) {
+        // The new index has to see every file that the old instance was still writing
+        waitForPendingIo();
         INSTANCES.put(side, new GlobalSavedDataSnapshots(side));
     }
 
@@ -77,79 +99,131 @@ public class GlobalSavedDataSnapshots {
         return get(world.isRemote ? Side.CLIENT : Side.SERVER);
     }
 
-    private Pair<Snapshot, File> readSnapshot(Snapshot.Key key) {
-        File[] files = snapshotsFile.listFiles();
-        if (files != null) {
-            for (File snapshotFile : files) {
-                if (snapshotFile.getName().startsWith(key.toString()) &&
-                    snapshotFile.getName().endsWith(SNAPSHOT_FILE_EXTENSION)) {
-                    try (FileInputStream fileInputStream = new FileInputStream(snapshotFile)) {
-                        Snapshot snapshot = Snapshot.readFromNBT(NbtSquisher.expand(fileInputStream));
-                        if (Objects.equals(snapshot.key, key)) {
-                            return Pair.of(snapshot, snapshotFile);
-                        }
-                    } catch (IOException e) {
-                        new IOException("Failed to read the snapshot " + snapshotFile, e).printStackTrace();
-                    }
-                }
-            }
+    /** @return The executor that every snapshot is loaded and saved on. Other work with snapshots that is too slow for
+     *         the main thread (such as compressing them to send to a client) can be run on this as well. */
+    public static Executor getIoExecutor() {
+        return IO_EXECUTOR;
+    }
+
+    /** Blocks until every load, save and delete that has been requested so far has finished. */
+    public static void waitForPendingIo() {
+        try {
+            IO_EXECUTOR.submit(() -> {}).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("An empty task failed?", e);
         }
-        return null;
     }
 
-    private List<Snapshot.Key> readList() {
-        ImmutableList.Builder<Snapshot.Key> listBuilder = ImmutableList.builder();
-        File[] files = snapshotsFile.listFiles();
-        if (files != null) {
-            for (File snapshotFile : files) {
-                if (snapshotFile.getName().endsWith(SNAPSHOT_FILE_EXTENSION)) {
-                    try (FileInputStream fileInputStream = new FileInputStream(snapshotFile)) {
-                        Snapshot snapshot = Snapshot.readFromNBT(NbtSquisher.expand(fileInputStream));
-                        if (snapshotFile.getName().startsWith(snapshot.key.toString())) {
-                            listBuilder.add(snapshot.key);
-                        }
-                    } catch (IOException io) {
-                        new IOException("Failed to read the snapshot " + snapshotFile, io).printStackTrace();
-                    }
-                }
+    @Nullable
+    private Snapshot readSnapshot(Snapshot.Key key) {
+        File snapshotFile = index.getFile(key);
+        if (snapshotFile == null) {
+            return null;
+        }
+        try (FileInputStream fileInputStream = new FileInputStream(snapshotFile)) {
+            Snapshot snapshot = Snapshot.read(fileInputStream);
+            if (Objects.equals(snapshot.key, key)) {
+                return snapshot;
             }
+        } catch (IOException e) {
+            new IOException("Failed to read the snapshot " + snapshotFile, e).printStackTrace();
         }
-        return listBuilder.build();
+        return null;
     }
 
-    public void addSnapshot(Snapshot snapshot) {
+    private void writeSnapshot(Snapshot snapshot) {
         File snapshotFile = new File(
             snapshotsFile,
             snapshot.key.toString() + SNAPSHOT_FILE_EXTENSION
         );
         if (!snapshotFile.exists()) {
             try (FileOutputStream fileOutputStream = new FileOutputStream(snapshotFile)) {
-                NbtSquisher.squishVanilla(Snapshot.writeToNBT(snapshot), fileOutputStream);
+                Snapshot.write(snapshot, fileOutputStream);
             } catch (IOException e) {
                 new IOException("Failed to write the snapshot file: " + snapshotFile, e).printStackTrace();
+                return;
             }
+            index.add(snapshot.key, snapshotFile);
         }
-        snapshotsCache.invalidate(snapshot.key);
-        listCache.clear();
+    }
+
+    /** Stores the given snapshot. It is available from {@link #getSnapshot(Snapshot.Key)} straight away, but is
+     * written to disk in the background. The snapshot must not be modified afterwards. */
+    public void addSnapshot(Snapshot snapshot) {
+        snapshotsCache.put(snapshot.key, snapshot);
+        IO_EXECUTOR.execute(() -> writeSnapshot(snapshot));
     }
 
     public void removeSnapshot(Snapshot.Key key) {
-        Optional.ofNullable(readSnapshot(key)).map(Pair::getRight).ifPresent(snapshotFile -> {
-            if (!snapshotFile.delete()) {
-                new IOException("Failed to read the snapshot file: " + snapshotFile).printStackTrace();
+        snapshotsCache.invalidate(key);
+        IO_EXECUTOR.execute(() -> {
+            File snapshotFile = index.remove(key);
+            if (snapshotFile != null && !snapshotFile.delete()) {
+                new IOException("Failed to delete the snapshot file: " + snapshotFile).printStackTrace();
             }
+            // A load that was requested before this might have cached it again
             snapshotsCache.invalidate(key);
         });
-        listCache.clear();
     }
 
+    /** Loads the snapshot with the given key in the background (unless it is already loaded).
+     *
+     * @return A future that completes with the snapshot, or with null if there isn't a snapshot with that key. */
+    public CompletableFuture<Snapshot> requestSnapshot(@Nullable Snapshot.Key key) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Snapshot cached = snapshotsCache.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        CompletableFuture<Snapshot> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        IO_EXECUTOR.execute(() -> {
+            Snapshot snapshot = snapshotsCache.getIfPresent(key);
+            try {
+                if (snapshot == null) {
+                    snapshot = readSnapshot(key);
+                    if (snapshot != null) {
+                        snapshotsCache.put(key, snapshot);
+                    }
+                }
+            } catch (RuntimeException e) {
+                new IOException("Failed to load the snapshot " + key, e).printStackTrace();
+            } finally {
+                loading.remove(key, future);
+                future.complete(snapshot);
+            }
+        });
+        return future;
+    }
+
+    /** Like {@link #requestSnapshot(Snapshot.Key)}, but waits for the snapshot to be loaded. Avoid calling this every
+     * tick. */
     @Nullable
     public Snapshot getSnapshot(@Nullable Snapshot.Key key) {
-        if (key == null) return null;
-        return snapshotsCache.getUnchecked(key).orElse(null);
+        return requestSnapshot(key).join();
     }
 
+    /** @return True if there is a snapshot with the given key, without loading it. */
+    public boolean hasSnapshot(@Nullable Snapshot.Key key) {
+        return key != null && (snapshotsCache.getIfPresent(key) != null || index.getFile(key) != null);
+    }
+
+    /** @return Every snapshot in the index. If the directory has changed then it is scanned again in the background, so
+     *         files that were added (or removed) by hand show up in a later call. */
     public List<Snapshot.Key> getList() {
-        return listCache.get();
+        if (index.isOutdated() && rescanQueued.compareAndSet(false, true)) {
+            IO_EXECUTOR.execute(() -> {
+                rescanQueued.set(false);
+                index.rescan();
+            });
+        }
+        return index.getKeys();
     }
 }
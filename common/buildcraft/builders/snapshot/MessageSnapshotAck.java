@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.builders.snapshot;
+
+import io.netty.buffer.ByteBuf;
+
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+
+import buildcraft.lib.net.PacketBufferBC;
+
+/** Tells the server how many bytes of a snapshot transfer the client has, so that it can send more. See
+ * {@link ServerSnapshotTransfers}. */
+public class MessageSnapshotAck implements IMessage {
+    private int id;
+    private int received;
+
+    @SuppressWarnings("unused")
+    public MessageSnapshotAck() {
+    }
+
+    public MessageSnapshotAck(int id, int received) {
+        this.id = id;
+        this.received = received;
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        PacketBufferBC buffer = new PacketBufferBC(buf);
+        buffer.writeVarInt(id);
+        buffer.writeVarInt(received);
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        PacketBufferBC buffer = new PacketBufferBC(buf);
+        id = buffer.readVarInt();
+        received = buffer.readVarInt();
+    }
+
+    public static final IMessageHandler<MessageSnapshotAck, IMessage> HANDLER = (message, ctx) -> {
+        ServerSnapshotTransfers.INSTANCE.onAck(ctx.getServerHandler().player, message.id, message.received);
+        return null;
+    };
+}
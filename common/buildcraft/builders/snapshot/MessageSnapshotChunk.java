@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.builders.snapshot;
+
+import io.netty.buffer.ByteBuf;
+
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+
+import buildcraft.lib.net.PacketBufferBC;
+
+/** Part of a compressed snapshot, sent by {@link ServerSnapshotTransfers}. */
+public class MessageSnapshotChunk implements IMessage {
+    private int id;
+    private int offset;
+    private byte[] data;
+    private int length;
+
+    @SuppressWarnings("unused")
+    public MessageSnapshotChunk() {
+    }
+
+    /** @param data The whole compressed snapshot. Only the bytes from offset to offset + length are sent. */
+    public MessageSnapshotChunk(int id, int offset, byte[] data, int length) {
+        this.id = id;
+        this.offset = offset;
+        this.data = data;
+        this.length = length;
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        PacketBufferBC buffer = new PacketBufferBC(buf);
+        buffer.writeVarInt(id);
+        buffer.writeVarInt(offset);
+        buffer.writeVarInt(length);
+        buffer.writeBytes(data, offset, length);
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        PacketBufferBC buffer = new PacketBufferBC(buf);
+        id = buffer.readVarInt();
+        offset = buffer.readVarInt();
+        length = buffer.readVarInt();
+        if (length < 0 || length > ServerSnapshotTransfers.CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk length " + length);
+        }
+        data = new byte[length];
+        buffer.readBytes(data);
+    }
+
+    public static final IMessageHandler<MessageSnapshotChunk, IMessage> HANDLER = (message, ctx) -> {
+        ClientSnapshots.INSTANCE.onChunkReceived(message.id, message.offset, message.data);
+        return null;
+    };
+}
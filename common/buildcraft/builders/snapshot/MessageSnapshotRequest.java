@@ -10,7 +10,6 @@ import io.netty.buffer.ByteBuf;
 
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
-import net.minecraftforge.fml.relauncher.Side;
 
 import buildcraft.lib.net.PacketBufferBC;
 
@@ -35,8 +34,8 @@ public class MessageSnapshotRequest implements IMessage {
         key = new Snapshot.Key(new PacketBufferBC(buf));
     }
 
-    public static final IMessageHandler<MessageSnapshotRequest, MessageSnapshotResponse> HANDLER = (message, ctx) -> {
-        Snapshot snapshot = GlobalSavedDataSnapshots.get(Side.SERVER).getSnapshot(message.key);
-        return snapshot != null ? new MessageSnapshotResponse(snapshot) : null;
+    public static final IMessageHandler<MessageSnapshotRequest, IMessage> HANDLER = (message, ctx) -> {
+        ServerSnapshotTransfers.INSTANCE.requestSnapshot(ctx.getServerHandler().player, message.key);
+        return null;
     };
 }
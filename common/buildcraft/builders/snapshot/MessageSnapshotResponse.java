@@ -6,59 +6,52 @@
 
 package buildcraft.builders.snapshot;
 
-import java.io.IOException;
-
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
-
-import net.minecraft.nbt.CompressedStreamTools;
 
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
 
+import buildcraft.lib.net.PacketBufferBC;
+
+/** The header of a snapshot transfer: the snapshot itself is sent afterwards in {@link MessageSnapshotChunk}'s. See
+ * {@link ServerSnapshotTransfers}. */
 public class MessageSnapshotResponse implements IMessage {
-    private Snapshot snapshot;
+    private int id;
+    private Snapshot.Key key;
+    private int length;
+    private int crc;
 
     @SuppressWarnings("unused")
     public MessageSnapshotResponse() {
     }
 
-    public MessageSnapshotResponse(Snapshot snapshot) {
-        this.snapshot = snapshot;
+    public MessageSnapshotResponse(int id, Snapshot.Key key, int length, int crc) {
+        this.id = id;
+        this.key = key;
+        this.length = length;
+        this.crc = crc;
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
-
-//        byte[] bytes = NbtSquisher.squishBuildCraftV1(Snapshot.writeToNBT(snapshot));
-//        buf.writeInt(bytes.length);
-//        buf.writeBytes(bytes);
-//        try {
-//            CompressedStreamTools.write(Snapshot.writeToNBT(snapshot), new ByteBufOutputStream(buf));
-//        } catch (IOException e) {
-//            throw new RuntimeException(e);
-//        }
-        try {
-            CompressedStreamTools.writeCompressed(Snapshot.writeToNBT(snapshot), new ByteBufOutputStream(buf));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        PacketBufferBC buffer = new PacketBufferBC(buf);
+        buffer.writeVarInt(id);
+        key.writeToByteBuf(buffer);
+        buffer.writeVarInt(length);
+        buffer.writeInt(crc);
     }
 
     @Override
     public void fromBytes(ByteBuf buf) {
-        try {
-//            snapshot = Snapshot.readFromNBT(NbtSquisher.expand(buf.readBytes(buf.readInt()).array()));
-//            snapshot = Snapshot.readFromNBT(CompressedStreamTools.read(new ByteBufInputStream(buf), NBTSizeTracker.INFINITE));
-            snapshot = Snapshot.readFromNBT(CompressedStreamTools.readCompressed(new ByteBufInputStream(buf)));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        PacketBufferBC buffer = new PacketBufferBC(buf);
+        id = buffer.readVarInt();
+        key = new Snapshot.Key(buffer);
+        length = buffer.readVarInt();
+        crc = buffer.readInt();
     }
 
     public static final IMessageHandler<MessageSnapshotResponse, IMessage> HANDLER = (message, ctx) -> {
-        ClientSnapshots.INSTANCE.onSnapshotReceived(message.snapshot);
+        ClientSnapshots.INSTANCE.onTransferStarted(message.id, message.key, message.length, message.crc);
         return null;
     };
 }
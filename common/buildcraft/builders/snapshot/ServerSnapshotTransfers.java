@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.builders.snapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+
+import net.minecraftforge.fml.relauncher.Side;
+
+import buildcraft.lib.net.MessageManager;
+
+/** Sends snapshots to clients in chunks, rather than in one (potentially huge) message.
+ * <p>
+ * The protocol is:
+ * <ol>
+ * <li>The client asks for a snapshot with a {@link MessageSnapshotRequest}.</li>
+ * <li>The snapshot is compressed in the background, and then the server replies with a
+ * {@link MessageSnapshotResponse}, which holds the ID of the transfer, the compressed length and a checksum.</li>
+ * <li>The client replies with a {@link MessageSnapshotAck} holding the number of bytes that it already has. This is
+ * normally 0, but if an earlier transfer of the same snapshot was interrupted then it can resume from where it got
+ * to.</li>
+ * <li>The server sends {@link MessageSnapshotChunk}'s of up to {@link #CHUNK_SIZE} bytes, but never has more than
+ * {@link #WINDOW_SIZE} bytes that the client hasn't acknowledged yet. The client acknowledges every chunk that it
+ * receives, which lets the server send more.</li>
+ * </ol>
+ * Every method in here must be called from the server thread. */
+public enum ServerSnapshotTransfers {
+    INSTANCE;
+
+    public static final int CHUNK_SIZE = 32 * 1024;
+    public static final int WINDOW_SIZE = 8 * CHUNK_SIZE;
+    /** Transfers that haven't been acknowledged for this long are dropped. (The client will request the snapshot again
+     * if it still wants it). */
+    private static final long TIMEOUT = 60_000;
+
+    private final Map<UUID, Map<Integer, Transfer>> transfers = new HashMap<>();
+    private int nextId = 0;
+
+    /** Loads and compresses the snapshot in the background, and then starts sending it to the given player. */
+    public void requestSnapshot(EntityPlayerMP player, Snapshot.Key key) {
+        GlobalSavedDataSnapshots.get(Side.SERVER).requestSnapshot(key).thenAcceptAsync(snapshot -> {
+            if (snapshot != null) {
+                byte[] data = Snapshot.write(snapshot);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                int checksum = (int) crc.getValue();
+                player.getServerWorld().addScheduledTask(() -> startTransfer(player, key, data, checksum));
+            }
+        }, GlobalSavedDataSnapshots.getIoExecutor());
+    }
+
+    private void startTransfer(EntityPlayerMP player, Snapshot.Key key, byte[] data, int crc) {
+        if (player.hasDisconnected()) {
+            return;
+        }
+        Map<Integer, Transfer> playerTransfers = transfers.computeIfAbsent(
+            player.getGameProfile().getId(),
+            uuid -> new HashMap<>()
+        );
+        long now = System.currentTimeMillis();
+        // Only one transfer per snapshot at a time: a new request means that the client gave up on the old one
+        playerTransfers.values().removeIf(
+            transfer -> transfer.key.equals(key) || now - transfer.lastActive > TIMEOUT
+        );
+        Transfer transfer = new Transfer(nextId++, key, data, crc, now);
+        playerTransfers.put(transfer.id, transfer);
+        MessageManager.sendTo(new MessageSnapshotResponse(transfer.id, key, data.length, transfer.crc), player);
+    }
+
+    void onAck(EntityPlayerMP player, int id, int received) {
+        Map<Integer, Transfer> playerTransfers = transfers.get(player.getGameProfile().getId());
+        Transfer transfer = playerTransfers == null ? null : playerTransfers.get(id);
+        if (transfer == null) {
+            return;
+        }
+        if (received < transfer.acked || received > transfer.data.length) {
+            // Bad/Buggy client
+            playerTransfers.remove(id);
+            return;
+        }
+        transfer.acked = received;
+        transfer.lastActive = System.currentTimeMillis();
+        if (transfer.acked == transfer.data.length) {
+            playerTransfers.remove(id);
+            return;
+        }
+        // Resuming can skip ahead of what has been sent
+        transfer.sent = Math.max(transfer.sent, transfer.acked);
+        while (transfer.sent < transfer.data.length && transfer.sent - transfer.acked < WINDOW_SIZE) {
+            int length = Math.min(CHUNK_SIZE, transfer.data.length - transfer.sent);
+            MessageManager.sendTo(new MessageSnapshotChunk(id, transfer.sent, transfer.data, length), player);
+            transfer.sent += length;
+        }
+    }
+
+    public void onPlayerLoggedOut(EntityPlayer player) {
+        transfers.remove(player.getGameProfile().getId());
+    }
+
+    public void clear() {
+        transfers.clear();
+    }
+
+    private static final class Transfer {
+        final int id;
+        final Snapshot.Key key;
+        final byte[] data;
+        final int crc;
+        int sent;
+        int acked;
+        long lastActive;
+
+        Transfer(int id, Snapshot.Key key, byte[] data, int crc, long now) {
+            this.id = id;
+            this.key = key;
+            this.data = data;
+            this.crc = crc;
+            this.lastActive = now;
+        }
+    }
+}
@@ -6,9 +6,14 @@
 
 package buildcraft.builders.snapshot;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.UUID;
+import java.util.function.BiConsumer;
 
 import javax.annotation.Nullable;
 
@@ -24,6 +29,7 @@ import net.minecraft.world.World;
 import net.minecraftforge.common.util.Constants;
 
 import buildcraft.api.core.InvalidInputDataException;
+import buildcraft.api.data.NbtSquishConstants;
 import buildcraft.api.enums.EnumSnapshotType;
 
 import buildcraft.lib.misc.HashUtil;
@@ -32,6 +38,9 @@ import buildcraft.lib.misc.RotationUtil;
 import buildcraft.lib.misc.StringUtilBC;
 import buildcraft.lib.misc.VecUtil;
 import buildcraft.lib.misc.data.Box;
+import buildcraft.lib.nbt.INbtVisitor;
+import buildcraft.lib.nbt.NbtSquisher;
+import buildcraft.lib.nbt.NbtTagBuilder;
 import buildcraft.lib.net.PacketBufferBC;
 
 public abstract class Snapshot {
@@ -121,34 +130,133 @@ public abstract class Snapshot {
     }
 
     public static Snapshot readFromNBT(NBTTagCompound nbt) throws InvalidInputDataException {
-        NBTBase tag = nbt.getTag("type");
-        EnumSnapshotType type = NBTUtilBC.readEnum(tag, EnumSnapshotType.class);
-        if (type == null) {
-            throw new InvalidInputDataException("Unknown snapshot type " + tag);
-        }
-        Snapshot snapshot = Snapshot.create(type);
+        Snapshot snapshot = create(nbt.getTag("type"));
         snapshot.deserializeNBT(nbt);
         return snapshot;
     }
 
+    private static Snapshot create(@Nullable NBTBase typeTag) throws InvalidInputDataException {
+        EnumSnapshotType type = NBTUtilBC.readEnum(typeTag, EnumSnapshotType.class);
+        if (type == null) {
+            throw new InvalidInputDataException("Unknown snapshot type " + typeTag);
+        }
+        return create(type);
+    }
+
+    public static byte[] write(Snapshot snapshot) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            write(snapshot, baos);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write to a perfectly good ByteArrayOutputStream", e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** Writes the given snapshot to the stream, straight from the snapshot rather than from the compound that
+     * {@link #writeToNBT(Snapshot)} would return. Snapshots that can't be written in the BuildCraft format are written
+     * in the vanilla format instead. */
+    public static void write(Snapshot snapshot, OutputStream stream) throws IOException {
+        try {
+            NbtSquisher.squish(
+                visitor -> writeToVisitor(snapshot, visitor),
+                NbtSquishConstants.BUILDCRAFT_V1_COMPRESSED,
+                stream
+            );
+        } catch (NbtSquisher.TooLongException e) {
+            // Nothing has been written yet
+            NbtSquisher.squishVanilla(writeToNBT(snapshot), stream);
+        }
+    }
+
+    /** Reads a snapshot that was written by {@link #write(Snapshot, OutputStream)} (or by any of the
+     * {@link NbtSquisher} methods), without creating the whole compound first. */
+    public static Snapshot read(InputStream stream) throws IOException {
+        Reader reader = new Reader();
+        NbtSquisher.expand(stream, reader);
+        return reader.finish();
+    }
+
+    /** Passes the same compound as {@link #writeToNBT(Snapshot)} to the given visitor. Only one entry of it is ever
+     * created at once. */
+    public static void writeToVisitor(Snapshot snapshot, INbtVisitor visitor) {
+        visitor.visitCompoundStart();
+        // The type comes first so that reading can start deserializing straight away
+        visitor.visitKey("type");
+        NbtSquisher.visitTag(NBTUtilBC.writeEnum(snapshot.getType()), visitor);
+        snapshot.writeEntries((name, tag) -> {
+            visitor.visitKey(name);
+            NbtSquisher.visitTag(tag, visitor);
+        });
+        visitor.visitCompoundEnd();
+    }
+
     public NBTTagCompound serializeNBT() {
         NBTTagCompound nbt = new NBTTagCompound();
-        nbt.setTag("key", key.serializeNBT());
-        nbt.setTag("size", NBTUtil.createPosTag(size));
-        nbt.setTag("facing", NBTUtilBC.writeEnum(facing));
-        nbt.setTag("offset", NBTUtil.createPosTag(offset));
+        writeEntries(nbt::setTag);
         return nbt;
     }
 
+    /** Passes every entry of {@link #serializeNBT()} to the given consumer, one at a time. */
+    protected void writeEntries(BiConsumer<String, NBTBase> to) {
+        to.accept("key", key.serializeNBT());
+        to.accept("size", NBTUtil.createPosTag(size));
+        to.accept("facing", NBTUtilBC.writeEnum(facing));
+        to.accept("offset", NBTUtil.createPosTag(offset));
+    }
+
     public void deserializeNBT(NBTTagCompound nbt) throws InvalidInputDataException {
-        key = new Key(nbt.getCompoundTag("key"));
-        size = NBTUtil.getPosFromTag(nbt.getCompoundTag("size"));
-        facing = NBTUtilBC.readEnum(nbt.getTag("facing"), EnumFacing.class);
-        offset = NBTUtil.getPosFromTag(nbt.getCompoundTag("offset"));
+        for (String name : nbt.getKeySet()) {
+            readEntry(name, nbt.getTag(name));
+        }
+        finishReading();
+    }
+
+    /** Reads a single entry of the compound that {@link #serializeNBT()} returned. Entries can be in any order, so
+     * anything that depends on another entry has to wait until {@link #finishReading()}. Unknown entries are
+     * ignored. */
+    protected void readEntry(String name, NBTBase tag) throws InvalidInputDataException {
+        switch (name) {
+            case "key":
+                key = new Key(asCompound(tag));
+                break;
+            case "size":
+                size = NBTUtil.getPosFromTag(asCompound(tag));
+                break;
+            case "facing":
+                facing = NBTUtilBC.readEnum(tag, EnumFacing.class);
+                break;
+            case "offset":
+                offset = NBTUtil.getPosFromTag(asCompound(tag));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Called once every entry has been passed to {@link #readEntry(String, NBTBase)}. */
+    protected void finishReading() throws InvalidInputDataException {
+        // The same values as reading missing tags used to give
+        if (size == null) {
+            size = BlockPos.ORIGIN;
+        }
+        if (offset == null) {
+            offset = BlockPos.ORIGIN;
+        }
+    }
+
+    protected static NBTTagCompound asCompound(NBTBase tag) {
+        return tag instanceof NBTTagCompound ? (NBTTagCompound) tag : new NBTTagCompound();
     }
 
     abstract public Snapshot copy();
 
+    /** @return A rough estimate of the number of bytes of memory that this snapshot takes up. This is used to limit the
+     *         size of the snapshot cache, so it doesn't have to be exact. */
+    public long getApproximateSize() {
+        return 256;
+    }
+
     abstract public EnumSnapshotType getType();
 
     public void computeKey() {
@@ -169,6 +277,154 @@ public abstract class Snapshot {
             "}";
     }
 
+    /** Builds a snapshot from visited values, creating the tag of only one top-level entry at once. */
+    private static class Reader implements INbtVisitor {
+        /** Entries that were read before the type, so before the snapshot could be created. */
+        private final NBTTagCompound pending = new NBTTagCompound();
+        private Snapshot snapshot;
+        private InvalidInputDataException error;
+        private int depth;
+        private String entryName;
+        private NbtTagBuilder entry;
+
+        Snapshot finish() throws InvalidInputDataException {
+            if (error != null) {
+                throw error;
+            }
+            if (snapshot == null) {
+                throw new InvalidInputDataException("Missing the snapshot type!");
+            }
+            snapshot.finishReading();
+            return snapshot;
+        }
+
+        private void readEntry(String name, NBTBase tag) {
+            try {
+                if (snapshot != null) {
+                    snapshot.readEntry(name, tag);
+                } else if ("type".equals(name)) {
+                    snapshot = create(tag);
+                    for (String pendingName : pending.getKeySet()) {
+                        snapshot.readEntry(pendingName, pending.getTag(pendingName));
+                    }
+                } else {
+                    pending.setTag(name, tag);
+                }
+            } catch (InvalidInputDataException e) {
+                error = e;
+            }
+        }
+
+        /** Called after every value, to finish the current entry once its value is complete. */
+        private void afterValue() {
+            if (depth == 1 && entry != null) {
+                entry.visitCompoundEnd();
+                NBTBase tag = entry.getRoot().getTag(entryName);
+                entry = null;
+                readEntry(entryName, tag);
+            }
+        }
+
+        @Override
+        public void visitByte(byte value) {
+            entry.visitByte(value);
+            afterValue();
+        }
+
+        @Override
+        public void visitShort(short value) {
+            entry.visitShort(value);
+            afterValue();
+        }
+
+        @Override
+        public void visitInt(int value) {
+            entry.visitInt(value);
+            afterValue();
+        }
+
+        @Override
+        public void visitLong(long value) {
+            entry.visitLong(value);
+            afterValue();
+        }
+
+        @Override
+        public void visitFloat(float value) {
+            entry.visitFloat(value);
+            afterValue();
+        }
+
+        @Override
+        public void visitDouble(double value) {
+            entry.visitDouble(value);
+            afterValue();
+        }
+
+        @Override
+        public void visitByteArray(byte[] value) {
+            entry.visitByteArray(value);
+            afterValue();
+        }
+
+        @Override
+        public void visitIntArray(int[] value) {
+            entry.visitIntArray(value);
+            afterValue();
+        }
+
+        @Override
+        public void visitString(String value) {
+            entry.visitString(value);
+            afterValue();
+        }
+
+        @Override
+        public void visitCompoundStart() {
+            if (depth > 0) {
+                entry.visitCompoundStart();
+            }
+            depth++;
+        }
+
+        @Override
+        public void visitKey(String key) {
+            if (depth == 1) {
+                entryName = key;
+                entry = new NbtTagBuilder();
+                entry.visitCompoundStart();
+            }
+            entry.visitKey(key);
+        }
+
+        @Override
+        public void visitCompoundEnd() {
+            depth--;
+            if (depth > 0) {
+                entry.visitCompoundEnd();
+                afterValue();
+            }
+        }
+
+        @Override
+        public void visitListStart() {
+            entry.visitListStart();
+            depth++;
+        }
+
+        @Override
+        public void visitListEnd() {
+            depth--;
+            entry.visitListEnd();
+            afterValue();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return error != null;
+        }
+    }
+
     public static class Key {
         public final byte[] hash;
         @Nullable // for client storage
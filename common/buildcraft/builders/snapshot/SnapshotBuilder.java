@@ -9,12 +9,13 @@ package buildcraft.builders.snapshot;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Queue;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -58,6 +59,8 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
     private static final byte REQUIRED_TRUE = 1;
     private static final byte REQUIRED_FALSE = 2;
     private static final int CHECKS_PER_TICK = 10;
+    /** Boxes with more blocks than this have their orders computed off the server thread. */
+    private static final int MAX_SYNC_ORDER_SIZE = 1 << 16;
     private static final long MAX_POWER_PER_TICK = 256 * MjAPI.MJ;
 
     protected final T tile;
@@ -88,7 +91,22 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
     private byte[] requiredCache;
     private int[] breakOrder;
     private int[] placeOrder;
+    /** The position of every index in {@link #breakOrder} and {@link #placeOrder}. */
+    private int[] breakRanks;
+    private int[] placeRanks;
+    /** The ranks (in {@link #breakOrder}) of every block that needs to be broken but doesn't have a task yet. This is
+     * kept up to date by {@link #updateQueues(int)} so that finding the next tasks doesn't need to scan every block. */
+    private final BitSet breakQueue = new BitSet();
+    /** The ranks (in {@link #placeOrder}) of every block that needs to be placed but doesn't have a task yet. */
+    private final BitSet placeQueue = new BitSet();
+    /** Like {@link #placeQueue}, but for blocks that we don't have enough items for. These are moved back into
+     * {@link #placeQueue} by {@link #resourcesChanged()}. */
+    private final BitSet placeWaiting = new BitSet();
+    private int queuedToBreak;
+    private int queuedToPlace;
     private int[] checkOrder;
+    /** The orders that are being computed in the background, for large boxes. */
+    private CompletableFuture<BuildOrder> pendingOrder;
     private int currentCheckIndex;
     public Vec3d robotPos = null;
     public Vec3d prevRobotPos = null;
@@ -180,35 +198,134 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
                 getBuildingInfo().box.size().getZ()
             ];
         Arrays.fill(requiredCache, REQUIRED_UNKNOWN);
-        breakOrder = getBuildingInfo().box.getBlocksInArea().stream()
-            .sorted(BlockUtil.uniqueBlockPosComparator(Comparator.comparingDouble(blockPos ->
-                Math.pow(blockPos.getX() - getBuildingInfo().box.center().getX(), 2) +
-                    Math.pow(blockPos.getZ() - getBuildingInfo().box.center().getZ(), 2) +
-                    100_000 - Math.abs(blockPos.getY() - tile.getBuilderPos().getY()) * 100_000
-            )))
-            .mapToInt(this::posToIndex)
-            .toArray();
-        placeOrder = getBuildingInfo().box.getBlocksInArea().stream()
-            .sorted(BlockUtil.uniqueBlockPosComparator(Comparator.comparingDouble(blockPos ->
-                100_000 - (Math.pow(blockPos.getX() - tile.getBuilderPos().getX(), 2) +
-                    Math.pow(blockPos.getZ() - tile.getBuilderPos().getZ(), 2)) +
-                    Math.abs(blockPos.getY() - tile.getBuilderPos().getY()) * 100_000
-            )))
-            .mapToInt(this::posToIndex)
-            .toArray();
-        checkOrder = getBuildingInfo().box.getBlocksInArea().stream()
-            .sorted(BlockUtil.uniqueBlockPosComparator(Comparator.comparingDouble(blockPos ->
-                Math.pow(blockPos.getX() - getBuildingInfo().box.center().getX(), 2) +
-                    Math.pow(blockPos.getY() - getBuildingInfo().box.center().getY(), 2) +
-                    Math.pow(blockPos.getZ() - getBuildingInfo().box.center().getZ(), 2)
-            )))
-            .mapToInt(this::posToIndex)
-            .toArray();
+        breakOrder = null;
+        placeOrder = null;
+        checkOrder = null;
+        breakRanks = null;
+        placeRanks = null;
+        if (pendingOrder != null) {
+            pendingOrder.cancel(false);
+        }
+        rebuildQueues();
+        BlockPos min = getBuildingInfo().box.min();
+        BlockPos size = getBuildingInfo().box.size();
+        BlockPos center = getBuildingInfo().box.center();
+        BlockPos builderPos = tile.getBuilderPos();
+        int baseIndex = posToIndex(min);
+        int[] strides = {
+            posToIndex(min.add(1, 0, 0)) - baseIndex,
+            posToIndex(min.add(0, 1, 0)) - baseIndex,
+            posToIndex(min.add(0, 0, 1)) - baseIndex
+        };
+        Supplier<BuildOrder> computeOrder = () -> BuildOrder.compute(
+            new int[] { min.getX(), min.getY(), min.getZ() },
+            new int[] { size.getX(), size.getY(), size.getZ() },
+            new int[] { center.getX(), center.getY(), center.getZ() },
+            new int[] { builderPos.getX(), builderPos.getY(), builderPos.getZ() },
+            baseIndex,
+            strides
+        );
+        if (checkResults.length <= MAX_SYNC_ORDER_SIZE) {
+            pendingOrder = CompletableFuture.completedFuture(computeOrder.get());
+            applyOrder();
+        } else {
+            // Building doesn't start until this has finished: see applyOrder()
+            pendingOrder = CompletableFuture.supplyAsync(computeOrder);
+        }
         tile.getWorldBC().profiler.endSection();
     }
 
+    /** Starts using the orders from {@link #pendingOrder}, if they have been computed.
+     *
+     * @return True if the orders are ready. */
+    private boolean applyOrder() {
+        if (breakOrder != null) {
+            return true;
+        }
+        if (pendingOrder == null || !pendingOrder.isDone()) {
+            return false;
+        }
+        BuildOrder order = pendingOrder.join();
+        pendingOrder = null;
+        breakOrder = order.breakOrder;
+        placeOrder = order.placeOrder;
+        checkOrder = order.checkOrder;
+        breakRanks = computeRanks(breakOrder);
+        placeRanks = computeRanks(placeOrder);
+        rebuildQueues();
+        return true;
+    }
+
+    private static int[] computeRanks(int[] order) {
+        int[] ranks = new int[order.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            ranks[order[rank]] = rank;
+        }
+        return ranks;
+    }
+
+    private void rebuildQueues() {
+        breakQueue.clear();
+        placeQueue.clear();
+        placeWaiting.clear();
+        queuedToBreak = 0;
+        queuedToPlace = 0;
+        if (breakRanks == null) {
+            return;
+        }
+        for (int i = 0; i < checkResults.length; i++) {
+            updateQueues(i);
+        }
+    }
+
+    /** Adds the given index to (or removes it from) the break and place queues, depending on its check result and on
+     * whether it already has a task. This must be called whenever either of those change. */
+    private void updateQueues(int i) {
+        if (breakRanks == null) {
+            // The orders haven't been computed yet, so rebuildQueues() will add this later
+            return;
+        }
+        boolean toBreak = checkResults[i] == CHECK_RESULT_TO_BREAK && !hasBreakTask(i);
+        int breakRank = breakRanks[i];
+        if (breakQueue.get(breakRank) != toBreak) {
+            breakQueue.set(breakRank, toBreak);
+            queuedToBreak += toBreak ? 1 : -1;
+        }
+        boolean toPlace = checkResults[i] == CHECK_RESULT_TO_PLACE && !hasPlaceTask(i);
+        int placeRank = placeRanks[i];
+        if ((placeQueue.get(placeRank) || placeWaiting.get(placeRank)) != toPlace) {
+            if (toPlace) {
+                placeQueue.set(placeRank);
+            } else {
+                placeQueue.clear(placeRank);
+                placeWaiting.clear(placeRank);
+            }
+            queuedToPlace += toPlace ? 1 : -1;
+        }
+    }
+
+    private boolean hasBreakTask(int i) {
+        for (BreakTask breakTask : breakTasks) {
+            if (posToIndex(breakTask.pos) == i) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasPlaceTask(int i) {
+        for (PlaceTask placeTask : placeTasks) {
+            if (posToIndex(placeTask.pos) == i) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void resourcesChanged() {
         Arrays.fill(requiredCache, REQUIRED_UNKNOWN);
+        placeQueue.or(placeWaiting);
+        placeWaiting.clear();
     }
 
     public void cancel() {
@@ -224,6 +341,17 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
         requiredCache = null;
         breakOrder = null;
         placeOrder = null;
+        breakRanks = null;
+        placeRanks = null;
+        if (pendingOrder != null) {
+            pendingOrder.cancel(false);
+            pendingOrder = null;
+        }
+        breakQueue.clear();
+        placeQueue.clear();
+        placeWaiting.clear();
+        queuedToBreak = 0;
+        queuedToPlace = 0;
         checkOrder = null;
         currentCheckIndex = 0;
         robotPos = null;
@@ -274,11 +402,15 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
             return false;
         }
 
+        if (!applyOrder()) {
+            return false;
+        }
+
         boolean checkResultsChanged = false;
 
         tile.getWorldBC().profiler.startSection("scan");
         for (int i = 0; i < CHECKS_PER_TICK; i++) {
-            if (check(indexToPos(currentCheckIndex))) {
+            if (check(indexToPos(checkOrder[currentCheckIndex]))) {
                 checkResultsChanged = true;
             }
             currentCheckIndex = (currentCheckIndex + 1) % checkOrder.length;
@@ -292,6 +424,7 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
             if (checkResults[posToIndex(breakTask.pos)] == CHECK_RESULT_CORRECT) {
                 iterator.remove();
                 cancelBreakTask(breakTask);
+                updateQueues(posToIndex(breakTask.pos));
             }
         }
         tile.getWorldBC().profiler.endSection();
@@ -301,6 +434,7 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
             if (checkResults[posToIndex(placeTask.pos)] == CHECK_RESULT_CORRECT) {
                 iterator.remove();
                 cancelPlaceTask(placeTask);
+                updateQueues(posToIndex(placeTask.pos));
             }
         }
         tile.getWorldBC().profiler.endSection();
@@ -311,66 +445,55 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
         tile.getWorldBC().profiler.startSection("add tasks");
         tile.getWorldBC().profiler.startSection("break");
         if (tile.canExcavate()) {
-            Set<Integer> breakTasksIndexes = breakTasks.stream()
-                .map(breakTask -> posToIndex(breakTask.pos))
-                .collect(Collectors.toSet());
-            int[] blocks = Arrays.stream(breakOrder)
-                .filter(i -> checkResults[i] == CHECK_RESULT_TO_BREAK && !breakTasksIndexes.contains(i))
-                .toArray();
-            leftToBreak = blocks.length;
-            if (blocks.length != 0) {
+            leftToBreak = queuedToBreak;
+            if (queuedToBreak != 0) {
                 isDone = false;
             }
-            Arrays.stream(blocks)
-                .mapToObj(this::indexToPos)
-                .filter(blockPos -> BlockUtil.getFluidWithFlowing(tile.getWorldBC(), blockPos) == null)
-                .map(blockPos ->
-                    new BreakTask(
-                        blockPos,
-                        0
-                    )
-                )
-                .limit(MAX_QUEUE_SIZE - breakTasks.size())
-                .forEach(breakTasks::add);
+            for (int rank = breakQueue.nextSetBit(0);
+                 rank >= 0 && breakTasks.size() < MAX_QUEUE_SIZE;
+                 rank = breakQueue.nextSetBit(rank + 1)) {
+                int i = breakOrder[rank];
+                BlockPos blockPos = indexToPos(i);
+                if (BlockUtil.getFluidWithFlowing(tile.getWorldBC(), blockPos) == null) {
+                    breakTasks.add(new BreakTask(blockPos, 0));
+                    updateQueues(i);
+                }
+            }
         } else {
             leftToBreak = 0;
         }
         tile.getWorldBC().profiler.endSection();
         tile.getWorldBC().profiler.startSection("place");
-        {
-            Set<Integer> placeTasksIndexes = placeTasks.stream()
-                .map(placeTask -> posToIndex(placeTask.pos))
-                .collect(Collectors.toSet());
-            int[] blocks = Arrays.stream(placeOrder)
-                .filter(i -> checkResults[i] == CHECK_RESULT_TO_PLACE && !placeTasksIndexes.contains(i))
-                .toArray();
-            leftToPlace = blocks.length;
-            if (!tile.canExcavate() || breakTasks.isEmpty()) {
-                if (blocks.length != 0) {
-                    isDone = false;
+        leftToPlace = queuedToPlace;
+        if (!tile.canExcavate() || breakTasks.isEmpty()) {
+            if (queuedToPlace != 0) {
+                isDone = false;
+            }
+            int readyLeft = MAX_QUEUE_SIZE - placeTasks.size();
+            for (int rank = placeQueue.nextSetBit(0);
+                 rank >= 0 && readyLeft > 0;
+                 rank = placeQueue.nextSetBit(rank + 1)) {
+                int i = placeOrder[rank];
+                if (requiredCache[i] == REQUIRED_UNKNOWN) {
+                    requiredCache[i] = hasEnoughToPlaceItems(indexToPos(i)) ? REQUIRED_TRUE : REQUIRED_FALSE;
+                }
+                if (requiredCache[i] == REQUIRED_FALSE) {
+                    placeQueue.clear(rank);
+                    placeWaiting.set(rank);
+                    continue;
+                }
+                BlockPos blockPos = indexToPos(i);
+                if (!isReadyToPlace(blockPos)) {
+                    continue;
+                }
+                readyLeft--;
+                if (canPlace(blockPos)) {
+                    PlaceTask placeTask = new PlaceTask(blockPos, getToPlaceItems(blockPos), 0);
+                    if (placeTask.items != null) {
+                        placeTasks.add(placeTask);
+                        updateQueues(i);
+                    }
                 }
-                Arrays.stream(blocks)
-                    .filter(i -> {
-                        if (requiredCache[i] != REQUIRED_UNKNOWN) {
-                            return requiredCache[i] == REQUIRED_TRUE;
-                        }
-                        boolean has = hasEnoughToPlaceItems(indexToPos(i));
-                        requiredCache[i] = has ? REQUIRED_TRUE : REQUIRED_FALSE;
-                        return has;
-                    })
-                    .mapToObj(this::indexToPos)
-                    .filter(this::isReadyToPlace)
-                    .limit(MAX_QUEUE_SIZE - placeTasks.size())
-                    .filter(this::canPlace)
-                    .map(blockPos ->
-                        new PlaceTask(
-                            blockPos,
-                            getToPlaceItems(blockPos),
-                            0
-                        )
-                    )
-                    .filter(placeTask -> placeTask.items != null)
-                    .forEach(placeTasks::add);
             }
         }
         tile.getWorldBC().profiler.endSection();
@@ -421,6 +544,7 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
                         checkResultsChanged = true;
                     }
                     iterator.remove();
+                    updateQueues(posToIndex(breakTask.pos));
                 } else {
                     tile.getWorldBC().profiler.startSection("work");
                     tile.getWorldBC().sendBlockBreakProgress(
@@ -455,6 +579,7 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
                         checkResultsChanged = true;
                     }
                     iterator.remove();
+                    updateQueues(posToIndex(placeTask.pos));
                 }
             }
         }
@@ -498,7 +623,11 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
                 checkResults[i] = CHECK_RESULT_TO_BREAK;
             }
         }
-        return prev != checkResults[i];
+        if (prev != checkResults[i]) {
+            updateQueues(i);
+            return true;
+        }
+        return false;
     }
 
     protected void afterChecks() {
@@ -535,12 +664,16 @@ public abstract class SnapshotBuilder<T extends ITileForSnapshotBuilder> impleme
     @Override
     public void deserializeNBT(NBTTagCompound nbt) {
         updateSnapshot();
-        checkResults = nbt.getByteArray("checkResults");
+        byte[] savedCheckResults = nbt.getByteArray("checkResults");
+        if (savedCheckResults.length == checkResults.length) {
+            checkResults = savedCheckResults;
+        }
         breakTasks.clear();
         NBTUtilBC.readCompoundList(nbt.getTag("breakTasks")).map(BreakTask::new).forEach(breakTasks::add);
         placeTasks.clear();
         NBTUtilBC.readCompoundList(nbt.getTag("placeTasks")).map(PlaceTask::new).forEach(placeTasks::add);
         currentCheckIndex = nbt.getInteger("currentCheckIndex");
+        rebuildQueues();
     }
 
     public class BreakTask {
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.builders.snapshot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+import net.minecraftforge.common.util.Constants;
+
+import buildcraft.api.data.NbtSquishConstants;
+
+import buildcraft.lib.nbt.INbtVisitor;
+import buildcraft.lib.nbt.NbtSquisher;
+import buildcraft.lib.nbt.NbtTagBuilder;
+
+/** A persistent index of every snapshot file in a directory, so that listing the snapshots (or finding the file for a
+ * key) doesn't have to read every snapshot file.
+ * <p>
+ * The index is stored in its own file in the same directory, and holds the file name, length, modification time and
+ * {@link Snapshot.Key} (including the {@link Snapshot.Header}) of every snapshot. When it is loaded the index is
+ * checked against the directory: any snapshot file that isn't in the index (or has changed since it was indexed) is
+ * read once to find its key, and entries for files that have been deleted are dropped.
+ * <p>
+ * Files can also be added or deleted by hand while the game is running, so the directory is scanned again whenever its
+ * modification time changes (see {@link #isOutdated()}), and every {@link #RESCAN_INTERVAL} milliseconds in case the
+ * file system didn't change it. */
+final class SnapshotIndex {
+    private static final String INDEX_FILE_NAME = "index.dat";
+    private static final int VERSION = 1;
+    /** How often {@link #isOutdated()} actually checks the directory, in milliseconds. */
+    private static final long CHECK_INTERVAL = 1000;
+    private static final long RESCAN_INTERVAL = 30_000;
+
+    private final File directory;
+    private final File indexFile;
+    private final String extension;
+    private final Map<Snapshot.Key, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, Entry> entriesByFile = new HashMap<>();
+    /** The keys of every entry, or null if they have changed since this was last created. */
+    @Nullable
+    private List<Snapshot.Key> keys;
+    private volatile long lastChecked;
+    /** The time that the directory was last scanned, and its modification time when it was. */
+    private volatile long lastScanned, scannedDirectoryModified;
+
+    SnapshotIndex(File directory, String extension) {
+        this.directory = directory;
+        this.indexFile = new File(directory, INDEX_FILE_NAME);
+        this.extension = extension;
+    }
+
+    /** Reads the index file (if it exists), and then brings it up to date with the snapshot files in the directory. */
+    synchronized void load() {
+        entries.clear();
+        entriesByFile.clear();
+        keys = null;
+        if (indexFile.isFile()) {
+            try (FileInputStream fis = new FileInputStream(indexFile)) {
+                readIndex(NbtSquisher.expand(fis));
+            } catch (IOException e) {
+                new IOException("Failed to read the snapshot index " + indexFile + ", rebuilding it", e)
+                    .printStackTrace();
+                entries.clear();
+                entriesByFile.clear();
+            }
+        }
+        if (scanDirectory()) {
+            save();
+        }
+    }
+
+    private void readIndex(NBTTagCompound nbt) {
+        if (nbt.getInteger("version") != VERSION) {
+            return;
+        }
+        NBTTagList list = nbt.getTagList("entries", Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < list.tagCount(); i++) {
+            NBTTagCompound entryNbt = list.getCompoundTagAt(i);
+            Entry entry = new Entry(
+                entryNbt.getString("file"),
+                entryNbt.getLong("length"),
+                entryNbt.getLong("modified"),
+                new Snapshot.Key(entryNbt.getCompoundTag("key"))
+            );
+            put(entry);
+        }
+    }
+
+    /** @return True if the directory might have changed since it was last scanned, in which case {@link #rescan()}
+     *         should be called (off the main thread). This is cheap enough to call often. */
+    boolean isOutdated() {
+        long now = System.currentTimeMillis();
+        if (now - lastChecked < CHECK_INTERVAL) {
+            return false;
+        }
+        lastChecked = now;
+        return now - lastScanned > RESCAN_INTERVAL || directory.lastModified() != scannedDirectoryModified;
+    }
+
+    /** Brings the index up to date with any snapshot files that have been added, changed or deleted since it was last
+     * scanned. */
+    synchronized void rescan() {
+        if (scanDirectory()) {
+            save();
+        }
+    }
+
+    /** @return True if anything changed. */
+    private boolean scanDirectory() {
+        lastScanned = System.currentTimeMillis();
+        // Read before listing, so that a file added during the scan changes it again
+        scannedDirectoryModified = directory.lastModified();
+        boolean changed = false;
+        Set<String> found = new HashSet<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(extension) || !file.isFile()) {
+                    continue;
+                }
+                found.add(name);
+                Entry entry = entriesByFile.get(name);
+                if (entry != null && entry.length == file.length() && entry.modified == file.lastModified()) {
+                    continue;
+                }
+                if (entry != null) {
+                    removeEntry(entry);
+                }
+                changed = true;
+                Snapshot.Key key = readKey(file);
+                if (key != null && name.startsWith(key.toString()) && !entries.containsKey(key)) {
+                    put(new Entry(name, file.length(), file.lastModified(), key));
+                }
+            }
+        }
+        for (Entry entry : entriesByFile.values().toArray(new Entry[0])) {
+            if (!found.contains(entry.fileName)) {
+                removeEntry(entry);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Reads just the key of the given snapshot file, stopping as soon as it has been read rather than expanding the
+     * rest of the snapshot. */
+    @Nullable
+    private static Snapshot.Key readKey(File file) {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            KeyVisitor visitor = new KeyVisitor();
+            NbtSquisher.expand(fis, visitor);
+            if (visitor.key == null) {
+                throw new IOException("Missing the key!");
+            }
+            return new Snapshot.Key(visitor.key);
+        } catch (IOException e) {
+            new IOException("Failed to read the snapshot " + file, e).printStackTrace();
+            return null;
+        }
+    }
+
+    private void put(Entry entry) {
+        entries.put(entry.key, entry);
+        entriesByFile.put(entry.fileName, entry);
+        keys = null;
+    }
+
+    private void removeEntry(Entry entry) {
+        entries.remove(entry.key);
+        entriesByFile.remove(entry.fileName);
+        keys = null;
+    }
+
+    private void save() {
+        NBTTagList list = new NBTTagList();
+        for (Entry entry : entries.values()) {
+            NBTTagCompound entryNbt = new NBTTagCompound();
+            entryNbt.setString("file", entry.fileName);
+            entryNbt.setLong("length", entry.length);
+            entryNbt.setLong("modified", entry.modified);
+            entryNbt.setTag("key", entry.key.serializeNBT());
+            list.appendTag(entryNbt);
+        }
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setInteger("version", VERSION);
+        nbt.setTag("entries", list);
+
+        // Write to a temporary file first, so a crash can't leave behind half of an index
+        File tempFile = new File(directory, INDEX_FILE_NAME + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+            NbtSquisher.squish(nbt, NbtSquishConstants.BUILDCRAFT_V1_COMPRESSED, fos);
+        } catch (IOException e) {
+            new IOException("Failed to write the snapshot index " + tempFile, e).printStackTrace();
+            return;
+        }
+        if ((indexFile.exists() && !indexFile.delete()) || !tempFile.renameTo(indexFile)) {
+            new IOException("Failed to replace the snapshot index " + indexFile).printStackTrace();
+        }
+        // Replacing the index changes the directory, but there's no need to scan it again for that
+        scannedDirectoryModified = directory.lastModified();
+    }
+
+    /** @return The file that holds the snapshot with the given key, or null if there isn't one. */
+    @Nullable
+    synchronized File getFile(Snapshot.Key key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : new File(directory, entry.fileName);
+    }
+
+    synchronized List<Snapshot.Key> getKeys() {
+        if (keys == null) {
+            keys = ImmutableList.copyOf(entries.keySet());
+        }
+        return keys;
+    }
+
+    /** Adds (or updates) the entry for the given snapshot file, which must have already been written. */
+    synchronized void add(Snapshot.Key key, File file) {
+        Entry old = entriesByFile.get(file.getName());
+        if (old != null) {
+            removeEntry(old);
+        }
+        old = entries.get(key);
+        if (old != null) {
+            removeEntry(old);
+        }
+        put(new Entry(file.getName(), file.length(), file.lastModified(), key));
+        save();
+    }
+
+    /** Removes the entry for the given key.
+     *
+     * @return The file that held the snapshot, or null if the key wasn't in this index. */
+    @Nullable
+    synchronized File remove(Snapshot.Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        removeEntry(entry);
+        save();
+        return new File(directory, entry.fileName);
+    }
+
+    /** Builds the top level "key" compound of a snapshot, and ignores everything else. */
+    private static final class KeyVisitor implements INbtVisitor {
+        /** The number of compounds and lists that are open outside of the key. */
+        private int depth;
+        /** The number of compounds and lists that are open inside of the key, or 0 if it isn't being read. */
+        private int keyDepth;
+        private boolean nextIsKey;
+        private final NbtTagBuilder builder = new NbtTagBuilder();
+        @Nullable
+        NBTTagCompound key;
+
+        /** @return True if the next value is part of the key, and so should be passed on to the builder. */
+        private boolean isInKey() {
+            // Values that aren't compounds can't be the key
+            nextIsKey = false;
+            return keyDepth > 0;
+        }
+
+        @Override
+        public void visitByte(byte value) {
+            if (isInKey()) {
+                builder.visitByte(value);
+            }
+        }
+
+        @Override
+        public void visitShort(short value) {
+            if (isInKey()) {
+                builder.visitShort(value);
+            }
+        }
+
+        @Override
+        public void visitInt(int value) {
+            if (isInKey()) {
+                builder.visitInt(value);
+            }
+        }
+
+        @Override
+        public void visitLong(long value) {
+            if (isInKey()) {
+                builder.visitLong(value);
+            }
+        }
+
+        @Override
+        public void visitFloat(float value) {
+            if (isInKey()) {
+                builder.visitFloat(value);
+            }
+        }
+
+        @Override
+        public void visitDouble(double value) {
+            if (isInKey()) {
+                builder.visitDouble(value);
+            }
+        }
+
+        @Override
+        public void visitByteArray(byte[] value) {
+            if (isInKey()) {
+                builder.visitByteArray(value);
+            }
+        }
+
+        @Override
+        public void visitIntArray(int[] value) {
+            if (isInKey()) {
+                builder.visitIntArray(value);
+            }
+        }
+
+        @Override
+        public void visitString(String value) {
+            if (isInKey()) {
+                builder.visitString(value);
+            }
+        }
+
+        @Override
+        public void visitCompoundStart() {
+            if (keyDepth > 0 || nextIsKey) {
+                nextIsKey = false;
+                keyDepth++;
+                builder.visitCompoundStart();
+            } else {
+                depth++;
+            }
+        }
+
+        @Override
+        public void visitKey(String name) {
+            if (keyDepth > 0) {
+                builder.visitKey(name);
+            } else {
+                // Only the root compound is open
+                nextIsKey = depth == 1 && "key".equals(name);
+            }
+        }
+
+        @Override
+        public void visitCompoundEnd() {
+            if (keyDepth > 0) {
+                builder.visitCompoundEnd();
+                if (--keyDepth == 0) {
+                    key = builder.getRoot();
+                }
+            } else {
+                depth--;
+            }
+        }
+
+        @Override
+        public void visitListStart() {
+            if (keyDepth > 0) {
+                keyDepth++;
+                builder.visitListStart();
+            } else {
+                nextIsKey = false;
+                depth++;
+            }
+        }
+
+        @Override
+        public void visitListEnd() {
+            if (keyDepth > 0) {
+                keyDepth--;
+                builder.visitListEnd();
+            } else {
+                depth--;
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            return key != null;
+        }
+    }
+
+    private static final class Entry {
+        final String fileName;
+        final long length;
+        final long modified;
+        final Snapshot.Key key;
+
+        Entry(String fileName, long length, long modified, Snapshot.Key key) {
+            this.fileName = fileName;
+            this.length = length;
+            this.modified = modified;
+            this.key = key;
+        }
+    }
+}
@@ -10,8 +10,11 @@ import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.BiConsumer;
 
-import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagList;
 import net.minecraft.util.Rotation;
 import net.minecraft.util.math.BlockPos;
 
@@ -22,6 +25,8 @@ import buildcraft.api.filler.IFilledTemplate;
 import buildcraft.lib.misc.VecUtil;
 
 public class Template extends Snapshot {
+    private static final int MAX_ARRAY_LENGTH = 0xFFFF;
+
     public BitSet data;
 
     @Override
@@ -35,6 +40,11 @@ public class Template extends Snapshot {
         return template;
     }
 
+    @Override
+    public long getApproximateSize() {
+        return super.getApproximateSize() + (data == null ? 0 : data.size() / 8);
+    }
+
     public FilledTemplate getFilledTemplate() {
         return new FilledTemplate();
     }
@@ -44,16 +54,34 @@ public class Template extends Snapshot {
     }
 
     @Override
-    public NBTTagCompound serializeNBT() {
-        NBTTagCompound nbt = super.serializeNBT();
-        nbt.setByteArray("data", data.toByteArray());
-        return nbt;
+    protected void writeEntries(BiConsumer<String, NBTBase> to) {
+        super.writeEntries(to);
+        byte[] bytes = data.toByteArray();
+        // The BuildCraft NBT format can't store longer arrays, so only large templates are split up
+        to.accept("data", bytes.length > MAX_ARRAY_LENGTH
+            ? BlueprintDataFormat.writeChunks(bytes)
+            : new NBTTagByteArray(bytes));
+    }
+
+    @Override
+    protected void readEntry(String name, NBTBase tag) throws InvalidInputDataException {
+        if ("data".equals(name)) {
+            if (tag instanceof NBTTagList) {
+                data = BitSet.valueOf(BlueprintDataFormat.readChunks((NBTTagList) tag));
+            } else if (tag instanceof NBTTagByteArray) {
+                data = BitSet.valueOf(((NBTTagByteArray) tag).getByteArray());
+            }
+        } else {
+            super.readEntry(name, tag);
+        }
     }
 
     @Override
-    public void deserializeNBT(NBTTagCompound nbt) throws InvalidInputDataException {
-        super.deserializeNBT(nbt);
-        data = BitSet.valueOf(nbt.getByteArray("data"));
+    protected void finishReading() throws InvalidInputDataException {
+        super.finishReading();
+        if (data == null) {
+            data = new BitSet();
+        }
         if (data.length() > getDataSize()) {
             throw new InvalidInputDataException(
                 "Serialized data has length of " + data.length() +
@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
@@ -102,6 +103,9 @@ public class TileBuilder extends TileBC_Neptune
     private List<BlockPos> basePoses = new ArrayList<>();
     private int currentBasePosIndex = 0;
     private Snapshot snapshot = null;
+    /** The snapshot for the item in {@link #invSnapshot}, if it was still being loaded when the item was inserted. */
+    @Nullable
+    private CompletableFuture<Snapshot> loadingSnapshot = null;
     public EnumSnapshotType snapshotType = null;
     private Template.BuildingInfo templateBuildingInfo = null;
     private Blueprint.BuildingInfo blueprintBuildingInfo = null;
@@ -141,12 +145,17 @@ public class TileBuilder extends TileBC_Neptune
             if (handler == invSnapshot) {
                 currentBasePosIndex = 0;
                 snapshot = null;
+                loadingSnapshot = null;
                 if (after.getItem() instanceof ItemSnapshot) {
                     Snapshot.Header header = BCBuildersItems.snapshot.getHeader(after);
                     if (header != null) {
-                        Snapshot newSnapshot = GlobalSavedDataSnapshots.get(world).getSnapshot(header.key);
-                        if (newSnapshot != null) {
-                            snapshot = newSnapshot;
+                        CompletableFuture<Snapshot> future =
+                            GlobalSavedDataSnapshots.get(world).requestSnapshot(header.key);
+                        if (future.isDone()) {
+                            snapshot = future.join();
+                        } else {
+                            // Carry on ticking, and pick it up in update() once it's loaded
+                            loadingSnapshot = future;
                         }
                     }
                 }
@@ -239,6 +248,12 @@ public class TileBuilder extends TileBC_Neptune
         world.profiler.startSection("power");
         battery.tick(getWorld(), getPos());
         world.profiler.endStartSection("builder");
+        if (loadingSnapshot != null && loadingSnapshot.isDone()) {
+            snapshot = loadingSnapshot.join();
+            loadingSnapshot = null;
+            updateSnapshot(true);
+            sendNetworkUpdate(NET_SNAPSHOT_TYPE);
+        }
         SnapshotBuilder<?> builder = getBuilder();
         if (builder != null) {
             isDone = builder.tick();
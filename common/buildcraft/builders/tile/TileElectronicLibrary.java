@@ -4,36 +4,39 @@
  * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 package buildcraft.builders.tile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import javax.annotation.Nonnull;
 
 import com.google.common.primitives.Bytes;
 
+import io.netty.buffer.ByteBufInputStream;
+
 import org.apache.commons.lang3.tuple.Pair;
 
 import net.minecraft.item.ItemStack;
+import net.minecraft.util.IThreadListener;
 import net.minecraft.util.ITickable;
 
+import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.items.IItemHandlerModifiable;
 
 import buildcraft.api.core.EnumPipePart;
-import buildcraft.api.data.NbtSquishConstants;
 
 import buildcraft.lib.delta.DeltaInt;
 import buildcraft.lib.delta.DeltaManager;
 import buildcraft.lib.misc.StackUtil;
 import buildcraft.lib.misc.data.IdAllocator;
-import buildcraft.lib.nbt.NbtSquisher;
 import buildcraft.lib.net.MessageManager;
 import buildcraft.lib.net.PacketBufferBC;
 import buildcraft.lib.tile.TileBC_Neptune;
@@ -90,11 +93,15 @@ public class TileElectronicLibrary extends TileBC_Neptune implements ITickable {
     public final DeltaInt deltaProgressDown = deltaManager.addDelta("progressDown", DeltaManager.EnumNetworkVisibility.GUI_ONLY);
     public final DeltaInt deltaProgressUp = deltaManager.addDelta("progressUp", DeltaManager.EnumNetworkVisibility.GUI_ONLY);
     private final Map<Pair<UUID, Snapshot.Key>, List<byte[]>> upSnapshotsParts = new HashMap<>();
+    /** The compressed snapshot to send down to the client (or null if there isn't one), which is loaded and compressed
+     * in the background while the progress bar fills up. */
+    private CompletableFuture<byte[]> downData = null;
 
     @Override
     protected void onSlotChange(IItemHandlerModifiable handler, int slot, @Nonnull ItemStack before, @Nonnull ItemStack after) {
         super.onSlotChange(handler, slot, before, after);
         if (handler == invDownIn) {
+            downData = null;
             if (progressDown > 0) {
                 progressDown = -1;
                 deltaProgressDown.setValue(0);
@@ -122,17 +129,25 @@ public class TileElectronicLibrary extends TileBC_Neptune implements ITickable {
                 deltaProgressDown.addDelta(0, 50, 1);
                 deltaProgressDown.addDelta(50, 55, -1);
             }
+            if (downData == null) {
+                downData = requestDownData();
+            }
             if (progressDown >= 50) {
-                sendNetworkGuiUpdate(NET_DOWN);
-                invDownOut.setStackInSlot(0, invDownIn.getStackInSlot(0));
-                invDownIn.setStackInSlot(0, StackUtil.EMPTY);
-                progressDown = -1;
+                // Otherwise wait for the snapshot to finish loading
+                if (downData.isDone()) {
+                    sendNetworkGuiUpdate(NET_DOWN);
+                    invDownOut.setStackInSlot(0, invDownIn.getStackInSlot(0));
+                    invDownIn.setStackInSlot(0, StackUtil.EMPTY);
+                    progressDown = -1;
+                    downData = null;
+                }
             } else {
                 progressDown++;
             }
         } else if (progressDown != -1) {
             progressDown = -1;
             deltaProgressDown.setValue(0);
+            downData = null;
         }
 
         if (selected != null && !invUpIn.getStackInSlot(0).isEmpty() && invUpOut.getStackInSlot(0).isEmpty()) {
@@ -153,6 +168,40 @@ public class TileElectronicLibrary extends TileBC_Neptune implements ITickable {
         }
     }
 
+    private CompletableFuture<byte[]> requestDownData() {
+        Snapshot.Header header = BCBuildersItems.snapshot.getHeader(invDownIn.getStackInSlot(0));
+        if (header == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return GlobalSavedDataSnapshots.get(world).requestSnapshot(header.key).thenApplyAsync(snapshot -> {
+            if (snapshot == null) {
+                return null;
+            }
+            snapshot = snapshot.copy();
+            snapshot.key = new Snapshot.Key(snapshot.key, header);
+            return Snapshot.write(snapshot);
+        }, GlobalSavedDataSnapshots.getIoExecutor());
+    }
+
+    private void sendUpData(UUID playerId, Snapshot.Key key, byte[] data) {
+        int partSize = 4 * 1024;
+        int offset = 0;
+        boolean last;
+        do {
+            int end = Math.min(offset + partSize, data.length);
+            byte[] part = Arrays.copyOfRange(data, offset, end);
+            last = end >= data.length;
+            boolean isLast = last;
+            MessageManager.sendToServer(createMessage(NET_UP, localBuffer -> {
+                localBuffer.writeUniqueId(playerId);
+                key.writeToByteBuf(localBuffer);
+                localBuffer.writeBoolean(isLast);
+                localBuffer.writeByteArray(part);
+            }));
+            offset = end;
+        } while (!last);
+    }
+
     // How networking works here:
     // down:
     // 1. server sends NET_DOWN with snapshot to clients
@@ -173,23 +222,10 @@ public class TileElectronicLibrary extends TileBC_Neptune implements ITickable {
                 }
             }
             if (id == NET_DOWN) {
-                Snapshot.Header header = BCBuildersItems.snapshot.getHeader(invDownIn.getStackInSlot(0));
-                if (header != null) {
-                    Snapshot snapshot = GlobalSavedDataSnapshots.get(world).getSnapshot(header.key);
-                    if (snapshot != null) {
-                        snapshot = snapshot.copy();
-                        snapshot.key = new Snapshot.Key(snapshot.key, header);
-                        buffer.writeBoolean(true);
-                        NbtSquisher.squish(
-                            Snapshot.writeToNBT(snapshot),
-                            NbtSquishConstants.BUILDCRAFT_V1_COMPRESSED,
-                            buffer
-                        );
-                    } else {
-                        buffer.writeBoolean(false);
-                    }
-                } else {
-                    buffer.writeBoolean(false);
+                byte[] data = downData == null ? null : downData.getNow(null);
+                buffer.writeBoolean(data != null);
+                if (data != null) {
+                    buffer.writeBytes(data);
                 }
             }
             // noinspection StatementWithEmptyBody
@@ -211,57 +247,23 @@ public class TileElectronicLibrary extends TileBC_Neptune implements ITickable {
             }
             if (id == NET_DOWN) {
                 if (buffer.readBoolean()) {
-                    Snapshot snapshot = Snapshot.readFromNBT(NbtSquisher.expand(buffer));
+                    Snapshot snapshot = Snapshot.read(new ByteBufInputStream(buffer));
                     snapshot.computeKey();
                     GlobalSavedDataSnapshots.get(world).addSnapshot(snapshot);
                 }
             }
             if (id == NET_UP) {
-                if (selected != null) {
-                    Snapshot snapshot = GlobalSavedDataSnapshots.get(world).getSnapshot(selected);
-                    if (snapshot != null) {
-                        try (OutputStream outputStream = new OutputStream() {
-                            private byte[] buf = new byte[4 * 1024];
-                            private int pos = 0;
-                            private boolean closed = false;
-
-                            private void write(boolean last) throws IOException {
-                                MessageManager.sendToServer(createMessage(NET_UP, localBuffer -> {
-                                    localBuffer.writeUniqueId(ctx.getClientHandler().getGameProfile().getId());
-                                    selected.writeToByteBuf(localBuffer);
-                                    localBuffer.writeBoolean(last);
-                                    localBuffer.writeByteArray(buf);
-                                }));
-                            }
-
-                            @Override
-                            public void write(int b) throws IOException {
-                                buf[pos++] = (byte) b;
-                                if (pos >= buf.length) {
-                                    write(false);
-                                    buf = new byte[buf.length];
-                                    pos = 0;
-                                }
-                            }
-
-                            @Override
-                            public void close() throws IOException {
-                                if (closed) {
-                                    return;
-                                }
-                                closed = true;
-                                buf = Arrays.copyOf(buf, pos);
-                                pos = 0;
-                                write(true);
-                            }
-                        }) {
-                            NbtSquisher.squish(
-                                Snapshot.writeToNBT(snapshot),
-                                NbtSquishConstants.BUILDCRAFT_V1_COMPRESSED,
-                                outputStream
-                            );
+                Snapshot.Key key = selected;
+                if (key != null) {
+                    UUID playerId = ctx.getClientHandler().getGameProfile().getId();
+                    IThreadListener mainThread = FMLCommonHandler.instance().getWorldThread(ctx.netHandler);
+                    // Load and compress the snapshot in the background, and then send it from the main thread
+                    GlobalSavedDataSnapshots.get(world).requestSnapshot(key).thenAcceptAsync(snapshot -> {
+                        if (snapshot != null) {
+                            byte[] data = Snapshot.write(snapshot);
+                            mainThread.addScheduledTask(() -> sendUpData(playerId, key, data));
                         }
-                    }
+                    }, GlobalSavedDataSnapshots.getIoExecutor());
                 }
             }
         }
@@ -274,8 +276,8 @@ public class TileElectronicLibrary extends TileBC_Neptune implements ITickable {
                 upSnapshotsParts.computeIfAbsent(pair, localPair -> new ArrayList<>()).add(buffer.readByteArray());
                 if (last && upSnapshotsParts.containsKey(pair)) {
                     try {
-                        Snapshot snapshot = Snapshot.readFromNBT(
-                            NbtSquisher.expand(
+                        Snapshot snapshot = Snapshot.read(
+                            new ByteArrayInputStream(
                                 Bytes.concat(
                                     upSnapshotsParts.get(pair)
                                         .toArray(new byte[0][])
@@ -14,7 +14,6 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
@@ -44,7 +43,6 @@ import net.minecraft.world.IWorldEventListener;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 
-import net.minecraftforge.fluids.Fluid;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
@@ -69,19 +67,19 @@ import buildcraft.lib.misc.InventoryUtil;
 import buildcraft.lib.misc.LocaleUtil;
 import buildcraft.lib.misc.MessageUtil;
 import buildcraft.lib.misc.NBTUtilBC;
+import buildcraft.lib.misc.StackUtil;
 import buildcraft.lib.misc.VecUtil;
-import buildcraft.lib.misc.data.AxisOrder;
 import buildcraft.lib.misc.data.Box;
-import buildcraft.lib.misc.data.BoxIterator;
-import buildcraft.lib.misc.data.EnumAxisOrder;
 import buildcraft.lib.mj.MjBatteryReceiver;
 import buildcraft.lib.net.PacketBufferBC;
 import buildcraft.lib.tile.TileBC_Neptune;
 import buildcraft.lib.world.WorldEventListenerAdapter;
 
 import buildcraft.builders.BCBuildersBlocks;
+import buildcraft.builders.BCBuildersConfig;
 import buildcraft.builders.BCBuildersEventDist;
 import buildcraft.builders.client.render.AdvDebuggerQuarry;
+import buildcraft.builders.quarry.QuarryMiningPlanner;
 import buildcraft.core.marker.VolumeCache;
 import buildcraft.core.marker.VolumeConnection;
 import buildcraft.core.marker.VolumeSubCache;
@@ -99,8 +97,11 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
     public Box frameBox;
     @Nullable
     private Box miningBox;
+    /** Finds the next block to mine. Only exists on the server, and is created when it is first needed. */
     @Nullable
-    private BoxIterator boxIterator;
+    private QuarryMiningPlanner planner;
+    /** True if the planner has run out of blocks to mine. Used to only unlock the advancement once. */
+    private boolean miningFinished = false;
     public final List<BlockPos> framePoses = new ArrayList<>();
     private int frameBoxPosesCount = 0;
     private final LinkedList<BlockPos> toCheck = new LinkedList<>();
@@ -123,6 +124,9 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
     @Nullable
     public Vec3d prevClientDrillPos;
     private long debugPowerRate = 0;
+    private int debugTasksPerTick = 0;
+    /** Drops that have been mined this tick, but haven't been added to an acceptor yet. */
+    private final List<ItemStack> pendingDrops = new ArrayList<>();
     public List<AxisAlignedBB> collisionBoxes = ImmutableList.of();
     private final IWorldEventListener worldEventListener = new WorldEventListenerAdapter() {
         @Override
@@ -134,21 +138,8 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
             if (valid) {
                 if (frameBox.contains(pos)) {
                     check(pos);
-                } else if (miningBox.contains(pos)) {
-                    if (boxIterator != null
-                        && (boxIterator.getCurrent() == null || pos.getY() >= boxIterator.getCurrent().getY())
-                        && !canMoveThrough(pos) && canMoveTo(pos)) {
-                        BoxIterator tempBoxIterator = createBoxIterator();
-                        while (!Objects.equals(tempBoxIterator.getCurrent(), pos)) {
-                            if (tempBoxIterator.advance() == null) {
-                                return;
-                            }
-                            if (Objects.equals(tempBoxIterator.getCurrent(), boxIterator.getCurrent())) {
-                                return;
-                            }
-                        }
-                        boxIterator = tempBoxIterator;
-                    }
+                } else if (planner != null) {
+                    planner.onBlockChanged(pos);
                 }
             }
         }
@@ -160,11 +151,6 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
             EnumPipePart.VALUES);
     }
 
-    @Nonnull
-    private BoxIterator createBoxIterator() {
-        return new BoxIterator(miningBox, AxisOrder.getFor(EnumAxisOrder.XZY, AxisOrder.Inversion.NNN), true);
-    }
-
     /**
      * Gets the current positions where frame blocks should be placed, in order.
      * <p>
@@ -374,28 +360,7 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
     }
 
     private boolean canMine(BlockPos blockPos) {
-        if (world.getBlockState(blockPos).getBlockHardness(world, blockPos) < 0) {
-            return false;
-        }
-        Fluid fluid = BlockUtil.getFluidWithFlowing(world, blockPos);
-        return fluid == null || fluid.getViscosity() <= 1000;
-    }
-
-    private boolean canMoveThrough(BlockPos blockPos) {
-        if (world.isAirBlock(blockPos)) {
-            return true;
-        }
-        Fluid fluid = BlockUtil.getFluidWithFlowing(world, blockPos);
-        return fluid != null && fluid.getViscosity() <= 1000;
-    }
-
-    private boolean canMoveTo(BlockPos blockPos) {
-        for (int y = miningBox.max().getY(); y > blockPos.getY(); y--) {
-            if (!canMoveThrough(VecUtil.replaceValue(blockPos, Axis.Y, y))) {
-                return false;
-            }
-        }
-        return true;
+        return QuarryMiningPlanner.canMine(world, blockPos);
     }
 
     private boolean canIgnoreInFrameBox(BlockPos blockPos) {
@@ -479,6 +444,8 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
         framePoses.clear();
         frameBoxPosesCount = 0;
         toCheck.clear();
+        planner = null;
+        miningFinished = false;
         firstCheckedPoses.clear();
         firstChecked = false;
         frameBreakBlockPoses.clear();
@@ -533,15 +500,27 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
             return;
         }
 
-        if (!toCheck.isEmpty()) {
-            for (int i = 0; i < (firstChecked ? 10 : 50); i++) {
-                BlockPos blockPos = Objects.requireNonNull(toCheck.pollFirst());
-                check(blockPos);
-                toCheck.addLast(blockPos);
-            }
+        // Every position only needs to be checked once: after that worldEventListener keeps them up-to-date
+        for (int i = 0; i < 50 && !toCheck.isEmpty(); i++) {
+            check(toCheck.pollFirst());
         }
 
-        if (currentTask != null) {
+        // Normally a quarry only does a single task per tick, and starting a task takes up a whole tick. With a higher
+        // limit a quarry with surplus power can start and finish several tasks in a single tick.
+        int maxTasks = BCBuildersConfig.quarryMaxTasksPerTick;
+        boolean sendRenderData = false;
+        debugPowerRate = 0;
+        debugTasksPerTick = 0;
+        while (debugTasksPerTick < maxTasks) {
+            if (currentTask == null) {
+                if (!startNextTask()) {
+                    break;
+                }
+                sendRenderData = true;
+                if (maxTasks == 1) {
+                    break;
+                }
+            }
             long max = Math.min(
                 MAX_POWER_PER_TICK * (battery.getStored() + MAX_POWER_PER_TICK) / (battery.getCapacity() * 2),
                 Math.min(
@@ -549,28 +528,43 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
                     MAX_POWER_PER_TICK
                 )
             );
-            debugPowerRate = max;
+            debugPowerRate += max;
             long power = battery.extractPower(0, max);
-            if (currentTask.addPower(power)) {
-                currentTask = null;
+            sendRenderData = true;
+            if (!currentTask.addPower(power)) {
+                break;
             }
+            currentTask = null;
+            debugTasksPerTick++;
+            if (battery.getStored() < battery.getCapacity() / 2) {
+                // Only carry on if we have power to spare
+                break;
+            }
+        }
+        if (sendRenderData) {
             sendNetworkUpdate(NET_RENDER_DATA);
-            return;
         }
+        flushDrops();
+    }
 
+    /** Sets {@link #currentTask} to the next task that needs doing.
+     *
+     * @return True if a task was started, false if there was nothing to do (at least for this tick). */
+    private boolean startNextTask() {
         if (!firstChecked) {
-            return;
+            return false;
         }
 
         if (!frameBreakBlockPoses.isEmpty()) {
             BlockPos blockPos = frameBreakBlockPoses.iterator().next();
+            boolean started = false;
             if (canMine(blockPos)) {
                 drillPos = null;
                 currentTask = new TaskBreakBlock(blockPos);
-                sendNetworkUpdate(NET_RENDER_DATA);
+                started = true;
             }
             check(blockPos);
-            return;
+            return started;
         }
 
         if (!framePlaceFramePoses.isEmpty()) {
@@ -584,50 +578,63 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
                 }
                 drillPos = null;
                 currentTask = new TaskAddFrame(blockPos);
-                sendNetworkUpdate(NET_RENDER_DATA);
-                return;
+                return true;
             }
         }
 
-        if (boxIterator == null || drillPos == null) {
-            boxIterator = createBoxIterator();
-            while (canMoveThrough(boxIterator.getCurrent()) || !canMine(boxIterator.getCurrent())
-                || !canMoveTo(boxIterator.getCurrent())) {
-                if (boxIterator.advance() == null) {
-                    break;
-                }
-            }
+        if (planner == null) {
+            planner = new QuarryMiningPlanner(world, miningBox, BCBuildersConfig.quarryMiningOrder);
+        }
+        if (drillPos == null) {
             drillPos = new Vec3d(miningBox.closestInsideTo(pos));
         }
 
-        if (boxIterator != null && boxIterator.hasNext()) {
-            while (canMoveThrough(boxIterator.getCurrent()) || !canMine(boxIterator.getCurrent())
-                || !canMoveTo(boxIterator.getCurrent())) {
-                if (boxIterator.advance() == null) {
-                    break;
-                }
+        BlockPos target = planner.getNextTarget();
+        if (target != null) {
+            miningFinished = false;
+            if (drillPos.squareDistanceTo(new Vec3d(target)) >= 1) {
+                currentTask = new TaskMoveDrill(drillPos, new Vec3d(target));
+            } else {
+                currentTask = new TaskBreakBlock(target);
             }
+            return true;
+        } else if (!miningFinished) {
+            miningFinished = true;
+            AxisAlignedBB box = miningBox.getBoundingBox();
+            if (box.maxX - box.minX == 63 && box.maxZ - box.minZ == 63) {
+                AdvancementUtil.unlockAdvancement(getOwner().getId(), ADVANCEMENT_COMPLETE);
+            }
+        }
+        return false;
+    }
 
-            if (boxIterator.hasNext()) {
-                boolean found = false;
-
-                if (drillPos.squareDistanceTo(new Vec3d(boxIterator.getCurrent())) >= 1) {
-                    currentTask = new TaskMoveDrill(drillPos, new Vec3d(boxIterator.getCurrent()));
-                    found = true;
-                } else if (canMine(boxIterator.getCurrent())) {
-                    currentTask = new TaskBreakBlock(boxIterator.getCurrent());
-                    found = true;
+    private void addDrop(ItemStack stack) {
+        if (BCBuildersConfig.quarryMaxTasksPerTick == 1) {
+            InventoryUtil.addToBestAcceptor(world, pos, null, stack);
+            return;
+        }
+        for (ItemStack pending : pendingDrops) {
+            if (StackUtil.canMerge(pending, stack)) {
+                int count = Math.min(stack.getCount(), pending.getMaxStackSize() - pending.getCount());
+                pending.grow(count);
+                stack.shrink(count);
+                if (stack.isEmpty()) {
+                    return;
                 }
+            }
+        }
+        pendingDrops.add(stack);
+    }
 
-                if (found) {
-                    sendNetworkUpdate(NET_RENDER_DATA);
-                } else {
-                    AxisAlignedBB box = miningBox.getBoundingBox();
-                    if (box.maxX - box.minX == 63 && box.maxZ - box.minZ == 63) {
-                        AdvancementUtil.unlockAdvancement(getOwner().getId(), ADVANCEMENT_COMPLETE);
-                    }
-                }
+    /** Adds all of the drops from this tick to the best acceptor. Drops are collected together (rather than added
+     * as soon as they are mined) so that a quarry doing more than one task per tick doesn't send lots of tiny
+     * stacks. */
+    private void flushDrops() {
+        if (!pendingDrops.isEmpty()) {
+            for (ItemStack stack : pendingDrops) {
+                InventoryUtil.addToBestAcceptor(world, pos, null, stack);
             }
+            pendingDrops.clear();
         }
     }
 
@@ -638,9 +645,6 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
             nbt.setTag("box", miningBox.writeToNbt());
             nbt.setTag("frame", frameBox.writeToNbt());
         }
-        if (boxIterator != null) {
-            nbt.setTag("boxIterator", boxIterator.writeToNbt());
-        }
         nbt.setTag("battery", battery.serializeNBT());
         if (currentTask != null) {
             nbt.setByte("currentTaskId",
@@ -661,7 +665,6 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
         valid = nbt.hasKey("box");
         miningBox = valid ? new Box(nbt.getCompoundTag("box")) : null;
         frameBox = valid ? new Box(nbt.getCompoundTag("frame")) : null;
-        boxIterator = BoxIterator.readFromNbt(nbt.getCompoundTag("boxIterator"));
         battery.deserializeNBT(nbt.getCompoundTag("battery"));
         if (nbt.hasKey("currentTask")) {
             currentTask = EnumTaskType.values()[(int) nbt.getByte("currentTaskId")].supplier.apply(this);
@@ -733,6 +736,7 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
     public void getDebugInfo(List<String> left, List<String> right, EnumFacing side) {
         left.add("battery = " + battery.getDebugString());
         left.add("rate = " + LocaleUtil.localizeMjFlow(debugPowerRate));
+        left.add("tasks per tick = " + debugTasksPerTick);
         if (valid) {
             left.add("frameBox");
             left.add(" - min = " + frameBox.min());
@@ -745,8 +749,8 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
         left.add("firstCheckedPoses = " + firstCheckedPoses.size());
         left.add("frameBoxPosesCount = " + frameBoxPosesCount);
 
-        BoxIterator iter = boxIterator;
-        left.add("current = " + (iter == null ? "null" : iter.getCurrent()));
+        QuarryMiningPlanner p = planner;
+        left.add("remaining columns = " + (p == null ? "?" : p.getRemainingColumns()));
 
         Task task = currentTask;
         if (task != null) {
@@ -918,7 +922,7 @@ public class TileQuarry extends TileBC_Neptune implements ITickable, IDebuggable
                 // The drill pos will be null if we are making the frame: this is when we want to destroy the block, not
                 // drop its contents
                 if (drillPos != null) {
-                    stacks.get().forEach(stack -> InventoryUtil.addToBestAcceptor(world, pos, null, stack));
+                    stacks.get().forEach(TileQuarry.this::addDrop);
                 }
             }
             check(breakPos);
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.factory.tile;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import net.minecraftforge.fluids.FluidStack;
+
+import buildcraft.api.core.IFluidFilter;
+
+/** A stack of connected {@link TileTank}'s, ordered from bottom to top. This is shared by every tank in the stack, so
+ * that filling or draining any of them doesn't need to look up every other tank in the world.
+ * <p>
+ * As long as every tank holds the same fluid the stack is treated as one big tank: fills and drains only change
+ * {@link #fluid}, and the amount in each {@link TileTank#tank} is only worked out again (by {@link #flush(boolean)})
+ * when something needs it, like rendering or saving. Liquids always settle at the bottom of the stack, and gases at
+ * the top.
+ * <p>
+ * Columns are replaced rather than changed: whenever a tank is added to or removed from the stack the column is
+ * flushed and {@link #invalidate() invalidated}, and the next tank to be used makes a new one. */
+final class TankColumn {
+    final List<TileTank> tanks;
+    final int capacity;
+    /** The total fluid held by every tank, or null if they are all empty. */
+    @Nullable
+    private FluidStack fluid;
+    /** True if the tanks hold more than one type of fluid. (Which can happen when two stacks with different fluids are
+     * joined). If this is true then {@link #fluid} isn't used, and every tank is filled and drained separately. */
+    private boolean mixed;
+    /** True if {@link #fluid} has changed since the amounts in each tank were last worked out. */
+    private boolean dirty;
+    private boolean valid = true;
+
+    TankColumn(List<TileTank> tanks) {
+        this.tanks = tanks;
+        int total = 0;
+        for (TileTank tile : tanks) {
+            total += tile.tank.getCapacity();
+        }
+        this.capacity = total;
+        refresh();
+    }
+
+    /** Adds up the fluid held by each tank again. This should be called after changing the tanks directly. */
+    void refresh() {
+        fluid = null;
+        mixed = false;
+        dirty = false;
+        for (TileTank tile : tanks) {
+            FluidStack held = tile.tank.getFluid();
+            if (held == null || held.amount <= 0) {
+                continue;
+            }
+            if (fluid == null) {
+                fluid = held.copy();
+            } else if (fluid.isFluidEqual(held)) {
+                fluid.amount += held.amount;
+            } else {
+                mixed = true;
+            }
+        }
+        if (mixed) {
+            fluid = null;
+        }
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    boolean isMixed() {
+        return mixed;
+    }
+
+    @Nullable
+    FluidStack getFluid() {
+        return fluid;
+    }
+
+    /** Marks this column as needing to be balanced by the next {@link #flush(boolean)}, even if it hasn't changed. */
+    void markDirty() {
+        if (!mixed) {
+            dirty = true;
+        }
+    }
+
+    int fill(FluidStack resource, boolean doFill) {
+        if (fluid == null) {
+            // Only needs checking when the type changes, as every tank already holds the current fluid
+            for (TileTank tile : tanks) {
+                if (!tile.tank.canFillFluidType(resource)) {
+                    return 0;
+                }
+            }
+        } else if (!fluid.isFluidEqual(resource)) {
+            return 0;
+        }
+        int filled = Math.min(resource.amount, capacity - (fluid == null ? 0 : fluid.amount));
+        if (filled <= 0) {
+            return 0;
+        }
+        if (doFill) {
+            if (fluid == null) {
+                fluid = resource.copy();
+                fluid.amount = filled;
+            } else {
+                fluid.amount += filled;
+            }
+            dirty = true;
+        }
+        return filled;
+    }
+
+    @Nullable
+    FluidStack drain(IFluidFilter filter, int maxDrain, boolean doDrain) {
+        if (fluid == null || !filter.matches(fluid)) {
+            return null;
+        }
+        FluidStack drained = fluid.copy();
+        drained.amount = Math.min(maxDrain, fluid.amount);
+        if (doDrain) {
+            fluid.amount -= drained.amount;
+            if (fluid.amount <= 0) {
+                fluid = null;
+            }
+            dirty = true;
+        }
+        return drained;
+    }
+
+    /** Works out how much fluid each tank holds, if {@link #fluid} has changed since the last time this was called.
+     *
+     * @param sendUpdates If true then every tank that changes will send its new contents to clients straight away,
+     *            rather than smoothly changing over a few ticks. */
+    void flush(boolean sendUpdates) {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        int remaining = fluid == null ? 0 : fluid.amount;
+        boolean gas = fluid != null && fluid.getFluid().isGaseous(fluid);
+        for (int i = 0; i < tanks.size(); i++) {
+            TileTank tile = tanks.get(gas ? tanks.size() - 1 - i : i);
+            int amount = Math.min(remaining, tile.tank.getCapacity());
+            remaining -= amount;
+            FluidStack held = tile.tank.getFluid();
+            boolean same;
+            if (amount <= 0) {
+                same = held == null || held.amount <= 0;
+            } else {
+                same = held != null && held.amount == amount && held.isFluidEqual(fluid);
+            }
+            if (!same) {
+                tile.tank.setFluid(amount <= 0 ? null : new FluidStack(fluid, amount));
+                if (sendUpdates) {
+                    tile.sendNetworkUpdate(TileTank.NET_RENDER_DATA);
+                }
+            }
+        }
+    }
+
+    /** Writes the fluid back to each tank, and stops this column from being used again. */
+    void invalidate() {
+        if (valid) {
+            flush(false);
+            valid = false;
+        }
+    }
+}
@@ -8,19 +8,16 @@ package buildcraft.factory.tile;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Deque;
 import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import com.google.common.collect.ImmutableList;
+import gnu.trove.set.hash.TLongHashSet;
 
+import net.minecraft.block.state.IBlockState;
 import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTPrimitive;
 import net.minecraft.nbt.NBTTagByteArray;
@@ -30,6 +27,8 @@ import net.minecraft.util.EnumFacing.Axis;
 import net.minecraft.util.EnumFacing.AxisDirection;
 import net.minecraft.util.ITickable;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorldEventListener;
+import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 
 import net.minecraftforge.common.util.FakePlayer;
@@ -49,8 +48,10 @@ import buildcraft.lib.misc.CapUtil;
 import buildcraft.lib.misc.FluidUtilBC;
 import buildcraft.lib.misc.MessageUtil;
 import buildcraft.lib.misc.VecUtil;
+import buildcraft.lib.misc.data.FloodIndex;
 import buildcraft.lib.net.PacketBufferBC;
 import buildcraft.lib.tile.TileBC_Neptune;
+import buildcraft.lib.world.WorldEventListenerAdapter;
 
 import buildcraft.factory.BCFactoryBlocks;
 import buildcraft.factory.block.BlockFloodGate;
@@ -61,14 +62,38 @@ public class TileFloodGate extends TileBC_Neptune implements ITickable, IDebugga
         EnumFacing.WEST, EnumFacing.EAST //
     };
 
+    /** How long to wait before searching again, if the last search didn't find anywhere to fill. (Searches that ran
+     * to completion are kept up-to-date by {@link #worldEventListener} instead). */
     private static final int[] REBUILD_DELAYS = { 16, 32, 64, 128, 256 };
+    private static final int MAX_DISTANCE = 64;
+    /** The maximum number of blocks to search through per tick. */
+    private static final int FLOOD_POSITIONS_PER_TICK = 4096;
 
     private final Tank tank = new Tank("tank", 2 * Fluid.BUCKET_VOLUME, this);
     public final Set<EnumFacing> openSides = EnumSet.copyOf(BlockFloodGate.CONNECTED_MAP.keySet());
     public final Deque<BlockPos> queue = new ArrayDeque<>();
-    private final Map<BlockPos, List<BlockPos>> paths = new HashMap<>();
+    /** Every position in {@link #queue}, so that positions that change more than once aren't queued twice. */
+    private final TLongHashSet queued = new TLongHashSet();
+    private final FloodIndex flood = new FloodIndex(SEARCH_DIRECTIONS);
+    /** The fluid that {@link #flood} was searched for. */
+    private Fluid floodFluid;
+    /** True if {@link #flood} is still being searched for the first time: nothing is filled until it has finished. */
+    private boolean buildingQueue = false;
     private int delayIndex = 0;
     private int tick = 0;
+    private final IWorldEventListener worldEventListener = new WorldEventListenerAdapter() {
+        @Override
+        public void notifyBlockUpdate(World world,
+                                      BlockPos eventPos,
+                                      IBlockState oldState,
+                                      IBlockState newState,
+                                      int flags) {
+            int maxDistance = MAX_DISTANCE + 1;
+            if (eventPos.distanceSq(pos) <= maxDistance * maxDistance) {
+                flood.onBlockChanged(eventPos);
+            }
+        }
+    };
 
     public TileFloodGate() {
         caps.addCapabilityInstance(CapUtil.CAP_FLUIDS, tank, EnumPipePart.VALUES);
@@ -79,67 +104,42 @@ public class TileFloodGate extends TileBC_Neptune implements ITickable, IDebugga
         return REBUILD_DELAYS[delayIndex];
     }
 
-    private void buildQueue() {
+    private void startBuildingQueue() {
         world.profiler.startSection("prepare");
         queue.clear();
-        paths.clear();
-        if (tank.isEmpty()) {
-            world.profiler.endSection();
-            return;
+        queued.clear();
+        flood.clear();
+        buildingQueue = false;
+        floodFluid = tank.getFluidType();
+        if (!tank.isEmpty()) {
+            flood.start(new FloodRules());
+            flood.exclude(pos);
+            for (EnumFacing face : openSides) {
+                flood.addRoot(pos.offset(face));
+            }
+            buildingQueue = true;
         }
-        Set<BlockPos> checked = new HashSet<>();
-        checked.add(pos);
-        List<BlockPos> nextPosesToCheck = new ArrayList<>();
-        for (EnumFacing face : openSides) {
-            BlockPos offset = pos.offset(face);
-            nextPosesToCheck.add(offset);
-            paths.put(offset, ImmutableList.of(offset));
+        world.profiler.endSection();
+        if (buildingQueue) {
+            continueBuildingQueue();
         }
-        world.profiler.endStartSection("build");
-        outer: while (!nextPosesToCheck.isEmpty()) {
-            List<BlockPos> nextPosesToCheckCopy = new ArrayList<>(nextPosesToCheck);
-            nextPosesToCheck.clear();
-            for (BlockPos toCheck : nextPosesToCheckCopy) {
-                if (toCheck.distanceSq(pos) > 64 * 64) {
-                    continue;
-                }
-                if (checked.add(toCheck)) {
-                    if (canSearch(toCheck)) {
-                        if (canFill(toCheck)) {
-                            queue.push(toCheck);
-                            if (queue.size() >= 4096) {
-                                break outer;
-                            }
-                        }
-                        List<BlockPos> checkPath = paths.get(toCheck);
-                        for (EnumFacing side : SEARCH_DIRECTIONS) {
-                            BlockPos next = toCheck.offset(side);
-                            if (!openSides.contains(side)) {
-                                Axis axis = side.getAxis();
-                                int dist = VecUtil.getValue(next, axis) - VecUtil.getValue(getPos(), axis);
-                                if (side.getAxisDirection() == AxisDirection.NEGATIVE) {
-                                    dist = -dist;
-                                }
-                                if (dist > 0) {
-                                    continue;
-                                }
-                            }
-                            if (checked.contains(next)) {
-                                continue;
-                            }
-                            ImmutableList.Builder<BlockPos> pathBuilder = ImmutableList.builder();
-                            pathBuilder.addAll(checkPath);
-                            pathBuilder.add(next);
-                            paths.put(next, pathBuilder.build());
-                            nextPosesToCheck.add(next);
-                        }
-                    }
-                }
-            }
+    }
+
+    /** Searches through (up to) {@link #FLOOD_POSITIONS_PER_TICK} more blocks. */
+    private void continueBuildingQueue() {
+        world.profiler.startSection("build");
+        if (flood.build(FLOOD_POSITIONS_PER_TICK)) {
+            buildingQueue = false;
         }
         world.profiler.endSection();
     }
 
+    private void enqueue(BlockPos blockPos) {
+        if (queued.add(blockPos.toLong())) {
+            queue.push(blockPos);
+        }
+    }
+
     private boolean canFill(BlockPos offsetPos) {
         if (world.isAirBlock(offsetPos)) {
             return true;
@@ -165,6 +165,36 @@ public class TileFloodGate extends TileBC_Neptune implements ITickable, IDebugga
         return FluidUtilBC.areFluidsEqual(fluid, tank.getFluidType());
     }
 
+    private class FloodRules implements FloodIndex.IFloodRules {
+        @Override
+        public boolean canRoot(BlockPos blockPos) {
+            return canSearch(blockPos);
+        }
+
+        @Override
+        public boolean canFlood(BlockPos from, EnumFacing side, BlockPos to) {
+            if (!openSides.contains(side)) {
+                Axis axis = side.getAxis();
+                int dist = VecUtil.getValue(to, axis) - VecUtil.getValue(getPos(), axis);
+                if (side.getAxisDirection() == AxisDirection.NEGATIVE) {
+                    dist = -dist;
+                }
+                if (dist > 0) {
+                    return false;
+                }
+            }
+            return to.distanceSq(pos) <= MAX_DISTANCE * MAX_DISTANCE && canSearch(to);
+        }
+
+        @Override
+        public boolean onFlooded(BlockPos blockPos) {
+            if (canFill(blockPos)) {
+                enqueue(blockPos);
+            }
+            return queue.size() < 4096;
+        }
+    }
+
     // ITickable
 
     @Override
@@ -177,26 +207,32 @@ public class TileFloodGate extends TileBC_Neptune implements ITickable, IDebugga
             return;
         }
 
+        if (flood.isStarted() && !FluidUtilBC.areFluidsEqual(floodFluid, tank.getFluidType())) {
+            startBuildingQueue();
+        }
+        if (!flood.isComplete()) {
+            continueBuildingQueue();
+            if (buildingQueue) {
+                return;
+            }
+        }
+
         tick++;
         if (tick % 16 == 0) {
             if (!tank.isEmpty() && !queue.isEmpty()) {
                 FluidStack fluid = tank.drain(Fluid.BUCKET_VOLUME, false);
-                if (fluid != null && fluid.amount >= Fluid.BUCKET_VOLUME) {
-                    BlockPos currentPos = queue.removeLast();
-                    List<BlockPos> path = paths.get(currentPos);
-                    boolean canFill = true;
-                    if (path != null) {
-                        for (BlockPos p : path) {
-                            if (p.equals(currentPos)) {
-                                continue;
-                            }
-                            if (!canFillThrough(currentPos)) {
-                                canFill = false;
-                                break;
-                            }
-                        }
+                BlockPos currentPos = null;
+                while (fluid != null && fluid.amount >= Fluid.BUCKET_VOLUME && !queue.isEmpty()) {
+                    BlockPos next = queue.removeLast();
+                    queued.remove(next.toLong());
+                    // Otherwise it's been filled, or removed from the flood by a block change
+                    if (flood.contains(next) && canFill(next)) {
+                        currentPos = next;
+                        break;
                     }
-                    if (canFill && canFill(currentPos)) {
+                }
+                if (currentPos != null) {
+                    if (flood.isConnected(currentPos, this::canFillThrough)) {
                         FakePlayer fakePlayer =
                             BuildCraftAPI.fakePlayerProvider.getFakePlayer((WorldServer) world, getOwner(), currentPos);
                         if (FluidUtil.tryPlaceFluid(fakePlayer, world, currentPos, tank, fluid)) {
@@ -208,16 +244,44 @@ public class TileFloodGate extends TileBC_Neptune implements ITickable, IDebugga
                             tick = 0;
                         }
                     } else {
-                        buildQueue();
+                        // Somewhere between here and the gate hasn't been filled yet (it will be in the queue too)
+                        enqueue(currentPos);
                     }
                 }
             }
         }
 
-        if (queue.isEmpty() && tick % getCurrentDelay() == 0) {
+        if (queue.isEmpty() && (!flood.isStarted() || flood.isStopped()) && tick % getCurrentDelay() == 0) {
             delayIndex = Math.min(delayIndex + 1, REBUILD_DELAYS.length - 1);
             tick = 0;
-            buildQueue();
+            startBuildingQueue();
+        }
+    }
+
+    @Override
+    public void validate() {
+        super.validate();
+        if (!world.isRemote) {
+            world.addEventListener(worldEventListener);
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        removeEventListener();
+    }
+
+    @Override
+    public void onChunkUnload() {
+        super.onChunkUnload();
+        // Unloading doesn't invalidate the tile, and it mustn't keep listening to (or loading) the area around it
+        removeEventListener();
+    }
+
+    private void removeEventListener() {
+        if (!world.isRemote) {
+            world.removeEventListener(worldEventListener);
         }
     }
 
@@ -301,5 +365,6 @@ public class TileFloodGate extends TileBC_Neptune implements ITickable, IDebugga
         left.add("delay = " + getCurrentDelay());
         left.add("tick = " + tick);
         left.add("queue size = " + queue.size());
+        left.add("searched = " + flood.getSize() + (buildingQueue ? " (searching)" : ""));
     }
 }
@@ -9,18 +9,13 @@ package buildcraft.factory.tile;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import javax.annotation.Nullable;
 
-import com.google.common.collect.ImmutableList;
+import gnu.trove.set.hash.TLongHashSet;
 
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.nbt.NBTTagCompound;
@@ -28,6 +23,8 @@ import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.EnumFacing.Axis;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorldEventListener;
+import net.minecraft.world.World;
 
 import net.minecraftforge.fluids.Fluid;
 import net.minecraftforge.fluids.FluidRegistry;
@@ -46,8 +43,10 @@ import buildcraft.lib.misc.CapUtil;
 import buildcraft.lib.misc.FluidUtilBC;
 import buildcraft.lib.misc.NBTUtilBC;
 import buildcraft.lib.misc.VecUtil;
+import buildcraft.lib.misc.data.FloodIndex;
 import buildcraft.lib.mj.MjRedstoneBatteryReceiver;
 import buildcraft.lib.net.PacketBufferBC;
+import buildcraft.lib.world.WorldEventListenerAdapter;
 
 import buildcraft.core.BCCoreBlocks;
 import buildcraft.core.BCCoreConfig;
@@ -60,13 +59,32 @@ public class TilePump extends TileMiner {
         EnumFacing.UP, EnumFacing.NORTH, EnumFacing.SOUTH, //
         EnumFacing.WEST, EnumFacing.EAST //
     };
+    /** The maximum number of fluid blocks to search through per tick, so that huge lakes don't lag the server. */
+    private static final int FLOOD_POSITIONS_PER_TICK = 4096;
 
     private final Tank tank = new Tank("tank", 16 * Fluid.BUCKET_VOLUME, this);
     private boolean queueBuilt = false;
-    private final Map<BlockPos, List<BlockPos>> paths = new HashMap<>();
+    /** Set by {@link #worldEventListener} when the queue needs to be built again from scratch. */
+    private boolean rebuildQueue = false;
+    /** True if {@link #flood} is still being searched for the first time: nothing is pumped until it has finished. */
+    private boolean buildingQueue = false;
+    private final FloodIndex flood = new FloodIndex(SEARCH_DIRECTIONS);
+    private Fluid queueFluid;
     private BlockPos fluidConnection;
     private final Deque<BlockPos> queue = new ArrayDeque<>();
+    /** Every position in {@link #queue}, so that positions that change more than once aren't queued twice. */
+    private final TLongHashSet queued = new TLongHashSet();
     private boolean isInfiniteWaterSource;
+    private final IWorldEventListener worldEventListener = new WorldEventListenerAdapter() {
+        @Override
+        public void notifyBlockUpdate(World world,
+                                      BlockPos eventPos,
+                                      IBlockState oldState,
+                                      IBlockState newState,
+                                      int flags) {
+            onBlockChanged(eventPos, oldState, newState);
+        }
+    };
 
     @Nullable
     private BlockPos oilSpringPos;
@@ -82,79 +100,49 @@ public class TilePump extends TileMiner {
         return new MjRedstoneBatteryReceiver(battery);
     }
 
-    private void buildQueue() {
+    private void startBuildingQueue() {
         world.profiler.startSection("prepare");
         queue.clear();
-        paths.clear();
-        Fluid queueFluid = null;
+        queued.clear();
+        flood.clear();
+        buildingQueue = false;
         isInfiniteWaterSource = false;
-        Set<BlockPos> checked = new HashSet<>();
-        List<BlockPos> nextPosesToCheck = new ArrayList<>();
+        fluidConnection = null;
         for (BlockPos posToCheck = pos.down(); posToCheck.getY() > 0; posToCheck = posToCheck.down()) {
-            if (BlockUtil.getFluidWithFlowing(world, posToCheck) != null) {
-                queueFluid = BlockUtil.getFluidWithFlowing(world, posToCheck);
-                nextPosesToCheck.add(posToCheck);
-                paths.put(posToCheck, Collections.singletonList(posToCheck));
-                checked.add(posToCheck);
-                if (BlockUtil.getFluid(world, posToCheck) != null) {
-                    queue.add(posToCheck);
-                }
+            Fluid fluid = BlockUtil.getFluidWithFlowing(world, posToCheck);
+            if (fluid != null) {
+                boolean isWater =
+                    !BCCoreConfig.pumpsConsumeWater && FluidUtilBC.areFluidsEqual(fluid, FluidRegistry.WATER);
+                queueFluid = fluid;
+                flood.start(new FloodRules(fluid, isWater));
+                flood.addRoot(posToCheck);
                 fluidConnection = posToCheck;
+                buildingQueue = true;
                 break;
             } else if (!world.isAirBlock(posToCheck)
                 && world.getBlockState(posToCheck).getBlock() != BCFactoryBlocks.tube) {
                 break;
             }
         }
-        if (nextPosesToCheck.isEmpty()) {
-            world.profiler.endSection();
-            return;
+        world.profiler.endSection();
+        if (buildingQueue) {
+            continueBuildingQueue();
+        } else {
+            nextPos();
         }
-        world.profiler.endStartSection("build");
-        boolean isWater =
-            !BCCoreConfig.pumpsConsumeWater && FluidUtilBC.areFluidsEqual(queueFluid, FluidRegistry.WATER);
-        final int maxLengthSquared = BCCoreConfig.pumpMaxDistance * BCCoreConfig.pumpMaxDistance;
-        outer: while (!nextPosesToCheck.isEmpty()) {
-            List<BlockPos> nextPosesToCheckCopy = new ArrayList<>(nextPosesToCheck);
-            nextPosesToCheck.clear();
-            for (BlockPos posToCheck : nextPosesToCheckCopy) {
-                int count = 0;
-                for (EnumFacing side : SEARCH_DIRECTIONS) {
-                    BlockPos offsetPos = posToCheck.offset(side);
-                    if (offsetPos.distanceSq(pos) > maxLengthSquared) {
-                        continue;
-                    }
-                    if (checked.add(offsetPos)) {
-                        if (FluidUtilBC.areFluidsEqual(BlockUtil.getFluidWithFlowing(world, offsetPos), queueFluid)) {
-                            ImmutableList.Builder<BlockPos> pathBuilder = new ImmutableList.Builder<>();
-                            pathBuilder.addAll(paths.get(posToCheck));
-                            pathBuilder.add(offsetPos);
-                            paths.put(offsetPos, pathBuilder.build());
-                            if (BlockUtil.getFluid(world, offsetPos) != null) {
-                                queue.add(offsetPos);
-                            }
-                            nextPosesToCheck.add(offsetPos);
-                            count++;
-                        }
-                    } else {
-                        // We've already tested this block: it *must* be a valid water source
-                        count++;
-                    }
-                }
-                if (isWater && count >= 2) {
-                    IBlockState below = world.getBlockState(posToCheck.down());
-                    // Same check as in BlockDynamicLiquid.updateTick:
-                    // if that method changes how it checks for adjacent
-                    // water sources then this also needs updating
-                    Fluid fluidBelow = BlockUtil.getFluidWithoutFlowing(below);
-                    if (FluidUtilBC.areFluidsEqual(fluidBelow, FluidRegistry.WATER) || below.getMaterial().isSolid()) {
-                        isInfiniteWaterSource = true;
-                        break outer;
-                    }
-                }
-            }
+    }
+
+    /** Searches through (up to) {@link #FLOOD_POSITIONS_PER_TICK} more fluid blocks, and then picks the next block to
+     * pump if the first search has finished. */
+    private void continueBuildingQueue() {
+        world.profiler.startSection("build");
+        boolean complete = flood.build(FLOOD_POSITIONS_PER_TICK);
+        world.profiler.endSection();
+        if (!complete || !buildingQueue) {
+            return;
         }
-        world.profiler.endStartSection("oil_spring_search");
+        buildingQueue = false;
+        world.profiler.startSection("oil_spring_search");
         if (isOil(queueFluid)) {
             List<BlockPos> springPositions = new ArrayList<>();
             BlockPos center = VecUtil.replaceValue(getPos(), Axis.Y, 0);
@@ -179,6 +167,9 @@ public class TilePump extends TileMiner {
 
         }
         world.profiler.endSection();
+        if (currentPos == null || !flood.contains(currentPos)) {
+            nextPos();
+        }
     }
 
     private static boolean isOil(Fluid queueFluid) {
@@ -193,10 +184,17 @@ public class TilePump extends TileMiner {
         return tank.isEmpty() ? fluid != null : FluidUtilBC.areFluidsEqual(fluid, tank.getFluidType());
     }
 
+    private void enqueue(BlockPos blockPos) {
+        if (queued.add(blockPos.toLong())) {
+            queue.add(blockPos);
+        }
+    }
+
     private void nextPos() {
         while (!queue.isEmpty()) {
             currentPos = queue.removeLast();
-            if (canDrain(currentPos)) {
+            queued.remove(currentPos.toLong());
+            if (flood.contains(currentPos) && canDrain(currentPos)) {
                 updateLength();
                 return;
             }
@@ -213,11 +211,39 @@ public class TilePump extends TileMiner {
         return currentPos;
     }
 
+    private void onBlockChanged(BlockPos eventPos, IBlockState oldState, IBlockState newState) {
+        if (!queueBuilt || rebuildQueue) {
+            return;
+        }
+        if (eventPos.getX() == pos.getX() && eventPos.getZ() == pos.getZ() && eventPos.getY() < pos.getY()
+            && (fluidConnection == null || eventPos.getY() > fluidConnection.getY())) {
+            // Something changed between the pump and the fluid that it's connected to, so the pump might now be
+            // connected to something else. (Ignoring our own tube, which moves whenever the target changes)
+            if (oldState.getBlock() != BCFactoryBlocks.tube && newState.getBlock() != BCFactoryBlocks.tube) {
+                rebuildQueue = true;
+            }
+            return;
+        }
+        int maxDistance = BCCoreConfig.pumpMaxDistance + 1;
+        if (eventPos.distanceSq(pos) <= maxDistance * maxDistance) {
+            flood.onBlockChanged(eventPos);
+            if (fluidConnection != null && flood.getSize() == 0) {
+                // The fluid below the pump has gone
+                rebuildQueue = true;
+            }
+        }
+    }
+
     @Override
     public void update() {
-        if (!queueBuilt && !world.isRemote) {
-            buildQueue();
-            queueBuilt = true;
+        if (!world.isRemote) {
+            if (!queueBuilt || rebuildQueue) {
+                rebuildQueue = false;
+                startBuildingQueue();
+                queueBuilt = true;
+            } else if (!flood.isComplete()) {
+                continueBuildingQueue();
+            }
         }
 
         super.update();
@@ -227,53 +253,137 @@ public class TilePump extends TileMiner {
 
     @Override
     public void mine() {
+        if (buildingQueue) {
+            return;
+        }
         boolean prevResult = true;
         while (prevResult) {
             prevResult = false;
             if (tank.getFluidAmount() > tank.getCapacity() / 2) {
                 return;
             }
+            if (currentPos == null ? !queue.isEmpty() : !flood.contains(currentPos)) {
+                // Either the block has changed (and been removed from the flood), or the flood has found more fluid
+                // since the queue ran out
+                nextPos();
+            }
+            if (currentPos == null) {
+                return;
+            }
             long target = 10 * MjAPI.MJ;
-            if (currentPos != null && paths.containsKey(currentPos)) {
-                progress += battery.extractPower(0, target - progress);
-                if (progress >= target) {
-                    FluidStack drain = BlockUtil.drainBlock(world, currentPos, false);
-                    if (drain != null
-                        && paths.get(currentPos).stream()
-                            .allMatch(blockPos -> BlockUtil.getFluidWithFlowing(world, blockPos) != null)
-                        && canDrain(currentPos)) {
-                        tank.fillInternal(drain, true);
-                        progress = 0;
-                        if (isInfiniteWaterSource) {
-                            if (BCCoreConfig.pumpsConsumeWater
-                                || !FluidUtilBC.areFluidsEqual(drain.getFluid(), FluidRegistry.WATER)) {
-                                // The pump must have re-used the water queue for some other fluid. Or the config value
-                                // changed.
-                                isInfiniteWaterSource = false;
-                            }
-                        }
-                        if (!isInfiniteWaterSource) {
-                            BlockUtil.drainBlock(world, currentPos, true);
-                            if (isOil(drain.getFluid())) {
-                                if (oilSpringPos != null) {
-                                    TileEntity tile = world.getTileEntity(oilSpringPos);
-                                    if (tile instanceof ITileOilSpring) {
-                                        ((ITileOilSpring) tile).onPumpOil(getOwner(), currentPos);
-                                    }
-                                }
+            progress += battery.extractPower(0, target - progress);
+            if (progress < target) {
+                return;
+            }
+            FluidStack drain = BlockUtil.drainBlock(world, currentPos, false);
+            if (drain == null || !canDrain(currentPos)) {
+                // Changed since it was queued
+                nextPos();
+            } else if (!flood.isConnected(currentPos, p -> BlockUtil.getFluidWithFlowing(world, p) != null)) {
+                // The path changed without a block update (worldEventListener keeps it up-to-date otherwise)
+                currentPos = null;
+                startBuildingQueue();
+                if (buildingQueue) {
+                    return;
+                }
+            } else {
+                tank.fillInternal(drain, true);
+                progress = 0;
+                if (isInfiniteWaterSource) {
+                    if (BCCoreConfig.pumpsConsumeWater
+                        || !FluidUtilBC.areFluidsEqual(drain.getFluid(), FluidRegistry.WATER)) {
+                        // The pump must have re-used the water queue for some other fluid. Or the config value
+                        // changed.
+                        isInfiniteWaterSource = false;
+                    }
+                }
+                if (!isInfiniteWaterSource) {
+                    BlockUtil.drainBlock(world, currentPos, true);
+                    if (isOil(drain.getFluid())) {
+                        if (oilSpringPos != null) {
+                            TileEntity tile = world.getTileEntity(oilSpringPos);
+                            if (tile instanceof ITileOilSpring) {
+                                ((ITileOilSpring) tile).onPumpOil(getOwner(), currentPos);
                             }
-                            nextPos();
                         }
-                    } else {
-                        buildQueue();
-                        nextPos();
                     }
-                    prevResult = true;
+                    nextPos();
+                }
+            }
+            prevResult = true;
+        }
+    }
+
+    private class FloodRules implements FloodIndex.IFloodRules {
+        private final Fluid fluid;
+        private final boolean isWater;
+        private final int maxLengthSquared = BCCoreConfig.pumpMaxDistance * BCCoreConfig.pumpMaxDistance;
+
+        FloodRules(Fluid fluid, boolean isWater) {
+            this.fluid = fluid;
+            this.isWater = isWater;
+        }
+
+        @Override
+        public boolean canRoot(BlockPos blockPos) {
+            return FluidUtilBC.areFluidsEqual(BlockUtil.getFluidWithFlowing(world, blockPos), fluid);
+        }
+
+        @Override
+        public boolean canFlood(BlockPos from, EnumFacing side, BlockPos to) {
+            return to.distanceSq(pos) <= maxLengthSquared
+                && FluidUtilBC.areFluidsEqual(BlockUtil.getFluidWithFlowing(world, to), fluid);
+        }
+
+        @Override
+        public boolean onFlooded(BlockPos blockPos) {
+            if (BlockUtil.getFluid(world, blockPos) != null) {
+                enqueue(blockPos);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onExpanded(BlockPos blockPos, int connected) {
+            if (isWater && connected >= 2) {
+                IBlockState below = world.getBlockState(blockPos.down());
+                // Same check as in BlockDynamicLiquid.updateTick:
+                // if that method changes how it checks for adjacent
+                // water sources then this also needs updating
+                Fluid fluidBelow = BlockUtil.getFluidWithoutFlowing(below);
+                if (FluidUtilBC.areFluidsEqual(fluidBelow, FluidRegistry.WATER) || below.getMaterial().isSolid()) {
+                    isInfiniteWaterSource = true;
+                    return false;
                 }
-            } else {
-                buildQueue();
-                nextPos();
             }
+            return true;
+        }
+    }
+
+    @Override
+    public void validate() {
+        super.validate();
+        if (!world.isRemote) {
+            world.addEventListener(worldEventListener);
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        removeEventListener();
+    }
+
+    @Override
+    public void onChunkUnload() {
+        super.onChunkUnload();
+        // Unloading doesn't invalidate the tile, and it mustn't keep listening to (or loading) the area around it
+        removeEventListener();
+    }
+
+    private void removeEventListener() {
+        if (!world.isRemote) {
+            world.removeEventListener(worldEventListener);
         }
     }
 
@@ -325,6 +435,7 @@ public class TilePump extends TileMiner {
         super.getDebugInfo(left, right, side);
         left.add("fluid = " + tank.getDebugString());
         left.add("queue size = " + queue.size());
+        left.add("searched = " + flood.getSize() + (buildingQueue ? " (searching)" : ""));
         left.add("infinite = " + isInfiniteWaterSource);
     }
 
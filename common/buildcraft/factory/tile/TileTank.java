@@ -14,9 +14,13 @@ import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
 
+import javax.annotation.Nullable;
+
+import net.minecraft.block.Block;
 import net.minecraft.entity.EntityLivingBase;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.EnumHand;
@@ -55,6 +59,10 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
     public final FluidSmoother smoothedTank;
 
     private int lastComparatorLevel;
+    /** The stack of tanks that this is part of. Created by {@link #getColumn()}, and invalidated when a tank above or
+     * below changes. */
+    @Nullable
+    private TankColumn column;
 
     public TileTank() {
         this(16 * Fluid.BUCKET_VOLUME);
@@ -78,6 +86,7 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
     }
 
     public int getComparatorLevel() {
+        flushColumn();
         int amount = tank.getFluidAmount();
         int cap = tank.getCapacity();
         return amount * 14 / cap + (amount > 0 ? 1 : 0);
@@ -87,6 +96,10 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
 
     @Override
     public void update() {
+        if (!world.isRemote) {
+            // The first tank in the stack to tick works out the amounts for every tank
+            flushColumn();
+        }
         smoothedTank.tick(world);
 
         if (!world.isRemote) {
@@ -100,6 +113,32 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
 
     // TileEntity
 
+    @Override
+    public void onNeighbourBlockChanged(Block block, BlockPos neighbour) {
+        super.onNeighbourBlockChanged(block, neighbour);
+        if (neighbour.getX() == pos.getX() && neighbour.getZ() == pos.getZ()) {
+            invalidateColumn();
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        invalidateColumn();
+    }
+
+    @Override
+    public void onChunkUnload() {
+        super.onChunkUnload();
+        invalidateColumn();
+    }
+
+    @Override
+    public NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+        flushColumn();
+        return super.writeToNBT(nbt);
+    }
+
     @Override
     public void onPlacedBy(EntityLivingBase placer, ItemStack stack) {
         super.onPlacedBy(placer, stack);
@@ -113,32 +152,10 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
     /** Moves fluids around to their preferred positions. (For gaseous fluids this will move everything as high as
      * possible, for liquid fluids this will move everything as low as possible.) */
     public void balanceTankFluids() {
-        List<TileTank> tanks = getTanks();
-        FluidStack fluid = null;
-        for (TileTank tile : tanks) {
-            FluidStack held = tile.tank.getFluid();
-            if (held == null) {
-                continue;
-            }
-            if (fluid == null) {
-                fluid = held;
-            } else if (!fluid.isFluidEqual(held)) {
-                return;
-            }
-        }
-        if (fluid == null) {
-            return;
-        }
-        if (fluid.getFluid().isGaseous(fluid)) {
-            Collections.reverse(tanks);
-        }
-        TileTank prev = null;
-        for (TileTank tile : tanks) {
-            if (prev != null) {
-                FluidUtilBC.move(tile.tank, prev.tank);
-            }
-            prev = tile;
-        }
+        TankColumn col = getColumn();
+        // Stacks that hold different fluids can't be balanced
+        col.markDirty();
+        col.flush(false);
     }
 
     @Override
@@ -159,6 +176,7 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
             if (id == NET_RENDER_DATA) {
                 writePayload(NET_FLUID_DELTA, buffer, side);
             } else if (id == NET_FLUID_DELTA) {
+                flushColumn();
                 smoothedTank.writeInit(buffer);
             }
         }
@@ -181,7 +199,11 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
 
     @Override
     public void getDebugInfo(List<String> left, List<String> right, EnumFacing side) {
+        flushColumn();
         left.add("fluid = " + tank.getDebugString());
+        if (column != null) {
+            left.add("column = " + column.tanks.size() + " tanks" + (column.isMixed() ? " (mixed)" : ""));
+        }
         smoothedTank.getDebugInfo(left, right, side);
     }
 
@@ -219,6 +241,36 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
         return from.canConnectTo(to, direction) && to.canConnectTo(from, direction.getOpposite());
     }
 
+    /** @return The stack of tanks that this is part of, making a new one (and sharing it with every other tank in the
+     *         stack) if needed. */
+    private TankColumn getColumn() {
+        if (column == null || !column.isValid()) {
+            List<TileTank> tanks = getTanks();
+            for (TileTank tile : tanks) {
+                // Make sure that every tank holds its real amount before adding them all up again
+                tile.invalidateColumn();
+            }
+            TankColumn newColumn = new TankColumn(tanks);
+            for (TileTank tile : tanks) {
+                tile.column = newColumn;
+            }
+        }
+        return column;
+    }
+
+    private void flushColumn() {
+        if (column != null) {
+            column.flush(false);
+        }
+    }
+
+    private void invalidateColumn() {
+        if (column != null) {
+            column.invalidate();
+            column = null;
+        }
+    }
+
     /** @return A list of all connected tanks around this block, ordered by position from bottom to top. */
     private List<TileTank> getTanks() {
         // double-ended queue rather than array list to avoid
@@ -260,7 +312,13 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
 
     @Override
     public IFluidTankProperties[] getTankProperties() {
-        List<TileTank> tanks = getTanks();
+        TankColumn col = getColumn();
+        if (!col.isMixed()) {
+            FluidStack fluid = col.getFluid();
+            return new IFluidTankProperties[] {
+                new FluidTankProperties(fluid == null ? null : fluid.copy(), col.capacity) };
+        }
+        List<TileTank> tanks = col.tanks;
         TileTank bottom = tanks.get(0);
         FluidStack total = bottom.tank.getFluid();
         int capacity = 0;
@@ -287,33 +345,16 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
         if (resource == null || resource.amount <= 0) {
             return 0;
         }
-        int filled = 0;
-        List<TileTank> tanks = getTanks();
-        for (TileTank t : tanks) {
-            FluidStack current = t.tank.getFluid();
-            if (current != null && !current.isFluidEqual(resource)) {
-                return 0;
-            }
-        }
-        boolean gas = resource.getFluid().isGaseous(resource);
-        if (gas) {
-            Collections.reverse(tanks);
-        }
-        resource = resource.copy();
-        for (TileTank t : tanks) {
-            int tankFilled = t.tank.fill(resource, doFill);
-            if (tankFilled > 0) {
-                if (isPlayerInteracting & doFill) {
-                    t.sendNetworkUpdate(NET_RENDER_DATA);
-                }
-                resource.amount -= tankFilled;
-                filled += tankFilled;
-                if (resource.amount == 0) {
-                    break;
-                }
+        TankColumn col = getColumn();
+        if (!col.isMixed()) {
+            int filled = col.fill(resource, doFill);
+            if (filled > 0 && isPlayerInteracting & doFill) {
+                col.flush(true);
             }
+            return filled;
         }
-        return filled;
+        // Every tank must hold the same fluid before any more can be added
+        return 0;
     }
 
     @Override
@@ -336,7 +377,15 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
         if (maxDrain <= 0) {
             return null;
         }
-        List<TileTank> tanks = getTanks();
+        TankColumn col = getColumn();
+        if (!col.isMixed()) {
+            FluidStack drained = col.drain(filter, maxDrain, doDrain);
+            if (drained != null && isPlayerInteracting & doDrain) {
+                col.flush(true);
+            }
+            return drained;
+        }
+        List<TileTank> tanks = new ArrayList<>(col.tanks);
         boolean gas = false;
         for (TileTank tile : tanks) {
             FluidStack fluid = tile.tank.getFluid();
@@ -365,6 +414,10 @@ public class TileTank extends TileBC_Neptune implements ITickable, IDebuggable,
             }
             total.amount += drained.amount;
         }
+        if (total != null && doDrain) {
+            // Draining might have left only one fluid
+            col.refresh();
+        }
         return total;
     }
 }
@@ -73,4 +73,97 @@ public class MathUtil {
     public static int findLowestCommonMultiple(int a, int b) {
         return (a / findHighestCommonFactor(a, b)) * b;
     }
+
+    /** Computes {@code a * b / c} without losing any precision to overflow, and without allocating anything. This
+     * returns exactly the same value as
+     * {@code BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).divide(BigInteger.valueOf(c)).longValue()}: the
+     * division rounds towards zero, and if the result doesn't fit in a long then only the lowest 64 bits are
+     * returned.
+     *
+     * @throws ArithmeticException if c is 0 */
+    public static long multiplyDivide(long a, long b, long c) {
+        if (c == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        long lo = a * b;
+        long hi = multiplyHigh(a, b);
+        if (hi == (lo >> 63)) {
+            // The product fits in a long, which is by far the most common case
+            return lo / c;
+        }
+        boolean negative = (hi < 0) != (c < 0);
+        if (hi < 0) {
+            // Negate the 128 bit value
+            lo = -lo;
+            hi = lo == 0 ? -hi : ~hi;
+        }
+        long divisor = Math.abs(c);
+        // The quotient can be wider than 64 bits, but only the lowest 64 bits are needed
+        long quotient = divideUnsigned128(Long.remainderUnsigned(hi, divisor), lo, divisor);
+        return negative ? -quotient : quotient;
+    }
+
+    /** @return The upper 64 bits of the 128 bit product of the two given values. (The same as Math.multiplyHigh, which
+     *         is only available in java 9 and later). */
+    public static long multiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFF_FFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFF_FFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & 0xFFFF_FFFFL;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    /** Divides the unsigned 128 bit value (hi, lo) by the unsigned divisor. The high half must be (unsigned) less than
+     * the divisor, so that the quotient fits in 64 bits. This is the "divlu" algorithm from Hacker's Delight: the
+     * dividend is split into 32 bit digits, so only two (normalised) long divisions are needed. */
+    private static long divideUnsigned128(long hi, long lo, long divisor) {
+        final long base = 1L << 32;
+        final long mask = base - 1;
+        int shift = Long.numberOfLeadingZeros(divisor);
+        divisor <<= shift;
+        long vn1 = divisor >>> 32;
+        long vn0 = divisor & mask;
+        long un32 = shift == 0 ? hi : (hi << shift) | (lo >>> (64 - shift));
+        long un10 = lo << shift;
+        long un1 = un10 >>> 32;
+        long un0 = un10 & mask;
+
+        long q1 = divideUnsignedSmall(un32, vn1);
+        long rhat = un32 - q1 * vn1;
+        while (q1 >= base || Long.compareUnsigned(q1 * vn0, base * rhat + un1) > 0) {
+            q1--;
+            rhat += vn1;
+            if (rhat >= base) {
+                break;
+            }
+        }
+
+        long un21 = un32 * base + un1 - q1 * divisor;
+        long q0 = divideUnsignedSmall(un21, vn1);
+        rhat = un21 - q0 * vn1;
+        while (q0 >= base || Long.compareUnsigned(q0 * vn0, base * rhat + un0) > 0) {
+            q0--;
+            rhat += vn1;
+            if (rhat >= base) {
+                break;
+            }
+        }
+        return q1 * base + q0;
+    }
+
+    /** Unsigned division, for a positive divisor. (Long.divideUnsigned falls back to BigInteger in java 8 whenever the
+     * dividend is "negative"). */
+    private static long divideUnsignedSmall(long dividend, long divisor) {
+        if (dividend >= 0) {
+            return dividend / divisor;
+        }
+        long quotient = ((dividend >>> 1) / divisor) << 1;
+        long rem = dividend - quotient * divisor;
+        return quotient + (Long.compareUnsigned(rem, divisor) >= 0 ? 1 : 0);
+    }
 }
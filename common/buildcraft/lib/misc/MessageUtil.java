@@ -78,6 +78,17 @@ public class MessageUtil {
         }
     }
 
+    /** @return True if any player is watching the chunk that contains the given position. Useful for skipping the
+     *         creation of messages that would be passed to {@link #sendToAllWatching(World, BlockPos, IMessage)}. */
+    public static boolean isWatched(World world, BlockPos pos) {
+        if (world instanceof WorldServer) {
+            WorldServer server = (WorldServer) world;
+            PlayerChunkMapEntry entry = server.getPlayerChunkMap().getEntry(pos.getX() >> 4, pos.getZ() >> 4);
+            return entry != null && entry.hasPlayerMatching(player -> true);
+        }
+        return false;
+    }
+
     public static void sendToPlayers(Iterable<EntityPlayer> players, IMessage message) {
         for (EntityPlayer player : players) {
             if (player instanceof EntityPlayerMP) {
@@ -6,79 +6,182 @@
 
 package buildcraft.lib.misc.data;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.function.Supplier;
+import java.util.function.Consumer;
 
 import com.google.common.collect.ImmutableList;
 
 /** Implements a delayed list of something- stuff that can be postponed for later retrieval. A specialised ordered queue
- * really. */
+ * really.
+ * <p>
+ * Internally this is a ring buffer of per-delay lists (a timing wheel), so both {@link #add(int, Object)} and
+ * {@link #advance()} are O(1) (amortised, for add). The inner lists are reused rather than allocated per slot. */
 public class DelayedList<E> {
-    protected final List<List<E>> elements;
-    private final Supplier<List<E>> innerListSupplier;
+    private static final int MIN_CAPACITY = 8;
+
+    /** Every slot always holds a list. Slots outside of [head, head + size) are always empty. */
+    private List<E>[] slots;
+    private int head;
+    private int size;
+
+    /** The list that was returned by the last call to {@link #advance()}. It is cleared and put back into the ring on
+     * the next call. */
+    private List<E> lastAdvanced;
+
+    private final List<List<E>> view = new AbstractList<List<E>>() {
+        @Override
+        public List<E> get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return slots[(head + index) & (slots.length - 1)];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    };
 
     public DelayedList() {
-        this(new ArrayList<>(), ArrayList::new);
+        slots = createSlots(MIN_CAPACITY);
     }
 
+    /** @return A {@link DelayedList} that can be used by multiple threads at once. Unlike a normal list, the lists
+     *         returned by {@link #advance()} are copies that belong to the caller, as another thread can call
+     *         {@link #advance()} again while the caller is still using them. */
     public static <E> DelayedList<E> createConcurrent() {
-        return new DelayedList<E>(
-            Collections.synchronizedList(new ArrayList<>()),
-            () -> Collections.synchronizedList(new ArrayList<>())
-        ) {
+        return new DelayedList<E>() {
+            @Override
+            public synchronized int getMaxDelay() {
+                return super.getMaxDelay();
+            }
+
+            @Override
+            public synchronized List<E> advance() {
+                List<E> list = super.advance();
+                return list.isEmpty() ? ImmutableList.of() : new ArrayList<>(list);
+            }
+
+            @Override
+            public synchronized void add(int delay, E element) {
+                super.add(delay, element);
+            }
+
+            @Override
+            public synchronized List<E> getElements(int delay) {
+                return super.getElements(delay);
+            }
+
             @Override
-            public List<E> advance() {
-                synchronized (this.elements) {
-                    return super.advance();
-                }
+            public synchronized void forEach(Consumer<? super E> action) {
+                super.forEach(action);
+            }
+
+            @Override
+            public synchronized void clear() {
+                super.clear();
             }
         };
     }
 
-    private DelayedList(List<List<E>> actualList, Supplier<List<E>> innerList) {
-        elements = actualList;
-        innerListSupplier = innerList;
+    @SuppressWarnings("unchecked")
+    private static <E> List<E>[] createSlots(int capacity) {
+        List<E>[] array = new List[capacity];
+        for (int i = 0; i < capacity; i++) {
+            array[i] = new ArrayList<>();
+        }
+        return array;
     }
 
     /** @return The maximum delay value that any of the elements has. */
     public int getMaxDelay() {
-        return elements.size();
+        return size;
     }
 
     /** Advances this list by one, effectively decrementing the delays of every element by one and returning all
      * elements that have a delay of 0.
-     * 
-     * @return The elements that are no longer on a delay. */
+     *
+     * @return The elements that are no longer on a delay. The returned list is reused by this object, so it is only
+     *         valid until the next call to this method. */
     public List<E> advance() {
-        if (elements.isEmpty()) {
+        if (lastAdvanced != null) {
+            lastAdvanced.clear();
+        }
+        if (size == 0) {
             return ImmutableList.of();
         }
-        return elements.remove(0);
+        List<E> current = slots[head];
+        slots[head] = lastAdvanced != null ? lastAdvanced : new ArrayList<>();
+        lastAdvanced = current;
+        head = (head + 1) & (slots.length - 1);
+        size--;
+        return current;
     }
 
     /** Adds an element that will by returned by {@link #advance()} after it has been called delay times.
-     * 
+     *
      * @param delay The number of times that advance needs to be called for the *next* advance to return this element.
      *            Negative numbers default up to 0. */
     public void add(int delay, E element) {
         if (delay < 0) {
             delay = 0;
         }
-        while (elements.size() < delay + 1) {
-            elements.add(innerListSupplier.get());
+        if (delay >= slots.length) {
+            grow(delay + 1);
+        }
+        if (delay >= size) {
+            size = delay + 1;
+        }
+        slots[(head + delay) & (slots.length - 1)].add(element);
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = slots.length;
+        while (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        List<E>[] newSlots = createSlots(capacity);
+        for (int i = 0; i < slots.length; i++) {
+            newSlots[i] = slots[(head + i) & (slots.length - 1)];
         }
-        elements.get(delay).add(element);
+        slots = newSlots;
+        head = 0;
     }
 
-    /** @return The inner data structure used to hold the elements. Most useful for saving the elements for later. */
+    /** @return The elements that will be returned by {@link #advance()} after it has been called delay times. The
+     *         returned list is owned by this object, and must not be modified. */
+    public List<E> getElements(int delay) {
+        if (delay < 0 || delay >= size) {
+            return ImmutableList.of();
+        }
+        return slots[(head + delay) & (slots.length - 1)];
+    }
+
+    /** Calls the given action on every element in this list, in order of increasing delay. This doesn't allocate
+     * anything. */
+    public void forEach(Consumer<? super E> action) {
+        for (int d = 0; d < size; d++) {
+            List<E> list = slots[(head + d) & (slots.length - 1)];
+            for (int i = 0; i < list.size(); i++) {
+                action.accept(list.get(i));
+            }
+        }
+    }
+
+    /** @return A live view of the inner data structure used to hold the elements, where the list at index i holds the
+     *         elements with a delay of i. Most useful for saving the elements for later. */
     public List<List<E>> getAllElements() {
-        return elements;
+        return view;
     }
 
     /** Removes *all* elements from this list. */
     public void clear() {
-        elements.clear();
+        for (int d = 0; d < size; d++) {
+            slots[(head + d) & (slots.length - 1)].clear();
+        }
+        size = 0;
     }
 }
@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.lib.misc.data;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+
+/** A breadth-first flood fill through the world (for example through a lake, for a pump) that remembers how every
+ * position was reached.
+ * <p>
+ * Rather than storing the whole path to every position this only stores the packed position ({@link BlockPos#toLong()})
+ * and the index of the position that it was reached from, so the memory used is linear in the number of positions. The
+ * path back to a root can be checked with {@link #isConnected(BlockPos, Predicate)}, which remembers the positions
+ * that it has checked until {@link #forgetVerified()} is called, so checking many positions that share a path doesn't
+ * check the shared part more than once.
+ * <p>
+ * The search itself is done in slices by {@link #build(int)}, so that a large search can be spread over several
+ * ticks. Once started the index can be kept up-to-date by calling {@link #onBlockChanged(BlockPos)} whenever a block
+ * changes: this only re-checks the positions that could be affected by the change, rather than searching again from
+ * the roots. */
+public class FloodIndex {
+    private static final int NOT_FOUND = -1;
+    private static final int REJECTED = -2;
+    private static final int EXCLUDED = -3;
+
+    private static final int NO_PARENT = -1;
+    /** The parent of slots that have been removed by {@link #onBlockChanged(BlockPos)}. */
+    private static final int REMOVED = -2;
+    private static final int NO_CHILD = -1;
+
+    private final EnumFacing[] directions;
+    private final TLongIntHashMap indexes = new TLongIntHashMap(16, 0.5f, Long.MIN_VALUE, NOT_FOUND);
+    private final TLongHashSet rootCandidates = new TLongHashSet();
+    /** Positions that have already had their neighbours searched, but need searching again as some of their
+     * neighbours have been removed. */
+    private final TLongArrayList toExpandAgain = new TLongArrayList();
+    private long[] positions = new long[16];
+    private int[] parents = new int[16];
+    private int[] firstChild = new int[16];
+    private int[] nextSibling = new int[16];
+    /** The {@link #generation} that each position was last found to be connected in. */
+    private int[] verified = new int[16];
+    /** The number of slots used, including removed ones. */
+    private int size = 0;
+    /** The number of slots used, not including removed ones. */
+    private int count = 0;
+    /** Every slot before this index has had its neighbours searched. */
+    private int expanded = 0;
+    private int generation = 1;
+    private boolean stopped = false;
+    @Nullable
+    private IFloodRules rules;
+
+    /** @param directions The directions that the flood spreads in. */
+    public FloodIndex(EnumFacing[] directions) {
+        this.directions = directions;
+    }
+
+    /** Removes every position, and starts a new search with the given rules. Roots should be added with
+     * {@link #addRoot(BlockPos)} before calling {@link #build(int)}. */
+    public void start(IFloodRules rules) {
+        clear();
+        this.rules = rules;
+    }
+
+    /** Removes every position, without starting a new search. */
+    public void clear() {
+        indexes.clear();
+        rootCandidates.clear();
+        toExpandAgain.clear();
+        size = 0;
+        count = 0;
+        expanded = 0;
+        stopped = false;
+        rules = null;
+    }
+
+    /** Adds a position that the flood starts from, if {@link IFloodRules#canRoot(BlockPos)} allows it. The position is
+     * remembered either way, so that it can be added later on if it changes. */
+    public void addRoot(BlockPos pos) {
+        long key = pos.toLong();
+        rootCandidates.add(key);
+        if (rules != null && indexes.get(key) < 0) {
+            if (rules.canRoot(pos)) {
+                add(key, NO_PARENT);
+                if (!rules.onFlooded(pos)) {
+                    stopped = true;
+                }
+            } else {
+                indexes.put(key, REJECTED);
+            }
+        }
+    }
+
+    /** Stops the flood from ever entering the given position. */
+    public void exclude(BlockPos pos) {
+        long key = pos.toLong();
+        if (indexes.get(key) < 0) {
+            indexes.put(key, EXCLUDED);
+        }
+    }
+
+    private void add(long key, int parent) {
+        if (size == positions.length) {
+            int newLength = size * 2;
+            positions = Arrays.copyOf(positions, newLength);
+            parents = Arrays.copyOf(parents, newLength);
+            firstChild = Arrays.copyOf(firstChild, newLength);
+            nextSibling = Arrays.copyOf(nextSibling, newLength);
+            verified = Arrays.copyOf(verified, newLength);
+        }
+        positions[size] = key;
+        parents[size] = parent;
+        firstChild[size] = NO_CHILD;
+        verified[size] = 0;
+        if (parent == NO_PARENT) {
+            nextSibling[size] = NO_CHILD;
+        } else {
+            nextSibling[size] = firstChild[parent];
+            firstChild[parent] = size;
+        }
+        indexes.put(key, size);
+        size++;
+        count++;
+    }
+
+    /** Searches the neighbours of up to the given number of positions.
+     *
+     * @return True if the search has finished (see {@link #isComplete()}). */
+    public boolean build(int maxPositions) {
+        while (!isComplete() && maxPositions-- > 0) {
+            int index;
+            if (!toExpandAgain.isEmpty()) {
+                index = indexes.get(toExpandAgain.removeAt(toExpandAgain.size() - 1));
+                if (index < 0 || index >= expanded) {
+                    // Removed since, or it will be searched anyway
+                    continue;
+                }
+            } else {
+                index = expanded++;
+                if (parents[index] == REMOVED) {
+                    continue;
+                }
+            }
+            if (!expand(index)) {
+                stopped = true;
+            }
+        }
+        return isComplete();
+    }
+
+    private boolean expand(int index) {
+        BlockPos from = BlockPos.fromLong(positions[index]);
+        int connected = 0;
+        for (EnumFacing side : directions) {
+            BlockPos to = from.offset(side);
+            long key = to.toLong();
+            int existing = indexes.get(key);
+            if (existing >= 0) {
+                connected++;
+            } else if (existing == NOT_FOUND) {
+                if (rules.canFlood(from, side, to)) {
+                    add(key, index);
+                    connected++;
+                    if (!rules.onFlooded(to)) {
+                        return false;
+                    }
+                } else {
+                    indexes.put(key, REJECTED);
+                }
+            }
+        }
+        return rules.onExpanded(from, connected);
+    }
+
+    /** @return True if there is nothing left to search: either every reachable position has been found, the rules
+     *         stopped the search early, or no search has been started. */
+    public boolean isComplete() {
+        return rules == null || stopped || (expanded >= size && toExpandAgain.isEmpty());
+    }
+
+    /** @return True if {@link #start(IFloodRules)} has been called since the last {@link #clear()}. */
+    public boolean isStarted() {
+        return rules != null;
+    }
+
+    /** @return True if the rules stopped the search early, so there might be reachable positions that aren't in this
+     *         index. */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public boolean contains(BlockPos pos) {
+        return indexes.get(pos.toLong()) >= 0;
+    }
+
+    /** @return The number of positions in this index. */
+    public int getSize() {
+        return count;
+    }
+
+    /** Updates this index after the block at the given position has changed.
+     * <ul>
+     * <li>If the position is in this index and can still be flooded then it is kept (and passed to
+     * {@link IFloodRules#onFlooded(BlockPos)} again, in case it matters how it changed).</li>
+     * <li>If the position is in this index but can't be flooded anymore then it is removed, along with every position
+     * that was reached through it. Those positions are searched for again from their remaining neighbours by the next
+     * calls to {@link #build(int)}.</li>
+     * <li>If the position isn't in this index, but is next to a position that is, then it is added if it can now be
+     * flooded.</li>
+     * </ul>
+     * If the search was stopped early then positions can be removed, but nothing new is added. */
+    public void onBlockChanged(BlockPos pos) {
+        if (rules == null) {
+            return;
+        }
+        forgetVerified();
+        long key = pos.toLong();
+        int index = indexes.get(key);
+        if (index >= 0) {
+            int parent = parents[index];
+            boolean canStay;
+            if (parent == NO_PARENT) {
+                canStay = rules.canRoot(pos);
+            } else {
+                canStay = canFloodFrom(parent, pos);
+            }
+            if (canStay) {
+                if (!rules.onFlooded(pos)) {
+                    stopped = true;
+                }
+            } else {
+                remove(index);
+                indexes.put(key, REJECTED);
+            }
+        } else if (index != EXCLUDED && !stopped) {
+            if (rootCandidates.contains(key)) {
+                indexes.remove(key);
+                addRoot(pos);
+                return;
+            }
+            boolean hasNeighbour = false;
+            for (EnumFacing side : directions) {
+                int from = indexes.get(pos.offset(side.getOpposite()).toLong());
+                // Neighbours that haven't been searched yet will find this position by themselves
+                if (from >= 0 && from < expanded) {
+                    hasNeighbour = true;
+                    if (rules.canFlood(BlockPos.fromLong(positions[from]), side, pos)) {
+                        add(key, from);
+                        if (!rules.onFlooded(pos)) {
+                            stopped = true;
+                        }
+                        return;
+                    }
+                }
+            }
+            if (hasNeighbour) {
+                indexes.put(key, REJECTED);
+            } else {
+                indexes.remove(key);
+            }
+        }
+    }
+
+    private boolean canFloodFrom(int parent, BlockPos pos) {
+        BlockPos from = BlockPos.fromLong(positions[parent]);
+        for (EnumFacing side : directions) {
+            if (from.offset(side).equals(pos)) {
+                return rules.canFlood(from, side, pos);
+            }
+        }
+        return false;
+    }
+
+    /** Removes the given slot, and every slot that was reached through it. */
+    private void remove(int index) {
+        int parent = parents[index];
+        if (parent != NO_PARENT) {
+            if (firstChild[parent] == index) {
+                firstChild[parent] = nextSibling[index];
+            } else {
+                int child = firstChild[parent];
+                while (nextSibling[child] != index) {
+                    child = nextSibling[child];
+                }
+                nextSibling[child] = nextSibling[index];
+            }
+        }
+        TIntArrayList removed = new TIntArrayList();
+        removed.add(index);
+        for (int i = 0; i < removed.size(); i++) {
+            int slot = removed.get(i);
+            for (int child = firstChild[slot]; child != NO_CHILD; child = nextSibling[child]) {
+                removed.add(child);
+            }
+            indexes.remove(positions[slot]);
+            parents[slot] = REMOVED;
+            count--;
+        }
+        // The rest of the lake might still be reachable some other way
+        for (int i = 0; i < removed.size(); i++) {
+            BlockPos pos = BlockPos.fromLong(positions[removed.get(i)]);
+            for (EnumFacing side : directions) {
+                long neighbour = pos.offset(side.getOpposite()).toLong();
+                int from = indexes.get(neighbour);
+                if (from >= 0 && from < expanded) {
+                    toExpandAgain.add(neighbour);
+                }
+            }
+        }
+        if (size > 64 && size - count > count) {
+            compact();
+        }
+    }
+
+    /** Moves every slot down to fill in the removed slots. As a parent is always added before its children this keeps
+     * every parent before its children. */
+    private void compact() {
+        int[] remap = new int[size];
+        int next = 0;
+        int newExpanded = 0;
+        for (int i = 0; i < size; i++) {
+            if (parents[i] == REMOVED) {
+                remap[i] = -1;
+                continue;
+            }
+            int to = next++;
+            remap[i] = to;
+            if (i < expanded) {
+                newExpanded++;
+            }
+            positions[to] = positions[i];
+            parents[to] = parents[i] == NO_PARENT ? NO_PARENT : remap[parents[i]];
+            firstChild[to] = firstChild[i];
+            nextSibling[to] = nextSibling[i];
+            verified[to] = verified[i];
+            indexes.put(positions[to], to);
+        }
+        // Removed slots are never linked from slots that are left, so these don't need checking for -1
+        for (int i = 0; i < next; i++) {
+            if (firstChild[i] != NO_CHILD) {
+                firstChild[i] = remap[firstChild[i]];
+            }
+            if (nextSibling[i] != NO_CHILD) {
+                nextSibling[i] = remap[nextSibling[i]];
+            }
+        }
+        size = next;
+        expanded = newExpanded;
+    }
+
+    /** Marks every position as unchecked, so that the next calls to {@link #isConnected(BlockPos, Predicate)} will
+     * test them again. This should be called whenever the world might have changed (which
+     * {@link #onBlockChanged(BlockPos)} already does). */
+    public void forgetVerified() {
+        generation++;
+        if (generation == 0) {
+            Arrays.fill(verified, 0);
+            generation = 1;
+        }
+    }
+
+    /** Checks that every position between the given position and the root that it was reached from (not including
+     * the given position itself) still matches the given predicate.
+     *
+     * @return False if the position isn't in this index, or if any position on the path failed the predicate. */
+    public boolean isConnected(BlockPos pos, Predicate<BlockPos> canPass) {
+        int index = indexes.get(pos.toLong());
+        if (index < 0) {
+            return false;
+        }
+        int first = parents[index];
+        for (int i = first; i != NO_PARENT; i = parents[i]) {
+            if (verified[i] == generation) {
+                break;
+            }
+            if (!canPass.test(BlockPos.fromLong(positions[i]))) {
+                return false;
+            }
+        }
+        // Everything up to the first verified position passed, so none of it needs checking again
+        for (int i = first; i != NO_PARENT && verified[i] != generation; i = parents[i]) {
+            verified[i] = generation;
+        }
+        return true;
+    }
+
+    /** Decides where a {@link FloodIndex} can spread to. */
+    public interface IFloodRules {
+        /** @return True if the given position (which was passed to {@link FloodIndex#addRoot(BlockPos)}) can be a
+         *         root of the flood. */
+        boolean canRoot(BlockPos pos);
+
+        /** @return True if the flood can spread into the given position. The result is remembered for the position
+         *         (until it changes), so this should return the same result no matter which neighbour it is reached
+         *         from. */
+        boolean canFlood(BlockPos from, EnumFacing side, BlockPos to);
+
+        /** Called for every position that is added to the index (including roots), and for positions that change but
+         * are still in the index.
+         *
+         * @return False to stop the search. */
+        default boolean onFlooded(BlockPos pos) {
+            return true;
+        }
+
+        /** Called after every neighbour of the given position has been searched.
+         *
+         * @param connected The number of neighbours (in the search directions) that are in the index.
+         * @return False to stop the search. */
+        default boolean onExpanded(BlockPos pos, int connected) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.lib.nbt;
+
+/** Receives the contents of an NBT tag as a series of events, rather than as a tree of
+ * {@link net.minecraft.nbt.NBTBase} objects. This allows {@link NbtSquisher} to write out data straight from whatever
+ * produces it, and read data straight into whatever consumes it, without the whole tree existing in memory at once.
+ * <p>
+ * Every value in a compound is preceded by a call to {@link #visitKey(String)}. Compounds and lists are started with
+ * {@link #visitCompoundStart()} or {@link #visitListStart()}, and then finished with the matching end method after all
+ * of their values have been visited. The root value is always a compound. */
+public interface INbtVisitor {
+    void visitByte(byte value);
+
+    void visitShort(short value);
+
+    void visitInt(int value);
+
+    void visitLong(long value);
+
+    void visitFloat(float value);
+
+    void visitDouble(double value);
+
+    void visitByteArray(byte[] value);
+
+    void visitIntArray(int[] value);
+
+    void visitString(String value);
+
+    void visitCompoundStart();
+
+    /** Sets the key of the next value in the current compound. */
+    void visitKey(String key);
+
+    void visitCompoundEnd();
+
+    void visitListStart();
+
+    void visitListEnd();
+
+    /** @return True if this doesn't need any more values. Readers check this after every value, and once it returns
+     *         true they stop straight away, without visiting the ends of any compounds or lists that are still open. */
+    default boolean isFinished() {
+        return false;
+    }
+}
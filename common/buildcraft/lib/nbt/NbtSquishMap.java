@@ -7,8 +7,13 @@
 package buildcraft.lib.nbt;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import gnu.trove.list.array.TByteArrayList;
 import gnu.trove.list.array.TDoubleArrayList;
@@ -16,6 +21,13 @@ import gnu.trove.list.array.TFloatArrayList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.list.array.TShortArrayList;
+import gnu.trove.map.hash.TByteIntHashMap;
+import gnu.trove.map.hash.TDoubleIntHashMap;
+import gnu.trove.map.hash.TFloatIntHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.map.hash.TShortIntHashMap;
 
 import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagByte;
@@ -34,11 +46,34 @@ import net.minecraftforge.common.util.Constants;
 
 import buildcraft.api.core.InvalidInputDataException;
 
-/** Defines a map of commonly used tags. */
+/** Defines a map of commonly used tags.
+ * <p>
+ * Every value is stored once, in the dictionary for its type, and is referred to internally by a "ref": its index in
+ * that dictionary combined with its kind (see {@link #makeRef(int, int)}). Compound and list tags are stored as
+ * {@link ComplexEntry}'s that hold the refs of their children rather than the tags themselves, so the map can be built
+ * straight from {@link INbtVisitor} events (without a tag tree ever existing) and two compounds or lists can be
+ * compared by their refs rather than by their whole contents.
+ * <p>
+ * Every dictionary is backed by a hash index, so adding and finding a value takes constant time. */
 public class NbtSquishMap {
-    // TODO: Try adding "ImmutableTagCompound" and "ImmutableTagList" to see if the equals() and hashCode() of compounds
-    // is a problem atm
-    // perhaps use "TCustomHashSet" with a similar deduplication functionality of FoamFix?
+    // The kinds, in the same order as the dictionaries are written
+    static final int KIND_BYTE = 0;
+    static final int KIND_SHORT = 1;
+    static final int KIND_INT = 2;
+    static final int KIND_LONG = 3;
+    static final int KIND_FLOAT = 4;
+    static final int KIND_DOUBLE = 5;
+    static final int KIND_BYTE_ARRAY = 6;
+    static final int KIND_INT_ARRAY = 7;
+    static final int KIND_STRING = 8;
+    static final int KIND_COMPLEX = 9;
+    private static final int KIND_COUNT = 10;
+    private static final int KIND_BITS = 4;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+    private static final int NO_INDEX = -1;
+    /** The longest array or string that can be written, as their lengths are written as unsigned shorts. */
+    private static final int MAX_LENGTH = 0xFFFF;
 
     // I'm not completely convinced that this one is necessary.
     // However it completes the set so, meh
@@ -54,196 +89,445 @@ public class NbtSquishMap {
     final List<TIntArrayList> intArrays = new ArrayList<>();
 
     final List<String> strings = new ArrayList<>();
-    final List<NBTBase> complex = new ArrayList<>();
+    final List<ComplexEntry> complex = new ArrayList<>();
+
+    // Indexes into the above lists. These are rebuilt whenever the size of a list doesn't match, as the reader
+    // modifies the lists directly.
+    private final TByteIntHashMap byteIndexes = new TByteIntHashMap(10, 0.5f, (byte) 0, NO_INDEX);
+    private final TShortIntHashMap shortIndexes = new TShortIntHashMap(10, 0.5f, (short) 0, NO_INDEX);
+    private final TIntIntHashMap intIndexes = new TIntIntHashMap(10, 0.5f, 0, NO_INDEX);
+    private final TLongIntHashMap longIndexes = new TLongIntHashMap(10, 0.5f, 0, NO_INDEX);
+    private final TFloatIntHashMap floatIndexes = new TFloatIntHashMap(10, 0.5f, 0, NO_INDEX);
+    private final TDoubleIntHashMap doubleIndexes = new TDoubleIntHashMap(10, 0.5f, 0, NO_INDEX);
+    private final TObjectIntHashMap<TByteArrayList> byteArrayIndexes = new TObjectIntHashMap<>(10, 0.5f, NO_INDEX);
+    private final TObjectIntHashMap<TIntArrayList> intArrayIndexes = new TObjectIntHashMap<>(10, 0.5f, NO_INDEX);
+    private final TObjectIntHashMap<String> stringIndexes = new TObjectIntHashMap<>(10, 0.5f, NO_INDEX);
+    private final TObjectIntHashMap<ComplexEntry> complexIndexes = new TObjectIntHashMap<>(10, 0.5f, NO_INDEX);
+
+    /** The ref of every compound and list tag instance that has been added, so adding (or finding) the same instance
+     * again doesn't have to look through its children. */
+    private final Map<NBTBase, Integer> tagRefs = new IdentityHashMap<>();
+
+    /** The tags that have been created for {@link #complex}, so that every entry is only created once. */
+    private NBTBase[] complexTags = new NBTBase[0];
 
     public NbtSquishMap() {}
 
+    // Refs
+
+    static int makeRef(int kind, int index) {
+        return (index << KIND_BITS) | kind;
+    }
+
+    static int getKind(int ref) {
+        return ref & KIND_MASK;
+    }
+
+    static int getIndex(int ref) {
+        return ref >>> KIND_BITS;
+    }
+
+    private int sizeOfKind(int kind) {
+        switch (kind) {
+            case KIND_BYTE:
+                return bytes.size();
+            case KIND_SHORT:
+                return shorts.size();
+            case KIND_INT:
+                return ints.size();
+            case KIND_LONG:
+                return longs.size();
+            case KIND_FLOAT:
+                return floats.size();
+            case KIND_DOUBLE:
+                return doubles.size();
+            case KIND_BYTE_ARRAY:
+                return byteArrays.size();
+            case KIND_INT_ARRAY:
+                return intArrays.size();
+            case KIND_STRING:
+                return strings.size();
+            case KIND_COMPLEX:
+                return complex.size();
+            default:
+                throw new IllegalArgumentException("Unknown kind " + kind);
+        }
+    }
+
+    /** Checks that everything in this map can be written, as the BuildCraft format stores the length of every array
+     * and string in 2 bytes.
+     *
+     * @throws NbtSquisher.TooLongException if anything is too long. */
+    void checkLengths() throws NbtSquisher.TooLongException {
+        for (TByteArrayList array : byteArrays) {
+            checkLength("byte array", array.size());
+        }
+        for (TIntArrayList array : intArrays) {
+            checkLength("int array", array.size());
+        }
+        for (String string : strings) {
+            // Every char takes up at most 3 bytes in UTF-8, so only long strings need to be converted
+            if (string.length() * 3 > MAX_LENGTH) {
+                checkLength("string", string.getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+    }
+
+    private static void checkLength(String what, int length) throws NbtSquisher.TooLongException {
+        if (length > MAX_LENGTH) {
+            throw new NbtSquisher.TooLongException("Cannot write a " + what + " with a length of " + length);
+        }
+    }
+
+    /** @return The index that is written out for the given ref: its index in the dictionary of every value, in the
+     *         same order as they are written. */
+    int getWrittenIndex(int ref) {
+        int kind = getKind(ref);
+        int offset = 0;
+        for (int k = 0; k < kind; k++) {
+            offset += sizeOfKind(k);
+        }
+        return offset + getIndex(ref);
+    }
+
+    /** The inverse of {@link #getWrittenIndex(int)}. */
+    int getRefForReading(int index) throws IOException {
+        if (index < 0) {
+            throw new InvalidInputDataException(index + " was less than 0!");
+        }
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            int size = sizeOfKind(kind);
+            if (index < size) {
+                return makeRef(kind, index);
+            }
+            index -= size;
+        }
+        throw new IOException("Cannot handle index " + index);
+    }
+
+    // Adding values
+
+    int addByte(byte val) {
+        ensureByteIndexed();
+        int index = byteIndexes.get(val);
+        if (index == NO_INDEX) {
+            index = bytes.size();
+            byteIndexes.put(val, index);
+            bytes.add(val);
+        }
+        return makeRef(KIND_BYTE, index);
+    }
+
+    int addShort(short val) {
+        ensureShortIndexed();
+        int index = shortIndexes.get(val);
+        if (index == NO_INDEX) {
+            index = shorts.size();
+            shortIndexes.put(val, index);
+            shorts.add(val);
+        }
+        return makeRef(KIND_SHORT, index);
+    }
+
+    int addInt(int val) {
+        ensureIntIndexed();
+        int index = intIndexes.get(val);
+        if (index == NO_INDEX) {
+            index = ints.size();
+            intIndexes.put(val, index);
+            ints.add(val);
+        }
+        return makeRef(KIND_INT, index);
+    }
+
+    int addLong(long val) {
+        ensureLongIndexed();
+        int index = longIndexes.get(val);
+        if (index == NO_INDEX) {
+            index = longs.size();
+            longIndexes.put(val, index);
+            longs.add(val);
+        }
+        return makeRef(KIND_LONG, index);
+    }
+
+    int addFloat(float val) {
+        ensureFloatIndexed();
+        int index = floatIndexes.get(val);
+        if (index == NO_INDEX) {
+            index = floats.size();
+            floatIndexes.put(val, index);
+            floats.add(val);
+        }
+        return makeRef(KIND_FLOAT, index);
+    }
+
+    int addDouble(double val) {
+        ensureDoubleIndexed();
+        int index = doubleIndexes.get(val);
+        if (index == NO_INDEX) {
+            index = doubles.size();
+            doubleIndexes.put(val, index);
+            doubles.add(val);
+        }
+        return makeRef(KIND_DOUBLE, index);
+    }
+
+    int addByteArray(byte[] val) {
+        return makeRef(KIND_BYTE_ARRAY, intern(byteArrayIndexes, byteArrays, new TByteArrayList(val)));
+    }
+
+    int addIntArray(int[] val) {
+        return makeRef(KIND_INT_ARRAY, intern(intArrayIndexes, intArrays, new TIntArrayList(val)));
+    }
+
+    int addString(String val) {
+        return makeRef(KIND_STRING, intern(stringIndexes, strings, val));
+    }
+
+    /** @param keys The index of every key in {@link #strings}.
+     * @param values The ref of every value. */
+    int addCompound(int[] keys, int[] values) {
+        sortByKey(keys, values);
+        return makeRef(KIND_COMPLEX, intern(complexIndexes, complex, new ComplexEntry(true, keys, values)));
+    }
+
+    int addList(int[] values) {
+        return makeRef(KIND_COMPLEX, intern(complexIndexes, complex, new ComplexEntry(false, null, values)));
+    }
+
+    /** Compounds aren't ordered, so their entries are sorted to make sure that equal compounds have equal
+     * entries. */
+    private static void sortByKey(int[] keys, int[] values) {
+        // Insertion sort, as most compounds are small (and most are sorted already)
+        for (int i = 1; i < keys.length; i++) {
+            int key = keys[i];
+            int value = values[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static <T> int intern(TObjectIntHashMap<T> indexes, List<T> list, T value) {
+        ensureIndexed(indexes, list);
+        int index = indexes.get(value);
+        if (index == NO_INDEX) {
+            index = list.size();
+            indexes.put(value, index);
+            list.add(value);
+        }
+        return index;
+    }
+
     public void addTag(NBTBase nbt) {
+        addTagRef(nbt);
+    }
+
+    /** Adds the given tag (and all of its children) to this map.
+     *
+     * @return The ref of the tag. */
+    int addTagRef(NBTBase nbt) {
         if (nbt instanceof NBTTagString) {
-            String val = ((NBTTagString) nbt).getString();
-            if (!strings.contains(val)) {
-                strings.add(val);
-            }
+            return addString(((NBTTagString) nbt).getString());
         } else if (nbt instanceof NBTTagByte) {
-            byte val = ((NBTTagByte) nbt).getByte();
-            if (!bytes.contains(val)) {
-                bytes.add(val);
-            }
+            return addByte(((NBTTagByte) nbt).getByte());
         } else if (nbt instanceof NBTTagShort) {
-            short val = ((NBTTagShort) nbt).getShort();
-            if (!shorts.contains(val)) {
-                shorts.add(val);
-            }
+            return addShort(((NBTTagShort) nbt).getShort());
         } else if (nbt instanceof NBTTagInt) {
-            int val = ((NBTTagInt) nbt).getInt();
-            if (!ints.contains(val)) {
-                ints.add(val);
-            }
+            return addInt(((NBTTagInt) nbt).getInt());
         } else if (nbt instanceof NBTTagLong) {
-            long val = ((NBTTagLong) nbt).getLong();
-            if (!longs.contains(val)) {
-                longs.add(val);
-            }
+            return addLong(((NBTTagLong) nbt).getLong());
         } else if (nbt instanceof NBTTagFloat) {
-            float val = ((NBTTagFloat) nbt).getFloat();
-            if (!floats.contains(val)) {
-                floats.add(val);
-            }
+            return addFloat(((NBTTagFloat) nbt).getFloat());
         } else if (nbt instanceof NBTTagDouble) {
-            double val = ((NBTTagDouble) nbt).getDouble();
-            if (!doubles.contains(val)) {
-                doubles.add(val);
-            }
+            return addDouble(((NBTTagDouble) nbt).getDouble());
         } else if (nbt instanceof NBTTagByteArray) {
-            byte[] val = ((NBTTagByteArray) nbt).getByteArray();
-            TByteArrayList array = new TByteArrayList(val);
-            if (!byteArrays.contains(array)) {
-                byteArrays.add(array);
-            }
+            return addByteArray(((NBTTagByteArray) nbt).getByteArray());
         } else if (nbt instanceof NBTTagIntArray) {
-            int[] val = ((NBTTagIntArray) nbt).getIntArray();
-            TIntArrayList array = new TIntArrayList(val);
-            if (!intArrays.contains(array)) {
-                intArrays.add(array);
-            }
+            return addIntArray(((NBTTagIntArray) nbt).getIntArray());
         } else if (nbt instanceof NBTTagList) {
+            Integer known = tagRefs.get(nbt);
+            if (known != null) {
+                return known;
+            }
             NBTTagList list = (NBTTagList) nbt;
-            if (!complex.contains(list)) {
-                for (int i = 0; i < list.tagCount(); i++) {
-                    addTag(list.get(i));
-                }
-                complex.add(list);
+            int[] values = new int[list.tagCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = addTagRef(list.get(i));
             }
+            int ref = addList(values);
+            tagRefs.put(nbt, ref);
+            return ref;
         } else if (nbt instanceof NBTTagCompound) {
+            Integer known = tagRefs.get(nbt);
+            if (known != null) {
+                return known;
+            }
             NBTTagCompound compound = (NBTTagCompound) nbt;
-            if (!complex.contains(compound)) {
-                for (String key : compound.getKeySet()) {
-                    if (!strings.contains(key)) {
-                        strings.add(key);
-                    }
-                    addTag(compound.getTag(key));
-                }
-                complex.add(compound);
+            int[] keys = new int[compound.getSize()];
+            int[] values = new int[keys.length];
+            int i = 0;
+            for (String key : compound.getKeySet()) {
+                keys[i] = getIndex(addString(key));
+                values[i] = addTagRef(compound.getTag(key));
+                i++;
             }
+            int ref = addCompound(keys, values);
+            tagRefs.put(nbt, ref);
+            return ref;
         } else {
             throw new IllegalArgumentException("Cannot handle tag " + nbt);
         }
     }
 
+    /** @return The index that the given tag will be written as. The tag must already have been added with
+     *         {@link #addTag(NBTBase)}. */
     public int indexOfTag(NBTBase nbt) {
-        int offset = 0;
-        if (nbt instanceof NBTTagByte) {
-            return bytes.indexOf(((NBTTagByte) nbt).getByte());
-        } else {
-            offset += bytes.size();
-        }
-        if (nbt instanceof NBTTagShort) {
-            return offset + shorts.indexOf(((NBTTagShort) nbt).getShort());
-        } else {
-            offset += shorts.size();
-        }
-        if (nbt instanceof NBTTagInt) {
-            return offset + ints.indexOf(((NBTTagInt) nbt).getInt());
-        } else {
-            offset += ints.size();
-        }
-        if (nbt instanceof NBTTagLong) {
-            return offset + longs.indexOf(((NBTTagLong) nbt).getLong());
-        } else {
-            offset += longs.size();
-        }
-        if (nbt instanceof NBTTagFloat) {
-            return offset + floats.indexOf(((NBTTagFloat) nbt).getFloat());
-        } else {
-            offset += floats.size();
-        }
-        if (nbt instanceof NBTTagDouble) {
-            return offset + doubles.indexOf(((NBTTagDouble) nbt).getDouble());
-        } else {
-            offset += doubles.size();
-        }
-        if (nbt instanceof NBTTagByteArray) {
-            byte[] val = ((NBTTagByteArray) nbt).getByteArray();
-            TByteArrayList array = new TByteArrayList(val);
-            return offset + byteArrays.indexOf(array);
-        } else {
-            offset += byteArrays.size();
-        }
-        if (nbt instanceof NBTTagIntArray) {
-            int[] val = ((NBTTagIntArray) nbt).getIntArray();
-            TIntArrayList array = new TIntArrayList(val);
-            return offset + intArrays.indexOf(array);
-        } else {
-            offset += intArrays.size();
-        }
-        if (nbt instanceof NBTTagString) {
-            return offset + strings.indexOf(((NBTTagString) nbt).getString());
-        } else {
-            offset += strings.size();
-        }
-        if (nbt instanceof NBTTagList) {
-            return offset + complex.indexOf(nbt);
-        } else if (nbt instanceof NBTTagCompound) {
-            return offset + complex.indexOf(nbt);
-        }
-        throw new IllegalArgumentException("Cannot handle tag " + nbt);
+        return getWrittenIndex(addTagRef(nbt));
     }
 
+    /** @return The index of the given string in the string dictionary, or -1 if it hasn't been added. */
+    public int indexOfString(String string) {
+        ensureIndexed(stringIndexes, strings);
+        return stringIndexes.get(string);
+    }
+
+    // Reading values
+
     private NBTBase getTagAt(int index) {
         if (index < 0) {
             throw new IndexOutOfBoundsException(index + " was less than 0!");
         }
-        if (index < bytes.size()) {
-            return new NBTTagByte(bytes.get(index));
-        }
-        index -= bytes.size();
-
-        if (index < shorts.size()) {
-            return new NBTTagShort(shorts.get(index));
-        }
-        index -= shorts.size();
-
-        if (index < ints.size()) {
-            return new NBTTagInt(ints.get(index));
-        }
-        index -= ints.size();
-
-        if (index < longs.size()) {
-            return new NBTTagLong(longs.get(index));
-        }
-        index -= longs.size();
-
-        if (index < floats.size()) {
-            return new NBTTagFloat(floats.get(index));
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            int size = sizeOfKind(kind);
+            if (index < size) {
+                return createTag(makeRef(kind, index));
+            }
+            index -= size;
         }
-        index -= floats.size();
+        return null;
+    }
 
-        if (index < doubles.size()) {
-            return new NBTTagDouble(doubles.get(index));
+    /** Creates the tag for the given ref. Compounds and lists are only ever created once, and then returned again for
+     * every later call. */
+    NBTBase createTag(int ref) {
+        int index = getIndex(ref);
+        switch (getKind(ref)) {
+            case KIND_BYTE:
+                return new NBTTagByte(bytes.get(index));
+            case KIND_SHORT:
+                return new NBTTagShort(shorts.get(index));
+            case KIND_INT:
+                return new NBTTagInt(ints.get(index));
+            case KIND_LONG:
+                return new NBTTagLong(longs.get(index));
+            case KIND_FLOAT:
+                return new NBTTagFloat(floats.get(index));
+            case KIND_DOUBLE:
+                return new NBTTagDouble(doubles.get(index));
+            case KIND_BYTE_ARRAY:
+                return new NBTTagByteArray(byteArrays.get(index).toArray());
+            case KIND_INT_ARRAY:
+                return new NBTTagIntArray(intArrays.get(index).toArray());
+            case KIND_STRING:
+                return new NBTTagString(strings.get(index));
+            case KIND_COMPLEX:
+                return createComplexTag(index);
+            default:
+                throw new IllegalArgumentException("Unknown ref " + ref);
         }
-        index -= doubles.size();
+    }
 
-        if (index < byteArrays.size()) {
-            return new NBTTagByteArray(byteArrays.get(index).toArray());
+    private NBTBase createComplexTag(int index) {
+        if (index >= complexTags.length) {
+            complexTags = Arrays.copyOf(complexTags, Math.max(complex.size(), index + 1));
         }
-        index -= byteArrays.size();
-
-        if (index < intArrays.size()) {
-            return new NBTTagIntArray(intArrays.get(index).toArray());
+        NBTBase tag = complexTags[index];
+        if (tag != null) {
+            return tag;
         }
-        index -= intArrays.size();
-
-        if (index < strings.size()) {
-            return new NBTTagString(strings.get(index));
+        ComplexEntry entry = complex.get(index);
+        if (entry.isCompound) {
+            NBTTagCompound compound = new NBTTagCompound();
+            for (int i = 0; i < entry.values.length; i++) {
+                compound.setTag(strings.get(entry.keys[i]), createTag(entry.values[i]).copy());
+            }
+            tag = compound;
+        } else {
+            NBTTagList list = new NBTTagList();
+            for (int value : entry.values) {
+                list.appendTag(createTag(value));
+            }
+            tag = list;
         }
-        index -= strings.size();
+        complexTags[index] = tag;
+        return tag;
+    }
 
-        if (index < complex.size()) {
-            return complex.get(index);
+    /** Passes the value of the given ref to the visitor, without creating any tags. */
+    void visit(int ref, INbtVisitor visitor) {
+        int index = getIndex(ref);
+        switch (getKind(ref)) {
+            case KIND_BYTE:
+                visitor.visitByte(bytes.get(index));
+                return;
+            case KIND_SHORT:
+                visitor.visitShort(shorts.get(index));
+                return;
+            case KIND_INT:
+                visitor.visitInt(ints.get(index));
+                return;
+            case KIND_LONG:
+                visitor.visitLong(longs.get(index));
+                return;
+            case KIND_FLOAT:
+                visitor.visitFloat(floats.get(index));
+                return;
+            case KIND_DOUBLE:
+                visitor.visitDouble(doubles.get(index));
+                return;
+            case KIND_BYTE_ARRAY:
+                visitor.visitByteArray(byteArrays.get(index).toArray());
+                return;
+            case KIND_INT_ARRAY:
+                visitor.visitIntArray(intArrays.get(index).toArray());
+                return;
+            case KIND_STRING:
+                visitor.visitString(strings.get(index));
+                return;
+            case KIND_COMPLEX: {
+                ComplexEntry entry = complex.get(index);
+                if (entry.isCompound) {
+                    visitor.visitCompoundStart();
+                    for (int i = 0; i < entry.values.length; i++) {
+                        visitor.visitKey(strings.get(entry.keys[i]));
+                        visit(entry.values[i], visitor);
+                        if (visitor.isFinished()) {
+                            return;
+                        }
+                    }
+                    visitor.visitCompoundEnd();
+                } else {
+                    visitor.visitListStart();
+                    for (int value : entry.values) {
+                        visit(value, visitor);
+                        if (visitor.isFinished()) {
+                            return;
+                        }
+                    }
+                    visitor.visitListEnd();
+                }
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown ref " + ref);
         }
-        index -= complex.size();
-
-        return null;
     }
 
     public NBTBase getTagForWriting(int index) {
@@ -275,6 +559,15 @@ public class NbtSquishMap {
         }
     }
 
+    /** Passes the compound at the given index to the visitor, without creating any tags. */
+    public void visitFullyReadComp(int index, INbtVisitor visitor) throws IOException {
+        int ref = getRefForReading(index);
+        if (getKind(ref) != KIND_COMPLEX || !complex.get(getIndex(ref)).isCompound) {
+            throw new IOException("The tag at " + index + " was not a compound tag!");
+        }
+        visit(ref, visitor);
+    }
+
     public String getStringForReading(int index) throws IOException {
         if (index < 0 || index >= strings.size()) {
             throw new IOException("Cannot handle index " + index);
@@ -282,6 +575,106 @@ public class NbtSquishMap {
         return strings.get(index);
     }
 
+    // Sorting
+
+    /** Sorts every primitive dictionary (and the strings) into their natural order, updating every ref that points
+     * into them. */
+    public void sortDictionaries() {
+        int[][] remaps = new int[KIND_COUNT][];
+
+        byte[] oldBytes = bytes.toArray();
+        bytes.sort();
+        byteIndexes.clear();
+        ensureByteIndexed();
+        remaps[KIND_BYTE] = new int[oldBytes.length];
+        for (int i = 0; i < oldBytes.length; i++) {
+            remaps[KIND_BYTE][i] = byteIndexes.get(oldBytes[i]);
+        }
+
+        short[] oldShorts = shorts.toArray();
+        shorts.sort();
+        shortIndexes.clear();
+        ensureShortIndexed();
+        remaps[KIND_SHORT] = new int[oldShorts.length];
+        for (int i = 0; i < oldShorts.length; i++) {
+            remaps[KIND_SHORT][i] = shortIndexes.get(oldShorts[i]);
+        }
+
+        int[] oldInts = ints.toArray();
+        ints.sort();
+        intIndexes.clear();
+        ensureIntIndexed();
+        remaps[KIND_INT] = new int[oldInts.length];
+        for (int i = 0; i < oldInts.length; i++) {
+            remaps[KIND_INT][i] = intIndexes.get(oldInts[i]);
+        }
+
+        long[] oldLongs = longs.toArray();
+        longs.sort();
+        longIndexes.clear();
+        ensureLongIndexed();
+        remaps[KIND_LONG] = new int[oldLongs.length];
+        for (int i = 0; i < oldLongs.length; i++) {
+            remaps[KIND_LONG][i] = longIndexes.get(oldLongs[i]);
+        }
+
+        float[] oldFloats = floats.toArray();
+        floats.sort();
+        floatIndexes.clear();
+        ensureFloatIndexed();
+        remaps[KIND_FLOAT] = new int[oldFloats.length];
+        for (int i = 0; i < oldFloats.length; i++) {
+            remaps[KIND_FLOAT][i] = floatIndexes.get(oldFloats[i]);
+        }
+
+        double[] oldDoubles = doubles.toArray();
+        doubles.sort();
+        doubleIndexes.clear();
+        ensureDoubleIndexed();
+        remaps[KIND_DOUBLE] = new int[oldDoubles.length];
+        for (int i = 0; i < oldDoubles.length; i++) {
+            remaps[KIND_DOUBLE][i] = doubleIndexes.get(oldDoubles[i]);
+        }
+
+        String[] oldStrings = strings.toArray(new String[0]);
+        Collections.sort(strings);
+        stringIndexes.clear();
+        ensureIndexed(stringIndexes, strings);
+        remaps[KIND_STRING] = new int[oldStrings.length];
+        for (int i = 0; i < oldStrings.length; i++) {
+            remaps[KIND_STRING][i] = stringIndexes.get(oldStrings[i]);
+        }
+
+        for (ComplexEntry entry : complex) {
+            if (entry.keys != null) {
+                int[] stringRemap = remaps[KIND_STRING];
+                for (int i = 0; i < entry.keys.length; i++) {
+                    entry.keys[i] = stringRemap[entry.keys[i]];
+                }
+            }
+            for (int i = 0; i < entry.values.length; i++) {
+                entry.values[i] = remapRef(remaps, entry.values[i]);
+            }
+            if (entry.keys != null) {
+                // The keys have moved, so they need sorting again to match any compounds that are added later
+                sortByKey(entry.keys, entry.values);
+            }
+            entry.rehash();
+        }
+        complexIndexes.clear();
+        for (Map.Entry<NBTBase, Integer> entry : tagRefs.entrySet()) {
+            entry.setValue(remapRef(remaps, entry.getValue()));
+        }
+        Arrays.fill(complexTags, null);
+    }
+
+    private static int remapRef(int[][] remaps, int ref) {
+        int[] remap = remaps[getKind(ref)];
+        return remap == null ? ref : makeRef(getKind(ref), remap[getIndex(ref)]);
+    }
+
+    // Sizes
+
     public int sizeOf(int tagType) {
         return size(1 << (tagType - 1));
     }
@@ -319,4 +712,108 @@ public class NbtSquishMap {
     public int stringSize() {
         return strings.size();
     }
+
+    // Lazy (re)indexing
+
+    private void ensureByteIndexed() {
+        if (byteIndexes.size() != bytes.size()) {
+            byteIndexes.clear();
+            for (int i = 0; i < bytes.size(); i++) {
+                byteIndexes.putIfAbsent(bytes.get(i), i);
+            }
+        }
+    }
+
+    private void ensureShortIndexed() {
+        if (shortIndexes.size() != shorts.size()) {
+            shortIndexes.clear();
+            for (int i = 0; i < shorts.size(); i++) {
+                shortIndexes.putIfAbsent(shorts.get(i), i);
+            }
+        }
+    }
+
+    private void ensureIntIndexed() {
+        if (intIndexes.size() != ints.size()) {
+            intIndexes.clear();
+            for (int i = 0; i < ints.size(); i++) {
+                intIndexes.putIfAbsent(ints.get(i), i);
+            }
+        }
+    }
+
+    private void ensureLongIndexed() {
+        if (longIndexes.size() != longs.size()) {
+            longIndexes.clear();
+            for (int i = 0; i < longs.size(); i++) {
+                longIndexes.putIfAbsent(longs.get(i), i);
+            }
+        }
+    }
+
+    private void ensureFloatIndexed() {
+        if (floatIndexes.size() != floats.size()) {
+            floatIndexes.clear();
+            for (int i = 0; i < floats.size(); i++) {
+                floatIndexes.putIfAbsent(floats.get(i), i);
+            }
+        }
+    }
+
+    private void ensureDoubleIndexed() {
+        if (doubleIndexes.size() != doubles.size()) {
+            doubleIndexes.clear();
+            for (int i = 0; i < doubles.size(); i++) {
+                doubleIndexes.putIfAbsent(doubles.get(i), i);
+            }
+        }
+    }
+
+    private static <T> void ensureIndexed(TObjectIntHashMap<T> indexes, List<T> list) {
+        if (indexes.size() != list.size()) {
+            indexes.clear();
+            for (int i = 0; i < list.size(); i++) {
+                indexes.putIfAbsent(list.get(i), i);
+            }
+        }
+    }
+
+    /** A compound or list tag, stored as the refs of its children. */
+    static final class ComplexEntry {
+        final boolean isCompound;
+        /** The index of every key in {@link NbtSquishMap#strings}, or null if this is a list. */
+        final int[] keys;
+        /** The ref of every value. */
+        final int[] values;
+        private int hash;
+
+        ComplexEntry(boolean isCompound, int[] keys, int[] values) {
+            this.isCompound = isCompound;
+            this.keys = keys;
+            this.values = values;
+            rehash();
+        }
+
+        void rehash() {
+            hash = (isCompound ? Arrays.hashCode(keys) * 31 + 1 : 0) + Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof ComplexEntry)) {
+                return false;
+            }
+            ComplexEntry other = (ComplexEntry) obj;
+            return hash == other.hash && isCompound == other.isCompound && Arrays.equals(keys, other.keys)
+                && Arrays.equals(values, other.values);
+        }
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.lib.nbt;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/** Adds every visited value straight into an {@link NbtSquishMap}, without creating any tags. */
+class NbtSquishMapBuilder implements INbtVisitor {
+    private static final int NO_REF = -1;
+
+    private final NbtSquishMap map;
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private int rootRef = NO_REF;
+    private boolean isRootCompound;
+
+    NbtSquishMapBuilder(NbtSquishMap map) {
+        this.map = map;
+    }
+
+    /** @return The ref of the root compound, after it has been visited completely. */
+    int getRootRef() {
+        if (rootRef == NO_REF || !frames.isEmpty()) {
+            throw new IllegalStateException("The root compound hasn't been finished!");
+        }
+        if (!isRootCompound) {
+            throw new IllegalStateException("The root value wasn't a compound!");
+        }
+        return rootRef;
+    }
+
+    private void add(int ref) {
+        Frame frame = frames.peek();
+        if (frame == null) {
+            if (rootRef != NO_REF) {
+                throw new IllegalStateException("Already visited the root value!");
+            }
+            rootRef = ref;
+            return;
+        }
+        if (frame.keys != null) {
+            if (frame.key == NO_REF) {
+                throw new IllegalStateException("Missing a key for a value in a compound!");
+            }
+            frame.keys.add(frame.key);
+            frame.key = NO_REF;
+        }
+        frame.values.add(ref);
+    }
+
+    @Override
+    public void visitByte(byte value) {
+        add(map.addByte(value));
+    }
+
+    @Override
+    public void visitShort(short value) {
+        add(map.addShort(value));
+    }
+
+    @Override
+    public void visitInt(int value) {
+        add(map.addInt(value));
+    }
+
+    @Override
+    public void visitLong(long value) {
+        add(map.addLong(value));
+    }
+
+    @Override
+    public void visitFloat(float value) {
+        add(map.addFloat(value));
+    }
+
+    @Override
+    public void visitDouble(double value) {
+        add(map.addDouble(value));
+    }
+
+    @Override
+    public void visitByteArray(byte[] value) {
+        add(map.addByteArray(value));
+    }
+
+    @Override
+    public void visitIntArray(int[] value) {
+        add(map.addIntArray(value));
+    }
+
+    @Override
+    public void visitString(String value) {
+        add(map.addString(value));
+    }
+
+    @Override
+    public void visitCompoundStart() {
+        if (frames.isEmpty() && rootRef == NO_REF) {
+            isRootCompound = true;
+        }
+        frames.push(new Frame(true));
+    }
+
+    @Override
+    public void visitKey(String key) {
+        Frame frame = frames.peek();
+        if (frame == null || frame.keys == null) {
+            throw new IllegalStateException("Cannot visit a key outside of a compound!");
+        }
+        frame.key = NbtSquishMap.getIndex(map.addString(key));
+    }
+
+    @Override
+    public void visitCompoundEnd() {
+        Frame frame = frames.poll();
+        if (frame == null || frame.keys == null) {
+            throw new IllegalStateException("Not in a compound!");
+        }
+        add(map.addCompound(frame.keys.toArray(), frame.values.toArray()));
+    }
+
+    @Override
+    public void visitListStart() {
+        frames.push(new Frame(false));
+    }
+
+    @Override
+    public void visitListEnd() {
+        Frame frame = frames.poll();
+        if (frame == null || frame.keys != null) {
+            throw new IllegalStateException("Not in a list!");
+        }
+        add(map.addList(frame.values.toArray()));
+    }
+
+    private static final class Frame {
+        /** The string index of every key, or null if this is a list. */
+        final TIntArrayList keys;
+        final TIntArrayList values = new TIntArrayList();
+        int key = NO_REF;
+
+        Frame(boolean isCompound) {
+            keys = isCompound ? new TIntArrayList() : null;
+        }
+    }
+}
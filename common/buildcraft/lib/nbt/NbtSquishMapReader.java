@@ -9,15 +9,10 @@ package buildcraft.lib.nbt;
 import java.io.DataInput;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
 
 import gnu.trove.list.array.TByteArrayList;
 import gnu.trove.list.array.TIntArrayList;
 
-import net.minecraft.nbt.NBTBase;
-import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.nbt.NBTTagList;
 import net.minecraft.network.PacketBuffer;
 
 import buildcraft.api.core.InvalidInputDataException;
@@ -154,50 +149,49 @@ class NbtSquishMapReader {
         return (flags & flag) == flag;
     }
 
-    private NBTTagCompound readCompound(WrittenType type, DataInput in) throws IOException {
+    private NbtSquishMap.ComplexEntry readCompound(WrittenType type, DataInput in) throws IOException {
         WrittenType stringType = WrittenType.getForSize(map.stringSize());
         int count = readVarInt(in);
-        NBTTagCompound nbt = new NBTTagCompound();
+        int[] keys = new int[count];
+        int[] values = new int[count];
         for (int i = 0; i < count; i++) {
-            String key = map.getStringForReading(stringType.readIndex(in));
-            NBTBase value = map.getTagForReading(type.readIndex(in));
-            nbt.setTag(key, value.copy());
+            int key = stringType.readIndex(in);
+            if (key < 0 || key >= map.stringSize()) {
+                throw new InvalidInputDataException("Cannot handle string index " + key);
+            }
+            keys[i] = key;
+            values[i] = map.getRefForReading(type.readIndex(in));
         }
-        return nbt;
+        return new NbtSquishMap.ComplexEntry(true, keys, values);
     }
 
-    private NBTTagList readNormalList(WrittenType type, DataInput in) throws IOException {
+    private NbtSquishMap.ComplexEntry readNormalList(WrittenType type, DataInput in) throws IOException {
         int count = readVarInt(in);
-        NBTTagList list = new NBTTagList();
-
+        int[] values = new int[count];
         for (int i = 0; i < count; i++) {
-            int index = type.readIndex(in);
-            list.appendTag(map.getTagForReading(index));
+            values[i] = map.getRefForReading(type.readIndex(in));
         }
-
-        return list;
+        return new NbtSquishMap.ComplexEntry(false, null, values);
     }
 
-    private NBTTagList readPackedList(WrittenType type, DataInput in) throws IOException {
+    private NbtSquishMap.ComplexEntry readPackedList(WrittenType type, DataInput in) throws IOException {
         // First make the dictionary
         int count = readVarInt(in);
-        List<NBTBase> dictionary = new ArrayList<>();
+        TIntArrayList dictionary = new TIntArrayList(count);
         for (int i = 0; i < count; i++) {
-            int index = type.readIndex(in);
-            NBTBase nbt = map.getTagForReading(index);
-            dictionary.add(nbt);
+            dictionary.add(map.getRefForReading(type.readIndex(in)));
         }
-        List<NBTBase> list = new ArrayList<>();
-        TIntArrayList left = new TIntArrayList();
-        int bits = 1;
         int entries = readVarInt(in);
-
+        int[] values = new int[entries];
+        TIntArrayList left = new TIntArrayList(entries);
         for (int i = 0; i < entries; i++) {
-            list.add(null);
             left.add(i);
         }
+        int bits = 1;
+        // The number of dictionary entries that were given a value in a previous bitset
+        int removed = 0;
 
-        while (!dictionary.isEmpty()) {
+        while (removed < dictionary.size()) {
             int bitsetSize = readVarInt(in);
             byte[] bitsetData = new byte[bitsetSize];
             in.readFully(bitsetData);
@@ -209,21 +203,22 @@ class NbtSquishMapReader {
             for (int i : left.toArray()) {
                 int index = decompactor.next();
                 if (index < maxVal) {
-                    list.set(i, dictionary.get(index));
+                    if (removed + index >= dictionary.size()) {
+                        throw new InvalidInputDataException("Cannot handle list index " + (removed + index));
+                    }
+                    values[i] = dictionary.get(removed + index);
                 } else {
                     nextLeft.add(i);
                 }
             }
 
-            dictionary.subList(0, Math.min(dictionary.size(), maxVal)).clear();
+            removed += maxVal;
             left = nextLeft;
             bits++;
         }
-
-        NBTTagList tag = new NBTTagList();
-        for (NBTBase base : list) {
-            tag.appendTag(base);
+        if (!left.isEmpty()) {
+            throw new InvalidInputDataException("Didn't find a value for " + left.size() + " list entries!");
         }
-        return tag;
+        return new NbtSquishMap.ComplexEntry(false, null, values);
     }
 }
@@ -10,7 +10,6 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -25,8 +24,6 @@ import gnu.trove.set.hash.TIntHashSet;
 
 import net.minecraft.init.Bootstrap;
 import net.minecraft.nbt.NBTBase;
-import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.nbt.NBTTagList;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.profiler.Profiler;
 
@@ -64,6 +61,10 @@ class NbtSquishMapWriter {
 
         type.writeType(to);
 
+        if (sort) {
+            map.sortDictionaries();
+        }
+
         TByteArrayList bytes = map.bytes;
         TShortArrayList shorts = map.shorts;
         TIntArrayList ints = map.ints;
@@ -73,7 +74,7 @@ class NbtSquishMapWriter {
         List<TByteArrayList> byteArrays = map.byteArrays;
         List<TIntArrayList> intArrays = map.intArrays;
         List<String> strings = map.strings;
-        List<NBTBase> complex = map.complex;
+        List<NbtSquishMap.ComplexEntry> complex = map.complex;
 
         int flags = 0;
         if (!bytes.isEmpty()) flags |= NbtSquishConstants.FLAG_HAS_BYTES;
@@ -93,7 +94,6 @@ class NbtSquishMapWriter {
         profiler.endStartSection("bytes");
         if (!bytes.isEmpty()) {
             if (debug) log("\nByte dictionary size = " + bytes.size());
-            if (sort) bytes.sort();
             writeVarInt(to, bytes.size());
             for (byte b : bytes.toArray()) {
                 to.writeByte(b);
@@ -102,7 +102,6 @@ class NbtSquishMapWriter {
         profiler.endStartSection("shorts");
         if (!shorts.isEmpty()) {
             if (debug) log("\nShort dictionary size = " + shorts.size());
-            if (sort) shorts.sort();
             writeVarInt(to, shorts.size());
             for (short s : shorts.toArray()) {
                 to.writeShort(s);
@@ -111,7 +110,6 @@ class NbtSquishMapWriter {
         profiler.endStartSection("integers");
         if (!ints.isEmpty()) {
             if (debug) log("\nInt dictionary size = " + ints.size());
-            if (sort) ints.sort();
             writeVarInt(to, ints.size());
             for (int i : ints.toArray()) {
                 to.writeInt(i);
@@ -120,7 +118,6 @@ class NbtSquishMapWriter {
         profiler.endStartSection("longs");
         if (!longs.isEmpty()) {
             if (debug) log("\nLong dictionary size = " + longs.size());
-            if (sort) longs.sort();
             writeVarInt(to, longs.size());
             for (long l : longs.toArray()) {
                 to.writeLong(l);
@@ -129,7 +126,6 @@ class NbtSquishMapWriter {
         profiler.endStartSection("floats");
         if (!floats.isEmpty()) {
             if (debug) log("\nFloat dictionary size = " + floats.size());
-            if (sort) floats.sort();
             writeVarInt(to, floats.size());
             for (float f : floats.toArray()) {
                 to.writeFloat(f);
@@ -138,7 +134,6 @@ class NbtSquishMapWriter {
         profiler.endStartSection("doubles");
         if (!doubles.isEmpty()) {
             if (debug) log("\nDouble dictionary size = " + doubles.size());
-            if (sort) doubles.sort();
             writeVarInt(to, doubles.size());
             for (double d : doubles.toArray()) {
                 to.writeDouble(d);
@@ -169,7 +164,6 @@ class NbtSquishMapWriter {
         profiler.endStartSection("strings");
         if (!strings.isEmpty()) {
             if (debug) log("\nString dictionary size = " + strings.size());
-            if (sort) Collections.sort(strings);
             writeVarInt(to, strings.size());
             for (int i = 0; i < strings.size(); i++) {
                 String s = strings.get(i);
@@ -183,13 +177,11 @@ class NbtSquishMapWriter {
         if (!complex.isEmpty()) {
             if (debug) log("\nComplex dictionary size = " + complex.size());
             writeVarInt(to, complex.size());
-            for (NBTBase nbt : complex) {
-                if (nbt instanceof NBTTagList) {
-                    NBTTagList list = (NBTTagList) nbt;
-                    writeList(type, list, to);
+            for (NbtSquishMap.ComplexEntry entry : complex) {
+                if (entry.isCompound) {
+                    writeCompound(type, entry, to);
                 } else {
-                    NBTTagCompound compound = (NBTTagCompound) nbt;
-                    writeCompound(type, compound, to);
+                    writeList(type, entry, to);
                 }
             }
         }
@@ -206,84 +198,72 @@ class NbtSquishMapWriter {
         to.writeByte(input);
     }
 
-    private void writeList(WrittenType type, NBTTagList list, DataOutput to) throws IOException {
-        boolean pack = shouldPackList(list);
-        if (debug) log("\n  List tag count = " + list.tagCount() + ", writing it " + (pack ? "PACKED" : "NORMAL"));
+    private void writeList(WrittenType type, NbtSquishMap.ComplexEntry entry, DataOutput to) throws IOException {
+        int[] data = new int[entry.values.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = map.getWrittenIndex(entry.values[i]);
+        }
+        boolean pack = shouldPackList(data);
+        if (debug) log("\n  List tag count = " + data.length + ", writing it " + (pack ? "PACKED" : "NORMAL"));
         if (pack) {
-            writeListPacked(type, to, list);
+            writeListPacked(type, to, data);
         } else {
-            writeListNormal(type, to, list);
+            writeListNormal(type, to, data);
         }
     }
 
-    private boolean shouldPackList(NBTTagList list) {
+    private static boolean shouldPackList(int[] data) {
         if (packList != null) return packList;
         profiler.startSection("should_pack");
-        TIntHashSet indexes = new TIntHashSet();
-        for (int i = 0; i < list.tagCount(); i++) {
-            indexes.add(map.indexOfTag(list.get(i)));
-        }
+        TIntHashSet indexes = new TIntHashSet(data);
         profiler.endSection();
-        return indexes.size() * 2 < list.tagCount();
+        return indexes.size() * 2 < data.length;
     }
 
-    private void writeCompound(WrittenType type, NBTTagCompound compound, DataOutput to) throws IOException {
+    private void writeCompound(WrittenType type, NbtSquishMap.ComplexEntry entry, DataOutput to) throws IOException {
         profiler.startSection("compound");
         WrittenType stringType = WrittenType.getForSize(map.strings.size());
-        if (debug) log("\n  Compound tag count = " + compound.getSize());
+        if (debug) log("\n  Compound tag count = " + entry.keys.length);
         to.writeByte(NbtSquishConstants.COMPLEX_COMPOUND);
-        writeVarInt(to, compound.getSize());
-        for (String key : compound.getKeySet()) {
+        writeVarInt(to, entry.keys.length);
+        for (int i = 0; i < entry.keys.length; i++) {
             profiler.startSection("entry");
-            NBTBase nbt = compound.getTag(key);
-            profiler.startSection("index_value");
-            int index = map.indexOfTag(nbt);
-            profiler.endSection();
-            if (debug) log("\n             \"" + key + "\" -> " + index + " (" + safeToString(nbt) + ")");
-            profiler.startSection("index_key");
-            stringType.writeIndex(to, map.strings.indexOf(key));
-            profiler.endSection();
+            int index = map.getWrittenIndex(entry.values[i]);
+            if (debug) {
+                String key = map.strings.get(entry.keys[i]);
+                String value = safeToString(map.getTagForWriting(index));
+                log("\n             \"" + key + "\" -> " + index + " (" + value + ")");
+            }
+            stringType.writeIndex(to, entry.keys[i]);
             type.writeIndex(to, index);
             profiler.endSection();
         }
         profiler.endSection();
     }
 
-    private void writeListNormal(WrittenType type, DataOutput to, NBTTagList list) throws IOException {
+    private static void writeListNormal(WrittenType type, DataOutput to, int[] data) throws IOException {
         profiler.startSection("list_normal");
         to.writeByte(NbtSquishConstants.COMPLEX_LIST);
-        writeVarInt(to, list.tagCount());
-        for (int i = 0; i < list.tagCount(); i++) {
-            profiler.startSection("entry");
+        writeVarInt(to, data.length);
+        for (int i = 0; i < data.length; i++) {
             if (i % 100 == 0) {
-                if (debug) log("\n   List items " + i + " to " + Math.min(i + 99, list.tagCount()));
+                if (debug) log("\n   List items " + i + " to " + Math.min(i + 99, data.length));
             }
-            profiler.startSection("index");
-            int index = map.indexOfTag(list.get(i));
-            profiler.endSection();
-            type.writeIndex(to, index);
-            profiler.endSection();
+            type.writeIndex(to, data[i]);
         }
         profiler.endSection();
     }
 
-    private void writeListPacked(WrittenType type, DataOutput to, NBTTagList list) throws IOException {
+    private void writeListPacked(WrittenType type, DataOutput to, int[] data) throws IOException {
         profiler.startSection("list_packed");
         to.writeByte(NbtSquishConstants.COMPLEX_LIST_PACKED);
         profiler.startSection("header");
         profiler.startSection("init");
-        int[] data = new int[list.tagCount()];
         TIntIntHashMap indexes = new TIntIntHashMap();
-        for (int i = 0; i < list.tagCount(); i++) {
-            profiler.startSection("entry");
-            profiler.startSection("index");
-            int index = map.indexOfTag(list.get(i));
-            profiler.endSection();
-            data[i] = index;
+        for (int index : data) {
             if (!indexes.increment(index)) {
                 indexes.put(index, 1);
             }
-            profiler.endSection();
         }
         // First try to make a simple table
 
@@ -300,16 +280,18 @@ class NbtSquishMapWriter {
         writeVarInt(to, entries.size());
         profiler.endStartSection("write");
 
-        TIntArrayList sortedIndexes = new TIntArrayList();
+        // The position of every index in the sorted entries
+        TIntIntHashMap ranks = new TIntIntHashMap(entries.size() * 2, 0.5f, -1, -1);
         int i = 0;
         for (IndexEntry entry : entries) {
             final int j = i;
 
-            NBTBase base = map.getTagForWriting(entry.index);
-            String n = safeToString(base);
-            if (debug) log("\n List entry #" + j + " = " + entry.count + "x" + entry.index + " (" + n + ")");
+            if (debug) {
+                String n = safeToString(map.getTagForWriting(entry.index));
+                log("\n List entry #" + j + " = " + entry.count + "x" + entry.index + " (" + n + ")");
+            }
 
-            sortedIndexes.add(entry.index);
+            ranks.put(entry.index, j);
             type.writeIndex(to, entry.index);
             i++;
         }
@@ -319,6 +301,8 @@ class NbtSquishMapWriter {
         writeVarInt(to, data.length);
         profiler.endSection();
         profiler.endStartSection("contents");
+        // The number of sorted entries that have been given a value in a previous bitset
+        int removed = 0;
         for (int b = 1; !nextData.isEmpty(); b++) {
             profiler.startSection("entry");
             CompactingBitSet bitset = new CompactingBitSet(b);
@@ -329,7 +313,7 @@ class NbtSquishMapWriter {
             for (int d : nextData.toArray()) {
                 // profiler.startSection("entry");
                 // profiler.startSection("index");
-                int index = sortedIndexes.indexOf(d);
+                int index = ranks.get(d) - removed;
                 // profiler.endSection();
                 if (index < maxVal) {
                     // profiler.startSection("bitset_append");
@@ -345,7 +329,7 @@ class NbtSquishMapWriter {
                 // profiler.endSection();
             }
             profiler.endSection();
-            sortedIndexes.remove(0, Math.min(sortedIndexes.size(), maxVal));
+            removed += maxVal;
             byte[] bitsetBytes = bitset.getBytes();
             if (debug) log("\n List bitset #" + (bitset.bits - 1));
             writeVarInt(to, bitsetBytes.length);
@@ -16,16 +16,30 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import javax.annotation.Nullable;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
 
 import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.profiler.Profiler;
 
@@ -45,6 +59,14 @@ public class NbtSquisher {
     private static final int TYPE_BC_1_GZIP = NbtSquishConstants.BUILDCRAFT_V1_COMPRESSED;
     private static final int TYPE_BC_1 = NbtSquishConstants.BUILDCRAFT_V1;
 
+    /** Thrown by the BuildCraft types if the compound holds an array or a string that is too long for them. The vanilla
+     * types don't have this limit. */
+    public static class TooLongException extends IOException {
+        public TooLongException(String message) {
+            super(message);
+        }
+    }
+
     public static byte[] squish(NBTTagCompound nbt, int type) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
@@ -82,6 +104,48 @@ public class NbtSquisher {
         }
     }
 
+    /** Writes out the compound that the given producer passes to its visitor, without creating the compound itself if
+     * the given type is one of the BuildCraft types.
+     *
+     * @param producer Visits a single compound (and everything inside of it).
+     * @throws TooLongException (before anything has been written to the stream) if the type is one of the BuildCraft
+     *             types, and the compound can't be written with it. */
+    public static void squish(Consumer<INbtVisitor> producer, int type, OutputStream stream) throws IOException {
+        switch (type) {
+            case TYPE_MC:
+            case TYPE_MC_GZIP: {
+                NbtTagBuilder builder = new NbtTagBuilder();
+                producer.accept(builder);
+                squish(builder.getRoot(), type, stream);
+                return;
+            }
+            case TYPE_BC_1: {
+                NbtSquishMap map = new NbtSquishMap();
+                int root = buildBuildCraftV1(producer, map);
+                DataOutputStream to = new DataOutputStream(stream);
+                to.write(NbtSquishConstants.BUILDCRAFT_MAGIC_1);
+                to.write(NbtSquishConstants.BUILDCRAFT_MAGIC_2);
+                to.write(TYPE_BC_1);
+                writeBuildCraftV1(map, root, to);
+                to.flush();
+                return;
+            }
+            case TYPE_BC_1_GZIP: {
+                NbtSquishMap map = new NbtSquishMap();
+                int root = buildBuildCraftV1(producer, map);
+                stream.write(NbtSquishConstants.BUILDCRAFT_MAGIC_1);
+                stream.write(NbtSquishConstants.BUILDCRAFT_MAGIC_2);
+                stream.write(TYPE_BC_1_GZIP);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(stream, true)) {
+                    writeBuildCraftV1(map, root, new DataOutputStream(gzip));
+                }
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
     public static void squishVanilla(NBTTagCompound nbt, OutputStream to) throws IOException {
         to.write(NbtSquishConstants.BUILDCRAFT_MAGIC_1);
         to.write(NbtSquishConstants.BUILDCRAFT_MAGIC_2);
@@ -120,6 +184,18 @@ public class NbtSquisher {
     }
 
     public static NBTTagCompound expand(InputStream stream) throws IOException {
+        return expandInternal(stream, null);
+    }
+
+    /** Reads a compound from the given stream, and passes everything in it to the given visitor, without ever creating
+     * the compound itself. Reading stops early once {@link INbtVisitor#isFinished()} returns true. */
+    public static void expand(InputStream stream, INbtVisitor visitor) throws IOException {
+        expandInternal(stream, visitor);
+    }
+
+    /** @param visitor If this is null then the compound is returned, otherwise it is passed to the visitor instead. */
+    @Nullable
+    private static NBTTagCompound expandInternal(InputStream stream, @Nullable INbtVisitor visitor) throws IOException {
         if (!stream.markSupported()) {
             stream = new BufferedInputStream(stream);
         }
@@ -131,13 +207,13 @@ public class NbtSquisher {
             // Defiantly a BC stream
             int type = stream.read();
             if (type == TYPE_MC) {
-                return CompressedStreamTools.read(new DataInputStream(stream));
+                return readVanilla(new DataInputStream(stream), visitor);
             } else if (type == TYPE_MC_GZIP) {
-                return CompressedStreamTools.readCompressed(stream);
+                return readVanillaCompressed(stream, visitor);
             } else if (type == TYPE_BC_1) {
-                return readBuildCraftV1Direct(new DataInputStream(stream));
+                return readBuildCraftV1Direct(new DataInputStream(stream), visitor);
             } else if (type == TYPE_BC_1_GZIP) {
-                return readBuildCraftV1Direct(new DataInputStream(new GZIPInputStream(stream)));
+                return readBuildCraftV1Direct(new DataInputStream(new GZIPInputStream(stream)), visitor);
             } else {
                 throw new InvalidInputDataException("Cannot handle BuildCraft saved NBT type " + type);
             }
@@ -145,7 +221,7 @@ public class NbtSquisher {
             // Defiantly a GZIP stream
             // Assume its a vanilla file
             stream.reset();
-            return CompressedStreamTools.readCompressed(stream);
+            return readVanillaCompressed(stream, visitor);
         }
         // Its not a new BC style nbt, try to red it as if it was an older style nbt
         // Reset + mark the same point, this time we only want to reset back 1 or 2 bytes
@@ -154,35 +230,223 @@ public class NbtSquisher {
         int type = stream.read();
 
         if (type == TYPE_MC) {
-            return CompressedStreamTools.read(new DataInputStream(stream));
+            return readVanilla(new DataInputStream(stream), visitor);
         } else if (type == TYPE_MC_GZIP) {
-            return CompressedStreamTools.readCompressed(stream);
+            return readVanillaCompressed(stream, visitor);
         } else if (type == TYPE_BC_1) {
-            return readBuildCraftV1Direct(new DataInputStream(stream));
+            return readBuildCraftV1Direct(new DataInputStream(stream), visitor);
         } else if (type == TYPE_BC_1_GZIP) {
-            return readBuildCraftV1Direct(new DataInputStream(new GZIPInputStream(stream)));
+            return readBuildCraftV1Direct(new DataInputStream(new GZIPInputStream(stream)), visitor);
         } else if (type == Constants.NBT.TAG_COMPOUND) {
             // Assume vanilla, but reset back to the first byte as vanilla needs
             stream.reset();
-            return CompressedStreamTools.read(new DataInputStream(stream));
+            return readVanilla(new DataInputStream(stream), visitor);
         } else {
             throw new InvalidInputDataException("Cannot handle unknown saved NBT type " + type);
         }
     }
 
-    private static NBTTagCompound readBuildCraftV1Direct(DataInput in) throws IOException {
+    @Nullable
+    private static NBTTagCompound readVanillaCompressed(InputStream stream, @Nullable INbtVisitor visitor)
+        throws IOException {
+        // The same streams as CompressedStreamTools.readCompressed
+        return readVanilla(new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream))), visitor);
+    }
+
+    @Nullable
+    private static NBTTagCompound readVanilla(DataInputStream in, @Nullable INbtVisitor visitor) throws IOException {
+        if (visitor == null) {
+            return CompressedStreamTools.read(in);
+        }
+        int type = in.readByte();
+        if (type != Constants.NBT.TAG_COMPOUND) {
+            throw new InvalidInputDataException("The root tag must be a compound, but was " + type);
+        }
+        // The name of the root tag, which isn't used
+        in.readUTF();
+        readVanillaValue(in, type, visitor, 0);
+        return null;
+    }
+
+    /** Reads a single value in the vanilla format, passing it to the visitor without creating a tag for it.
+     *
+     * @return False if the visitor has finished, and so nothing more should be read. */
+    private static boolean readVanillaValue(DataInput in, int type, INbtVisitor visitor, int depth)
+        throws IOException {
+        if (depth > 512) {
+            throw new InvalidInputDataException("Tried to read an NBT tag that was nested more than 512 times");
+        }
+        switch (type) {
+            case Constants.NBT.TAG_BYTE:
+                visitor.visitByte(in.readByte());
+                break;
+            case Constants.NBT.TAG_SHORT:
+                visitor.visitShort(in.readShort());
+                break;
+            case Constants.NBT.TAG_INT:
+                visitor.visitInt(in.readInt());
+                break;
+            case Constants.NBT.TAG_LONG:
+                visitor.visitLong(in.readLong());
+                break;
+            case Constants.NBT.TAG_FLOAT:
+                visitor.visitFloat(in.readFloat());
+                break;
+            case Constants.NBT.TAG_DOUBLE:
+                visitor.visitDouble(in.readDouble());
+                break;
+            case Constants.NBT.TAG_BYTE_ARRAY: {
+                byte[] array = new byte[readLength(in)];
+                in.readFully(array);
+                visitor.visitByteArray(array);
+                break;
+            }
+            case Constants.NBT.TAG_INT_ARRAY: {
+                int[] array = new int[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readInt();
+                }
+                visitor.visitIntArray(array);
+                break;
+            }
+            case Constants.NBT.TAG_STRING:
+                visitor.visitString(in.readUTF());
+                break;
+            case Constants.NBT.TAG_LIST: {
+                int elementType = in.readByte();
+                int length = readLength(in);
+                visitor.visitListStart();
+                for (int i = 0; i < length; i++) {
+                    if (!readVanillaValue(in, elementType, visitor, depth + 1)) {
+                        return false;
+                    }
+                }
+                visitor.visitListEnd();
+                break;
+            }
+            case Constants.NBT.TAG_COMPOUND: {
+                visitor.visitCompoundStart();
+                int childType;
+                while ((childType = in.readByte()) != Constants.NBT.TAG_END) {
+                    visitor.visitKey(in.readUTF());
+                    if (!readVanillaValue(in, childType, visitor, depth + 1)) {
+                        return false;
+                    }
+                }
+                visitor.visitCompoundEnd();
+                break;
+            }
+            default:
+                throw new InvalidInputDataException("Cannot handle NBT type " + type);
+        }
+        return !visitor.isFinished();
+    }
+
+    private static int readLength(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new InvalidInputDataException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    @Nullable
+    private static NBTTagCompound readBuildCraftV1Direct(DataInput in, @Nullable INbtVisitor visitor)
+        throws IOException {
         NbtSquishMap map = NbtSquishMapReader.read(in);
         WrittenType type = map.getWrittenType();
         int index = type.readIndex(in);
-        return map.getFullyReadComp(index);
+        if (visitor == null) {
+            return map.getFullyReadComp(index);
+        }
+        map.visitFullyReadComp(index, visitor);
+        return null;
     }
 
     private static void squishBuildCraftV1Direct(NBTTagCompound nbt, DataOutput to) throws IOException {
         NbtSquishMap map = new NbtSquishMap();
         map.addTag(nbt);
+        map.checkLengths();
         NbtSquishMapWriter.debug = debugBuffer != null;
         NbtSquishMapWriter.write(map, to);
         WrittenType type = map.getWrittenType();
         type.writeIndex(to, map.indexOfTag(nbt));
     }
+
+    /** Adds everything that the producer visits to the given map, and checks that it can be written.
+     *
+     * @return The ref of the root compound. */
+    private static int buildBuildCraftV1(Consumer<INbtVisitor> producer, NbtSquishMap map) throws TooLongException {
+        NbtSquishMapBuilder builder = new NbtSquishMapBuilder(map);
+        producer.accept(builder);
+        map.checkLengths();
+        return builder.getRootRef();
+    }
+
+    private static void writeBuildCraftV1(NbtSquishMap map, int root, DataOutput to) throws IOException {
+        NbtSquishMapWriter.debug = debugBuffer != null;
+        NbtSquishMapWriter.write(map, to);
+        WrittenType type = map.getWrittenType();
+        // Sorting only moves the primitives and strings around, so the root compound is still at the same ref
+        type.writeIndex(to, map.getWrittenIndex(root));
+    }
+
+    /** Passes everything in the given compound to the given visitor. */
+    public static void visit(NBTTagCompound nbt, INbtVisitor visitor) {
+        visitTag(nbt, visitor);
+    }
+
+    /** Passes the given tag (of any type) to the given visitor. */
+    public static void visitTag(NBTBase nbt, INbtVisitor visitor) {
+        switch (nbt.getId()) {
+            case Constants.NBT.TAG_BYTE:
+                visitor.visitByte(((NBTTagByte) nbt).getByte());
+                return;
+            case Constants.NBT.TAG_SHORT:
+                visitor.visitShort(((NBTTagShort) nbt).getShort());
+                return;
+            case Constants.NBT.TAG_INT:
+                visitor.visitInt(((NBTTagInt) nbt).getInt());
+                return;
+            case Constants.NBT.TAG_LONG:
+                visitor.visitLong(((NBTTagLong) nbt).getLong());
+                return;
+            case Constants.NBT.TAG_FLOAT:
+                visitor.visitFloat(((NBTTagFloat) nbt).getFloat());
+                return;
+            case Constants.NBT.TAG_DOUBLE:
+                visitor.visitDouble(((NBTTagDouble) nbt).getDouble());
+                return;
+            case Constants.NBT.TAG_BYTE_ARRAY:
+                visitor.visitByteArray(((NBTTagByteArray) nbt).getByteArray());
+                return;
+            case Constants.NBT.TAG_INT_ARRAY:
+                visitor.visitIntArray(((NBTTagIntArray) nbt).getIntArray());
+                return;
+            case Constants.NBT.TAG_STRING:
+                visitor.visitString(((NBTTagString) nbt).getString());
+                return;
+            case Constants.NBT.TAG_LIST: {
+                NBTTagList list = (NBTTagList) nbt;
+                visitor.visitListStart();
+                for (int i = 0; i < list.tagCount(); i++) {
+                    visitTag(list.get(i), visitor);
+                }
+                visitor.visitListEnd();
+                return;
+            }
+            case Constants.NBT.TAG_COMPOUND: {
+                NBTTagCompound compound = (NBTTagCompound) nbt;
+                visitor.visitCompoundStart();
+                for (String key : compound.getKeySet()) {
+                    visitor.visitKey(key);
+                    visitTag(compound.getTag(key), visitor);
+                }
+                visitor.visitCompoundEnd();
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("Cannot handle tag " + nbt);
+        }
+    }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.lib.nbt;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/** Builds a normal {@link NBTTagCompound} from visited values, for callers that do want the full tag. */
+public class NbtTagBuilder implements INbtVisitor {
+    private final Deque<NBTBase> parents = new ArrayDeque<>();
+    private final Deque<String> keys = new ArrayDeque<>();
+    private NBTTagCompound root;
+
+    /** @return The root compound, after it has been visited completely. */
+    public NBTTagCompound getRoot() {
+        if (root == null || !parents.isEmpty()) {
+            throw new IllegalStateException("The root compound hasn't been finished!");
+        }
+        return root;
+    }
+
+    private void add(NBTBase tag) {
+        NBTBase parent = parents.peek();
+        if (parent == null) {
+            throw new IllegalStateException("The root value must be a compound!");
+        }
+        if (parent instanceof NBTTagCompound) {
+            String key = keys.poll();
+            if (key == null) {
+                throw new IllegalStateException("Missing a key for a value in a compound!");
+            }
+            ((NBTTagCompound) parent).setTag(key, tag);
+        } else {
+            ((NBTTagList) parent).appendTag(tag);
+        }
+    }
+
+    @Override
+    public void visitByte(byte value) {
+        add(new NBTTagByte(value));
+    }
+
+    @Override
+    public void visitShort(short value) {
+        add(new NBTTagShort(value));
+    }
+
+    @Override
+    public void visitInt(int value) {
+        add(new NBTTagInt(value));
+    }
+
+    @Override
+    public void visitLong(long value) {
+        add(new NBTTagLong(value));
+    }
+
+    @Override
+    public void visitFloat(float value) {
+        add(new NBTTagFloat(value));
+    }
+
+    @Override
+    public void visitDouble(double value) {
+        add(new NBTTagDouble(value));
+    }
+
+    @Override
+    public void visitByteArray(byte[] value) {
+        add(new NBTTagByteArray(value));
+    }
+
+    @Override
+    public void visitIntArray(int[] value) {
+        add(new NBTTagIntArray(value));
+    }
+
+    @Override
+    public void visitString(String value) {
+        add(new NBTTagString(value));
+    }
+
+    @Override
+    public void visitCompoundStart() {
+        NBTTagCompound compound = new NBTTagCompound();
+        if (parents.isEmpty()) {
+            if (root != null) {
+                throw new IllegalStateException("Already visited the root compound!");
+            }
+            root = compound;
+        } else {
+            add(compound);
+        }
+        parents.push(compound);
+    }
+
+    @Override
+    public void visitKey(String key) {
+        if (!(parents.peek() instanceof NBTTagCompound)) {
+            throw new IllegalStateException("Cannot visit a key outside of a compound!");
+        }
+        keys.push(key);
+    }
+
+    @Override
+    public void visitCompoundEnd() {
+        if (!(parents.poll() instanceof NBTTagCompound)) {
+            throw new IllegalStateException("Not in a compound!");
+        }
+    }
+
+    @Override
+    public void visitListStart() {
+        NBTTagList list = new NBTTagList();
+        add(list);
+        parents.push(list);
+    }
+
+    @Override
+    public void visitListEnd() {
+        if (!(parents.poll() instanceof NBTTagList)) {
+            throw new IllegalStateException("Not in a list!");
+        }
+    }
+}
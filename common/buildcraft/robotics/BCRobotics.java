@@ -8,6 +8,7 @@ package buildcraft.robotics;
 
 import java.util.function.Consumer;
 
+import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
@@ -45,6 +46,8 @@ public class BCRobotics {
         BCRoboticsProxy.getProxy().fmlPreInit();
 
         NetworkRegistry.INSTANCE.registerGuiHandler(INSTANCE, BCRoboticsProxy.getProxy());
+
+        MinecraftForge.EVENT_BUS.register(BCRoboticsEventDist.INSTANCE);
     }
 
     @Mod.EventHandler
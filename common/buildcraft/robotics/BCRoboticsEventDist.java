@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.robotics;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorldEventListener;
+import net.minecraft.world.World;
+
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.common.network.FMLNetworkEvent.ClientConnectedToServerEvent;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+
+import buildcraft.lib.world.WorldEventListenerAdapter;
+
+import buildcraft.robotics.zone.ZonePlannerMapDataClient;
+import buildcraft.robotics.zone.ZonePlannerMapDataServer;
+
+public enum BCRoboticsEventDist {
+    INSTANCE;
+
+    private final IWorldEventListener worldEventListener = new WorldEventListenerAdapter() {
+        @Override
+        public void notifyBlockUpdate(World world,
+                                      BlockPos pos,
+                                      IBlockState oldState,
+                                      IBlockState newState,
+                                      int flags) {
+            if (oldState != newState) {
+                ZonePlannerMapDataServer.INSTANCE.onBlockChanged(world, pos);
+            }
+        }
+    };
+
+    @SubscribeEvent
+    public void onWorldLoad(WorldEvent.Load event) {
+        if (!event.getWorld().isRemote) {
+            event.getWorld().addEventListener(worldEventListener);
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event) {
+        if (!event.getWorld().isRemote) {
+            event.getWorld().removeEventListener(worldEventListener);
+            ZonePlannerMapDataServer.INSTANCE.onWorldUnload(event.getWorld());
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.END) {
+            ZonePlannerMapDataServer.INSTANCE.onServerTick();
+        }
+    }
+
+    @SubscribeEvent
+    @SideOnly(Side.CLIENT)
+    public void onConnectToServer(ClientConnectedToServerEvent event) {
+        ZonePlannerMapDataClient.INSTANCE.onJoinServer();
+    }
+}
@@ -11,40 +11,36 @@ import io.netty.buffer.ByteBuf;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
 
-import buildcraft.lib.misc.MessageUtil;
-
 public class MessageZoneMapRequest implements IMessage {
     private ZonePlannerMapChunkKey key;
+    /** The {@link ZonePlannerMapChunk#getHash()} of the chunk that the client already has, or 0 if it doesn't have
+     * one. */
+    private long hash;
 
     @SuppressWarnings("unused")
     public MessageZoneMapRequest() {
     }
 
-    public MessageZoneMapRequest(ZonePlannerMapChunkKey key) {
+    public MessageZoneMapRequest(ZonePlannerMapChunkKey key, long hash) {
         this.key = key;
+        this.hash = hash;
     }
 
     @Override
     public void fromBytes(ByteBuf buf) {
         key = new ZonePlannerMapChunkKey(buf);
+        hash = buf.readLong();
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
         key.toBytes(buf);
+        buf.writeLong(hash);
     }
 
     public static final IMessageHandler<MessageZoneMapRequest, IMessage> HANDLER = (message, ctx) -> {
-        MessageUtil.sendReturnMessage(
-                ctx,
-                new MessageZoneMapResponse(
-                        message.key,
-                        ZonePlannerMapDataServer.INSTANCE.getChunk(
-                                ctx.getServerHandler().player.world,
-                                message.key
-                        )
-                )
-        );
+        // Not generated here, as a client can ask for a lot of chunks at once
+        ZonePlannerMapDataServer.INSTANCE.requestChunk(ctx.getServerHandler().player, message.key, message.hash);
         return null;
     };
 }
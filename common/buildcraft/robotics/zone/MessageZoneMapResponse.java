@@ -6,6 +6,11 @@
 
 package buildcraft.robotics.zone;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
 import io.netty.buffer.ByteBuf;
 
 import net.minecraft.network.PacketBuffer;
@@ -13,33 +18,53 @@ import net.minecraft.network.PacketBuffer;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
 
+/** Any number of map chunks, sent together to save on packet overhead. */
 public class MessageZoneMapResponse implements IMessage {
-    private ZonePlannerMapChunkKey key;
-    private ZonePlannerMapChunk data;
+    private final List<ZonePlannerMapChunkKey> keys = new ArrayList<>();
+    /** The chunk for each of {@link #keys}, or null if the client's copy is still up to date. */
+    private final List<ZonePlannerMapChunk> chunks = new ArrayList<>();
 
-    @SuppressWarnings("unused")
     public MessageZoneMapResponse() {
     }
 
-    public MessageZoneMapResponse(ZonePlannerMapChunkKey zonePlannerMapChunkKey, ZonePlannerMapChunk data) {
-        this.key = zonePlannerMapChunkKey;
-        this.data = data;
+    /** @param data The chunk to send, or null if the client already has it. */
+    public void add(ZonePlannerMapChunkKey key, @Nullable ZonePlannerMapChunk data) {
+        keys.add(key);
+        chunks.add(data);
+    }
+
+    public int size() {
+        return keys.size();
     }
 
     @Override
     public void fromBytes(ByteBuf buf) {
-        key = new ZonePlannerMapChunkKey(buf);
-        data = new ZonePlannerMapChunk(new PacketBuffer(buf));
+        PacketBuffer buffer = new PacketBuffer(buf);
+        int count = buffer.readVarInt();
+        for (int i = 0; i < count; i++) {
+            ZonePlannerMapChunkKey key = new ZonePlannerMapChunkKey(buffer);
+            add(key, buffer.readBoolean() ? new ZonePlannerMapChunk(buffer) : null);
+        }
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
-        key.toBytes(buf);
-        data.write(new PacketBuffer(buf));
+        PacketBuffer buffer = new PacketBuffer(buf);
+        buffer.writeVarInt(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            keys.get(i).toBytes(buffer);
+            ZonePlannerMapChunk data = chunks.get(i);
+            buffer.writeBoolean(data != null);
+            if (data != null) {
+                data.write(buffer);
+            }
+        }
     }
 
     public static final IMessageHandler<MessageZoneMapResponse, IMessage> HANDLER = (message, ctx) -> {
-        ZonePlannerMapDataClient.INSTANCE.onChunkReceived(message.key, message.data);
+        for (int i = 0; i < message.keys.size(); i++) {
+            ZonePlannerMapDataClient.INSTANCE.onChunkReceived(message.keys.get(i), message.chunks.get(i));
+        }
         return null;
     };
 }
@@ -8,21 +8,48 @@ package buildcraft.robotics.zone;
 
 import javax.annotation.Nullable;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 public class ZonePlannerMapChunk {
     private final MapColourData[][] data = new MapColourData[16][16];
+    private final long hash;
 
+    /** Finds the top coloured block of every column in the given chunk, at or below the top of the key's level. This
+     * reads the chunk's block storage directly, skipping every section that only contains air, so it only has to look
+     * at the blocks near the surface. */
     public ZonePlannerMapChunk(World world, ZonePlannerMapChunkKey key) {
         Chunk chunk = world.getChunkFromChunkCoords(key.chunkPos.x, key.chunkPos.z);
+        ExtendedBlockStorage[] sections = chunk.getBlockStorageArray();
+        // Nothing above the top filled section can have a colour
+        int top = Math.min(key.level * ZonePlannerMapChunkKey.LEVEL_HEIGHT, chunk.getTopFilledSegment() + 15);
+        int minX = key.chunkPos.getXStart();
+        int minZ = key.chunkPos.getZStart();
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
         for (int x = 0; x < 16; x++) {
             for (int z = 0; z < 16; z++) {
-                // Scan down from the max height value of a chunk until we find a block
-                for (int y = key.level * ZonePlannerMapChunkKey.LEVEL_HEIGHT; y > 0; y--) {
-                    int colour = chunk.getBlockState(x, y, z).getMapColor(world, new BlockPos(x, y, z)).colorValue;
+                // Scan down from the top of the level until we find a block
+                for (int y = top; y > 0; y--) {
+                    ExtendedBlockStorage section = sections[y >> 4];
+                    if (section == Chunk.NULL_BLOCK_STORAGE || section.isEmpty()) {
+                        // Jump to the top of the section below
+                        y &= ~15;
+                        continue;
+                    }
+                    IBlockState state = section.get(x, y & 15, z);
+                    if (state.getBlock() == Blocks.AIR) {
+                        continue;
+                    }
+                    pos.setPos(minX + x, y, minZ + z);
+                    int colour = state.getMapColor(world, pos).colorValue;
                     if (colour != 0) {
                         data[x][z] = new MapColourData(y, colour);
                         break;
@@ -30,34 +57,82 @@ public class ZonePlannerMapChunk {
                 }
             }
         }
+        hash = computeHash();
     }
 
     public ZonePlannerMapChunk(PacketBuffer buffer) {
+        int[] palette = new int[buffer.readVarInt()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = buffer.readUnsignedMedium();
+        }
+        int lastY = 0;
         for (int x = 0; x < 16; x++) {
             for (int z = 0; z < 16; z++) {
-                int posY = buffer.readInt();
-                if (posY > 0) {
-                    int colour = buffer.readInt();
-                    data[x][z] = new MapColourData(posY, colour);
+                int index = buffer.readVarInt() - 1;
+                if (index >= 0) {
+                    int delta = buffer.readVarInt();
+                    lastY += (delta >>> 1) ^ -(delta & 1);
+                    data[x][z] = new MapColourData(lastY, palette[index]);
                 }
             }
         }
+        hash = computeHash();
     }
 
+    /** Writes every column as an index into a palette of the colours used by this chunk (0 for columns without any
+     * blocks), followed by the difference between its height and the height of the previous column. As neighbouring
+     * columns are usually at a similar height most columns only take 2 bytes. */
     public void write(PacketBuffer buffer) {
+        TIntIntHashMap paletteIndexes = new TIntIntHashMap();
+        TIntArrayList palette = new TIntArrayList();
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                MapColourData colour = data[x][z];
+                if (colour != null && !paletteIndexes.containsKey(colour.colour)) {
+                    paletteIndexes.put(colour.colour, palette.size());
+                    palette.add(colour.colour);
+                }
+            }
+        }
+        buffer.writeVarInt(palette.size());
+        for (int i = 0; i < palette.size(); i++) {
+            buffer.writeMedium(palette.get(i));
+        }
+        int lastY = 0;
         for (int x = 0; x < 16; x++) {
             for (int z = 0; z < 16; z++) {
                 MapColourData colour = data[x][z];
                 if (colour == null) {
-                    buffer.writeInt(-1);
+                    buffer.writeVarInt(0);
                 } else {
-                    buffer.writeInt(colour.posY);
-                    buffer.writeInt(colour.colour);
+                    buffer.writeVarInt(paletteIndexes.get(colour.colour) + 1);
+                    int delta = colour.posY - lastY;
+                    // Zig-zag encoded, so that small negative differences are small as well
+                    buffer.writeVarInt((delta << 1) ^ (delta >> 31));
+                    lastY = colour.posY;
                 }
             }
         }
     }
 
+    private long computeHash() {
+        long value = 0xcbf29ce484222325L;
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                MapColourData colour = data[x][z];
+                value ^= colour == null ? -1 : ((long) colour.posY << 32) | colour.colour;
+                value *= 0x100000001b3L;
+            }
+        }
+        return value == 0 ? 1 : value;
+    }
+
+    /** @return A hash of every column in this chunk, which is used as its revision: a client that already has a chunk
+     *         with the same hash doesn't need it sent again. This is never 0, so 0 can be used for "no revision". */
+    public long getHash() {
+        return hash;
+    }
+
     public int getColour(int x, int z) {
         MapColourData col = getData(x, z);
         return col == null ? -1 : col.colour;
@@ -6,22 +6,22 @@
 
 package buildcraft.robotics.zone;
 
-import java.util.concurrent.TimeUnit;
-
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
 import net.minecraft.world.World;
 
 public abstract class ZonePlannerMapData {
-    protected final Cache<ZonePlannerMapChunkKey, ZonePlannerMapChunk> data = CacheBuilder.newBuilder()
-            .expireAfterWrite(2, TimeUnit.MINUTES)
-            .build();
+    protected final Cache<ZonePlannerMapChunkKey, ZonePlannerMapChunk> data;
+
+    protected ZonePlannerMapData(CacheBuilder<Object, Object> cacheBuilder) {
+        data = cacheBuilder.build();
+    }
 
     /** Use {@link #getChunk(World, ZonePlannerMapChunkKey)} for a cached version */
     protected abstract ZonePlannerMapChunk loadChunk(World world, ZonePlannerMapChunkKey key);
 
-    public final ZonePlannerMapChunk getChunk(World world, ZonePlannerMapChunkKey key) {
+    public ZonePlannerMapChunk getChunk(World world, ZonePlannerMapChunkKey key) {
         if (data.getIfPresent(key) != null) {
             return data.getIfPresent(key);
         } else {
@@ -6,30 +6,83 @@
 
 package buildcraft.robotics.zone;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import net.minecraft.world.World;
 
 import buildcraft.lib.net.MessageManager;
 
+/** Chunks are kept for as long as they fit in the cache, but are checked with the server again if they haven't been
+ * for {@link #RECHECK_MINUTES}. Until the reply arrives the old copy is still shown, and if it hasn't changed the
+ * server only replies with the key. */
 public class ZonePlannerMapDataClient extends ZonePlannerMapData {
     public static final ZonePlannerMapDataClient INSTANCE = new ZonePlannerMapDataClient();
 
-    private final List<ZonePlannerMapChunkKey> pending = new ArrayList<>();
+    private static final int MAX_CACHED_CHUNKS = 8192;
+    private static final int RECHECK_MINUTES = 2;
+    private static final int PENDING_SECONDS = 15;
+
+    /** Chunks that have been received or confirmed by the server recently. */
+    private final Cache<ZonePlannerMapChunkKey, Boolean> upToDate = CacheBuilder.newBuilder()
+            .expireAfterWrite(RECHECK_MINUTES, TimeUnit.MINUTES)
+            .build();
+    /** Chunks that have been requested but not received yet. The server doesn't reply to every request (for example if
+     * the player changes dimension before it gets to it) so these expire, and are requested again if they are still
+     * needed. */
+    private final Cache<ZonePlannerMapChunkKey, Boolean> pending = CacheBuilder.newBuilder()
+            .expireAfterWrite(PENDING_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    private ZonePlannerMapDataClient() {
+        super(CacheBuilder.newBuilder().maximumSize(MAX_CACHED_CHUNKS));
+    }
 
     @Override
-    public ZonePlannerMapChunk loadChunk(World world, ZonePlannerMapChunkKey key) {
-        if (!pending.contains(key)) {
-            pending.add(key);
-            MessageManager.sendToServer(new MessageZoneMapRequest(key));
+    public ZonePlannerMapChunk getChunk(World world, ZonePlannerMapChunkKey key) {
+        ZonePlannerMapChunk chunk = data.getIfPresent(key);
+        if (chunk == null) {
+            return loadChunk(world, key);
         }
+        if (upToDate.getIfPresent(key) == null) {
+            request(key, chunk.getHash());
+        }
+        return chunk;
+    }
+
+    @Override
+    public ZonePlannerMapChunk loadChunk(World world, ZonePlannerMapChunkKey key) {
+        request(key, 0);
         return null;
     }
 
+    private void request(ZonePlannerMapChunkKey key, long hash) {
+        if (pending.getIfPresent(key) == null) {
+            pending.put(key, Boolean.TRUE);
+            MessageManager.sendToServer(new MessageZoneMapRequest(key, hash));
+        }
+    }
+
+    /** @param zonePlannerMapChunk The new chunk, or null if the one we already have hasn't changed. */
+    public void onChunkReceived(ZonePlannerMapChunkKey key, @Nullable ZonePlannerMapChunk zonePlannerMapChunk) {
+        pending.invalidate(key);
+        if (zonePlannerMapChunk != null) {
+            data.put(key, zonePlannerMapChunk);
+        } else if (data.getIfPresent(key) == null) {
+            // Removed from the cache while we were waiting
+            return;
+        }
+        upToDate.put(key, Boolean.TRUE);
+    }
 
-    public void onChunkReceived(ZonePlannerMapChunkKey key, ZonePlannerMapChunk zonePlannerMapChunk) {
-        pending.remove(key);
-        data.put(key, zonePlannerMapChunk);
+    /** Chunks from a different server (or a different save) can't be used, as they share the same keys. */
+    public void onJoinServer() {
+        data.invalidateAll();
+        upToDate.invalidateAll();
+        pending.invalidateAll();
     }
 }
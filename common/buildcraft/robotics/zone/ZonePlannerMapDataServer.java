@@ -6,13 +6,125 @@
 
 package buildcraft.robotics.zone;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.cache.CacheBuilder;
+
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 
+import buildcraft.lib.net.MessageManager;
+
+/** Map chunks are kept until a block in them changes (or there are too many of them), rather than for a fixed time.
+ * <p>
+ * Requests from clients are queued and answered from {@link #onServerTick()}, which only generates as many chunks as
+ * it can in {@link #MAX_NANOS_PER_TICK}, so zooming out over a large area spreads the work over several ticks. Every
+ * chunk sent to a player in the same tick goes in the same {@link MessageZoneMapResponse} (up to
+ * {@link #MAX_CHUNKS_PER_MESSAGE}), and chunks that the player already has an up to date copy of aren't sent again. */
 public class ZonePlannerMapDataServer extends ZonePlannerMapData {
     public static final ZonePlannerMapDataServer INSTANCE = new ZonePlannerMapDataServer();
 
+    private static final int MAX_CACHED_CHUNKS = 4096;
+    private static final long MAX_NANOS_PER_TICK = 2_000_000;
+    private static final int MAX_CHUNKS_PER_MESSAGE = 64;
+
+    /** The chunks that have been requested but not generated yet, in the order they were requested. Each one maps the
+     * players waiting for it to the hash of the copy they already have. */
+    private final Map<ZonePlannerMapChunkKey, TObjectLongHashMap<EntityPlayerMP>> waiting = new LinkedHashMap<>();
+    private final Map<EntityPlayerMP, MessageZoneMapResponse> outgoing = new HashMap<>();
+
+    private ZonePlannerMapDataServer() {
+        super(CacheBuilder.newBuilder().maximumSize(MAX_CACHED_CHUNKS));
+    }
+
     @Override
     public ZonePlannerMapChunk loadChunk(World world, ZonePlannerMapChunkKey key) {
         return new ZonePlannerMapChunk(world, key);
     }
+
+    private static int getMaxLevel(World world) {
+        return world.getHeight() / ZonePlannerMapChunkKey.LEVEL_HEIGHT;
+    }
+
+    /** Sends the given chunk to the player at the end of this tick if it has already been generated, or from a later
+     * call to {@link #onServerTick()} if it hasn't. Requests that can't be answered (such as for a different dimension)
+     * are dropped, as clients ask again if they don't get a reply.
+     *
+     * @param hash The {@link ZonePlannerMapChunk#getHash()} of the player's current copy of the chunk, or 0 if they
+     *            don't have one. */
+    public void requestChunk(EntityPlayerMP player, ZonePlannerMapChunkKey key, long hash) {
+        World world = player.world;
+        if (key.dimensionalId != world.provider.getDimension() || key.level < 0 || key.level > getMaxLevel(world)) {
+            return;
+        }
+        ZonePlannerMapChunk chunk = data.getIfPresent(key);
+        if (chunk != null) {
+            addResponse(player, key, chunk, hash);
+        } else {
+            waiting.computeIfAbsent(key, k -> new TObjectLongHashMap<>()).put(player, hash);
+        }
+    }
+
+    private void addResponse(EntityPlayerMP player, ZonePlannerMapChunkKey key, ZonePlannerMapChunk chunk, long hash) {
+        MessageZoneMapResponse message = outgoing.computeIfAbsent(player, p -> new MessageZoneMapResponse());
+        message.add(key, chunk.getHash() == hash ? null : chunk);
+        if (message.size() >= MAX_CHUNKS_PER_MESSAGE) {
+            outgoing.remove(player);
+            MessageManager.sendTo(message, player);
+        }
+    }
+
+    public void onServerTick() {
+        long start = System.nanoTime();
+        Iterator<Map.Entry<ZonePlannerMapChunkKey, TObjectLongHashMap<EntityPlayerMP>>> iter =
+            waiting.entrySet().iterator();
+        while (iter.hasNext() && System.nanoTime() - start < MAX_NANOS_PER_TICK) {
+            Map.Entry<ZonePlannerMapChunkKey, TObjectLongHashMap<EntityPlayerMP>> entry = iter.next();
+            iter.remove();
+            ZonePlannerMapChunkKey key = entry.getKey();
+            TObjectLongHashMap<EntityPlayerMP> players = entry.getValue();
+            players.retainEntries((player, hash) -> !player.hasDisconnected()
+                && player.world.provider.getDimension() == key.dimensionalId);
+            if (players.isEmpty()) {
+                continue;
+            }
+            EntityPlayerMP first = players.keySet().iterator().next();
+            ZonePlannerMapChunk chunk = getChunk(first.world, key);
+            players.forEachEntry((player, hash) -> {
+                addResponse(player, key, chunk, hash);
+                return true;
+            });
+        }
+        for (Map.Entry<EntityPlayerMP, MessageZoneMapResponse> entry : outgoing.entrySet()) {
+            if (!entry.getKey().hasDisconnected()) {
+                MessageManager.sendTo(entry.getValue(), entry.getKey());
+            }
+        }
+        outgoing.clear();
+    }
+
+    /** Removes every level of the chunk that contains the given position, as long as the level includes it. */
+    public void onBlockChanged(World world, BlockPos pos) {
+        ChunkPos chunkPos = new ChunkPos(pos);
+        int dimension = world.provider.getDimension();
+        int maxLevel = getMaxLevel(world);
+        // Levels that end below the position can't see it
+        int minLevel = (pos.getY() + ZonePlannerMapChunkKey.LEVEL_HEIGHT - 1) / ZonePlannerMapChunkKey.LEVEL_HEIGHT;
+        for (int level = Math.max(0, minLevel); level <= maxLevel; level++) {
+            data.invalidate(new ZonePlannerMapChunkKey(chunkPos, dimension, level));
+        }
+    }
+
+    public void onWorldUnload(World world) {
+        int dimension = world.provider.getDimension();
+        data.asMap().keySet().removeIf(key -> key.dimensionalId == dimension);
+        waiting.keySet().removeIf(key -> key.dimensionalId == dimension);
+    }
 }
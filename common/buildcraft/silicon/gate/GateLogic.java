@@ -18,6 +18,7 @@ import net.minecraft.item.EnumDyeColor;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
 
 import net.minecraftforge.common.util.Constants;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
@@ -39,7 +40,6 @@ import buildcraft.api.statements.StatementManager;
 import buildcraft.api.statements.StatementSlot;
 import buildcraft.api.statements.containers.IRedstoneStatementContainer;
 import buildcraft.api.transport.IWireEmitter;
-import buildcraft.api.transport.IWireManager;
 import buildcraft.api.transport.pipe.IPipeHolder;
 import buildcraft.api.transport.pipe.PipeEvent;
 import buildcraft.api.transport.pipe.PipeEventActionActivate;
@@ -424,17 +424,21 @@ public class GateLogic implements IGate, IWireEmitter, IRedstoneStatementContain
         }
 
         if (!previousBroadcasts.equals(wireBroadcasts)) {
-            IWireManager wires = getPipeHolder().getWireManager();
             EnumSet<EnumDyeColor> turnedOff = EnumSet.copyOf(previousBroadcasts);
             turnedOff.removeAll(wireBroadcasts);
-            // FIXME: add call to "wires.stopEmittingColour(turnedOff)"
 
             EnumSet<EnumDyeColor> turnedOn = EnumSet.copyOf(wireBroadcasts);
             turnedOn.removeAll(previousBroadcasts);
-            // FIXME: add call to "wires.emittingColour(turnedOff)"
 
             if (BCModules.TRANSPORT.isLoaded() && !getPipeHolder().getPipeWorld().isRemote) {
-                WorldSavedDataWireSystems.get(getPipeHolder().getPipeWorld()).gatesChanged = true;
+                WorldSavedDataWireSystems wireSystems = WorldSavedDataWireSystems.get(getPipeHolder().getPipeWorld());
+                BlockPos pos = getPipeHolder().getPipePos();
+                for (EnumDyeColor colour : turnedOff) {
+                    wireSystems.onEmitterChanged(pos, pluggable.side, colour, false);
+                }
+                for (EnumDyeColor colour : turnedOn) {
+                    wireSystems.onEmitterChanged(pos, pluggable.side, colour, true);
+                }
             }
         }
 
@@ -443,6 +447,22 @@ public class GateLogic implements IGate, IWireEmitter, IRedstoneStatementContain
         }
     }
 
+    /** Stops broadcasting every wire colour. This must be called when the gate is removed, as wire systems only hear
+     * about broadcasts starting and stopping from {@link #resolveActions()}. */
+    public void releaseBroadcasts() {
+        if (wireBroadcasts.isEmpty() || getPipeHolder().getPipeWorld().isRemote) {
+            return;
+        }
+        if (BCModules.TRANSPORT.isLoaded()) {
+            WorldSavedDataWireSystems wireSystems = WorldSavedDataWireSystems.get(getPipeHolder().getPipeWorld());
+            BlockPos pos = getPipeHolder().getPipePos();
+            for (EnumDyeColor colour : wireBroadcasts) {
+                wireSystems.onEmitterChanged(pos, pluggable.side, colour, false);
+            }
+        }
+        wireBroadcasts.clear();
+    }
+
     public void onTick() {
         if (getPipeHolder().getPipeWorld().isRemote) {
             return;
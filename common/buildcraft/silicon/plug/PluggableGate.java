@@ -30,6 +30,8 @@ import net.minecraftforge.fml.relauncher.Side;
 import buildcraft.api.transport.IWireEmitter;
 import buildcraft.api.transport.pipe.IPipeHolder;
 import buildcraft.api.transport.pipe.IPipeHolder.PipeMessageReceiver;
+import buildcraft.api.transport.pipe.PipeEventHandler;
+import buildcraft.api.transport.pipe.PipeEventTileState;
 import buildcraft.api.transport.pluggable.PipePluggable;
 import buildcraft.api.transport.pluggable.PluggableDefinition;
 import buildcraft.api.transport.pluggable.PluggableModelKey;
@@ -242,6 +244,16 @@ public class PluggableGate extends PipePluggable implements IWireEmitter {
         logic.emitWire(colour);
     }
 
+    @Override
+    public void onRemove() {
+        logic.releaseBroadcasts();
+    }
+
+    @PipeEventHandler
+    public void onInvalidate(PipeEventTileState.Invalidate event) {
+        logic.releaseBroadcasts();
+    }
+
     // Gate methods
 
     @Override
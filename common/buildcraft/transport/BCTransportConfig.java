@@ -45,12 +45,18 @@ public class BCTransportConfig {
     public static int baseFlowRate = 10;
     public static boolean fluidPipeColourBorder;
     public static PowerLossMode lossMode = PowerLossMode.DEFAULT;
+    /** If true then connected fluid pipes are grouped into a single network that moves fluid all at once. */
+    public static boolean fluidNetworks = false;
+    /** If true then connected kinesis pipes are grouped into a single network that moves power all at once. */
+    public static boolean powerNetworks = false;
 
     private static Property propMjPerMillibucket;
     private static Property propMjPerItem;
     private static Property propBaseFlowRate;
     private static Property propFluidPipeColourBorder;
     private static Property propLossMode;
+    private static Property propFluidNetworks;
+    private static Property propPowerNetworks;
 
     public static void preInit() {
         Configuration config = BCCoreConfig.config;
@@ -71,6 +77,14 @@ public class BCTransportConfig {
         ConfigUtil.setEnumProperty(propLossMode, PowerLossMode.VALUES);
         EnumRestartRequirement.WORLD.setTo(propLossMode);
 
+        propFluidNetworks = config.get("experimental", "pipes.fluidNetworks", false);
+        propFluidNetworks.setComment("If true then fluid pipes that don't have any special behaviour will move fluid as a single network, rather than one pipe section at a time.");
+        EnumRestartRequirement.WORLD.setTo(propFluidNetworks);
+
+        propPowerNetworks = config.get("experimental", "pipes.powerNetworks", false);
+        propPowerNetworks.setComment("If true then kinesis pipes will move power from engines to machines as a single network, rather than one pipe at a time. Uses kinesisLossMode for power loss.");
+        EnumRestartRequirement.WORLD.setTo(propPowerNetworks);
+
         MinecraftForge.EVENT_BUS.register(BCTransportConfig.class);
     }
 
@@ -95,6 +109,8 @@ public class BCTransportConfig {
                 fluidPipeColourBorder ? EnumPipeColourType.BORDER_INNER : EnumPipeColourType.TRANSLUCENT;
 
             lossMode = ConfigUtil.parseEnumForConfig(propLossMode, PowerLossMode.DEFAULT);
+            fluidNetworks = propFluidNetworks.getBoolean();
+            powerNetworks = propPowerNetworks.getBoolean();
 
             fluidTransfer(BCTransportPipes.cobbleFluid, baseFlowRate, 10);
             fluidTransfer(BCTransportPipes.woodFluid, baseFlowRate, 10);
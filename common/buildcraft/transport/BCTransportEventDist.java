@@ -9,12 +9,14 @@ package buildcraft.transport;
 import net.minecraftforge.client.event.TextureStitchEvent;
 import net.minecraftforge.event.world.BlockEvent;
 import net.minecraftforge.event.world.ChunkWatchEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
 
 import buildcraft.transport.client.render.PipeWireRenderer;
+import buildcraft.transport.tile.TilePipeHolder;
 import buildcraft.transport.wire.WorldSavedDataWireSystems;
 
 public enum BCTransportEventDist {
@@ -24,12 +26,23 @@ public enum BCTransportEventDist {
     public void onWorldTick(TickEvent.WorldTickEvent event) {
         if (!event.world.isRemote && event.world.getMinecraftServer() != null) {
             WorldSavedDataWireSystems.get(event.world).tick();
+            if (event.phase == TickEvent.Phase.END) {
+                TilePipeHolder.flushQueuedMessages(event.world);
+            }
         }
     }
 
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event) {
+        TilePipeHolder.onWorldUnload(event.getWorld());
+    }
+
     @SubscribeEvent
     public void onChunkWatch(ChunkWatchEvent event) {
-        WorldSavedDataWireSystems.get(event.getPlayer().world).changedPlayers.add(event.getPlayer());
+        WorldSavedDataWireSystems wireSystems = WorldSavedDataWireSystems.get(event.getPlayer().world);
+        if (wireSystems.hasWireSystemsInChunk(event.getChunk())) {
+            wireSystems.changedPlayers.add(event.getPlayer());
+        }
     }
 
     @SubscribeEvent
@@ -6,8 +6,11 @@
 
 package buildcraft.transport.pipe;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
@@ -15,10 +18,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
 import buildcraft.api.core.BCDebugging;
+import buildcraft.api.core.BCLog;
 import buildcraft.api.transport.pipe.PipeEvent;
 import buildcraft.api.transport.pipe.PipeEventHandler;
 import buildcraft.api.transport.pipe.PipeEventPriority;
@@ -26,10 +31,22 @@ import buildcraft.api.transport.pipe.PipeEventPriority;
 public class PipeEventBus {
     public static final boolean DEBUG = BCDebugging.shouldDebugLog("transport.pipe.event_bus");
 
+    /** If true then handler methods that are accessible will be called through a class generated by
+     * {@link LambdaMetafactory} rather than through {@link MethodHandle#invoke(Object...)}. */
+    public static boolean useGeneratedInvokers = true;
+
+    private static final LocalHandler[] NO_HANDLERS = new LocalHandler[0];
+    private static final MethodType INVOKER_SAM_TYPE = MethodType.methodType(void.class, Object.class, PipeEvent.class);
+    private static final MethodType BOUND_INVOKER_SAM_TYPE = MethodType.methodType(void.class, PipeEvent.class);
+
     private static final Map<Class<?>, List<Handler>> allHandlers = new HashMap<>();
 
     private final List<LocalHandler> currentHandlers = new ArrayList<>();
 
+    /** Maps the exact class of a fired event to every handler that accepts it, in priority order. Cleared whenever
+     * a handler is added or removed. */
+    private final Map<Class<?>, LocalHandler[]> dispatchTable = new IdentityHashMap<>();
+
     private static List<LocalHandler> getAndBindHandlers(Object obj) {
         Class<?> cls = obj instanceof Class ? (Class<?>) obj : obj.getClass();
 
@@ -75,7 +92,11 @@ public class PipeEventBus {
                 }
                 boolean isStatic = Modifier.isStatic(m.getModifiers());
                 String methodName = m.toString();
-                list.add(new Handler(annot.priority(), annot.receiveCancelled(), isStatic, methodName, mh, p.getType()));
+                Handler handler = new Handler(annot.priority(), annot.receiveCancelled(), isStatic, methodName, mh, p.getType());
+                if (canGenerateInvoker(m)) {
+                    handler.generateInvoker();
+                }
+                list.add(handler);
             }
 
             allHandlers.put(cls, list);
@@ -84,12 +105,24 @@ public class PipeEventBus {
         return allHandlers.get(cls);
     }
 
+    private static boolean canGenerateInvoker(Method m) {
+        // The generated class can only call methods that are visible from this package
+        return Modifier.isPublic(m.getModifiers())//
+            && Modifier.isPublic(m.getDeclaringClass().getModifiers())//
+            && Modifier.isPublic(m.getParameterTypes()[0].getModifiers());
+    }
+
     public void registerHandler(Object obj) {
         if (obj == null) {
             return;
         }
-        currentHandlers.addAll(getAndBindHandlers(obj));
+        List<LocalHandler> added = getAndBindHandlers(obj);
+        if (added.isEmpty()) {
+            return;
+        }
+        currentHandlers.addAll(added);
         Collections.sort(currentHandlers);
+        dispatchTable.clear();
     }
 
     public void unregisterHandler(Object obj) {
@@ -97,7 +130,32 @@ public class PipeEventBus {
             return;
         }
 
-        currentHandlers.removeIf(next -> next.target == obj);
+        if (currentHandlers.removeIf(next -> next.target == obj)) {
+            dispatchTable.clear();
+        }
+    }
+
+    /** @param eventClass The exact class of the event that would be passed to {@link #fireEvent(PipeEvent)}.
+     * @return True if firing an event of the given class would call at least one handler (ignoring cancellation).
+     *         Callers can use this to avoid creating events that nothing listens to. */
+    public boolean hasHandlerFor(Class<? extends PipeEvent> eventClass) {
+        return getDispatchHandlers(eventClass).length > 0;
+    }
+
+    private LocalHandler[] getDispatchHandlers(Class<?> eventClass) {
+        LocalHandler[] handlers = dispatchTable.get(eventClass);
+        if (handlers == null) {
+            List<LocalHandler> list = new ArrayList<>();
+            // currentHandlers is already sorted by priority, so the resulting array is too
+            for (LocalHandler handler : currentHandlers) {
+                if (handler.classHandled.isAssignableFrom(eventClass)) {
+                    list.add(handler);
+                }
+            }
+            handlers = list.isEmpty() ? NO_HANDLERS : list.toArray(new LocalHandler[list.size()]);
+            dispatchTable.put(eventClass, handlers);
+        }
+        return handlers;
     }
 
     /** Sends this event to all of the registered handlers.
@@ -112,8 +170,12 @@ public class PipeEventBus {
                     + "(error = " + error + ")");
             }
         }
-        for (LocalHandler handler : currentHandlers) {
-            handled |= handler.handleEvent(event);
+        for (LocalHandler handler : getDispatchHandlers(event.getClass())) {
+            if (!handler.receiveCanceled && event.isCanceled()) {
+                continue;
+            }
+            handler.invoke(event);
+            handled = true;
             if (DEBUG) {
                 String error = event.checkStateForErrors();
                 if (error != null) {
@@ -131,6 +193,8 @@ public class PipeEventBus {
         final String methodName;
         final MethodHandle handle;
         final Class<?> eventClassHandled;
+        IInstanceInvoker instanceInvoker;
+        IBoundInvoker staticInvoker;
 
         public Handler(PipeEventPriority priority, boolean receiveCanceled, boolean isStatic, String methodName, MethodHandle handle, Class<?> eventClassHandled) {
             this.priority = priority;
@@ -147,8 +211,50 @@ public class PipeEventBus {
                 return null;
             }
             MethodHandle bound = isStatic ? handle : handle.bindTo(obj);
-            return new LocalHandler(priority, receiveCanceled, obj, methodName, eventClassHandled, bound);
+            LocalHandler local = new LocalHandler(priority, receiveCanceled, obj, methodName, eventClassHandled, bound);
+            if (useGeneratedInvokers) {
+                if (isStatic && staticInvoker != null) {
+                    local.invoker = staticInvoker;
+                } else if (!isStatic && instanceInvoker != null) {
+                    IInstanceInvoker inv = instanceInvoker;
+                    local.invoker = event -> inv.invoke(obj, event);
+                }
+            }
+            return local;
         }
+
+        void generateInvoker() {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType instantiated = handle.type().changeReturnType(void.class);
+            try {
+                if (isStatic) {
+                    CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+                        MethodType.methodType(IBoundInvoker.class), BOUND_INVOKER_SAM_TYPE, handle, instantiated);
+                    staticInvoker = (IBoundInvoker) site.getTarget().invoke();
+                } else {
+                    CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+                        MethodType.methodType(IInstanceInvoker.class), INVOKER_SAM_TYPE, handle, instantiated);
+                    instanceInvoker = (IInstanceInvoker) site.getTarget().invoke();
+                }
+            } catch (Throwable t) {
+                // Not a problem: we just fall back to the method handle
+                if (DEBUG) {
+                    BCLog.logger.warn("[transport.pipe.event_bus] Unable to generate an invoker for " + methodName, t);
+                }
+                staticInvoker = null;
+                instanceInvoker = null;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface IInstanceInvoker {
+        void invoke(Object target, PipeEvent event);
+    }
+
+    @FunctionalInterface
+    public interface IBoundInvoker {
+        void invoke(PipeEvent event);
     }
 
     public static class LocalHandler implements Comparable<LocalHandler> {
@@ -158,6 +264,8 @@ public class PipeEventBus {
         final String methodName;
         final Class<?> classHandled;
         final MethodHandle handle;
+        /** Set if a generated invoker is available, in which case it is used instead of {@link #handle}. */
+        IBoundInvoker invoker;
 
         public LocalHandler(PipeEventPriority priority, boolean receiveCanceled, Object target, String methodName, Class<?> classHandled, MethodHandle handle) {
             this.priority = priority;
@@ -174,16 +282,24 @@ public class PipeEventBus {
             }
 
             if (classHandled.isAssignableFrom(event.getClass())) {
-                try {
-                    handle.invoke(event);
-                    return true;
-                } catch (Throwable e) {
-                    throw new IllegalStateException(e);
-                }
+                invoke(event);
+                return true;
             }
             return false;
         }
 
+        void invoke(PipeEvent event) {
+            if (invoker != null) {
+                invoker.invoke(event);
+                return;
+            }
+            try {
+                handle.invoke(event);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
         @Override
         public int compareTo(LocalHandler o) {
             return priority.compareTo(o.priority);
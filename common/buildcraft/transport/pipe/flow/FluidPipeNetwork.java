@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.transport.pipe.flow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+
+import net.minecraft.util.EnumFacing;
+
+import net.minecraftforge.fluids.FluidStack;
+import net.minecraftforge.fluids.capability.IFluidHandler;
+
+import buildcraft.api.transport.pipe.IPipe;
+import buildcraft.api.transport.pipe.IPipeHolder;
+import buildcraft.api.transport.pipe.PipeFlow;
+
+import buildcraft.lib.misc.CapUtil;
+
+/** A group of connected {@link PipeFlowFluids} that move fluid together, as a single unit, rather than each pipe moving
+ * fluid from one section to the next every tick. Only used if {@link buildcraft.transport.BCTransportConfig#fluidNetworks}
+ * is enabled.
+ * <p>
+ * Every tick the network:
+ * <ol>
+ * <li>Adds up all of the fluid in every section of every pipe.</li>
+ * <li>Offers fluid to every output: every connected face that leads out of the network (to a tile, or a pipe that
+ * isn't in this network). The total output is limited by the smallest transfer rate of any pipe in the network, as if
+ * the whole network was a single pipe of its narrowest type.</li>
+ * <li>Spreads the fluid that is left evenly over the centre and connected sections of every pipe, which is what the
+ * client renders.</li>
+ * </ol>
+ * Pipes that listen to fluid movement events (such as iron, diamond or void pipes) never join a network, and instead
+ * act as a boundary between networks. Pipes leave their network when their chunk unloads, and networks never reach
+ * into unloaded chunks. */
+public class FluidPipeNetwork {
+    private static final Comparator<Output> SMALLEST_FIRST = Comparator.comparingInt(o -> o.wanted);
+
+    private final List<PipeFlowFluids> members = new ArrayList<>();
+    /** The {@link PipeFlowFluids#getConnectionMask()} of every member, when this network was built. */
+    private final int[] connectionMasks;
+    private final int throughput;
+    private final int totalCapacity;
+    private boolean valid = true;
+    /** The last tick that fluid was moved in. */
+    private long lastTick = Long.MIN_VALUE;
+
+    private final List<Output> outputs = new ArrayList<>();
+
+    private FluidPipeNetwork(List<PipeFlowFluids> members) {
+        this.members.addAll(members);
+        connectionMasks = new int[members.size()];
+        int minTransfer = Integer.MAX_VALUE;
+        int capacity = 0;
+        for (int i = 0; i < members.size(); i++) {
+            PipeFlowFluids member = members.get(i);
+            connectionMasks[i] = member.getConnectionMask();
+            minTransfer = Math.min(minTransfer, member.getTransferPerTick());
+            capacity += member.capacity * member.getNetworkSectionCount();
+        }
+        throughput = minTransfer;
+        totalCapacity = capacity;
+    }
+
+    /** Creates a new network containing the given pipe and every pipe that it can reach. Any networks that any of
+     * those pipes were in before are invalidated. */
+    static FluidPipeNetwork build(PipeFlowFluids start) {
+        FluidStack fluid = start.getCurrentFluid();
+        List<PipeFlowFluids> found = new ArrayList<>();
+        found.add(start);
+        start.visitedForNetwork = true;
+        Queue<PipeFlowFluids> open = new ArrayDeque<>();
+        open.add(start);
+        while (!open.isEmpty()) {
+            PipeFlowFluids flow = open.remove();
+            for (EnumFacing face : EnumFacing.VALUES) {
+                PipeFlowFluids other = getConnectedFlow(flow, face);
+                if (other == null || other.visitedForNetwork || !other.canJoinNetwork()) {
+                    continue;
+                }
+                FluidStack otherFluid = other.getCurrentFluid();
+                if (otherFluid != null) {
+                    if (fluid == null) {
+                        fluid = otherFluid;
+                    } else if (!fluid.isFluidEqual(otherFluid)) {
+                        continue;
+                    }
+                }
+                other.visitedForNetwork = true;
+                found.add(other);
+                open.add(other);
+            }
+        }
+        FluidPipeNetwork network = new FluidPipeNetwork(found);
+        for (PipeFlowFluids member : found) {
+            member.visitedForNetwork = false;
+            if (member.network != null) {
+                member.network.valid = false;
+                // If the old network already moved fluid this tick then the new one mustn't move it again
+                network.lastTick = Math.max(network.lastTick, member.network.lastTick);
+            }
+            member.network = network;
+        }
+        return network;
+    }
+
+    /** @return True if the block on the given side of the pipe is loaded. Nothing on an unloaded side is looked at, as
+     *         that would load its chunk again. */
+    private static boolean isNeighbourLoaded(PipeFlowFluids flow, EnumFacing face) {
+        IPipeHolder holder = flow.pipe.getHolder();
+        return holder.getPipeWorld().isBlockLoaded(holder.getPipePos().offset(face));
+    }
+
+    private static PipeFlowFluids getConnectedFlow(PipeFlowFluids flow, EnumFacing face) {
+        if (!isNeighbourLoaded(flow, face)) {
+            return null;
+        }
+        IPipe oPipe = flow.pipe.getConnectedPipe(face);
+        if (oPipe == null) {
+            return null;
+        }
+        PipeFlow oFlow = oPipe.getFlow();
+        return oFlow instanceof PipeFlowFluids ? (PipeFlowFluids) oFlow : null;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    public int getSize() {
+        return members.size();
+    }
+
+    /** Moves all of the fluid in this network for this tick. Does nothing if this has already been called in the same
+     * tick by a different member. */
+    void tick(long worldTime) {
+        if (lastTick == worldTime || !valid) {
+            return;
+        }
+        if (!validate()) {
+            valid = false;
+            return;
+        }
+        lastTick = worldTime;
+
+        FluidStack fluid = null;
+        int total = 0;
+        for (PipeFlowFluids member : members) {
+            FluidStack memberFluid = member.getCurrentFluid();
+            if (memberFluid != null) {
+                if (fluid == null) {
+                    fluid = memberFluid;
+                } else if (!fluid.isFluidEqual(memberFluid)) {
+                    // Two different fluids were inserted at the same time, so this needs to be split up
+                    valid = false;
+                    return;
+                }
+            }
+            total += member.getTotalAmount();
+        }
+
+        if (total > 0) {
+            total -= moveToOutputs(fluid, Math.min(total, throughput));
+        }
+        distribute(total, total > 0 ? fluid : null);
+    }
+
+    private boolean validate() {
+        for (int i = 0; i < members.size(); i++) {
+            PipeFlowFluids member = members.get(i);
+            if (member.network != this || member.pipe.getHolder().getPipeTile().isInvalid()
+                || member.getConnectionMask() != connectionMasks[i] || !member.canJoinNetwork()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return The amount of fluid that actually left the network. */
+    private int moveToOutputs(FluidStack fluid, int available) {
+        outputs.clear();
+        for (PipeFlowFluids member : members) {
+            for (EnumFacing face : EnumFacing.VALUES) {
+                if (!member.pipe.isConnected(face) || !member.canOutput(face) || !isNeighbourLoaded(member, face)) {
+                    continue;
+                }
+                PipeFlowFluids other = getConnectedFlow(member, face);
+                if (other != null && other.network == this) {
+                    continue;
+                }
+                IFluidHandler handler = member.pipe.getHolder().getCapabilityFromPipe(face, CapUtil.CAP_FLUIDS);
+                if (handler == null) {
+                    continue;
+                }
+                int wanted = handler.fill(new FluidStack(fluid, member.getTransferPerTick()), false);
+                if (wanted > 0) {
+                    outputs.add(new Output(member, face, handler, wanted));
+                }
+            }
+        }
+        if (outputs.isEmpty()) {
+            return 0;
+        }
+
+        // Fill the outputs that want the least first, so that whatever they don't take can be shared between the
+        // others. Shuffling first means that equal outputs are picked from randomly.
+        Collections.shuffle(outputs);
+        outputs.sort(SMALLEST_FIRST);
+        int left = available;
+        int moved = 0;
+        for (int i = 0; i < outputs.size() && left > 0; i++) {
+            Output output = outputs.get(i);
+            int remainingOutputs = outputs.size() - i;
+            int share = (left + remainingOutputs - 1) / remainingOutputs;
+            int filled = output.handler.fill(new FluidStack(fluid, Math.min(share, output.wanted)), true);
+            if (filled > 0) {
+                output.member.onNetworkOutput(output.face);
+                left -= filled;
+                moved += filled;
+            }
+        }
+        outputs.clear();
+        return moved;
+    }
+
+    /** Spreads the given amount of fluid over the centre and connected sections of every member, in proportion to each
+     * member's capacity. */
+    private void distribute(int total, FluidStack fluid) {
+        int left = total;
+        for (PipeFlowFluids member : members) {
+            int perSection = (int) ((long) total * member.capacity / totalCapacity);
+            left -= member.setNetworkAmounts(perSection, fluid);
+        }
+        // Rounding leaves a little bit behind
+        for (int i = 0; i < members.size() && left > 0; i++) {
+            left -= members.get(i).addNetworkRemainder(left);
+        }
+    }
+
+    static final class Output {
+        final PipeFlowFluids member;
+        final EnumFacing face;
+        final IFluidHandler handler;
+        final int wanted;
+
+        Output(PipeFlowFluids member, EnumFacing face, IFluidHandler handler, int wanted) {
+            this.member = member;
+            this.face = face;
+            this.handler = handler;
+            this.wanted = wanted;
+        }
+    }
+}
@@ -47,16 +47,20 @@ import buildcraft.api.core.SafeTimeTracker;
 import buildcraft.api.tiles.IDebuggable;
 import buildcraft.api.transport.pipe.IFlowFluid;
 import buildcraft.api.transport.pipe.IPipe;
+import buildcraft.api.transport.pipe.IPipeHolder;
 import buildcraft.api.transport.pipe.PipeApi;
 import buildcraft.api.transport.pipe.PipeApi.FluidTransferInfo;
 import buildcraft.api.transport.pipe.PipeEventFluid;
 import buildcraft.api.transport.pipe.PipeEventFluid.OnMoveToCentre;
 import buildcraft.api.transport.pipe.PipeEventFluid.PreMoveToCentre;
+import buildcraft.api.transport.pipe.PipeEventHandler;
+import buildcraft.api.transport.pipe.PipeEventTileState;
 import buildcraft.api.transport.pipe.PipeFlow;
 
 import buildcraft.lib.misc.CapUtil;
 import buildcraft.lib.misc.LocaleUtil;
 import buildcraft.lib.misc.MathUtil;
+import buildcraft.lib.misc.MessageUtil;
 import buildcraft.lib.misc.StringUtilBC;
 import buildcraft.lib.misc.VecUtil;
 import buildcraft.lib.net.PacketBufferBC;
@@ -66,6 +70,10 @@ import buildcraft.lib.net.cache.NetworkedObjectCache;
 import buildcraft.core.BCCoreConfig;
 import buildcraft.core.BCCoreItems;
 
+import buildcraft.transport.BCTransportConfig;
+import buildcraft.transport.pipe.PipeEventBus;
+import buildcraft.transport.tile.TilePipeHolder;
+
 public class PipeFlowFluids extends PipeFlow implements IFlowFluid, IDebuggable {
 
     private static final int DIRECTION_COOLDOWN = 60;
@@ -93,6 +101,13 @@ public class PipeFlowFluids extends PipeFlow implements IFlowFluid, IDebuggable
     private int currentDelay;
     private final SafeTimeTracker tracker = new SafeTimeTracker(BCCoreConfig.networkUpdateRate, 4);
 
+    /** The network that this is a part of, or null if {@link BCTransportConfig#fluidNetworks} is disabled (or this
+     * can't be part of a network). */
+    @Nullable
+    FluidPipeNetwork network;
+    /** Only used by {@link FluidPipeNetwork#build(PipeFlowFluids)} */
+    boolean visitedForNetwork;
+
     // Client fields for interpolating amounts
     private long lastMessage, lastMessageMinus1;
     private NetworkedObjectCache<FluidStack>.Link clientFluid = null;
@@ -358,6 +373,10 @@ public class PipeFlowFluids extends PipeFlow implements IFlowFluid, IDebuggable
 
         FluidStack fluid = isRemote ? getFluidStackForRender() : currentFluid;
         left.add(" - FluidType = " + (fluid == null ? "empty" : fluid.getLocalizedName()));
+        FluidPipeNetwork net = network;
+        if (net != null) {
+            left.add(" - Network = " + net.getSize() + " pipes" + (net.isValid() ? "" : " (invalid)"));
+        }
 
         for (EnumPipePart part : EnumPipePart.VALUES) {
             Section section = sections.get(part);
@@ -453,7 +472,19 @@ public class PipeFlowFluids extends PipeFlow implements IFlowFluid, IDebuggable
             return;
         }
 
-        if (currentFluid != null) {
+        boolean useNetwork = BCTransportConfig.fluidNetworks && canJoinNetwork();
+        if (network != null && !useNetwork) {
+            network.invalidate();
+            network = null;
+        }
+
+        if (useNetwork) {
+            if (network == null || !network.isValid()) {
+                network = FluidPipeNetwork.build(this);
+            }
+            // Moves the fluid of every pipe in the network, but only once per tick
+            network.tick(world.getTotalWorldTime());
+        } else if (currentFluid != null) {
             // int timeSlot = (int) (world.getTotalWorldTime() % currentDelay);
             int totalFluid = 0;
             boolean canOutput = false;
@@ -509,12 +540,131 @@ public class PipeFlowFluids extends PipeFlow implements IFlowFluid, IDebuggable
             }
         }
 
-        if (send && tracker.markTimeIfDelay(world)) {
+        if (send && tracker.markTimeIfDelay(world) && MessageUtil.isWatched(world, pipe.getHolder().getPipePos())) {
             // send a net update
             sendPayload(NET_FLUID_AMOUNTS);
         }
     }
 
+    // Fluid networks
+
+    @PipeEventHandler
+    public void onChunkUnload(PipeEventTileState.ChunkUnload event) {
+        // Otherwise the rest of the network would keep moving fluid through this pipe
+        if (network != null) {
+            network.invalidate();
+            network = null;
+        }
+    }
+
+    @Nullable
+    FluidStack getCurrentFluid() {
+        return currentFluid;
+    }
+
+    int getTransferPerTick() {
+        return fluidTransferInfo.transferPerTick;
+    }
+
+    int getTotalAmount() {
+        int total = 0;
+        for (Section section : sections.values()) {
+            total += section.amount;
+        }
+        return total;
+    }
+
+    /** @return A bit mask of every face that the pipe is connected on. */
+    int getConnectionMask() {
+        int mask = 0;
+        for (EnumFacing face : EnumFacing.VALUES) {
+            if (pipe.isConnected(face)) {
+                mask |= 1 << face.ordinal();
+            }
+        }
+        return mask;
+    }
+
+    /** @return True if nothing is listening to the events that are fired while moving fluid (as the network doesn't
+     *         fire them). */
+    boolean canJoinNetwork() {
+        IPipeHolder holder = pipe.getHolder();
+        if (!(holder instanceof TilePipeHolder)) {
+            return false;
+        }
+        PipeEventBus bus = ((TilePipeHolder) holder).eventBus;
+        return !bus.hasHandlerFor(PipeEventFluid.SideCheck.class) && !bus.hasHandlerFor(PreMoveToCentre.class)
+            && !bus.hasHandlerFor(OnMoveToCentre.class);
+    }
+
+    boolean canOutput(EnumFacing face) {
+        return sections.get(EnumPipePart.fromFacing(face)).getCurrentDirection().canOutput();
+    }
+
+    void onNetworkOutput(EnumFacing face) {
+        sections.get(EnumPipePart.fromFacing(face)).ticksInDirection = COOLDOWN_OUTPUT;
+    }
+
+    /** @return True if the given section holds fluid while this is in a {@link #network}: the centre, and every face
+     *         that is connected. */
+    private boolean isNetworkSection(EnumPipePart part) {
+        return part == EnumPipePart.CENTER || pipe.isConnected(part.face);
+    }
+
+    /** @return The number of sections that {@link #isNetworkSection(EnumPipePart)}. */
+    int getNetworkSectionCount() {
+        return 1 + Integer.bitCount(getConnectionMask());
+    }
+
+    /** Replaces the amount in every connected section (and the centre) with the given amount, as decided by
+     * {@link #network}. Sections that aren't connected are emptied.
+     *
+     * @return The total amount of fluid that was set. */
+    int setNetworkAmounts(int perSection, @Nullable FluidStack fluid) {
+        if (fluid == null) {
+            if (currentFluid != null) {
+                setFluid(null);
+            }
+        } else if (currentFluid == null) {
+            setFluid(fluid.copy());
+        }
+        perSection = Math.min(perSection, capacity);
+        int total = 0;
+        for (Section section : sections.values()) {
+            if (isNetworkSection(section.part)) {
+                section.amount = perSection;
+                total += perSection;
+            } else {
+                section.amount = 0;
+            }
+            Arrays.fill(section.incoming, 0);
+            if (section.ticksInDirection > 0) {
+                section.ticksInDirection--;
+            } else if (section.ticksInDirection < 0) {
+                section.ticksInDirection++;
+            }
+        }
+        return total;
+    }
+
+    /** Adds as much of the given amount as possible to the connected sections (and the centre) of this pipe.
+     *
+     * @return The amount added. */
+    int addNetworkRemainder(int amount) {
+        int added = 0;
+        for (Section section : sections.values()) {
+            if (!isNetworkSection(section.part)) {
+                continue;
+            }
+            int toAdd = Math.min(amount - added, capacity - section.amount);
+            if (toAdd > 0) {
+                section.amount += toAdd;
+                added += toAdd;
+            }
+        }
+        return added;
+    }
+
     private void moveFromPipe() {
         for (EnumPipePart part : EnumPipePart.FACES) {
             Section section = sections.get(part);
@@ -42,6 +42,7 @@ import buildcraft.api.transport.pipe.IPipe;
 import buildcraft.api.transport.pipe.IPipe.ConnectedType;
 import buildcraft.api.transport.pipe.IPipeHolder;
 import buildcraft.api.transport.pipe.PipeApi;
+import buildcraft.api.transport.pipe.PipeEvent;
 import buildcraft.api.transport.pipe.PipeEventItem;
 import buildcraft.api.transport.pipe.PipeFlow;
 
@@ -55,6 +56,7 @@ import buildcraft.lib.net.PacketBufferBC;
 import buildcraft.lib.net.cache.BuildCraftObjectCaches;
 
 import buildcraft.transport.pipe.behaviour.PipeBehaviourStone;
+import buildcraft.transport.tile.TilePipeHolder;
 
 public final class PipeFlowItems extends PipeFlow implements IFlowItems {
     private static final double EXTRACT_SPEED = 0.08;
@@ -81,15 +83,10 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
     @Override
     public NBTTagCompound writeToNbt() {
         NBTTagCompound nbt = super.writeToNbt();
-        List<List<TravellingItem>> allItems = items.getAllElements();
         NBTTagList list = new NBTTagList();
 
         long tickNow = pipe.getHolder().getPipeWorld().getTotalWorldTime();
-        for (List<TravellingItem> l : allItems) {
-            for (TravellingItem item : l) {
-                list.appendTag(item.writeToNbt(tickNow));
-            }
-        }
+        items.forEach(item -> list.appendTag(item.writeToNbt(tickNow)));
         nbt.setTag("items", list);
         return nbt;
     }
@@ -132,13 +129,11 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
     @Override
     public void addDrops(NonNullList<ItemStack> toDrop, int fortune) {
         super.addDrops(toDrop, fortune);
-        for (List<TravellingItem> list : items.getAllElements()) {
-            for (TravellingItem item : list) {
-                if (!item.isPhantom) {
-                    toDrop.add(item.stack);
-                }
+        items.forEach(item -> {
+            if (!item.isPhantom) {
+                toDrop.add(item.stack);
             }
-        }
+        });
     }
 
     // IFlowItems
@@ -277,18 +272,25 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
 
     private void onItemReachCenter(TravellingItem item) {
         IPipeHolder holder = pipe.getHolder();
-        PipeEventItem.ReachCenter reachCenter =
-            new PipeEventItem.ReachCenter(holder, this, item.colour, item.stack, item.side);
-        holder.fireEvent(reachCenter);
-        if (reachCenter.getStack().isEmpty()) {
+        EnumDyeColor colour = item.colour;
+        ItemStack stack = item.stack;
+        EnumFacing from = item.side;
+        if (hasHandlerFor(PipeEventItem.ReachCenter.class)) {
+            PipeEventItem.ReachCenter reachCenter =
+                new PipeEventItem.ReachCenter(holder, this, item.colour, item.stack, item.side);
+            holder.fireEvent(reachCenter);
+            colour = reachCenter.colour;
+            stack = reachCenter.getStack();
+            from = reachCenter.from;
+        }
+        if (stack.isEmpty()) {
             return;
         }
 
-        PipeEventItem.SideCheck sideCheck =
-            new PipeEventItem.SideCheck(holder, this, reachCenter.colour, reachCenter.from, reachCenter.getStack());
-        sideCheck.disallow(reachCenter.from);
+        PipeEventItem.SideCheck sideCheck = new PipeEventItem.SideCheck(holder, this, colour, from, stack);
+        sideCheck.disallow(from);
         for (EnumFacing face : EnumFacing.VALUES) {
-            if (item.tried.contains(face) || !pipe.isConnected(face)) {
+            if (item.hasTried(face) || !pipe.isConnected(face)) {
                 sideCheck.disallow(face);
             }
         }
@@ -296,19 +298,33 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
 
         List<EnumSet<EnumFacing>> order = sideCheck.getOrder();
         if (order.isEmpty()) {
-            PipeEventItem.TryBounce tryBounce =
-                new PipeEventItem.TryBounce(holder, this, reachCenter.colour, reachCenter.from, reachCenter.getStack());
-            holder.fireEvent(tryBounce);
-            if (tryBounce.canBounce) {
-                order = ImmutableList.of(EnumSet.of(reachCenter.from));
+            boolean canBounce = false;
+            if (hasHandlerFor(PipeEventItem.TryBounce.class)) {
+                PipeEventItem.TryBounce tryBounce = new PipeEventItem.TryBounce(holder, this, colour, from, stack);
+                holder.fireEvent(tryBounce);
+                canBounce = tryBounce.canBounce;
+            }
+            if (canBounce) {
+                order = ImmutableList.of(EnumSet.of(from));
             } else {
                 dropItem(item.stack, null, item.side.getOpposite(), item.speed);
                 return;
             }
         }
 
-        PipeEventItem.ItemEntry entry =
-            new PipeEventItem.ItemEntry(reachCenter.colour, reachCenter.getStack(), reachCenter.from);
+        long now = holder.getPipeWorld().getTotalWorldTime();
+        // The item has already been removed from the delayed list, so it can be reused for the first destination
+        EnumFacing oldSide = item.side;
+        double oldSpeed = item.speed;
+        int tried = item.tried;
+
+        if (!hasHandlerFor(PipeEventItem.Split.class) && !hasHandlerFor(PipeEventItem.FindDest.class)) {
+            // Nothing can split the stack up or change where it goes, so skip straight to sending it on
+            routeItem(item, oldSide, oldSpeed, tried, colour, stack, from, null, order, null, now);
+            return;
+        }
+
+        PipeEventItem.ItemEntry entry = new PipeEventItem.ItemEntry(colour, stack, from);
         PipeEventItem.Split split = new PipeEventItem.Split(holder, this, order, entry);
         holder.fireEvent(split);
         ImmutableList<PipeEventItem.ItemEntry> entries = ImmutableList.copyOf(split.items);
@@ -316,54 +332,101 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
         PipeEventItem.FindDest findDest = new PipeEventItem.FindDest(holder, this, order, entries);
         holder.fireEvent(findDest);
 
-        World world = holder.getPipeWorld();
-        long now = world.getTotalWorldTime();
+        TravellingItem reusable = item;
         for (PipeEventItem.ItemEntry itemEntry : findDest.items) {
             if (itemEntry.stack.isEmpty()) {
                 continue;
             }
-            PipeEventItem.ModifySpeed modifySpeed = new PipeEventItem.ModifySpeed(holder, this, itemEntry, item.speed);
-
-            final double newSpeed;
-
-            if (holder.fireEvent(modifySpeed)) {
-                double target = modifySpeed.targetSpeed;
-                double maxDelta = modifySpeed.maxSpeedChange;
-                if (item.speed < target) {
-                    newSpeed = Math.min(target, item.speed + maxDelta);
-                } else if (item.speed > target) {
-                    newSpeed = Math.max(target, item.speed - maxDelta);
-                } else {
-                    newSpeed = item.speed;
-                }
-            } else {
-                // Nothing affected the speed
-                // so just fallback to a sensible default
-                if (item.speed > 0.03) {
-                    newSpeed = Math.max(0.03, item.speed - PipeBehaviourStone.SPEED_DELTA);
-                } else {
-                    newSpeed = item.speed;
-                }
+            boolean reused = routeItem(reusable, oldSide, oldSpeed, tried, itemEntry.colour, itemEntry.stack, from,
+                itemEntry, order, findDest, now);
+            if (reused) {
+                reusable = null;
+            }
+        }
+    }
+
+    /** Sends a stack that has reached the center of this pipe on to its destination (or drops it if it has nowhere
+     * to go).
+     * 
+     * @param reusable If non-null then this item will be used rather than creating a new {@link TravellingItem}.
+     * @param entry The entry from {@link PipeEventItem.FindDest}, or null if the split and find destination events
+     *            weren't fired.
+     * @return True if the reusable item was used. */
+    private boolean routeItem(@Nullable TravellingItem reusable, EnumFacing oldSide, double oldSpeed, int tried,
+        EnumDyeColor colour, ItemStack stack, EnumFacing from, @Nullable PipeEventItem.ItemEntry entry,
+        List<EnumSet<EnumFacing>> order, @Nullable PipeEventItem.FindDest findDest, long now) {
+
+        IPipeHolder holder = pipe.getHolder();
+        PipeEventItem.ModifySpeed modifySpeed = null;
+        if (hasHandlerFor(PipeEventItem.ModifySpeed.class)) {
+            if (entry == null) {
+                entry = new PipeEventItem.ItemEntry(colour, stack, from);
             }
+            modifySpeed = new PipeEventItem.ModifySpeed(holder, this, entry, oldSpeed);
+        }
 
-            List<EnumFacing> destinations = itemEntry.to;
-            if (destinations == null || destinations.size() == 0) {
-                destinations = findDest.generateRandomOrder();
+        final double newSpeed;
+
+        if (modifySpeed != null && holder.fireEvent(modifySpeed)) {
+            double target = modifySpeed.targetSpeed;
+            double maxDelta = modifySpeed.maxSpeedChange;
+            if (oldSpeed < target) {
+                newSpeed = Math.min(target, oldSpeed + maxDelta);
+            } else if (oldSpeed > target) {
+                newSpeed = Math.max(target, oldSpeed - maxDelta);
+            } else {
+                newSpeed = oldSpeed;
             }
-            if (destinations.size() == 0) {
-                dropItem(itemEntry.stack, null, item.side.getOpposite(), newSpeed);
+        } else {
+            // Nothing affected the speed
+            // so just fallback to a sensible default
+            if (oldSpeed > 0.03) {
+                newSpeed = Math.max(0.03, oldSpeed - PipeBehaviourStone.SPEED_DELTA);
             } else {
-                TravellingItem newItem = new TravellingItem(itemEntry.stack);
-                newItem.tried.addAll(item.tried);
-                newItem.toCenter = false;
-                newItem.colour = itemEntry.colour;
-                newItem.side = destinations.get(0);
-                newItem.speed = newSpeed;
-                newItem.genTimings(now, getPipeLength(newItem.side));
-                items.add(newItem.timeToDest, newItem);
-                sendItemDataToClient(newItem);
+                newSpeed = oldSpeed;
             }
         }
+
+        EnumFacing destination = null;
+        List<EnumFacing> destinations = entry == null ? null : entry.to;
+        if (destinations != null && destinations.size() > 0) {
+            destination = destinations.get(0);
+        } else if (findDest != null) {
+            destinations = findDest.generateRandomOrder();
+            destination = destinations.isEmpty() ? null : destinations.get(0);
+        } else {
+            destination = getRandomFace(getFirstNonEmptySet(order));
+        }
+
+        if (destination == null) {
+            dropItem(stack, null, oldSide.getOpposite(), newSpeed);
+            return false;
+        }
+        TravellingItem newItem = reusable != null ? reusable : new TravellingItem(stack);
+        newItem.stack = stack;
+        newItem.tried = tried;
+        newItem.toCenter = false;
+        newItem.colour = colour;
+        newItem.side = destination;
+        newItem.speed = newSpeed;
+        newItem.genTimings(now, getPipeLength(newItem.side));
+        items.add(newItem.timeToDest, newItem);
+        sendItemDataToClient(newItem);
+        return newItem == reusable;
+    }
+
+    @Nullable
+    private EnumFacing getRandomFace(@Nullable EnumSet<EnumFacing> set) {
+        if (set == null || set.isEmpty()) {
+            return null;
+        }
+        int index = pipe.getHolder().getPipeWorld().rand.nextInt(set.size());
+        for (EnumFacing face : EnumFacing.VALUES) {
+            if (set.contains(face) && index-- == 0) {
+                return face;
+            }
+        }
+        return null;
     }
 
     private void onItemReachEnd(TravellingItem item) {
@@ -417,7 +480,7 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
         if (excess.isEmpty()) {
             return;
         }
-        item.tried.add(item.side);
+        item.addTried(item.side);
         item.toCenter = true;
         item.stack = excess;
         item.genTimings(holder.getPipeWorld().getTotalWorldTime(), getPipeLength(item.side));
@@ -425,6 +488,16 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
         sendItemDataToClient(item);
     }
 
+    /** @return False if firing an event of the given class would definitely not call any handlers, so the caller can
+     *         skip creating it. */
+    private boolean hasHandlerFor(Class<? extends PipeEvent> eventClass) {
+        IPipeHolder holder = pipe.getHolder();
+        if (holder instanceof TilePipeHolder) {
+            return ((TilePipeHolder) holder).eventBus.hasHandlerFor(eventClass);
+        }
+        return true;
+    }
+
     private ItemStack fireEventEjectIntoPipe(IFlowItems oFlow, EnumFacing to, ItemStack before, ItemStack excess) {
         IPipeHolder holder = this.pipe.getHolder();
         return fireEventEjected(holder, new PipeEventItem.Ejected.IntoPipe(holder, this, before, excess, to, oFlow));
@@ -528,7 +601,7 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
         item.speed = speed;
         item.colour = colour;
         item.genTimings(now, 0);
-        item.tried.add(from);
+        item.addTried(from);
         addItemTryMerge(item);
     }
 
@@ -553,14 +626,16 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
         item.colour = onInsert.colour;
         item.stack = onInsert.getStack();
         item.genTimings(now, getPipeLength(from));
-        item.tried.add(from);
+        item.addTried(from);
         addItemTryMerge(item);
     }
 
     private void addItemTryMerge(TravellingItem item) {
-        for (List<TravellingItem> list : items.getAllElements()) {
-            for (TravellingItem item2 : list) {
-                if (item2.mergeWith(item)) {
+        int maxDelay = items.getMaxDelay();
+        for (int d = 0; d < maxDelay; d++) {
+            List<TravellingItem> list = items.getElements(d);
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i).mergeWith(item)) {
                     return;
                 }
             }
@@ -597,9 +672,7 @@ public final class PipeFlowItems extends PipeFlow implements IFlowItems {
     @SideOnly(Side.CLIENT)
     public List<TravellingItem> getAllItemsForRender() {
         List<TravellingItem> all = new ArrayList<>();
-        for (List<TravellingItem> innerList : items.getAllElements()) {
-            all.addAll(innerList);
-        }
+        items.forEach(all::add);
         return all;
     }
 }
@@ -7,13 +7,12 @@
 package buildcraft.transport.pipe.flow;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.util.Arrays;
-import java.util.EnumMap;
 import java.util.List;
 import java.util.function.ToLongFunction;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.nbt.NBTTagCompound;
@@ -21,6 +20,7 @@ import net.minecraft.network.PacketBuffer;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.RayTraceResult;
+import net.minecraft.world.World;
 
 import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.fml.relauncher.Side;
@@ -37,15 +37,20 @@ import buildcraft.api.transport.pipe.IPipe;
 import buildcraft.api.transport.pipe.IPipe.ConnectedType;
 import buildcraft.api.transport.pipe.PipeApi;
 import buildcraft.api.transport.pipe.PipeApi.PowerTransferInfo;
+import buildcraft.api.transport.pipe.PipeEventHandler;
 import buildcraft.api.transport.pipe.PipeEventPower;
+import buildcraft.api.transport.pipe.PipeEventTileState;
 import buildcraft.api.transport.pipe.PipeFlow;
 
 import buildcraft.lib.misc.LocaleUtil;
 import buildcraft.lib.misc.MathUtil;
+import buildcraft.lib.misc.MessageUtil;
 import buildcraft.lib.misc.data.AverageInt;
 
 import buildcraft.core.BCCoreConfig;
 
+import buildcraft.transport.BCTransportConfig;
+
 public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
     private static final long DEFAULT_MAX_POWER = MjAPI.MJ * 10;
     public static final int NET_POWER_AMOUNTS = 2;
@@ -57,25 +62,46 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
     private long currentWorldTime;
 
     private boolean isReceiver = false;
-    private final EnumMap<EnumFacing, Section> sections;
+    /** Indexed by {@link EnumFacing#ordinal()}. */
+    private final Section[] sections = new Section[6];
 
     private final SafeTimeTracker tracker = new SafeTimeTracker(BCCoreConfig.networkUpdateRate);
+    /** The power queries that were last sent to each neighbour, or null if nothing has been sent yet. */
     private long[] transferQuery;
+    /** The array that the next tick's queries are written into, before it is swapped with {@link #transferQuery}. */
+    private long[] nextTransferQuery = new long[6];
+    /** The power and queries of every section, passed to {@link #splitPower(long[], long[], IPowerSender)}. */
+    private final long[] splitPower = new long[6], splitQuery = new long[6];
+    private final IPowerSender splitSender = this::sendSplitPower;
+
+    /** The network that this is a part of, or null if {@link BCTransportConfig#powerNetworks} is disabled (or this
+     * can't be part of a network). */
+    @Nullable
+    PowerPipeNetwork network;
+    /** Only used by {@link PowerPipeNetwork#build(PipeFlowPower)} */
+    boolean visitedForNetwork;
+    /** The index of this pipe in {@link #network}. */
+    int networkIndex;
+    /** The power that the network moved through each face this tick. Only allocated when it's first needed. */
+    private long[] networkFlow;
+    private boolean hasNetworkFlow;
+    /** True if any section still has power in its average, so the display needs to keep being updated. */
+    private boolean isNetworkDisplayActive;
 
     public PipeFlowPower(IPipe pipe) {
         super(pipe);
-        sections = new EnumMap<>(EnumFacing.class);
-        for (EnumFacing face : EnumFacing.VALUES) {
-            sections.put(face, new Section(face));
-        }
+        createSections();
     }
 
     public PipeFlowPower(IPipe pipe, NBTTagCompound nbt) {
         super(pipe, nbt);
         isReceiver = nbt.getBoolean("isReceiver");
-        sections = new EnumMap<>(EnumFacing.class);
+        createSections();
+    }
+
+    private void createSections() {
         for (EnumFacing face : EnumFacing.VALUES) {
-            sections.put(face, new Section(face));
+            sections[face.ordinal()] = new Section(face);
         }
     }
 
@@ -92,7 +118,7 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
         if (side == Side.SERVER) {
             if (id == NET_POWER_AMOUNTS || id == NET_ID_FULL_STATE) {
                 for (EnumFacing face : EnumFacing.VALUES) {
-                    buffer.writeInt(sections.get(face).displayPower);
+                    buffer.writeInt(sections[face.ordinal()].displayPower);
                 }
             }
         }
@@ -104,7 +130,7 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
         if (side == Side.CLIENT) {
             if (id == NET_POWER_AMOUNTS || id == NET_ID_FULL_STATE) {
                 for (EnumFacing face : EnumFacing.VALUES) {
-                    sections.get(face).displayPower = buffer.readInt();
+                    sections[face.ordinal()].displayPower = buffer.readInt();
                 }
             }
         }
@@ -124,7 +150,7 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
             }
         }
         IMjConnector receiver = oTile.getCapability(MjAPI.CAP_CONNECTOR, face.getOpposite());
-        return receiver != null && receiver.canConnect(sections.get(face));
+        return receiver != null && receiver.canConnect(sections[face.ordinal()]);
     }
 
     @Override
@@ -153,6 +179,10 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
         } else if (powerResistance < 0) {
             powerResistance = powerLoss * MjAPI.MJ / maxPower;
         }
+        if (network != null) {
+            // The routes through this pipe need to be recalculated
+            network.invalidate();
+        }
     }
 
     @Override
@@ -184,9 +214,9 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
         if (facing == null) {
             return null;
         } else if (capability == MjAPI.CAP_RECEIVER) {
-            return isReceiver ? MjAPI.CAP_RECEIVER.cast(sections.get(facing)) : null;
+            return isReceiver ? MjAPI.CAP_RECEIVER.cast(sections[facing.ordinal()]) : null;
         } else if (capability == MjAPI.CAP_CONNECTOR) {
-            return MjAPI.CAP_CONNECTOR.cast(sections.get(facing));
+            return MjAPI.CAP_CONNECTOR.cast(sections[facing.ordinal()]);
         } else {
             return null;
         }
@@ -202,81 +232,57 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
         left.add(
             "- power: IN " + arrayToString(s -> s.debugPowerInput) + ", OUT " + arrayToString(s -> s.debugPowerOutput));
         left.add("- power: OFFERED " + arrayToString(s -> s.debugPowerOffered));
+        PowerPipeNetwork net = network;
+        if (net != null) {
+            left.add(" - Network = " + net.getSize() + " pipes" + (net.isValid() ? "" : " (invalid)") + ", stored "
+                + LocaleUtil.localizeMj(net.getStoredPower()));
+        }
     }
 
     private String arrayToString(ToLongFunction<Section> getter) {
         long[] arr = new long[6];
         for (EnumFacing face : EnumFacing.VALUES) {
-            arr[face.ordinal()] = getter.applyAsLong(sections.get(face)) / MjAPI.MJ;
+            arr[face.ordinal()] = getter.applyAsLong(sections[face.ordinal()]) / MjAPI.MJ;
         }
         return Arrays.toString(arr);
     }
 
     @Override
     public void onTick() {
-        if (pipe.getHolder().getPipeWorld().isRemote) {
+        World world = pipe.getHolder().getPipeWorld();
+        if (world.isRemote) {
             return;
         }
-        if (maxPower == -1) {
-            reconfigure();
+        ensureConfigured();
+
+        boolean useNetwork = BCTransportConfig.powerNetworks && canJoinNetwork();
+        if (network != null && !useNetwork) {
+            network.invalidate();
+            network = null;
+        }
+        if (useNetwork) {
+            if (network == null || !network.isValid()) {
+                network = PowerPipeNetwork.build(this);
+            }
+            // Moves the power of every pipe in the network, but only once per tick
+            network.tick(world.getTotalWorldTime());
+            return;
         }
 
         step();
 
         init();
 
-        for (EnumFacing face : EnumFacing.VALUES) {
-            Section s = sections.get(face);
-            if (s.internalPower > 0) {
-                long totalPowerQuery = 0;
-                for (EnumFacing face2 : EnumFacing.VALUES) {
-                    if (face != face2) {
-                        totalPowerQuery += sections.get(face2).powerQuery;
-                    }
-                }
-
-                if (totalPowerQuery > 0) {
-                    long unusedPowerQuery = totalPowerQuery;
-                    for (EnumFacing face2 : EnumFacing.VALUES) {
-                        if (face == face2) {
-                            continue;
-                        }
-                        Section s2 = sections.get(face2);
-                        if (s2.powerQuery > 0) {
-                            long watts = Math.min(
-                                BigInteger.valueOf(s.internalPower)
-                                    .multiply(BigInteger.valueOf(s2.powerQuery))
-                                    .divide(BigInteger.valueOf(unusedPowerQuery))
-                                    .longValue(),
-                                s.internalPower
-                            );
-                            unusedPowerQuery -= s2.powerQuery;
-                            IPipe neighbour = pipe.getConnectedPipe(face2);
-                            long leftover = watts;
-                            if (neighbour != null && neighbour.getFlow() instanceof PipeFlowPower
-                                && neighbour.isConnected(face2.getOpposite())) {
-                                PipeFlowPower oFlow = (PipeFlowPower) neighbour.getFlow();
-                                leftover = oFlow.sections.get(face2.getOpposite()).receivePowerInternal(watts);
-                            } else {
-                                IMjReceiver receiver =
-                                    pipe.getHolder().getCapabilityFromPipe(face2, MjAPI.CAP_RECEIVER);
-                                if (receiver != null && receiver.canReceive()) {
-                                    leftover = receiver.receivePower(watts, false);
-                                }
-                            }
-                            long used = watts - leftover;
-                            s.internalPower -= used;
-                            s2.debugPowerOutput += used;
-
-                            s.powerAverage.push((int) used);
-                            s2.powerAverage.push((int) used);
-                        }
-                    }
-                }
-            }
+        for (int i = 0; i < sections.length; i++) {
+            splitPower[i] = sections[i].internalPower;
+            splitQuery[i] = sections[i].powerQuery;
+        }
+        long totalQuery = splitPower(splitPower, splitQuery, splitSender);
+        for (int i = 0; i < sections.length; i++) {
+            sections[i].internalPower = splitPower[i];
         }
         // Render compute goes here
-        for (Section s : sections.values()) {
+        for (Section s : sections) {
             s.powerAverage.tick();
             long value = (long) s.powerAverage.getAverage();
             long temp = Math.min(value * MjAPI.MJ / maxPower, 1 * MjAPI.MJ);
@@ -298,18 +304,10 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
         }
 
         // Sum the amount of power requested on each side
-        long[] transferQueryTemp = new long[6];
+        long[] transferQueryTemp = nextTransferQuery;
         for (EnumFacing face : EnumFacing.VALUES) {
-            if (!pipe.isConnected(face)) {
-                continue;
-            }
-            long query = 0;
-            for (EnumFacing face2 : EnumFacing.VALUES) {
-                if (face != face2) {
-                    query += sections.get(face2).powerQuery;
-                }
-            }
-            transferQueryTemp[face.ordinal()] = query;
+            int index = face.ordinal();
+            transferQueryTemp[index] = pipe.isConnected(face) ? totalQuery - sections[index].powerQuery : 0;
         }
 
         // Transfer requested power to neighbouring pipes
@@ -331,15 +329,92 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
             sendPayload(NET_POWER_AMOUNTS);
         }
 
+        // Swap the buffers rather than allocating a new one every tick
+        nextTransferQuery = transferQuery == null ? new long[6] : transferQuery;
         transferQuery = transferQueryTemp;
 //        }
     }
 
+    /** Sends power out of the pipe, for {@link #splitPower(long[], long[], IPowerSender)}. */
+    @FunctionalInterface
+    public interface IPowerSender {
+        /** Sends power that was in the section on one face out of the section on another face.
+         *
+         * @return The power that couldn't be sent. */
+        long send(int from, int to, long microJoules);
+    }
+
+    /** Splits the power in each section between every other section, in proportion to how much power they queried.
+     * This is everything that a tick does with the power, apart from actually sending it.
+     *
+     * @param internalPower The power in each section, indexed by {@link EnumFacing#ordinal()}. The power that is sent
+     *            is subtracted from this.
+     * @param powerQuery The power that each section queried, indexed by {@link EnumFacing#ordinal()}.
+     * @return The total of every query. */
+    public static long splitPower(long[] internalPower, long[] powerQuery, IPowerSender sender) {
+        // None of the power queries change during this tick (requests only go into nextPowerQuery) so the query of
+        // every other section is just the total minus its own.
+        long totalQuery = 0;
+        for (long query : powerQuery) {
+            totalQuery += query;
+        }
+
+        for (int i = 0; i < internalPower.length; i++) {
+            if (internalPower[i] <= 0) {
+                continue;
+            }
+            long totalPowerQuery = totalQuery - powerQuery[i];
+            if (totalPowerQuery <= 0) {
+                continue;
+            }
+            long unusedPowerQuery = totalPowerQuery;
+            for (int j = 0; j < internalPower.length; j++) {
+                if (i == j || powerQuery[j] <= 0) {
+                    continue;
+                }
+                long watts = Math.min(
+                    MathUtil.multiplyDivide(internalPower[i], powerQuery[j], unusedPowerQuery),
+                    internalPower[i]
+                );
+                unusedPowerQuery -= powerQuery[j];
+                long leftover = sender.send(i, j, watts);
+                internalPower[i] -= watts - leftover;
+            }
+        }
+        return totalQuery;
+    }
+
+    private long sendSplitPower(int from, int to, long watts) {
+        Section s = sections[from];
+        Section s2 = sections[to];
+        EnumFacing face2 = s2.side;
+        IPipe neighbour = pipe.getConnectedPipe(face2);
+        long leftover = watts;
+        if (neighbour != null && neighbour.getFlow() instanceof PipeFlowPower
+            && neighbour.isConnected(face2.getOpposite())) {
+            PipeFlowPower oFlow = (PipeFlowPower) neighbour.getFlow();
+            leftover = oFlow.sections[face2.getOpposite().ordinal()].receivePowerInternal(watts);
+        } else {
+            IMjReceiver receiver = pipe.getHolder().getCapabilityFromPipe(face2, MjAPI.CAP_RECEIVER);
+            if (receiver != null && receiver.canReceive()) {
+                leftover = receiver.receivePower(watts, false);
+            }
+        }
+        long used = watts - leftover;
+        s2.debugPowerOutput += used;
+
+        s.powerAverage.push((int) used);
+        s2.powerAverage.push((int) used);
+        return leftover;
+    }
+
     private void step() {
         long now = pipe.getHolder().getPipeWorld().getTotalWorldTime();
         if (currentWorldTime != now) {
             currentWorldTime = now;
-            sections.values().forEach(Section::step);
+            for (Section s : sections) {
+                s.step();
+            }
         }
     }
 
@@ -350,7 +425,7 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
     private void requestPower(EnumFacing from, long amount) {
         step();
 
-        Section s = sections.get(from);
+        Section s = sections[from.ordinal()];
         if (pipe.getBehaviour() instanceof IPipeTransportPowerHook) {
             s.nextPowerQuery += ((IPipeTransportPowerHook) pipe.getBehaviour()).requestPower(from, amount);
         } else {
@@ -358,9 +433,103 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
         }
     }
 
+    // Power networks
+
+    @PipeEventHandler
+    public void onChunkUnload(PipeEventTileState.ChunkUnload event) {
+        // Otherwise the rest of the network would keep sending power through this pipe
+        if (network != null) {
+            network.invalidate();
+            network = null;
+        }
+    }
+
+    void ensureConfigured() {
+        if (maxPower == -1) {
+            reconfigure();
+        }
+    }
+
+    boolean isReceiver() {
+        return isReceiver;
+    }
+
+    long getMaxPower() {
+        return maxPower;
+    }
+
+    long getPowerLoss() {
+        return powerLoss;
+    }
+
+    long getPowerResistance() {
+        return powerResistance;
+    }
+
+    /** @return A bit mask of every face that the pipe is connected on. */
+    int getConnectionMask() {
+        int mask = 0;
+        for (EnumFacing face : EnumFacing.VALUES) {
+            if (pipe.isConnected(face)) {
+                mask |= 1 << face.ordinal();
+            }
+        }
+        return mask;
+    }
+
+    /** @return True if the behaviour doesn't change the power requests that pass through this pipe (as the network
+     *         doesn't pass requests from one pipe to the next). */
+    boolean canJoinNetwork() {
+        return !(pipe.getBehaviour() instanceof IPipeTransportPowerHook);
+    }
+
+    /** Records power that the network moved through the given face, for rendering. */
+    void addNetworkFlow(EnumFacing face, long power) {
+        if (networkFlow == null) {
+            networkFlow = new long[6];
+        }
+        networkFlow[face.ordinal()] += power;
+        hasNetworkFlow = true;
+    }
+
+    /** Updates the {@link Section#displayPower} of every section from the power that the network moved through it
+     * this tick. Does nothing if no power has moved through this pipe recently. */
+    void tickNetworkDisplay() {
+        if (!hasNetworkFlow && !isNetworkDisplayActive) {
+            return;
+        }
+        boolean changed = false;
+        boolean active = false;
+        for (Section s : sections) {
+            if (hasNetworkFlow) {
+                long flow = networkFlow[s.side.ordinal()];
+                if (flow > 0) {
+                    s.debugPowerOutput += flow;
+                    s.powerAverage.push((int) flow);
+                }
+            }
+            s.powerAverage.tick();
+            double average = s.powerAverage.getAverage();
+            int display = (int) Math.min((long) average * MjAPI.MJ / maxPower, 1 * MjAPI.MJ);
+            if (display != s.displayPower) {
+                s.displayPower = display;
+                changed = true;
+            }
+            active |= average != 0;
+        }
+        if (hasNetworkFlow) {
+            Arrays.fill(networkFlow, 0);
+            hasNetworkFlow = false;
+        }
+        isNetworkDisplayActive = active;
+        if (changed && MessageUtil.isWatched(pipe.getHolder().getPipeWorld(), pipe.getHolder().getPipePos())) {
+            sendPayload(NET_POWER_AMOUNTS);
+        }
+    }
+
     public double getMaxTransferForRender(float partialTicks) {
         double max = 0;
-        for (Section s : sections.values()) {
+        for (Section s : sections) {
             double value = s.displayPower / (double) MjAPI.MJ;
 //            value = MathUtil.interp(partialTicks, value, value);
             max = Math.max(max, value);
@@ -407,16 +576,24 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
 
         @Override
         public long getPowerRequested() {
+            PowerPipeNetwork net = network;
+            if (net != null) {
+                return net.getPowerRequested();
+            }
             long req = 0;
             for (EnumFacing face : EnumFacing.VALUES) {
                 if (face != this.side) {
-                    req += sections.get(face).powerQuery;
+                    req += sections[face.ordinal()].powerQuery;
                 }
             }
             return req;
         }
 
         long receivePowerInternal(long sent) {
+            PowerPipeNetwork net = network;
+            if (net != null) {
+                return receiveNetworkPower(net, sent, false);
+            }
             if (sent > 0) {
                 debugPowerOffered += sent;
                 internalNextPower += sent;
@@ -429,6 +606,10 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
         public long receivePower(long microJoules, boolean simulate) {
             if (isReceiver) {
                 PipeFlowPower.this.step();
+                PowerPipeNetwork net = network;
+                if (net != null) {
+                    return receiveNetworkPower(net, microJoules, simulate);
+                }
                 if (!simulate) {
                     return this.receivePowerInternal(microJoules);
                 }
@@ -437,6 +618,15 @@ public class PipeFlowPower extends PipeFlow implements IFlowPower, IDebuggable {
             return microJoules;
         }
 
+        private long receiveNetworkPower(PowerPipeNetwork net, long microJoules, boolean simulate) {
+            long leftover = net.receivePower(microJoules, simulate);
+            if (!simulate && leftover < microJoules) {
+                debugPowerOffered += microJoules - leftover;
+                addNetworkFlow(side, microJoules - leftover);
+            }
+            return leftover;
+        }
+
         @Override
         public boolean canReceive() {
             return isReceiver;
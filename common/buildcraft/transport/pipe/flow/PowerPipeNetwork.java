@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.transport.pipe.flow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import net.minecraft.util.EnumFacing;
+
+import buildcraft.api.mj.IMjReceiver;
+import buildcraft.api.mj.MjAPI;
+import buildcraft.api.transport.pipe.IPipe;
+import buildcraft.api.transport.pipe.IPipe.ConnectedType;
+import buildcraft.api.transport.pipe.IPipeHolder;
+import buildcraft.api.transport.pipe.PipeFlow;
+
+import buildcraft.lib.misc.MathUtil;
+
+import buildcraft.transport.BCTransportConfig;
+import buildcraft.transport.BCTransportConfig.PowerLossMode;
+
+/** A group of connected {@link PipeFlowPower} that move power as a single unit, rather than each pipe passing power
+ * (and power requests) on to its neighbours one hop per tick. Only used if
+ * {@link buildcraft.transport.BCTransportConfig#powerNetworks} is enabled.
+ * <p>
+ * When the network is built every pipe is given a route back to the nearest receiving (wooden) pipe. Each route
+ * stores the smallest {@link PipeFlowPower#getMaxPower()} along it, and the "cost" of delivering power down it: the
+ * amount of power (in {@link MjAPI#MJ} fixed point) that needs to be taken from the network for every MJ that
+ * arrives, as decided by {@link BCTransportConfig#lossMode} and the loss and resistance of every pipe on the route.
+ * <p>
+ * Every tick the network:
+ * <ol>
+ * <li>Asks every consumer (every connected tile that can receive power) how much power it wants, limited by the
+ * route's maximum power.</li>
+ * <li>Gives every consumer its share of the stored power, in proportion to how much it asked for.</li>
+ * <li>Passes the power that moved back along every route, so that every section can still render the power flowing
+ * through it. Pipes that have nothing flowing through them (and haven't for a while) are skipped entirely.</li>
+ * </ol>
+ * Power that engines give to the receiving pipes is stored in the network until the next tick, up to the maximum power
+ * of every receiving pipe put together. Pipes leave their network when their chunk unloads, and networks never reach
+ * into unloaded chunks. */
+public class PowerPipeNetwork {
+    private static final long UNREACHABLE = -1;
+
+    private final List<PipeFlowPower> members = new ArrayList<>();
+    /** The {@link PipeFlowPower#getConnectionMask()} of every member, when this network was built. */
+    private final int[] connectionMasks;
+    /** The index of the member that is one step closer to a receiver, or -1 for receivers (and unreachable
+     * members). */
+    private final int[] parents;
+    /** The face of each member that its parent is connected to. */
+    private final EnumFacing[] parentFaces;
+    /** The cost of delivering power out of each member, or {@link #UNREACHABLE}. */
+    private final long[] costs;
+    /** The smallest maximum power of every pipe between each member and its receiver. */
+    private final long[] bottlenecks;
+    /** The members in the order that they were reached from the receivers, so that every child comes after its
+     * parent. */
+    private final int[] order;
+    /** The power that has left the network through every member (or one of its children) this tick. */
+    private final long[] subtreeFlow;
+
+    private final long capacity;
+    private long storedPower;
+    /** The amount of stored power that the consumers asked for last tick. */
+    private long lastDemand;
+    private boolean valid = true;
+    private long lastTick = Long.MIN_VALUE;
+
+    private final List<Consumer> consumers = new ArrayList<>();
+
+    private PowerPipeNetwork(List<PipeFlowPower> members) {
+        this.members.addAll(members);
+        int size = members.size();
+        connectionMasks = new int[size];
+        parents = new int[size];
+        parentFaces = new EnumFacing[size];
+        costs = new long[size];
+        bottlenecks = new long[size];
+        order = new int[size];
+        subtreeFlow = new long[size];
+        Arrays.fill(parents, -1);
+        Arrays.fill(costs, UNREACHABLE);
+
+        long cap = 0;
+        int orderSize = 0;
+        for (int i = 0; i < size; i++) {
+            PipeFlowPower member = members.get(i);
+            member.networkIndex = i;
+            connectionMasks[i] = member.getConnectionMask();
+            if (member.isReceiver()) {
+                cap += member.getMaxPower();
+                costs[i] = addCost(MjAPI.MJ, member);
+                bottlenecks[i] = member.getMaxPower();
+                order[orderSize++] = i;
+            }
+        }
+        capacity = cap;
+
+        // Breadth first search from every receiver, so every member is routed to its nearest receiver
+        for (int head = 0; head < orderSize; head++) {
+            int index = order[head];
+            PipeFlowPower member = members.get(index);
+            for (EnumFacing face : EnumFacing.VALUES) {
+                PipeFlowPower other = getConnectedFlow(member, face);
+                // Only pipes that are being added to this network are marked as visited
+                if (other == null || !other.visitedForNetwork) {
+                    continue;
+                }
+                int otherIndex = other.networkIndex;
+                if (costs[otherIndex] != UNREACHABLE || other.isReceiver()) {
+                    continue;
+                }
+                long cost = addCost(costs[index], other);
+                if (cost == UNREACHABLE) {
+                    continue;
+                }
+                costs[otherIndex] = cost;
+                bottlenecks[otherIndex] = Math.min(bottlenecks[index], other.getMaxPower());
+                parents[otherIndex] = index;
+                parentFaces[otherIndex] = face.getOpposite();
+                order[orderSize++] = otherIndex;
+            }
+        }
+        // Members that can't be reached don't need to be in the order, as nothing will ever flow through them
+        for (int i = orderSize; i < size; i++) {
+            order[i] = -1;
+        }
+    }
+
+    /** @return The cost of delivering power out of the given member, if it costs the given amount to get power into
+     *         it, or {@link #UNREACHABLE} if no power can get out. */
+    private static long addCost(long cost, PipeFlowPower member) {
+        PowerLossMode mode = BCTransportConfig.lossMode;
+        if (mode == PowerLossMode.PERCENTAGE) {
+            long resistance = Math.max(0, member.getPowerResistance());
+            if (resistance >= MjAPI.MJ) {
+                return UNREACHABLE;
+            }
+            cost = MathUtil.multiplyDivide(cost, MjAPI.MJ, MjAPI.MJ - resistance);
+        } else if (mode == PowerLossMode.ABSOLUTE) {
+            long loss = Math.max(0, member.getPowerLoss());
+            cost += MathUtil.multiplyDivide(loss, MjAPI.MJ, member.getMaxPower());
+        }
+        // Anything above this means that less than 1/1000 of the power would arrive
+        return cost > MjAPI.MJ * 1000 ? UNREACHABLE : cost;
+    }
+
+    /** Creates a new network containing the given pipe and every pipe that it can reach. Any networks that any of
+     * those pipes were in before are invalidated, and their stored power is moved into the new network. */
+    static PowerPipeNetwork build(PipeFlowPower start) {
+        List<PipeFlowPower> found = new ArrayList<>();
+        found.add(start);
+        start.visitedForNetwork = true;
+        Queue<PipeFlowPower> open = new ArrayDeque<>();
+        open.add(start);
+        while (!open.isEmpty()) {
+            PipeFlowPower flow = open.remove();
+            for (EnumFacing face : EnumFacing.VALUES) {
+                PipeFlowPower other = getConnectedFlow(flow, face);
+                if (other == null || other.visitedForNetwork || !other.canJoinNetwork()) {
+                    continue;
+                }
+                other.ensureConfigured();
+                other.visitedForNetwork = true;
+                found.add(other);
+                open.add(other);
+            }
+        }
+        long inherited = 0;
+        for (PipeFlowPower member : found) {
+            PowerPipeNetwork old = member.network;
+            if (old != null) {
+                inherited += old.storedPower;
+                old.storedPower = 0;
+                old.valid = false;
+                member.network = null;
+            }
+        }
+        start.ensureConfigured();
+        PowerPipeNetwork network = new PowerPipeNetwork(found);
+        network.storedPower = Math.min(inherited, network.capacity);
+        for (PipeFlowPower member : found) {
+            member.visitedForNetwork = false;
+            member.network = network;
+        }
+        return network;
+    }
+
+    /** @return True if the block on the given side of the pipe is loaded. Nothing on an unloaded side is looked at, as
+     *         that would load its chunk again. */
+    private static boolean isNeighbourLoaded(PipeFlowPower flow, EnumFacing face) {
+        IPipeHolder holder = flow.pipe.getHolder();
+        return holder.getPipeWorld().isBlockLoaded(holder.getPipePos().offset(face));
+    }
+
+    private static PipeFlowPower getConnectedFlow(PipeFlowPower flow, EnumFacing face) {
+        if (!isNeighbourLoaded(flow, face)) {
+            return null;
+        }
+        IPipe oPipe = flow.pipe.getConnectedPipe(face);
+        if (oPipe == null || !oPipe.isConnected(face.getOpposite())) {
+            return null;
+        }
+        PipeFlow oFlow = oPipe.getFlow();
+        return oFlow instanceof PipeFlowPower ? (PipeFlowPower) oFlow : null;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    public int getSize() {
+        return members.size();
+    }
+
+    public long getStoredPower() {
+        return storedPower;
+    }
+
+    /** @return The amount of power that engines should give to this network. */
+    long getPowerRequested() {
+        return Math.max(0, Math.min(lastDemand, capacity) - storedPower);
+    }
+
+    /** Stores as much of the given power as possible.
+     *
+     * @return The excess power that couldn't be stored. */
+    long receivePower(long microJoules, boolean simulate) {
+        if (microJoules <= 0) {
+            return microJoules;
+        }
+        long accepted = Math.min(microJoules, capacity - storedPower);
+        if (accepted <= 0) {
+            return microJoules;
+        }
+        if (!simulate) {
+            storedPower += accepted;
+        }
+        return microJoules - accepted;
+    }
+
+    /** Moves all of the power in this network for this tick. Does nothing if this has already been called in the same
+     * tick by a different member. */
+    void tick(long worldTime) {
+        if (lastTick == worldTime) {
+            return;
+        }
+        lastTick = worldTime;
+        if (!validate()) {
+            valid = false;
+            return;
+        }
+
+        long totalDraw = findConsumers();
+        lastDemand = totalDraw;
+        boolean moved = false;
+        if (totalDraw > 0 && storedPower > 0) {
+            moved = deliver(totalDraw);
+        }
+        consumers.clear();
+
+        if (moved) {
+            // Pass the power that left every member back towards the receivers, for rendering
+            for (int i = order.length - 1; i >= 0; i--) {
+                int index = order[i];
+                if (index < 0 || subtreeFlow[index] == 0) {
+                    continue;
+                }
+                int parent = parents[index];
+                if (parent >= 0) {
+                    long flow = subtreeFlow[index];
+                    EnumFacing face = parentFaces[index];
+                    members.get(index).addNetworkFlow(face, flow);
+                    members.get(parent).addNetworkFlow(face.getOpposite(), flow);
+                    subtreeFlow[parent] += flow;
+                }
+                subtreeFlow[index] = 0;
+            }
+        }
+        for (PipeFlowPower member : members) {
+            member.tickNetworkDisplay();
+        }
+    }
+
+    private boolean validate() {
+        for (int i = 0; i < members.size(); i++) {
+            PipeFlowPower member = members.get(i);
+            if (member.network != this || member.pipe.getHolder().getPipeTile().isInvalid()
+                || member.getConnectionMask() != connectionMasks[i] || !member.canJoinNetwork()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return The total amount of stored power that all of the consumers would need to get everything that they
+     *         asked for. Only tiles are consumers: pipes that can't join a network act as a boundary, the same as they
+     *         do for {@link FluidPipeNetwork}. */
+    private long findConsumers() {
+        long totalDraw = 0;
+        for (int i = 0; i < members.size(); i++) {
+            long cost = costs[i];
+            if (cost == UNREACHABLE) {
+                continue;
+            }
+            PipeFlowPower member = members.get(i);
+            for (EnumFacing face : EnumFacing.VALUES) {
+                if (!member.pipe.isConnected(face)) {
+                    continue;
+                }
+                if (member.pipe.getConnectedType(face) != ConnectedType.TILE || !isNeighbourLoaded(member, face)) {
+                    continue;
+                }
+                IMjReceiver receiver = member.pipe.getHolder().getCapabilityFromPipe(face, MjAPI.CAP_RECEIVER);
+                if (receiver == null || !receiver.canReceive()) {
+                    continue;
+                }
+                long requested = Math.min(receiver.getPowerRequested(), bottlenecks[i]);
+                if (requested <= 0) {
+                    continue;
+                }
+                long draw = MathUtil.multiplyDivide(requested, cost, MjAPI.MJ);
+                consumers.add(new Consumer(i, face, receiver, requested, draw));
+                totalDraw += draw;
+            }
+        }
+        return totalDraw;
+    }
+
+    /** Shares the stored power between every consumer, in proportion to how much they asked for.
+     *
+     * @return True if any power was actually given to a consumer. */
+    private boolean deliver(long totalDraw) {
+        boolean enough = totalDraw <= storedPower;
+        long available = Math.min(storedPower, totalDraw);
+        long unusedDraw = totalDraw;
+        boolean moved = false;
+        for (Consumer consumer : consumers) {
+            long share = enough ? consumer.draw : MathUtil.multiplyDivide(available, consumer.draw, unusedDraw);
+            unusedDraw -= consumer.draw;
+            long cost = costs[consumer.member];
+            long watts = Math.min(consumer.requested, MathUtil.multiplyDivide(share, MjAPI.MJ, cost));
+            if (watts <= 0) {
+                continue;
+            }
+            long leftover = consumer.receiver.receivePower(watts, false);
+            long used = watts - Math.max(0, leftover);
+            if (used <= 0) {
+                continue;
+            }
+            long drawn = Math.min(storedPower, MathUtil.multiplyDivide(used, cost, MjAPI.MJ));
+            storedPower -= drawn;
+            available -= Math.min(available, drawn);
+            subtreeFlow[consumer.member] += used;
+            members.get(consumer.member).addNetworkFlow(consumer.face, used);
+            moved = true;
+        }
+        return moved;
+    }
+
+    static final class Consumer {
+        final int member;
+        final EnumFacing face;
+        final IMjReceiver receiver;
+        final long requested;
+        final long draw;
+
+        Consumer(int member, EnumFacing face, IMjReceiver receiver, long requested, long draw) {
+            this.member = member;
+            this.face = face;
+            this.receiver = receiver;
+            this.requested = requested;
+            this.draw = draw;
+        }
+    }
+}
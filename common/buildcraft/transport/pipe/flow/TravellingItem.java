@@ -43,8 +43,9 @@ public class TravellingItem {
     /** If {@link #toCenter} is true then this represents the side that the item is coming from, otherwise this
      * represents the side that the item is going to. */
     EnumFacing side;
-    /** A set of all the faces that this item has tried to go and failed. */
-    EnumSet<EnumFacing> tried = EnumSet.noneOf(EnumFacing.class);
+    /** A bitmask (indexed by {@link EnumFacing#ordinal()}) of all the faces that this item has tried to go and
+     * failed. */
+    int tried;
     /** If true then events won't be fired for this, and this item won't be dropped by the pipe. However it will affect
      * pipe.isEmpty and related gate triggers. */
     boolean isPhantom = false;
@@ -97,7 +98,9 @@ public class TravellingItem {
             // Older 8.0.x. version
             toCenter = true;
         }
-        tried = NBTUtilBC.readEnumSet(nbt.getTag("tried"), EnumFacing.class);
+        for (EnumFacing face : NBTUtilBC.readEnumSet(nbt.getTag("tried"), EnumFacing.class)) {
+            addTried(face);
+        }
         isPhantom = nbt.getBoolean("isPhantom");
     }
 
@@ -111,13 +114,27 @@ public class TravellingItem {
         nbt.setInteger("tickFinished", (int) (tickFinished - tickNow));
         nbt.setInteger("timeToDest", timeToDest);
         nbt.setTag("side", NBTUtilBC.writeEnum(side));
-        nbt.setTag("tried", NBTUtilBC.writeEnumSet(tried, EnumFacing.class));
+        EnumSet<EnumFacing> triedSet = EnumSet.noneOf(EnumFacing.class);
+        for (EnumFacing face : EnumFacing.VALUES) {
+            if (hasTried(face)) {
+                triedSet.add(face);
+            }
+        }
+        nbt.setTag("tried", NBTUtilBC.writeEnumSet(triedSet, EnumFacing.class));
         if (isPhantom) {
             nbt.setBoolean("isPhantom", true);
         }
         return nbt;
     }
 
+    boolean hasTried(EnumFacing face) {
+        return (tried & (1 << face.ordinal())) != 0;
+    }
+
+    void addTried(EnumFacing face) {
+        tried |= 1 << face.ordinal();
+    }
+
     public int getCurrentDelay(long tickNow) {
         long diff = tickFinished - tickNow;
         if (diff < 0) {
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017 SpaceToad and the BuildCraft team
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of the MPL was not
+ * distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/
+ */
+
+package buildcraft.transport.tile;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import net.minecraft.network.PacketBuffer;
+
+import buildcraft.lib.net.IPayloadWriter;
+import buildcraft.lib.net.PacketBufferBC;
+
+/** Collects all of the part updates and custom payloads that a {@link TilePipeHolder} sends in a single tick so that
+ * they can be sent in a single {@link TilePipeHolder#NET_UPDATE_MULTI} message, rather than one message each.
+ * <p>
+ * Format: varint count, followed by count entries of (varint id, medium length, payload). Every payload is written
+ * with its own {@link PacketBufferBC} so that the partial bits used by {@link PacketBufferBC#writeBoolean(boolean)}
+ * never span two entries. */
+public class PipeUpdateBatch {
+    /** The bytes that a {@link buildcraft.lib.net.MessageUpdateTile} needs in addition to its payload: the position,
+     * the payload length and the message id. */
+    private static final int MESSAGE_OVERHEAD = Long.BYTES + 3 + Short.BYTES;
+
+    // Metrics (server wide)
+    public static long totalEntries, totalMessages, totalBytesSaved;
+
+    private ByteBuf data;
+    private int count;
+    private int firstId;
+    private int firstLength;
+    private int framingBytes;
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void add(int id, IPayloadWriter writer) {
+        if (data == null) {
+            data = Unpooled.buffer();
+        }
+        int start = data.writerIndex();
+        new PacketBuffer(data).writeVarInt(id);
+        int lengthIndex = data.writerIndex();
+        data.writeMedium(0);
+        writer.write(new PacketBufferBC(data));
+        int length = data.writerIndex() - lengthIndex - 3;
+        data.setMedium(lengthIndex, length);
+        if (count == 0) {
+            firstId = id;
+            firstLength = length;
+        }
+        framingBytes += lengthIndex + 3 - start;
+        count++;
+    }
+
+    /** @return The id of the message that should be used to send {@link #writeAndClear(PacketBufferBC)}. This is
+     *         {@link TilePipeHolder#NET_UPDATE_MULTI} unless there is only one entry, in which case the entry is sent
+     *         as-is. */
+    public int getMessageId() {
+        return count == 1 ? firstId : TilePipeHolder.NET_UPDATE_MULTI;
+    }
+
+    public void writeAndClear(PacketBufferBC buffer) {
+        if (count == 1) {
+            buffer.writeBytes(data, data.writerIndex() - firstLength, firstLength);
+        } else {
+            int before = buffer.writerIndex();
+            buffer.writeVarInt(count);
+            int countBytes = buffer.writerIndex() - before;
+            buffer.writeBytes(data, 0, data.writerIndex());
+            totalBytesSaved += MESSAGE_OVERHEAD * (count - 1) - framingBytes - countBytes;
+        }
+        totalEntries += count;
+        totalMessages++;
+        data.clear();
+        count = 0;
+        framingBytes = 0;
+    }
+
+    /** Reads a message written by {@link #writeAndClear(PacketBufferBC)} (when it contained more than one entry),
+     * passing every entry to the given reader. */
+    public static void readEntries(PacketBufferBC buffer, IEntryReader reader) throws IOException {
+        int entries = buffer.readVarInt();
+        for (int i = 0; i < entries; i++) {
+            int id = buffer.readVarInt();
+            int length = buffer.readUnsignedMedium();
+            reader.read(id, new PacketBufferBC(buffer.readSlice(length)));
+        }
+    }
+
+    @FunctionalInterface
+    public interface IEntryReader {
+        void read(int id, PacketBufferBC buffer) throws IOException;
+    }
+}
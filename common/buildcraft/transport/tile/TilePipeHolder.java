@@ -12,6 +12,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -110,6 +112,14 @@ public class TilePipeHolder extends TileBC_Neptune implements IPipeHolder, ITick
     private final Map<EnumFacing, WeakReference<TileEntity>> neighbourTiles = new EnumMap<>(EnumFacing.class);
     private NBTTagCompound unknownData;
 
+    /** Tiles that had messages queued outside of their own {@link #update()}, so need to be flushed at the end of the
+     * world tick instead. */
+    private static final Set<TilePipeHolder> TILES_TO_FLUSH = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final PipeUpdateBatch pendingUpdates = new PipeUpdateBatch();
+    private final PipeUpdateBatch pendingGuiUpdates = new PipeUpdateBatch();
+    private boolean isUpdating;
+
     public TilePipeHolder() {
         for (EnumFacing side : EnumFacing.VALUES) {
             pluggables.put(side, new PluggableHolder(this, side));
@@ -255,6 +265,7 @@ public class TilePipeHolder extends TileBC_Neptune implements IPipeHolder, ITick
 
     @Override
     public void update() {
+        isUpdating = true;
         redstoneValues = new int[6];
         // Tick objects
         if (pipe != null) {
@@ -266,10 +277,9 @@ public class TilePipeHolder extends TileBC_Neptune implements IPipeHolder, ITick
 
         // Send network updates
         if (networkUpdates.size() > 0) {
-            // TODO: Multi-update messages! (multiple updates sent in a single message)
             Set<PipeMessageReceiver> parts = EnumSet.copyOf(networkUpdates);
             for (PipeMessageReceiver part : parts) {
-                sendNetworkUpdate(getReceiverId(part));
+                queueNetworkUpdate(false, getReceiverId(part));
             }
         }
         // No need to send gui updates to specific players if we just sent off messages to all players.
@@ -277,13 +287,14 @@ public class TilePipeHolder extends TileBC_Neptune implements IPipeHolder, ITick
         networkUpdates.clear();
 
         if (networkGuiUpdates.size() > 0) {
-            // TODO: Multi-update messages! (multiple updates sent in a single message)
             Set<PipeMessageReceiver> parts = EnumSet.copyOf(networkGuiUpdates);
             for (PipeMessageReceiver part : parts) {
-                sendNetworkGuiUpdate(getReceiverId(part));
+                queueNetworkUpdate(true, getReceiverId(part));
             }
         }
         networkGuiUpdates.clear();
+        flushNetworkUpdates();
+        isUpdating = false;
 
         if (scheduleRenderUpdate) {
             scheduleRenderUpdate = false;
@@ -307,6 +318,63 @@ public class TilePipeHolder extends TileBC_Neptune implements IPipeHolder, ITick
 
     // Network
 
+    private void queueNetworkUpdate(boolean gui, int id) {
+        if (world.isRemote) {
+            if (gui) {
+                sendNetworkGuiUpdate(id);
+            } else {
+                sendNetworkUpdate(id);
+            }
+        } else {
+            PipeUpdateBatch batch = gui ? pendingGuiUpdates : pendingUpdates;
+            batch.add(id, buffer -> writePayload(id, buffer, Side.SERVER));
+        }
+    }
+
+    private void queueMessage(PipeUpdateBatch batch, int id, IWriter writer) {
+        batch.add(id, writer::write);
+        if (!isUpdating) {
+            TILES_TO_FLUSH.add(this);
+        }
+    }
+
+    /** Sends all of the queued part updates and payloads as (at most) one message to all watching players, and one
+     * message to all players using a gui. */
+    private void flushNetworkUpdates() {
+        if (!pendingUpdates.isEmpty()) {
+            createAndSendMessage(pendingUpdates.getMessageId(), pendingUpdates::writeAndClear);
+        }
+        if (!pendingGuiUpdates.isEmpty()) {
+            createAndSendGuiMessage(pendingGuiUpdates.getMessageId(), pendingGuiUpdates::writeAndClear);
+        }
+    }
+
+    /** Flushes every pipe in the given world that had messages queued after it ticked. Called at the end of every
+     * world tick. */
+    public static void flushQueuedMessages(World world) {
+        if (TILES_TO_FLUSH.isEmpty()) {
+            return;
+        }
+        Iterator<TilePipeHolder> iter = TILES_TO_FLUSH.iterator();
+        while (iter.hasNext()) {
+            TilePipeHolder tile = iter.next();
+            if (tile.world == world) {
+                iter.remove();
+                if (!tile.isInvalid()) {
+                    tile.flushNetworkUpdates();
+                }
+            } else if (tile.world == null) {
+                iter.remove();
+            }
+        }
+    }
+
+    /** Forgets every pipe in the given world that still had messages queued, as the world won't tick again (and
+     * keeping them would stop it from being garbage collected). */
+    public static void onWorldUnload(World world) {
+        TILES_TO_FLUSH.removeIf(tile -> tile.world == world || tile.world == null);
+    }
+
     @Override
     public void writePayload(int id, PacketBufferBC buffer, Side side) {
         super.writePayload(id, buffer, side);
@@ -370,12 +438,7 @@ public class TilePipeHolder extends TileBC_Neptune implements IPipeHolder, ITick
                 }
                 wireManager.readPayload(buffer, side, ctx);
             } else if (id == NET_UPDATE_MULTI) {
-                int total = buffer.readUnsignedByte();
-                for (PipeMessageReceiver type : PipeMessageReceiver.VALUES) {
-                    if (((total >> type.ordinal()) & 1) == 1) {
-                        readPayload(getReceiverId(type), buffer, side, ctx);
-                    }
-                }
+                PipeUpdateBatch.readEntries(buffer, (partId, partBuffer) -> readPayload(partId, partBuffer, side, ctx));
             } else if (id == NET_UPDATE_PIPE_BEHAVIOUR) {
                 if (buffer.readBoolean()) {
                     if (pipe == null) {
@@ -506,12 +569,20 @@ public class TilePipeHolder extends TileBC_Neptune implements IPipeHolder, ITick
 
     @Override
     public void sendMessage(PipeMessageReceiver to, IWriter writer) {
-        createAndSendMessage(getReceiverId(to), writer::write);
+        if (world == null || world.isRemote) {
+            createAndSendMessage(getReceiverId(to), writer::write);
+        } else {
+            queueMessage(pendingUpdates, getReceiverId(to), writer);
+        }
     }
 
     @Override
     public void sendGuiMessage(PipeMessageReceiver to, IWriter writer) {
-        createAndSendGuiMessage(getReceiverId(to), writer::write);
+        if (world == null || world.isRemote) {
+            createAndSendGuiMessage(getReceiverId(to), writer::write);
+        } else {
+            queueMessage(pendingGuiUpdates, getReceiverId(to), writer);
+        }
     }
 
     @Override
@@ -588,6 +659,10 @@ public class TilePipeHolder extends TileBC_Neptune implements IPipeHolder, ITick
         if (unknownData != null) {
             left.add(unknownData.toString());
         }
+        if (!world.isRemote) {
+            left.add("Batched network updates: " + PipeUpdateBatch.totalEntries + " in "
+                + PipeUpdateBatch.totalMessages + " messages, ~" + PipeUpdateBatch.totalBytesSaved + " bytes saved");
+        }
     }
 
     @Override
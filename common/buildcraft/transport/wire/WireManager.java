@@ -7,13 +7,17 @@
 package buildcraft.transport.wire;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import net.minecraft.item.EnumDyeColor;
 import net.minecraft.nbt.NBTTagCompound;
@@ -68,9 +72,11 @@ public class WireManager implements IWireManager {
         if (!initialised) {
             initialised = true;
             if (!holder.getPipeWorld().isRemote) {
+                List<WireSystem.WireElement> elements = new ArrayList<>();
                 for (EnumWirePart part : parts.keySet()) {
-                    getWireSystems().buildAndAddWireSystem(new WireSystem.WireElement(holder.getPipePos(), part));
+                    elements.add(new WireSystem.WireElement(holder.getPipePos(), part));
                 }
+                getWireSystems().buildAndAddWireSystems(elements);
             }
             updateBetweens(false);
         }
@@ -81,7 +87,7 @@ public class WireManager implements IWireManager {
         if (getColorOfPart(part) == null) {
             parts.put(part, colour);
             if (!holder.getPipeWorld().isRemote) {
-                getWireSystems().buildAndAddWireSystem(new WireSystem.WireElement(holder.getPipePos(), part));
+                getWireSystems().addWirePart(holder, new WireSystem.WireElement(holder.getPipePos(), part), colour);
                 holder.getPipeTile().markDirty();
             }
             updateBetweens(false);
@@ -100,9 +106,7 @@ public class WireManager implements IWireManager {
             parts.remove(part);
             if (!holder.getPipeWorld().isRemote) {
                 WireSystem.WireElement element = new WireSystem.WireElement(holder.getPipePos(), part);
-                WireSystem.getConnectedElementsOfElement(holder, element)
-                    .forEach(getWireSystems()::buildAndAddWireSystem);
-                getWireSystems().getWireSystemsWithElement(element).forEach(getWireSystems()::removeWireSystem);
+                getWireSystems().removeWireParts(holder, Collections.singletonList(element));
                 holder.getPipeTile().markDirty();
             }
             updateBetweens(false);
@@ -119,12 +123,9 @@ public class WireManager implements IWireManager {
     }
 
     private void removePartsFromSystem(Collection<EnumWirePart> toRemove) {
-        toRemove.stream().map(part -> new WireSystem.WireElement(holder.getPipePos(), part))
-            .flatMap(element -> WireSystem.getConnectedElementsOfElement(holder, element).stream()).distinct()
-            .forEach(getWireSystems()::buildAndAddWireSystem);
-        toRemove.stream().map(part -> new WireSystem.WireElement(holder.getPipePos(), part))
-            .flatMap(element -> getWireSystems().getWireSystemsWithElement(element).stream())
-            .forEach(getWireSystems()::removeWireSystem);
+        List<WireSystem.WireElement> elements = toRemove.stream()
+            .map(part -> new WireSystem.WireElement(holder.getPipePos(), part)).collect(Collectors.toList());
+        getWireSystems().removeWireParts(holder, elements);
         holder.getPipeTile().markDirty();
     }
 
@@ -14,20 +14,17 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import com.google.common.base.Predicates;
-
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.item.EnumDyeColor;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.network.PacketBuffer;
+import net.minecraft.server.management.PlayerChunkMap;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
@@ -51,6 +48,17 @@ public class WireSystem {
     public final List<WireElement> elements = new ArrayList<>();
     public EnumDyeColor color = null;
 
+    /** The number of emitters in this system that are emitting its colour. Only kept up-to-date by the
+     * {@link WorldSavedDataWireSystems} that this system has been added to. */
+    int emittingCount;
+
+    // Caches, computed on first use. The elements must not change after any of these have been used.
+    private Set<ChunkPos> chunkPoses;
+    private int wiresHashCode;
+    private boolean hasWiresHashCode;
+    private int hashCode;
+    private boolean hasHashCode;
+
     public boolean hasElement(WireElement element) {
         return elements.contains(element);
     }
@@ -157,25 +165,57 @@ public class WireSystem {
     }
 
     public boolean update(WorldSavedDataWireSystems wireSystems) {
-        return elements.stream().filter(element -> element.type == WireElement.Type.EMITTER_SIDE).map(element -> wireSystems.isEmitterEmitting(element, color)).reduce(Boolean::logicalOr).orElse(
-            false);
+        return countEmitting(wireSystems) > 0;
     }
 
-    public List<ChunkPos> getChunkPoses() {
-        return elements.stream().map(element -> element.blockPos).map(ChunkPos::new).collect(Collectors.toList());
+    /** @return The number of emitters in this system that are currently emitting this system's colour. */
+    public int countEmitting(WorldSavedDataWireSystems wireSystems) {
+        int count = 0;
+        for (WireElement element : elements) {
+            if (element.type == WireElement.Type.EMITTER_SIDE && wireSystems.isEmitterEmitting(element, color)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** @return Every chunk that this system has at least one element in. */
+    public Set<ChunkPos> getChunkPoses() {
+        if (chunkPoses == null) {
+            Set<ChunkPos> set = new HashSet<>();
+            for (WireElement element : elements) {
+                set.add(new ChunkPos(element.blockPos));
+            }
+            chunkPoses = Collections.unmodifiableSet(set);
+        }
+        return chunkPoses;
     }
 
     public boolean isPlayerWatching(EntityPlayerMP player) {
         if (player.world instanceof WorldServer) {
-            WorldServer world = (WorldServer) player.world;
-            return getChunkPoses().stream().map(chunkPos -> world.getPlayerChunkMap().getEntry(chunkPos.x, chunkPos.z)).filter(Objects::nonNull).anyMatch(
-                playerChunkMapEntry -> playerChunkMapEntry.hasPlayerMatching(Predicates.equalTo(player)));
+            PlayerChunkMap chunkMap = ((WorldServer) player.world).getPlayerChunkMap();
+            for (ChunkPos chunkPos : getChunkPoses()) {
+                if (chunkMap.isPlayerWatchingChunk(player, chunkPos.x, chunkPos.z)) {
+                    return true;
+                }
+            }
         }
         return false;
     }
 
     public int getWiresHashCode() {
-        return elements.stream().filter(element -> element.type == WireElement.Type.WIRE_PART).collect(Collectors.toList()).hashCode();
+        if (!hasWiresHashCode) {
+            // Must be the same as the hash code of the list of every wire part element
+            int hash = 1;
+            for (WireElement element : elements) {
+                if (element.type == WireElement.Type.WIRE_PART) {
+                    hash = 31 * hash + element.hashCode();
+                }
+            }
+            wiresHashCode = hash;
+            hasWiresHashCode = true;
+        }
+        return wiresHashCode;
     }
 
     public NBTTagCompound writeToNBT() {
@@ -189,6 +229,8 @@ public class WireSystem {
 
     public WireSystem readFromNBT(NBTTagCompound nbt) {
         elements.clear();
+        chunkPoses = null;
+        hasWiresHashCode = false;
         NBTTagList elementsList = nbt.getTagList("elements", Constants.NBT.TAG_COMPOUND);
         IntStream.range(0, elementsList.tagCount()).mapToObj(elementsList::getCompoundTagAt).map(WireElement::new).forEach(elements::add);
         color = EnumDyeColor.byMetadata(nbt.getInteger("color"));
@@ -214,9 +256,14 @@ public class WireSystem {
 
     @Override
     public int hashCode() {
-        int result = elements.hashCode();
-        result = 31 * result + (color != null ? color.hashCode() : 0);
-        return result;
+        // Systems are used as map keys, so this is looked up far more often than the elements change
+        if (!hasHashCode) {
+            int result = elements.hashCode();
+            result = 31 * result + (color != null ? color.hashCode() : 0);
+            hashCode = result;
+            hasHashCode = true;
+        }
+        return hashCode;
     }
 
     public static class WireElement {
@@ -7,23 +7,27 @@
 package buildcraft.transport.wire;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-
-import com.google.common.base.Predicates;
-
-import org.apache.commons.lang3.tuple.Pair;
+import java.util.Set;
 
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.item.EnumDyeColor;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
+import net.minecraft.server.management.PlayerChunkMap;
+import net.minecraft.server.management.PlayerChunkMapEntry;
 import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraft.world.storage.MapStorage;
 import net.minecraft.world.storage.WorldSavedData;
 
@@ -41,12 +45,23 @@ public class WorldSavedDataWireSystems extends WorldSavedData {
     public static final String DATA_NAME = "buildcraft_wire_systems";
     public World world;
     public final Map<WireSystem, Boolean> wireSystems = new HashMap<>();
+    /** If true then every wire system will be re-evaluated (by asking all of its emitters) on the next tick. Emitters
+     * should call {@link #onEmitterChanged(BlockPos, EnumFacing, EnumDyeColor, boolean)} rather than setting this. */
     public boolean gatesChanged = true;
     public boolean structureChanged = true;
     public final List<WireSystem> changedSystems = new ArrayList<>();
-    public final List<EntityPlayerMP> changedPlayers = new ArrayList<>();
+    /** Players that need to be sent every wire system that they can see. */
+    public final Set<EntityPlayerMP> changedPlayers = new HashSet<>();
     public final Map<WireSystem.WireElement, IWireEmitter> emittersCache = new HashMap<>();
 
+    /** Every element of every wire system, mapped to the systems that contain it. Wire parts are only ever in a single
+     * system, but emitters can be in one system per colour. */
+    private final Map<WireSystem.WireElement, List<WireSystem>> systemsByElement = new HashMap<>();
+    private final Map<BlockPos, Set<WireSystem.WireElement>> elementsByPos = new HashMap<>();
+    private final Map<ChunkPos, Set<WireSystem>> systemsByChunk = new HashMap<>();
+    /** Chunks that have had a wire system added or removed since the last tick. */
+    private final Set<ChunkPos> changedChunks = new HashSet<>();
+
     public WorldSavedDataWireSystems() {
         super(DATA_NAME);
     }
@@ -57,33 +72,171 @@ public class WorldSavedDataWireSystems extends WorldSavedData {
 
     public void markStructureChanged() {
         structureChanged = true;
-        gatesChanged = true;
         emittersCache.clear();
     }
 
+    /** @return A new list of every wire system that contains the given element. */
     public List<WireSystem> getWireSystemsWithElement(WireSystem.WireElement element) {
-        return wireSystems.keySet().stream().filter(wireSystem -> wireSystem.hasElement(element)).collect(Collectors.toList());
+        List<WireSystem> systems = systemsByElement.get(element);
+        return systems == null ? Collections.emptyList() : new ArrayList<>(systems);
+    }
+
+    public boolean hasWireSystemsInChunk(ChunkPos chunkPos) {
+        return systemsByChunk.containsKey(chunkPos);
+    }
+
+    /** @return Every element (of any wire system) at the given position. */
+    public Set<WireSystem.WireElement> getElementsAt(BlockPos pos) {
+        Set<WireSystem.WireElement> elements = elementsByPos.get(pos);
+        return elements == null ? Collections.emptySet() : elements;
+    }
+
+    private void addWireSystem(WireSystem wireSystem, boolean powered) {
+        if (wireSystems.put(wireSystem, powered) == null) {
+            for (WireSystem.WireElement element : wireSystem.elements) {
+                systemsByElement.computeIfAbsent(element, k -> new ArrayList<>(1)).add(wireSystem);
+                elementsByPos.computeIfAbsent(element.blockPos, k -> new HashSet<>()).add(element);
+            }
+            for (ChunkPos chunkPos : wireSystem.getChunkPoses()) {
+                systemsByChunk.computeIfAbsent(chunkPos, k -> new HashSet<>()).add(wireSystem);
+                changedChunks.add(chunkPos);
+            }
+        }
+    }
+
+    /** Adds the given wire system, counting how many of its emitters are currently emitting. */
+    private void addAndCountWireSystem(WireSystem wireSystem) {
+        wireSystem.emittingCount = wireSystem.countEmitting(this);
+        addWireSystem(wireSystem, wireSystem.emittingCount > 0);
     }
 
     public void removeWireSystem(WireSystem wireSystem) {
-        wireSystems.remove(wireSystem);
+        if (wireSystems.remove(wireSystem) != null) {
+            for (WireSystem.WireElement element : wireSystem.elements) {
+                List<WireSystem> systems = systemsByElement.get(element);
+                if (systems != null) {
+                    systems.removeIf(wireSystem::equals);
+                    if (systems.isEmpty()) {
+                        systemsByElement.remove(element);
+                        Set<WireSystem.WireElement> atPos = elementsByPos.get(element.blockPos);
+                        if (atPos != null) {
+                            atPos.remove(element);
+                            if (atPos.isEmpty()) {
+                                elementsByPos.remove(element.blockPos);
+                            }
+                        }
+                    }
+                }
+            }
+            for (ChunkPos chunkPos : wireSystem.getChunkPoses()) {
+                Set<WireSystem> inChunk = systemsByChunk.get(chunkPos);
+                if (inChunk != null) {
+                    inChunk.remove(wireSystem);
+                    if (inChunk.isEmpty()) {
+                        systemsByChunk.remove(chunkPos);
+                    }
+                }
+                changedChunks.add(chunkPos);
+            }
+        }
         markStructureChanged();
     }
 
-    public void buildAndAddWireSystem(WireSystem.WireElement element) {
+    public WireSystem buildAndAddWireSystem(WireSystem.WireElement element) {
         WireSystem wireSystem = new WireSystem().build(this, element);
         if(!wireSystem.isEmpty()) {
-            wireSystems.put(wireSystem, false);
-            wireSystems.put(wireSystem, wireSystem.update(this));
+            addAndCountWireSystem(wireSystem);
+        }
+        markStructureChanged();
+        return wireSystem;
+    }
+
+    /** Builds a wire system from every given element, except for elements that were already included in a system
+     * built earlier in the same call. This means that every wire system is only walked once, regardless of how many of
+     * the starting elements it contains. */
+    public void buildAndAddWireSystems(Collection<WireSystem.WireElement> elements) {
+        Set<WireSystem.WireElement> built = new HashSet<>();
+        for (WireSystem.WireElement element : elements) {
+            if (built.add(element)) {
+                built.addAll(buildAndAddWireSystem(element).elements);
+            }
+        }
+    }
+
+    /** Adds a newly placed wire part to the world, merging together all of the wire systems that it connects
+     * (rather than walking the resulting system from scratch). */
+    public void addWirePart(IPipeHolder holder, WireSystem.WireElement element, EnumDyeColor color) {
+        Set<WireSystem> toMerge = new LinkedHashSet<>();
+        for (WireSystem.WireElement connected : WireSystem.getConnectedElementsOfElement(holder, element)) {
+            List<WireSystem> systems = systemsByElement.get(connected);
+            if (systems != null) {
+                for (WireSystem wireSystem : systems) {
+                    if (wireSystem.color == color) {
+                        toMerge.add(wireSystem);
+                    }
+                }
+            } else if (hasUnindexedWire(connected, color)) {
+                // The neighbouring wire hasn't been added to a system yet, so we can't trust the index
+                buildAndAddWireSystem(element);
+                return;
+            }
+        }
+        WireSystem merged = new WireSystem();
+        merged.color = color;
+        Set<WireSystem.WireElement> elements = new LinkedHashSet<>();
+        for (WireSystem wireSystem : toMerge) {
+            elements.addAll(wireSystem.elements);
+        }
+        elements.add(element);
+        for (EnumFacing side : EnumFacing.VALUES) {
+            if (holder.getPluggable(side) instanceof IWireEmitter) {
+                elements.add(new WireSystem.WireElement(element.blockPos, side));
+            }
         }
+        merged.elements.addAll(elements);
+        toMerge.forEach(this::removeWireSystem);
+        addAndCountWireSystem(merged);
         markStructureChanged();
     }
 
+    private boolean hasUnindexedWire(WireSystem.WireElement element, EnumDyeColor color) {
+        if (element.type != WireSystem.WireElement.Type.WIRE_PART || !world.isBlockLoaded(element.blockPos)) {
+            return false;
+        }
+        TileEntity tile = world.getTileEntity(element.blockPos);
+        return tile instanceof IPipeHolder
+            && ((IPipeHolder) tile).getWireManager().getColorOfPart(element.wirePart) == color;
+    }
+
+    /** Removes the given wire parts from their wire systems, splitting up the systems that they were in if needed.
+     * Only the remaining pieces of the affected systems are walked. */
+    public void removeWireParts(IPipeHolder holder, Collection<WireSystem.WireElement> removed) {
+        Set<WireSystem.WireElement> neighbours = new LinkedHashSet<>();
+        for (WireSystem.WireElement element : removed) {
+            neighbours.addAll(WireSystem.getConnectedElementsOfElement(holder, element));
+        }
+        neighbours.removeAll(removed);
+        for (WireSystem.WireElement element : removed) {
+            getWireSystemsWithElement(element).forEach(this::removeWireSystem);
+        }
+        buildAndAddWireSystems(neighbours);
+    }
+
     public void rebuildWireSystemsAround(IPipeHolder holder) {
-        Arrays.stream(EnumWirePart.values())
-                .flatMap(part -> WireSystem.getConnectedElementsOfElement(world, new WireSystem.WireElement(holder.getPipePos(), part)).stream())
-                .distinct()
-                .forEach(this::buildAndAddWireSystem);
+        BlockPos pos = holder.getPipePos();
+        Set<WireSystem.WireElement> toBuild = new LinkedHashSet<>();
+        for (EnumWirePart part : EnumWirePart.VALUES) {
+            toBuild.addAll(WireSystem.getConnectedElementsOfElement(world, new WireSystem.WireElement(pos, part)));
+        }
+        // Also include the neighbours that were connected before, in case they aren't connected any more
+        for (EnumFacing face : EnumFacing.VALUES) {
+            for (WireSystem.WireElement element : getElementsAt(pos.offset(face))) {
+                if (element.type == WireSystem.WireElement.Type.WIRE_PART) {
+                    toBuild.add(element);
+                }
+            }
+        }
+        buildAndAddWireSystems(toBuild);
     }
 
     public IWireEmitter getEmitter(WireSystem.WireElement element) {
@@ -123,39 +276,134 @@ public class WorldSavedDataWireSystems extends WorldSavedData {
         return false;
     }
 
+    /** Called by an emitter whenever it starts or stops emitting a colour. This only updates the counts of the wire
+     * systems that the emitter is in, rather than re-evaluating every emitter of every system, so an emitter that is
+     * removed must also call this for every colour that it was emitting.
+     *
+     * @param pos The position of the pipe holder that contains the emitter.
+     * @param side The side of the holder that the emitter pluggable is on. */
+    public void onEmitterChanged(BlockPos pos, EnumFacing side, EnumDyeColor colour, boolean emitting) {
+        if (gatesChanged) {
+            // Everything will be counted from scratch anyway
+            return;
+        }
+        List<WireSystem> systems = systemsByElement.get(new WireSystem.WireElement(pos, side));
+        if (systems == null) {
+            return;
+        }
+        for (WireSystem wireSystem : systems) {
+            if (wireSystem.color != colour) {
+                continue;
+            }
+            boolean wasPowered = wireSystem.emittingCount > 0;
+            int count = wireSystem.emittingCount + (emitting ? 1 : -1);
+            if (count < 0) {
+                BCLog.logger.warn("[transport.wire] An emitter at " + pos + " stopped emitting " + colour
+                    + " more times than it started! THIS IS A BUG");
+                count = 0;
+            }
+            wireSystem.emittingCount = count;
+            boolean powered = count > 0;
+            // The map only needs to change when the system turns on or off
+            if (powered != wasPowered) {
+                wireSystems.put(wireSystem, powered);
+                changedSystems.add(wireSystem);
+            }
+        }
+    }
+
     public void tick() {
         if(gatesChanged) {
-            wireSystems.keySet().stream()
-                    .filter(wireSystem -> {
-                        boolean newPowered = wireSystem.update(this);
-                        return wireSystems.put(wireSystem, newPowered) != newPowered;
-                    })
-                    .forEach(changedSystems::add);
-        }
-        world.getPlayers(EntityPlayerMP.class, Predicates.alwaysTrue()).forEach(player -> {
-            Map<Integer, WireSystem> changedWires = this.wireSystems.keySet().stream()
-                    .filter(wireSystem -> wireSystem.isPlayerWatching(player) && (structureChanged || changedPlayers.contains(player)))
-                    .collect(Collectors.toMap(WireSystem::getWiresHashCode, Function.identity()));
-            if(!changedWires.isEmpty()) {
-                MessageManager.sendTo(new MessageWireSystems(changedWires), player);
-            }
-            Map<Integer, Boolean> hashesPowered = this.wireSystems.entrySet().stream()
-                    .filter(systemPower ->
-                            systemPower.getKey().isPlayerWatching(player) &&
-                                    (structureChanged || changedSystems.contains(systemPower.getKey()) || changedPlayers.contains(player))
-                    )
-                    .map(systemPowered -> Pair.of(systemPowered.getKey().getWiresHashCode(), systemPowered.getValue()))
-                    .collect(Collectors.toMap(Pair::getLeft, Pair::getRight));
-            if(!hashesPowered.isEmpty()) {
-                MessageManager.sendTo(new MessageWireSystemsPowered(hashesPowered), player);
+            for (Map.Entry<WireSystem, Boolean> entry : wireSystems.entrySet()) {
+                WireSystem wireSystem = entry.getKey();
+                wireSystem.emittingCount = wireSystem.countEmitting(this);
+                boolean newPowered = wireSystem.emittingCount > 0;
+                if (entry.setValue(newPowered) != newPowered) {
+                    changedSystems.add(entry.getKey());
+                }
             }
-        });
+            gatesChanged = false;
+        }
+        if (world instanceof WorldServer && (!changedChunks.isEmpty() || !changedPlayers.isEmpty()
+            || !changedSystems.isEmpty())) {
+            PlayerChunkMap chunkMap = ((WorldServer) world).getPlayerChunkMap();
+
+            // Everyone who saw a system get added or removed needs to be sent all of the systems that they can see
+            Set<EntityPlayerMP> fullSync = new HashSet<>(changedPlayers);
+            for (ChunkPos chunkPos : changedChunks) {
+                addWatchingPlayers(chunkMap, chunkPos, fullSync);
+            }
+            for (EntityPlayerMP player : fullSync) {
+                if (player.world == world) {
+                    sendAllWatchedSystems(chunkMap, player);
+                }
+            }
+
+            // Everyone else only needs the systems whose power changed
+            if (!changedSystems.isEmpty()) {
+                Map<EntityPlayerMP, Map<Integer, Boolean>> powerChanges = new HashMap<>();
+                Set<EntityPlayerMP> watching = new HashSet<>();
+                for (WireSystem wireSystem : changedSystems) {
+                    Boolean powered = wireSystems.get(wireSystem);
+                    if (powered == null) {
+                        // Removed since it changed, so the players will have been sent the full update anyway
+                        continue;
+                    }
+                    watching.clear();
+                    for (ChunkPos chunkPos : wireSystem.getChunkPoses()) {
+                        addWatchingPlayers(chunkMap, chunkPos, watching);
+                    }
+                    for (EntityPlayerMP player : watching) {
+                        if (!fullSync.contains(player)) {
+                            powerChanges.computeIfAbsent(player, p -> new HashMap<>())
+                                .put(wireSystem.getWiresHashCode(), powered);
+                        }
+                    }
+                }
+                powerChanges.forEach((player, hashesPowered) -> {
+                    MessageManager.sendTo(new MessageWireSystemsPowered(hashesPowered), player);
+                });
+            }
+        }
         if(structureChanged || !changedSystems.isEmpty()) {
             markDirty();
         }
         structureChanged = false;
         changedSystems.clear();
         changedPlayers.clear();
+        changedChunks.clear();
+    }
+
+    private static void addWatchingPlayers(PlayerChunkMap chunkMap, ChunkPos chunkPos, Set<EntityPlayerMP> to) {
+        PlayerChunkMapEntry entry = chunkMap.getEntry(chunkPos.x, chunkPos.z);
+        if (entry != null) {
+            // Slightly ugly hack to iterate through all players watching the chunk
+            entry.hasPlayerMatching(player -> {
+                to.add(player);
+                return false;
+            });
+        }
+    }
+
+    private void sendAllWatchedSystems(PlayerChunkMap chunkMap, EntityPlayerMP player) {
+        Map<Integer, WireSystem> watchedSystems = new HashMap<>();
+        Map<Integer, Boolean> hashesPowered = new HashMap<>();
+        for (Map.Entry<ChunkPos, Set<WireSystem>> entry : systemsByChunk.entrySet()) {
+            ChunkPos chunkPos = entry.getKey();
+            if (chunkMap.isPlayerWatchingChunk(player, chunkPos.x, chunkPos.z)) {
+                for (WireSystem wireSystem : entry.getValue()) {
+                    int hash = wireSystem.getWiresHashCode();
+                    if (watchedSystems.put(hash, wireSystem) == null) {
+                        hashesPowered.put(hash, wireSystems.get(wireSystem));
+                    }
+                }
+            }
+        }
+        // Always sent, as the client replaces all of its wire systems with the ones in the message
+        MessageManager.sendTo(new MessageWireSystems(watchedSystems), player);
+        if (!hashesPowered.isEmpty()) {
+            MessageManager.sendTo(new MessageWireSystemsPowered(hashesPowered), player);
+        }
     }
 
     @Override
@@ -174,10 +422,15 @@ public class WorldSavedDataWireSystems extends WorldSavedData {
     @Override
     public void readFromNBT(NBTTagCompound nbt) {
         wireSystems.clear();
+        systemsByElement.clear();
+        elementsByPos.clear();
+        systemsByChunk.clear();
+        // The emitters can't be asked until the world has loaded, so count them all on the first tick
+        gatesChanged = true;
         NBTTagList entriesList = nbt.getTagList("entries", Constants.NBT.TAG_COMPOUND);
         for(int i = 0; i < entriesList.tagCount(); i++) {
             NBTTagCompound entry = entriesList.getCompoundTagAt(i);
-            wireSystems.put(new WireSystem().readFromNBT(entry.getCompoundTag("wireSystem")), entry.getBoolean("powered"));
+            addWireSystem(new WireSystem().readFromNBT(entry.getCompoundTag("wireSystem")), entry.getBoolean("powered"));
         }
     }
 
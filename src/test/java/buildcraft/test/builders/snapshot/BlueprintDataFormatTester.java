@@ -0,0 +1,118 @@
+package buildcraft.test.builders.snapshot;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+
+import buildcraft.api.core.InvalidInputDataException;
+import buildcraft.api.data.NbtSquishConstants;
+
+import buildcraft.lib.nbt.NbtSquisher;
+
+import buildcraft.builders.snapshot.BlueprintDataFormat;
+
+public class BlueprintDataFormatTester {
+    private static final int[] PALETTE_SIZES = { 1, 2, 3, 16, 17, 300, 70_000 };
+    private static final double[] AIR_CHANCES = { 0, 0.5, 0.95 };
+
+    @Test
+    public void testRoundTrip() throws InvalidInputDataException {
+        Random rand = new Random(0x5eed);
+        for (int paletteSize : PALETTE_SIZES) {
+            for (double airChance : AIR_CHANCES) {
+                int[] data = genData(rand, 20_000, paletteSize, airChance);
+                for (int airIndex : new int[] { -1, 0 }) {
+                    NBTTagCompound nbt = BlueprintDataFormat.write(data, paletteSize, airIndex);
+                    Assert.assertArrayEquals(data, BlueprintDataFormat.read(nbt, data.length, paletteSize));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLegacy() throws InvalidInputDataException {
+        int[] data = genData(new Random(0x5eed), 1000, 20, 0.5);
+        NBTTagList list = new NBTTagList();
+        for (int value : data) {
+            list.appendTag(new NBTTagInt(value));
+        }
+        Assert.assertArrayEquals(data, BlueprintDataFormat.read(list, data.length, 20));
+        Assert.assertArrayEquals(data, BlueprintDataFormat.read(new NBTTagIntArray(data), data.length, 20));
+    }
+
+    @Test(expected = InvalidInputDataException.class)
+    public void testWrongLength() throws InvalidInputDataException {
+        int[] data = genData(new Random(0x5eed), 1000, 20, 0.5);
+        BlueprintDataFormat.read(BlueprintDataFormat.write(data, 20, 0), data.length + 1, 20);
+    }
+
+    @Test(expected = InvalidInputDataException.class)
+    public void testOutOfPalette() throws InvalidInputDataException {
+        BlueprintDataFormat.read(BlueprintDataFormat.write(new int[] { 0, 1, 3 }, 4, -1), 3, 3);
+    }
+
+    /** Compares the time taken to save and load (and the size of) the old list of int tags against the packed
+     * format, for blueprints of a few different sizes. */
+    @Test
+    public void benchmark() throws IOException, InvalidInputDataException {
+        Random rand = new Random(0x5eed);
+        for (int side : new int[] { 16, 64, 128 }) {
+            int[] data = genData(rand, side * side * side, 150, 0.7);
+            System.out.println("Blueprint data with " + data.length + " blocks:");
+
+            Stopwatch watch = Stopwatch.createStarted();
+            NBTTagList list = new NBTTagList();
+            for (int value : data) {
+                list.appendTag(new NBTTagInt(value));
+            }
+            NBTTagCompound legacy = new NBTTagCompound();
+            legacy.setTag("data", list);
+            byte[] legacyBytes = NbtSquisher.squish(legacy, NbtSquishConstants.VANILLA_COMPRESSED);
+            long legacySave = watch.elapsed(TimeUnit.MICROSECONDS);
+            watch.reset().start();
+            BlueprintDataFormat.read(NbtSquisher.expand(legacyBytes).getTag("data"), data.length, 150);
+            long legacyLoad = watch.elapsed(TimeUnit.MICROSECONDS);
+
+            watch.reset().start();
+            NBTTagCompound packed = new NBTTagCompound();
+            packed.setTag("data", BlueprintDataFormat.write(data, 150, 0));
+            byte[] packedBytes = NbtSquisher.squish(packed, NbtSquishConstants.VANILLA_COMPRESSED);
+            long packedSave = watch.elapsed(TimeUnit.MICROSECONDS);
+            watch.reset().start();
+            int[] read = BlueprintDataFormat.read(NbtSquisher.expand(packedBytes).getTag("data"), data.length, 150);
+            long packedLoad = watch.elapsed(TimeUnit.MICROSECONDS);
+
+            Assert.assertArrayEquals(data, read);
+            System.out.println("  legacy: save " + legacySave + "us, load " + legacyLoad + "us, " + legacyBytes.length
+                + " bytes");
+            System.out.println("  packed: save " + packedSave + "us, load " + packedLoad + "us, " + packedBytes.length
+                + " bytes");
+        }
+    }
+
+    /** Generates blueprint-like data: palette index 0 is air, which comes in runs of random lengths. */
+    private static int[] genData(Random rand, int length, int paletteSize, double airChance) {
+        int[] data = new int[length];
+        for (int i = 0; i < length;) {
+            if (rand.nextDouble() < airChance) {
+                int run = 1 + rand.nextInt(32);
+                for (int j = 0; j < run && i < length; j++) {
+                    data[i++] = 0;
+                }
+            } else {
+                data[i++] = rand.nextInt(paletteSize);
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,128 @@
+package buildcraft.test.lib.misc;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import buildcraft.lib.misc.MathUtil;
+
+public class MathUtilTester {
+    private static final long[] EDGE_VALUES = { //
+        0, 1, -1, 2, -2, 3, 7, 1_000_000, -1_000_000, Integer.MAX_VALUE, Integer.MIN_VALUE, 0xFFFF_FFFFL,
+        0x1_0000_0000L, -0x1_0000_0000L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1,
+        Long.MAX_VALUE / 3, Long.MIN_VALUE / 3 //
+    };
+
+    private static long expected(long a, long b, long c) {
+        return BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).divide(BigInteger.valueOf(c)).longValue();
+    }
+
+    @Test
+    public void testMultiplyHigh() {
+        for (long a : EDGE_VALUES) {
+            for (long b : EDGE_VALUES) {
+                long expected = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).shiftRight(64).longValue();
+                Assert.assertEquals(a + " * " + b, expected, MathUtil.multiplyHigh(a, b));
+            }
+        }
+    }
+
+    @Test
+    public void testMultiplyDivideEdges() {
+        for (long a : EDGE_VALUES) {
+            for (long b : EDGE_VALUES) {
+                for (long c : EDGE_VALUES) {
+                    if (c == 0) {
+                        continue;
+                    }
+                    String msg = a + " * " + b + " / " + c;
+                    Assert.assertEquals(msg, expected(a, b, c), MathUtil.multiplyDivide(a, b, c));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMultiplyDivideRandom() {
+        Random rand = new Random(0x5eed);
+        for (int i = 0; i < 200_000; i++) {
+            long a = rand.nextLong() >> rand.nextInt(64);
+            long b = rand.nextLong() >> rand.nextInt(64);
+            long c = rand.nextLong() >> rand.nextInt(64);
+            if (c == 0) {
+                c = 1;
+            }
+            String msg = a + " * " + b + " / " + c;
+            Assert.assertEquals(msg, expected(a, b, c), MathUtil.multiplyDivide(a, b, c));
+        }
+    }
+
+    /** The values that PipeFlowPower actually uses: a (positive) amount of power split in proportion to a share of the
+     * total query. */
+    @Test
+    public void testMultiplyDividePowerSplit() {
+        Random rand = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            long power = (rand.nextLong() >>> 1) >> rand.nextInt(63);
+            long query = 1 + ((rand.nextLong() >>> 2) >> rand.nextInt(62));
+            long total = query + ((rand.nextLong() >>> 2) >> rand.nextInt(62));
+            long expected = Math.min(expected(power, query, total), power);
+            Assert.assertEquals(expected, Math.min(MathUtil.multiplyDivide(power, query, total), power));
+        }
+    }
+
+    @Test
+    public void benchmarkMultiplyDivide() {
+        Random rand = new Random(1);
+        int count = 1 << 16;
+        long[] a = new long[count];
+        long[] b = new long[count];
+        long[] c = new long[count];
+        for (int i = 0; i < count; i++) {
+            // Roughly the range of MJ values that kinesis pipes deal with
+            a[i] = (1 + rand.nextInt(1_000_000)) * 1_000_000L;
+            b[i] = (1 + rand.nextInt(1_000_000)) * 1_000_000L;
+            c[i] = b[i] + rand.nextInt(1_000_000) * 1_000_000L;
+        }
+
+        for (int warmup = 0; warmup < 5; warmup++) {
+            runBigInteger(a, b, c);
+            runMultiplyDivide(a, b, c);
+        }
+
+        Stopwatch watch = Stopwatch.createStarted();
+        long big = runBigInteger(a, b, c);
+        watch.stop();
+        long bigTime = watch.elapsed(TimeUnit.MICROSECONDS);
+
+        watch.reset().start();
+        long fast = runMultiplyDivide(a, b, c);
+        watch.stop();
+        long fastTime = watch.elapsed(TimeUnit.MICROSECONDS);
+
+        Assert.assertEquals(big, fast);
+        System.out.println("BigInteger took " + bigTime + "us, multiplyDivide took " + fastTime + "us for " + count
+            + " values");
+    }
+
+    private static long runBigInteger(long[] a, long[] b, long[] c) {
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += expected(a[i], b[i], c[i]);
+        }
+        return sum;
+    }
+
+    private static long runMultiplyDivide(long[] a, long[] b, long[] c) {
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += MathUtil.multiplyDivide(a[i], b[i], c[i]);
+        }
+        return sum;
+    }
+}
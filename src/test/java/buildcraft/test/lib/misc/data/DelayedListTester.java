@@ -0,0 +1,92 @@
+package buildcraft.test.lib.misc.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import buildcraft.lib.misc.data.DelayedList;
+
+public class DelayedListTester {
+    @Test
+    public void testOrder() {
+        DelayedList<Integer> list = new DelayedList<>();
+        list.add(2, 2);
+        list.add(0, 0);
+        list.add(-4, 0);
+        list.add(1, 1);
+        Assert.assertEquals(3, list.getMaxDelay());
+
+        List<Integer> all = new ArrayList<>();
+        list.forEach(all::add);
+        Assert.assertEquals(4, all.size());
+
+        assertNext(list, 0, 0);
+        assertNext(list, 1);
+        assertNext(list, 2);
+        Assert.assertEquals(0, list.getMaxDelay());
+        Assert.assertTrue(list.advance().isEmpty());
+    }
+
+    @Test
+    public void testWrapAndGrow() {
+        DelayedList<Integer> list = new DelayedList<>();
+        for (int tick = 0; tick < 100; tick++) {
+            // Mix of short and long delays, so that the ring wraps around and grows
+            list.add(3, tick + 3);
+            if (tick % 7 == 0) {
+                list.add(40, tick + 40);
+            }
+            for (int value : list.advance()) {
+                Assert.assertEquals(tick, value);
+            }
+        }
+        Assert.assertEquals(list.getMaxDelay(), list.getAllElements().size());
+        list.clear();
+        Assert.assertEquals(0, list.getMaxDelay());
+        Assert.assertTrue(list.advance().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAdvance() throws InterruptedException {
+        // Like the server and client threads both advancing the delayed tasks in single player
+        DelayedList<Integer> list = DelayedList.createConcurrent();
+        int count = 200_000;
+        for (int i = 0; i < count; i++) {
+            list.add(i % 50, i);
+        }
+        AtomicInteger seen = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Runnable ticker = () -> {
+            try {
+                while (list.getMaxDelay() > 0) {
+                    for (int value : list.advance()) {
+                        Assert.assertTrue(value >= 0);
+                        seen.incrementAndGet();
+                    }
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        };
+        Thread server = new Thread(ticker);
+        Thread client = new Thread(ticker);
+        server.start();
+        client.start();
+        server.join();
+        client.join();
+        Assert.assertNull(error.get());
+        Assert.assertEquals(count, seen.get());
+    }
+
+    private static void assertNext(DelayedList<Integer> list, Integer... expected) {
+        List<Integer> actual = list.advance();
+        Assert.assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], actual.get(i));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package buildcraft.test.lib.misc.data;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+
+import buildcraft.lib.misc.data.FloodIndex;
+
+public class FloodIndexTester {
+    private static final EnumFacing[] HORIZONTAL = { //
+        EnumFacing.NORTH, EnumFacing.SOUTH, EnumFacing.WEST, EnumFacing.EAST //
+    };
+
+    /** Floods every position in a set, which can be changed to simulate blocks changing. */
+    private static class SetRules implements FloodIndex.IFloodRules {
+        final Set<BlockPos> open = new HashSet<>();
+        final List<BlockPos> flooded = new ArrayList<>();
+        int limit = Integer.MAX_VALUE;
+
+        @Override
+        public boolean canRoot(BlockPos pos) {
+            return open.contains(pos);
+        }
+
+        @Override
+        public boolean canFlood(BlockPos from, EnumFacing side, BlockPos to) {
+            return open.contains(to);
+        }
+
+        @Override
+        public boolean onFlooded(BlockPos pos) {
+            flooded.add(pos);
+            return flooded.size() < limit;
+        }
+    }
+
+    /** A 1 wide corridor along the x axis, from 0 to the given length (inclusive). */
+    private static SetRules corridor(int length) {
+        SetRules rules = new SetRules();
+        for (int x = 0; x <= length; x++) {
+            rules.open.add(new BlockPos(x, 0, 0));
+        }
+        return rules;
+    }
+
+    private static FloodIndex build(SetRules rules) {
+        FloodIndex flood = new FloodIndex(HORIZONTAL);
+        flood.start(rules);
+        flood.addRoot(BlockPos.ORIGIN);
+        Assert.assertTrue(flood.build(Integer.MAX_VALUE));
+        return flood;
+    }
+
+    @Test
+    public void testBreadthFirst() {
+        SetRules rules = new SetRules();
+        for (int x = -3; x <= 3; x++) {
+            for (int z = -3; z <= 3; z++) {
+                rules.open.add(new BlockPos(x, 0, z));
+            }
+        }
+        FloodIndex flood = build(rules);
+        Assert.assertEquals(rules.open.size(), flood.getSize());
+        Assert.assertEquals(rules.open.size(), rules.flooded.size());
+        int lastDistance = 0;
+        for (BlockPos pos : rules.flooded) {
+            int distance = Math.abs(pos.getX()) + Math.abs(pos.getZ());
+            Assert.assertTrue(distance >= lastDistance);
+            lastDistance = distance;
+        }
+        Assert.assertFalse(flood.contains(new BlockPos(4, 0, 0)));
+    }
+
+    @Test
+    public void testSlices() {
+        FloodIndex flood = new FloodIndex(HORIZONTAL);
+        flood.start(corridor(100));
+        flood.addRoot(BlockPos.ORIGIN);
+        int slices = 0;
+        while (!flood.build(10)) {
+            slices++;
+            Assert.assertFalse(flood.isComplete());
+        }
+        Assert.assertEquals(10, slices);
+        Assert.assertEquals(101, flood.getSize());
+    }
+
+    @Test
+    public void testStop() {
+        SetRules rules = corridor(100);
+        rules.limit = 20;
+        FloodIndex flood = build(rules);
+        Assert.assertTrue(flood.isStopped());
+        Assert.assertEquals(20, flood.getSize());
+    }
+
+    @Test
+    public void testConnected() {
+        SetRules rules = corridor(10);
+        FloodIndex flood = new FloodIndex(HORIZONTAL);
+        flood.start(rules);
+        flood.addRoot(BlockPos.ORIGIN);
+        flood.exclude(new BlockPos(-1, 0, 0));
+        flood.build(Integer.MAX_VALUE);
+
+        BlockPos end = new BlockPos(10, 0, 0);
+        Set<BlockPos> tested = new HashSet<>();
+        Assert.assertTrue(flood.isConnected(end, p -> tested.add(p) && rules.open.contains(p)));
+        // Every position between the root and the end (but not the end itself)
+        Assert.assertEquals(10, tested.size());
+        Assert.assertFalse(tested.contains(end));
+
+        // Already verified, so nothing needs testing again
+        Assert.assertTrue(flood.isConnected(new BlockPos(5, 0, 0), p -> false));
+
+        BlockPos gap = new BlockPos(4, 0, 0);
+        flood.forgetVerified();
+        Assert.assertFalse(flood.isConnected(end, p -> !p.equals(gap)));
+        Assert.assertTrue(flood.isConnected(gap, p -> !p.equals(gap)));
+        Assert.assertFalse(flood.isConnected(new BlockPos(-1, 0, 0), p -> true));
+    }
+
+    @Test
+    public void testBlockRemoved() {
+        SetRules rules = corridor(10);
+        FloodIndex flood = build(rules);
+
+        // Cutting the corridor removes everything past the cut
+        BlockPos cut = new BlockPos(4, 0, 0);
+        rules.open.remove(cut);
+        flood.onBlockChanged(cut);
+        Assert.assertTrue(flood.build(Integer.MAX_VALUE));
+        Assert.assertEquals(4, flood.getSize());
+        Assert.assertFalse(flood.contains(new BlockPos(10, 0, 0)));
+
+        // And filling it back in finds them all again
+        rules.open.add(cut);
+        flood.onBlockChanged(cut);
+        Assert.assertTrue(flood.build(Integer.MAX_VALUE));
+        Assert.assertEquals(11, flood.getSize());
+        Assert.assertTrue(flood.isConnected(new BlockPos(10, 0, 0), rules.open::contains));
+    }
+
+    @Test
+    public void testBlockRemovedWithDetour() {
+        // A 2 wide corridor, so removing one block leaves everything reachable
+        SetRules rules = corridor(200);
+        for (int x = 0; x <= 200; x++) {
+            rules.open.add(new BlockPos(x, 0, 1));
+        }
+        FloodIndex flood = build(rules);
+        Assert.assertEquals(402, flood.getSize());
+
+        for (int x = 1; x < 200; x += 2) {
+            BlockPos pos = new BlockPos(x, 0, x % 4 == 1 ? 0 : 1);
+            rules.open.remove(pos);
+            flood.onBlockChanged(pos);
+            Assert.assertTrue(flood.build(Integer.MAX_VALUE));
+        }
+        Assert.assertEquals(302, flood.getSize());
+        for (BlockPos pos : rules.open) {
+            Assert.assertTrue(flood.contains(pos));
+            Assert.assertTrue(flood.isConnected(pos, rules.open::contains));
+        }
+    }
+
+    @Test
+    public void testRootChanged() {
+        SetRules rules = corridor(10);
+        FloodIndex flood = build(rules);
+
+        rules.open.remove(BlockPos.ORIGIN);
+        flood.onBlockChanged(BlockPos.ORIGIN);
+        Assert.assertEquals(0, flood.getSize());
+
+        rules.open.add(BlockPos.ORIGIN);
+        flood.onBlockChanged(BlockPos.ORIGIN);
+        Assert.assertTrue(flood.build(Integer.MAX_VALUE));
+        Assert.assertEquals(11, flood.getSize());
+    }
+
+    @Test
+    public void testBlockAdded() {
+        SetRules rules = corridor(10);
+        FloodIndex flood = build(rules);
+
+        // Not next to anything in the flood
+        BlockPos far = new BlockPos(5, 0, 5);
+        rules.open.add(far);
+        flood.onBlockChanged(far);
+        Assert.assertFalse(flood.contains(far));
+
+        BlockPos side = new BlockPos(5, 0, 1);
+        rules.open.add(side);
+        flood.onBlockChanged(side);
+        Assert.assertTrue(flood.contains(side));
+        Assert.assertTrue(flood.build(Integer.MAX_VALUE));
+        Assert.assertEquals(12, flood.getSize());
+    }
+}
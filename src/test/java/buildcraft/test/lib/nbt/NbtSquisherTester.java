@@ -1,5 +1,7 @@
 package buildcraft.test.lib.nbt;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
@@ -17,6 +19,7 @@ import org.junit.Test;
 import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.profiler.Profiler;
 
@@ -24,6 +27,7 @@ import buildcraft.api.data.NbtSquishConstants;
 
 import buildcraft.lib.misc.HashUtil;
 import buildcraft.lib.nbt.NbtSquisher;
+import buildcraft.lib.nbt.NbtTagBuilder;
 
 public class NbtSquisherTester {
     private static final String[] IDS = { //
@@ -71,6 +75,128 @@ public class NbtSquisherTester {
         test(true, nbt);
     }
 
+    /** Checks that writing from a visitor and reading into a visitor gives the same result as the tag based methods,
+     * for every type. */
+    @Test
+    public void testStreaming() throws IOException {
+        NBTTagCompound bpt = genBlueprint(10_000);
+        int[] types = { NbtSquishConstants.VANILLA, NbtSquishConstants.VANILLA_COMPRESSED,
+            NbtSquishConstants.BUILDCRAFT_V1, NbtSquishConstants.BUILDCRAFT_V1_COMPRESSED };
+        for (NBTTagCompound from : new NBTTagCompound[] { nbt, bpt }) {
+            for (int type : types) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                NbtSquisher.squish(visitor -> NbtSquisher.visit(from, visitor), type, baos);
+                byte[] bytes = baos.toByteArray();
+
+                checkEquality(from, NbtSquisher.expand(bytes));
+
+                NbtTagBuilder builder = new NbtTagBuilder();
+                NbtSquisher.expand(new ByteArrayInputStream(bytes), builder);
+                checkEquality(from, builder.getRoot());
+
+                builder = new NbtTagBuilder();
+                NbtSquisher.expand(new ByteArrayInputStream(NbtSquisher.squish(from, type)), builder);
+                checkEquality(from, builder.getRoot());
+            }
+        }
+    }
+
+    /** Checks that every type stops reading as soon as the visitor is finished. */
+    @Test
+    public void testStreamingStopsEarly() throws IOException {
+        int[] types = { NbtSquishConstants.VANILLA, NbtSquishConstants.VANILLA_COMPRESSED,
+            NbtSquishConstants.BUILDCRAFT_V1, NbtSquishConstants.BUILDCRAFT_V1_COMPRESSED };
+        for (int type : types) {
+            int[] count = { 0 };
+            NbtTagBuilder builder = new NbtTagBuilder() {
+                @Override
+                public void visitByte(byte value) {
+                    count[0]++;
+                    super.visitByte(value);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return count[0] >= 10;
+                }
+            };
+            NbtSquisher.expand(new ByteArrayInputStream(NbtSquisher.squish(nbt, type)), builder);
+            Assert.assertEquals(10, count[0]);
+        }
+    }
+
+    /** Checks that the BuildCraft types refuse arrays that are too long for them before writing anything, rather than
+     * writing a corrupt length. */
+    @Test
+    public void testTooLong() throws IOException {
+        NBTTagCompound tooLong = new NBTTagCompound();
+        tooLong.setByteArray("data", new byte[0x10000]);
+        int[] types = { NbtSquishConstants.BUILDCRAFT_V1, NbtSquishConstants.BUILDCRAFT_V1_COMPRESSED };
+        for (int type : types) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try {
+                NbtSquisher.squish(visitor -> NbtSquisher.visit(tooLong, visitor), type, baos);
+                Assert.fail("Wrote a byte array that was too long");
+            } catch (NbtSquisher.TooLongException e) {
+                Assert.assertEquals(0, baos.size());
+            }
+        }
+        NBTTagCompound longest = new NBTTagCompound();
+        longest.setByteArray("data", new byte[0xFFFF]);
+        for (int type : types) {
+            checkEquality(longest, NbtSquisher.expand(NbtSquisher.squish(longest, type)));
+        }
+    }
+
+    /** Compares the size and speed of vanilla and BuildCraft compression on blueprint-like tags of increasing size.
+     * The BuildCraft format should scale linearly with the number of blocks. */
+    @Test
+    public void benchmarkBlueprintSizes() throws IOException {
+        for (int size : new int[] { 10_000, 100_000, 1_000_000 }) {
+            NBTTagCompound bpt = genBlueprint(size);
+            System.out.println("Blueprint with " + size + " blocks:");
+            test(true, bpt);
+        }
+    }
+
+    /** Generates a tag that looks like a saved blueprint: a palette of (equal, but separately allocated) block state
+     * compounds, and a list with one palette index per block. */
+    private static NBTTagCompound genBlueprint(int blocks) {
+        Random rand = new Random(0x5eed);
+        int paletteSize = Math.max(10, blocks / 100);
+
+        NBTTagList palette = new NBTTagList();
+        for (int i = 0; i < paletteSize; i++) {
+            NBTTagCompound state = new NBTTagCompound();
+            state.setString("block", IDS[i % IDS.length]);
+            NBTTagCompound properties = new NBTTagCompound();
+            properties.setInteger("variant", i / IDS.length);
+            properties.setString("facing", (i & 1) == 0 ? "north" : "south");
+            state.setTag("properties", properties);
+            if (i % 7 == 0) {
+                // Tiles have more unique data
+                NBTTagCompound tile = new NBTTagCompound();
+                tile.setString("text", "Line " + i);
+                tile.setLong("seed", rand.nextLong());
+                tile.setTag("item", genRandomItem(rand));
+                state.setTag("tile", tile);
+            }
+            palette.appendTag(state);
+        }
+
+        NBTTagList data = new NBTTagList();
+        for (int i = 0; i < blocks; i++) {
+            int index = rand.nextInt(4) == 0 ? 0 : rand.nextInt(paletteSize);
+            data.appendTag(new NBTTagInt(index));
+        }
+
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setTag("palette", palette);
+        nbt.setTag("data", data);
+        nbt.setIntArray("size", new int[] { blocks, 1, 1 });
+        return nbt;
+    }
+
     private static NBTTagCompound genNbt(int bptSize) {
         Random rand = new Random(0x517123);
 
@@ -32,6 +32,19 @@ public class PipeEventBusTester {
         Assert.assertEquals(0, event.targetSpeed, 0.00001);
     }
 
+    @Test
+    public void testHasHandler() {
+        PipeEventBus bus = new PipeEventBus();
+        Assert.assertFalse(bus.hasHandlerFor(PipeEventItem.ModifySpeed.class));
+
+        bus.registerHandler(this);
+        Assert.assertTrue(bus.hasHandlerFor(PipeEventItem.ModifySpeed.class));
+        Assert.assertFalse(bus.hasHandlerFor(PipeEventItem.TryBounce.class));
+
+        bus.unregisterHandler(this);
+        Assert.assertFalse(bus.hasHandlerFor(PipeEventItem.ModifySpeed.class));
+    }
+
     @PipeEventHandler
     public void modifySpeed(PipeEventItem.ModifySpeed event) {
         event.targetSpeed = 1;
@@ -0,0 +1,138 @@
+package buildcraft.test.transport.pipe;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import buildcraft.api.mj.MjAPI;
+
+import buildcraft.transport.pipe.flow.PipeFlowPower;
+
+public class PipeFlowPowerTester {
+    private static final int SECTIONS = 6;
+
+    /** The split from the old PipeFlowPower.onTick, which re-summed the queries of every other face and used
+     * BigInteger for every transfer. */
+    private static void oldSplitPower(long[] internalPower, long[] powerQuery, PipeFlowPower.IPowerSender sender) {
+        for (int face = 0; face < SECTIONS; face++) {
+            if (internalPower[face] > 0) {
+                long totalPowerQuery = 0;
+                for (int face2 = 0; face2 < SECTIONS; face2++) {
+                    if (face != face2) {
+                        totalPowerQuery += powerQuery[face2];
+                    }
+                }
+
+                if (totalPowerQuery > 0) {
+                    long unusedPowerQuery = totalPowerQuery;
+                    for (int face2 = 0; face2 < SECTIONS; face2++) {
+                        if (face == face2) {
+                            continue;
+                        }
+                        if (powerQuery[face2] > 0) {
+                            long watts = Math.min(
+                                BigInteger.valueOf(internalPower[face])
+                                    .multiply(BigInteger.valueOf(powerQuery[face2]))
+                                    .divide(BigInteger.valueOf(unusedPowerQuery))
+                                    .longValue(),
+                                internalPower[face]
+                            );
+                            unusedPowerQuery -= powerQuery[face2];
+                            long leftover = sender.send(face, face2, watts);
+                            internalPower[face] -= watts - leftover;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** The old per-face transfer query: the sum of the queries of every other face. */
+    private static long[] oldTransferQuery(long[] powerQuery) {
+        long[] query = new long[SECTIONS];
+        for (int face = 0; face < SECTIONS; face++) {
+            for (int face2 = 0; face2 < SECTIONS; face2++) {
+                if (face != face2) {
+                    query[face] += powerQuery[face2];
+                }
+            }
+        }
+        return query;
+    }
+
+    /** Receives power on each face up to a fixed limit (or not at all), and records every delivery. */
+    private static class Receivers implements PipeFlowPower.IPowerSender {
+        final long[] space;
+        final List<String> deliveries = new ArrayList<>();
+
+        Receivers(long[] space) {
+            this.space = space.clone();
+        }
+
+        @Override
+        public long send(int from, int to, long microJoules) {
+            long accepted = space[to] < 0 ? 0 : Math.max(0, Math.min(microJoules, space[to]));
+            if (space[to] >= 0) {
+                space[to] -= accepted;
+            }
+            deliveries.add(from + " -> " + to + ": " + microJoules + " (accepted " + accepted + ")");
+            return microJoules - accepted;
+        }
+    }
+
+    private static long randomAmount(Random rand) {
+        switch (rand.nextInt(4)) {
+            case 0:
+                return 0;
+            case 1:
+                return rand.nextInt(1000);
+            case 2:
+                return (long) rand.nextInt(10_000) * MjAPI.MJ;
+            default:
+                // Large enough for the product to overflow a long
+                return (rand.nextLong() >>> 1) >> rand.nextInt(8);
+        }
+    }
+
+    /** Checks that the new split delivers exactly the same power to every face, in the same order, as the old
+     * one. */
+    @Test
+    public void testSplitMatchesOld() {
+        Random rand = new Random(0x5eed);
+        for (int run = 0; run < 100_000; run++) {
+            long[] power = new long[SECTIONS];
+            long[] query = new long[SECTIONS];
+            long[] space = new long[SECTIONS];
+            for (int i = 0; i < SECTIONS; i++) {
+                power[i] = randomAmount(rand);
+                query[i] = randomAmount(rand);
+                // Negative means that there is nothing on that face to receive power
+                space[i] = rand.nextInt(5) == 0 ? -1 : randomAmount(rand);
+            }
+
+            long[] oldPower = power.clone();
+            Receivers oldReceivers = new Receivers(space);
+            oldSplitPower(oldPower, query.clone(), oldReceivers);
+
+            long[] newPower = power.clone();
+            Receivers newReceivers = new Receivers(space);
+            long totalQuery = PipeFlowPower.splitPower(newPower, query.clone(), newReceivers);
+
+            String msg = "power = " + Arrays.toString(power) + ", query = " + Arrays.toString(query) + ", space = "
+                + Arrays.toString(space);
+            Assert.assertEquals(msg, oldReceivers.deliveries, newReceivers.deliveries);
+            Assert.assertArrayEquals(msg, oldPower, newPower);
+            Assert.assertArrayEquals(msg, oldReceivers.space, newReceivers.space);
+
+            long[] oldTransfer = oldTransferQuery(query);
+            for (int i = 0; i < SECTIONS; i++) {
+                Assert.assertEquals(msg, oldTransfer[i], totalQuery - query[i]);
+            }
+        }
+    }
+}